@@ -7,8 +7,24 @@ import com.example.timesheet.model.*;
 import com.example.timesheet.repository.GongSiRepository;
 import com.example.timesheet.repository.XiangMuRepository;
 import com.example.timesheet.repository.YongHuRepository;
+import com.example.timesheet.service.BaoGaoCache;
+import com.example.timesheet.service.BaoGaoDaoChu;
+import com.example.timesheet.service.BaoGaoService;
+import com.example.timesheet.service.DaoRuRenWuService;
+import com.example.timesheet.service.FenXiService;
+import com.example.timesheet.service.ImportService;
 import com.example.timesheet.service.MainService;
 import com.example.timesheet.service.PPResponse;
+import com.example.timesheet.util.CostEngine;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.csv.CsvMapper;
+import com.fasterxml.jackson.dataformat.csv.CsvSchema;
 import io.swagger.annotations.*;
 import lombok.AllArgsConstructor;
 import lombok.Data;
@@ -23,15 +39,25 @@ import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.*;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
+import javax.validation.Validation;
+import javax.validation.Validator;
 import javax.validation.constraints.*;
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.security.Principal;
 import java.time.*;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
 
 import static com.example.timesheet.util.PPUtil.MAX_DATE;
 import static com.example.timesheet.util.PPUtil.MIN_DATE;
+import static com.example.timesheet.util.PPUtil.throwConstraintViolationsAsString;
 
 @Slf4j
 @RestController
@@ -46,6 +72,21 @@ public class MainController {
     @Autowired
     private MainService mainService;
 
+    @Autowired
+    private ImportService importService;
+
+    @Autowired
+    private DaoRuRenWuService daoRuRenWuService;
+
+    @Autowired
+    private BaoGaoService baoGaoService;
+
+    @Autowired
+    private BaoGaoCache baoGaoCache;
+
+    @Autowired
+    private FenXiService fenXiService;
+
     @Autowired
     private GongSiRepository gongSiRepository;
 
@@ -55,6 +96,13 @@ public class MainController {
     @Autowired
     private YongHuRepository yongHuRepository;
 
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private CsvMapper csvMapper = (CsvMapper) new CsvMapper().findAndRegisterModules();
+
+    private Validator validator = Validation.buildDefaultValidatorFactory().getValidator();
+
     // -Admin
 
     @ApiOperation(value = "新建用户", tags = {"Admin", "用户"})
@@ -82,6 +130,7 @@ public class MainController {
         @ApiModelProperty(notes = "小时费用", required = true, position = 3)
         @NotNull
         @DecimalMin(value = "0", inclusive = false)
+        @Digits(integer = 6, fraction = CostEngine.XIAO_SHI_FEI_YONG_SCALE)
         BigDecimal xiaoShiFeiYong;
     }
 
@@ -299,21 +348,42 @@ public class MainController {
         Long yongHuId;
     }
 
-    @ApiOperation(value = "导入用户工作记录", tags = {"Admin", "工作记录"})
+    @ApiOperation(value = "导入用户工作记录", notes = "可带Idempotency-Key请求头, 幂等键按提交人区分, 同一提交人用同一个键重试时跳过已提交的记录; dryRun=true时只检查不写入, 返回所有不合法记录", tags = {"Admin", "工作记录"})
     @RequestMapping(value = "/admin/importYongHuGongZuoJiLu", method = RequestMethod.POST)
     @DtoValid
-    public String importYongHuGongZuoJiLu(@RequestBody ImportYongHuGongZuoJiLuDto dto) {
+    public String importYongHuGongZuoJiLu(Authentication authentication, @RequestBody ImportYongHuGongZuoJiLuDto dto, @RequestHeader(value = "Idempotency-Key", required = false) String miYao, @RequestParam(defaultValue = "false") boolean dryRun) {
+        List<ImportService.JiLu> jiLus = new ArrayList<>();
         for (YongHuGongZuoJiLuDto item : dto.data) {
-            mainService.createGongZuoJiLu(item.yongHuMing,
+            jiLus.add(new ImportService.JiLu(item.yongHuMing,
                     item.xiangMuMingCheng,
                     item.kaiShi,
                     item.jieShu,
-                    item.beiZhu);
+                    item.beiZhu));
         }
 
+        if (dryRun) {
+            return ppResponse.response(yanZhengJieGuo(jiLus, ((YongHu) authentication.getPrincipal()).getId(), miYao));
+        }
+
+        importService.importGongZuoJiLu(jiLus, ((YongHu) authentication.getPrincipal()).getId(), miYao);
+
         return ppResponse.response("ok");
     }
 
+    /**
+     * dryRun的返回: 总数, 不合法记录数和每条不合法记录的结果
+     */
+    private Map<String, Object> yanZhengJieGuo(List<ImportService.JiLu> jiLus, Long tiJiaoRenId, String miYao) {
+        List<ImportService.JieGuo> cuoWus = importService.yanZheng(jiLus, tiJiaoRenId, miYao);
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("zongShu", jiLus.size());
+        result.put("shiBaiShu", cuoWus.size());
+        result.put("cuoWus", cuoWus);
+
+        return result;
+    }
+
     @NoArgsConstructor
     @AllArgsConstructor
     @Data
@@ -343,6 +413,176 @@ public class MainController {
         String beiZhu;
     }
 
+    @ApiOperation(value = "导入用户工作记录(v2)", notes = "按列组织的请求体: yongHuIds, xiangMuIds, kaiShis, jieShus为等长数组, 时间为UTC的epoch秒; 备注去重后放在beiZhus中, beiZhuXuHaos为每条记录的备注在beiZhus中的下标; 检查规则, Idempotency-Key和dryRun同导入用户工作记录", tags = {"Admin", "工作记录"})
+    @RequestMapping(value = "/admin/v2/importYongHuGongZuoJiLu", method = RequestMethod.POST)
+    @DtoValid
+    public String importYongHuGongZuoJiLuV2(Authentication authentication, @RequestBody ImportYongHuGongZuoJiLuV2Dto dto, @RequestHeader(value = "Idempotency-Key", required = false) String miYao, @RequestParam(defaultValue = "false") boolean dryRun) {
+        int size = dto.yongHuIds.length;
+        if (dto.xiangMuIds.length != size || dto.kaiShis.length != size || dto.jieShus.length != size || dto.beiZhuXuHaos.length != size) {
+            throw new PPValidateException("yongHuIds, xiangMuIds, kaiShis, jieShus, beiZhuXuHaos的长度必须相同");
+        }
+
+        List<ImportService.JiLu> jiLus = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            int beiZhuXuHao = dto.beiZhuXuHaos[i];
+            if (beiZhuXuHao < 0 || beiZhuXuHao >= dto.beiZhus.size()) {
+                throw new PPValidateException("第" + (i + 1) + "条记录的beiZhuXuHao超出beiZhus的范围");
+            }
+
+            jiLus.add(ImportService.JiLu.anId(dto.yongHuIds[i],
+                    dto.xiangMuIds[i],
+                    LocalDateTime.ofEpochSecond(dto.kaiShis[i], 0, ZoneOffset.UTC),
+                    LocalDateTime.ofEpochSecond(dto.jieShus[i], 0, ZoneOffset.UTC),
+                    dto.beiZhus.get(beiZhuXuHao)));
+        }
+
+        if (dryRun) {
+            return ppResponse.response(yanZhengJieGuo(jiLus, ((YongHu) authentication.getPrincipal()).getId(), miYao));
+        }
+
+        importService.importGongZuoJiLu(jiLus, ((YongHu) authentication.getPrincipal()).getId(), miYao);
+
+        return ppResponse.response("ok");
+    }
+
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @Data
+    public static class ImportYongHuGongZuoJiLuV2Dto {
+        @NotEmpty
+        long[] yongHuIds;
+
+        @NotNull
+        long[] xiangMuIds;
+
+        @NotNull
+        long[] kaiShis;
+
+        @NotNull
+        long[] jieShus;
+
+        @NotNull
+        List<@NotBlank String> beiZhus;
+
+        @NotNull
+        int[] beiZhuXuHaos;
+    }
+
+    @ApiOperation(value = "流式导入用户工作记录", notes = "请求体为NDJSON(application/x-ndjson)或带表头的CSV(text/csv), 字段同导入用户工作记录; 逐条解析验证, 分块提交, 以NDJSON逐条返回导入结果, 最后一行为汇总; 可带Idempotency-Key请求头, 同导入用户工作记录", tags = {"Admin", "工作记录"})
+    @RequestMapping(value = "/admin/streamImportYongHuGongZuoJiLu", method = RequestMethod.POST)
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public void streamImportYongHuGongZuoJiLu(Authentication authentication, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        streamImport(authentication, request, response, YongHuGongZuoJiLuDto.class, item -> new ImportService.JiLu(item.yongHuMing,
+                item.xiangMuMingCheng,
+                item.kaiShi,
+                item.jieShu,
+                item.beiZhu));
+    }
+
+    /**
+     * 逐条解析验证, 分块导入, 以NDJSON逐条写出导入结果, 最后一行为汇总
+     *
+     * @param tClass 每条记录的类型
+     * @param toJiLu 验证通过的记录转换为导入的工作记录
+     */
+    private <T> void streamImport(Authentication authentication, HttpServletRequest request, HttpServletResponse response, Class<T> tClass, Function<T, ImportService.JiLu> toJiLu) throws IOException {
+        MappingIterator<T> iterator = readValues(request, tClass);
+
+        response.setContentType("application/x-ndjson;charset=UTF-8");
+        SequenceWriter sequenceWriter = objectMapper.writer()
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE)
+                .withRootValueSeparator("\n")
+                .writeValues(response.getOutputStream());
+
+        ImportService.FenKuaiDaoRu fenKuaiDaoRu = importService.fenKuaiDaoRu(jieGuo -> write(sequenceWriter, jieGuo), ((YongHu) authentication.getPrincipal()).getId(), request.getHeader("Idempotency-Key"));
+
+        long hang = 0;
+        try {
+            while (iterator.hasNextValue()) {
+                hang++;
+                try {
+                    T item = iterator.nextValue();
+                    throwConstraintViolationsAsString(validator.validate((Object) item));
+
+                    fenKuaiDaoRu.add(hang, toJiLu.apply(item));
+                } catch (JsonProcessingException e) {
+                    fenKuaiDaoRu.addCuoWu(hang, new PPValidateException(e.getOriginalMessage()));
+                } catch (PPValidateException e) {
+                    fenKuaiDaoRu.addCuoWu(hang, e);
+                }
+            }
+        } catch (JsonProcessingException e) {
+            // 无法继续解析, 之后的内容不再导入
+            fenKuaiDaoRu.addCuoWu(hang, new PPValidateException(e.getOriginalMessage()));
+        }
+
+        fenKuaiDaoRu.finish();
+
+        Map<String, Object> huiZong = new LinkedHashMap<>();
+        huiZong.put("code", "1");
+        huiZong.put("zongShu", fenKuaiDaoRu.getChengGongShu() + fenKuaiDaoRu.getShiBaiShu());
+        huiZong.put("chengGongShu", fenKuaiDaoRu.getChengGongShu());
+        huiZong.put("shiBaiShu", fenKuaiDaoRu.getShiBaiShu());
+        write(sequenceWriter, huiZong);
+
+        sequenceWriter.close();
+    }
+
+    /**
+     * 根据Content-Type逐条读取NDJSON或带表头的CSV
+     */
+    private <T> MappingIterator<T> readValues(HttpServletRequest request, Class<T> tClass) throws IOException {
+        String contentType = request.getContentType();
+
+        if (contentType != null && contentType.startsWith("text/csv")) {
+            return csvMapper.readerFor(tClass).with(CsvSchema.emptySchema().withHeader()).readValues(request.getInputStream());
+        }
+
+        return objectMapper.readerFor(tClass).readValues(request.getInputStream());
+    }
+
+    private void write(SequenceWriter sequenceWriter, Object value) {
+        try {
+            sequenceWriter.write(value);
+        } catch (IOException e) {
+            throw new PPValidateException(e.getMessage());
+        }
+    }
+
+    @ApiOperation(value = "提交导入任务", notes = "请求体同导入用户工作记录, 任务在后台分块执行, 返回任务id", tags = {"Admin", "工作记录"})
+    @RequestMapping(value = "/admin/importJobs", method = RequestMethod.POST)
+    @DtoValid
+    public String submitImportJob(@RequestBody ImportYongHuGongZuoJiLuDto dto) {
+        List<ImportService.JiLu> jiLus = new ArrayList<>();
+        for (YongHuGongZuoJiLuDto item : dto.data) {
+            jiLus.add(new ImportService.JiLu(item.yongHuMing,
+                    item.xiangMuMingCheng,
+                    item.kaiShi,
+                    item.jieShu,
+                    item.beiZhu));
+        }
+
+        DaoRuRenWu daoRuRenWu = daoRuRenWuService.submit(jiLus);
+
+        return ppResponse.response(daoRuRenWu);
+    }
+
+    @ApiOperation(value = "查询导入任务进度", tags = {"Admin", "工作记录"})
+    @RequestMapping(value = "/admin/importJobs/{id}", method = RequestMethod.GET)
+    @DtoValid
+    public String gainImportJob(@PathVariable Long id) {
+        return ppResponse.response(daoRuRenWuService.gainJinDu(id));
+    }
+
+    @ApiOperation(value = "取消导入任务", notes = "已提交的块保留", tags = {"Admin", "工作记录"})
+    @RequestMapping(value = "/admin/importJobs/{id}/cancel", method = RequestMethod.POST)
+    @DtoValid
+    public String cancelImportJob(@PathVariable Long id) {
+        daoRuRenWuService.cancel(id);
+
+        return ppResponse.response("ok");
+    }
+
     @ApiOperation(value = "删除工作记录", tags = {"Admin", "工作记录"})
     @RequestMapping(value = "/admin/deleteYongHuGongZuoJiLu/{id}", method = RequestMethod.DELETE)
     @DtoValid
@@ -386,8 +626,7 @@ public class MainController {
         return ppResponse.response("ok");
     }
 
-    // todo 测试案例
-    @ApiOperation(value = "查询工作记录", tags = {"Admin", "支付"})
+    @ApiOperation(value = "查询工作记录", notes = "按(开始时间, id)排序, 按游标分页; 返回{gongZuoJiLus, xiaYiYe}, 不再直接返回工作记录数组; 不再支持page参数, 把返回的xiaYiYe作为下一页的youBiao, 为null时没有下一页; 带gongSiId时经项目关联公司, 每页要先取出该公司各项目在游标之后的记录再排序, 代价随这些记录的条数增长, 不带gongSiId时任何一页的代价都与第一页相同", tags = {"Admin", "支付"})
     @RequestMapping(value = "/admin/queryGongZuoJiLu", method = RequestMethod.GET)
     @DtoValid
     public String queryGongZuoJiLu(AdminQueryGongZuoJiLuDto dto) {
@@ -403,13 +642,9 @@ public class MainController {
             dto.size = 50;
         }
 
-        if (dto.page == null) {
-            dto.page = 0;
-        }
-
-        List<GongZuoJiLu> gongZuoJiLus = mainService.queryGongZuoJiLu(dto.yongHuId, dto.gongSiId, dto.kaiShi.atStartOfDay(), dto.jieShu.plusDays(1).atStartOfDay(), dto.size, dto.page);
+        MainService.GongZuoJiLuYe gongZuoJiLuYe = mainService.queryGongZuoJiLu(dto.yongHuId, dto.gongSiId, dto.kaiShi.atStartOfDay(), dto.jieShu.plusDays(1).atStartOfDay(), dto.size, dto.youBiao);
 
-        return ppResponse.response(gongZuoJiLus);
+        return ppResponse.response(gongZuoJiLuYe);
     }
 
     @NoArgsConstructor
@@ -426,34 +661,245 @@ public class MainController {
         @DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
         LocalDate jieShu;
 
-        @Min(0)
+        @Min(1)
         @Max(200)
         Integer size;
 
-        @Min(0)
-        Integer page;
+        /**
+         * 上一页返回的xiaYiYe, 第一页为空
+         */
+        String youBiao;
     }
 
-    @ApiOperation(value = "生成报告", notes = "成功生成报告后, 把对应公司的结算日设置为报告结束日期", tags = {"Admin", "报告"})
+    @ApiOperation(value = "生成报告", notes = "成功生成报告后, 把对应公司的结算日设置为报告结束日期; 只查看报告请用预览报告", tags = {"Admin", "报告"})
     @RequestMapping(value = "/admin/generateBaoGao", method = RequestMethod.POST)
     @DtoValid
     public String generateBaoGao(@RequestBody GenerateBaoGaoDto dto) {
-        JSONObject report;
+        String report;
 
         try {
-            report = mainService.generateBaoGao(dto.gongSiId, dto.kaiShi, dto.jieShu);
+            report = mainService.generateBaoGaoJson(dto.gongSiId, dto.kaiShi, dto.jieShu);
         } catch (Exception e) {
             throw new PPValidateException(e.getMessage());
         }
 
-        // -成功生成报告后, 对应公司的结算日如小于报告结束日期, 则设置结算日为报告结束日期
-        GongSi gongSi = mainService.gainEntityWithExistsChecking(GongSi.class, dto.gongSiId);
-        if (gongSi.getJieSuanRi().isBefore(dto.jieShu)) {
-            gongSi.setJieSuanRi(dto.jieShu);
+        mainService.baoGaoJieSuan(dto.gongSiId, dto.jieShu);
+
+        return ppResponse.responseJson(report);
+    }
+
+    @ApiOperation(value = "预览报告", notes = "返回内容同生成报告, 不设置结算日; 在只读事务中执行, 不做脏检查也不加写锁, 可以并发预览", tags = {"Admin", "报告"})
+    @RequestMapping(value = "/admin/previewBaoGao", method = RequestMethod.POST)
+    @DtoValid
+    @Transactional(propagation = Propagation.REQUIRES_NEW, readOnly = true)
+    public String previewBaoGao(@RequestBody GenerateBaoGaoDto dto) {
+        String report;
+
+        try {
+            report = mainService.generateBaoGaoJson(dto.gongSiId, dto.kaiShi, dto.jieShu);
+        } catch (Exception e) {
+            throw new PPValidateException(e.getMessage());
         }
-        // -
 
-        return ppResponse.response(report);
+        return ppResponse.responseJson(report);
+    }
+
+    @ApiOperation(value = "报告摘要", notes = "期初, 期末Balance, 充值合计和按项目, 按人员的条数, 耗时, 费用合计, 不含消费记录; 从台账汇总, 不等待消费记录; 不设置结算日", tags = {"Admin", "报告"})
+    @RequestMapping(value = "/admin/baoGaoZhaiYao", method = RequestMethod.POST)
+    @DtoValid
+    @Transactional(propagation = Propagation.REQUIRES_NEW, readOnly = true)
+    public String baoGaoZhaiYao(@RequestBody GenerateBaoGaoDto dto) {
+        JSONObject zhaiYao;
+
+        try {
+            zhaiYao = mainService.generateBaoGaoZhaiYao(dto.gongSiId, dto.kaiShi, dto.jieShu);
+        } catch (Exception e) {
+            throw new PPValidateException(e.getMessage());
+        }
+
+        return ppResponse.response(zhaiYao);
+    }
+
+    @ApiOperation(value = "报告消费记录(分页)", notes = "与生成报告, 预览报告使用同一个缓存, 按游标分页; 第一页不传youBiao, 之后传上一页返回的下一页, 没有下一页时为null; 报告内容在两页之间变化时报错, 需从第一页重新读取", tags = {"Admin", "报告"})
+    @RequestMapping(value = "/admin/baoGaoXiaoFeiJiLu", method = RequestMethod.POST)
+    @DtoValid
+    @Transactional(propagation = Propagation.REQUIRES_NEW, readOnly = true)
+    public String baoGaoXiaoFeiJiLu(@RequestBody BaoGaoXiaoFeiJiLuDto dto) {
+        if (dto.size == null) {
+            dto.size = 100;
+        }
+
+        JSONObject ye;
+
+        try {
+            ye = mainService.gainBaoGaoXiaoFeiJiLu(dto.gongSiId, dto.kaiShi, dto.jieShu, dto.youBiao, dto.size);
+        } catch (Exception e) {
+            throw new PPValidateException(e.getMessage());
+        }
+
+        return ppResponse.response(ye);
+    }
+
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @Data
+    public static class BaoGaoXiaoFeiJiLuDto {
+        @NotNull
+        Long gongSiId;
+
+        @NotNull
+        LocalDate kaiShi;
+
+        @NotNull
+        LocalDate jieShu;
+
+        String youBiao;
+
+        @Min(1)
+        @Max(1000)
+        Integer size;
+    }
+
+    @ApiOperation(value = "结算",notes = "结算日早于指定日期时推进到指定日期并写入结算快照; 结算日之前有工作记录没有找到计费标准时不能结算", tags = {"Admin", "报告"})
+    @RequestMapping(value = "/admin/jieSuan", method = RequestMethod.POST)
+    @DtoValid
+    public String jieSuan(@RequestBody JieSuanDto dto) {
+        mainService.jieSuan(dto.gongSiId, dto.jieSuanRi);
+
+        return ppResponse.response("ok");
+    }
+
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @Data
+    public static class JieSuanDto {
+        @NotNull
+        Long gongSiId;
+
+        @NotNull
+        LocalDate jieSuanRi;
+    }
+
+    @ApiOperation(value = "生成报告(流式)", notes = "返回内容同生成报告, 边查询边写出, 内存占用与消费记录条数无关; 不设置结算日, 完整收到报告后再调用结算", tags = {"Admin", "报告"})
+    @RequestMapping(value = "/admin/streamGenerateBaoGao", method = RequestMethod.POST)
+    @DtoValid
+    @Transactional(propagation = Propagation.REQUIRES_NEW, readOnly = true)
+    public void streamGenerateBaoGao(@RequestBody GenerateBaoGaoDto dto, HttpServletResponse response) throws IOException {
+        try {
+            baoGaoService.checkBaoGao(dto.gongSiId, dto.kaiShi, dto.jieShu);
+        } catch (Exception e) {
+            throw new PPValidateException(e.getMessage());
+        }
+
+        // 写出中途失败或客户端断开时不能已经结算, 所以这里不结算, 由客户端收到报告后调用/admin/jieSuan
+        response.setContentType("application/json;charset=UTF-8");
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(response.getOutputStream(), JsonEncoding.UTF8)) {
+            // 检查已经完成, 之后只有写出的IO错误
+            baoGaoService.writeBaoGao(dto.gongSiId, dto.kaiShi, dto.jieShu, generator);
+        }
+    }
+
+    @ApiOperation(value = "导出报告", notes = "format为csv或xlsx; 列同生成报告的消费记录, 另有期初, 期末Balance和充值记录(xlsx在余额工作表中); 边查询边写出, 内存占用与消费记录条数无关; 不设置结算日", tags = {"Admin", "报告"})
+    @RequestMapping(value = "/admin/baoGao/export", method = RequestMethod.GET)
+    @DtoValid
+    @Transactional(propagation = Propagation.REQUIRES_NEW, readOnly = true)
+    public void exportBaoGao(ExportBaoGaoDto dto, HttpServletResponse response) throws IOException {
+        boolean xlsx = "xlsx".equals(dto.format);
+
+        response.setContentType(xlsx ? "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet" : "text/csv;charset=UTF-8");
+        response.setHeader("Content-Disposition", "attachment; filename=\"baoGao-" + dto.gongSiId + "-" + dto.kaiShi + "_" + dto.jieShu + "." + dto.format + "\"");
+
+        try (BaoGaoDaoChu daoChu = xlsx ? new BaoGaoDaoChu.Xlsx(response.getOutputStream()) : new BaoGaoDaoChu.Csv(response.getOutputStream())) {
+            baoGaoService.exportBaoGao(dto.gongSiId, dto.kaiShi, dto.jieShu, daoChu);
+        } catch (RuntimeException e) {
+            // 检查出错时还没有写出, 去掉下载的响应头, 照常返回错误信息
+            if (!response.isCommitted()) {
+                response.reset();
+            }
+
+            throw e;
+        }
+    }
+
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @Data
+    public static class ExportBaoGaoDto {
+        @NotNull
+        Long gongSiId;
+
+        @NotNull
+        @DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+        LocalDate kaiShi;
+
+        @NotNull
+        @DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+        LocalDate jieShu;
+
+        @NotNull
+        @Pattern(regexp = "csv|xlsx")
+        String format;
+    }
+
+    @ApiOperation(value = "批量生成报告", notes = "一次读取所有公司的工作记录, 为每个公司写出一个报告文件, 返回每个公司的条数和耗时; 成功生成报告的公司设置结算日", tags = {"Admin", "报告"})
+    @RequestMapping(value = "/admin/batchGenerateBaoGao", method = RequestMethod.POST)
+    @DtoValid
+    public String batchGenerateBaoGao(@RequestBody BatchGenerateBaoGaoDto dto) throws IOException {
+        BaoGaoService.PiLiangJieGuo jieGuo = baoGaoService.writePiLiangBaoGao(dto.kaiShi, dto.jieShu);
+
+        for (BaoGaoService.GongSiJieGuo gongSiJieGuo : jieGuo.getGongSis()) {
+            if (gongSiJieGuo.getCuoWu() == null) {
+                mainService.jieSuan(gongSiJieGuo.getGongSiId(), dto.jieShu);
+            }
+        }
+
+        return ppResponse.response(jieGuo);
+    }
+
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @Data
+    public static class BatchGenerateBaoGaoDto {
+        @NotNull
+        LocalDate kaiShi;
+
+        @NotNull
+        LocalDate jieShu;
+    }
+
+    @ApiOperation(value = "工时和费用分析", notes = "按周期(RI, ZHOU, YUE)和维度(YONG_HU, XIANG_MU, GONG_SI)汇总工作记录条数, 耗时和费用; 按日从每日费用台账汇总, 按周, 按月从周期台账汇总, 只有两端不完整的周期读取每日台账, 与工作记录条数无关; 结束日期包含在内; gongSiId为空时不限公司", tags = {"Admin", "报告"})
+    @RequestMapping(value = "/admin/fenXi", method = RequestMethod.GET)
+    @DtoValid
+    @Transactional(propagation = Propagation.REQUIRES_NEW, readOnly = true)
+    public String fenXi(FenXiDto dto) {
+        return ppResponse.response(fenXiService.fenXi(dto.kaiShi, dto.jieShu, dto.zhouQi, dto.weiDu, dto.gongSiId));
+    }
+
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @Data
+    public static class FenXiDto {
+        @NotNull
+        @DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+        LocalDate kaiShi;
+
+        @NotNull
+        @DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+        LocalDate jieShu;
+
+        @NotNull
+        FenXiService.ZhouQi zhouQi;
+
+        @NotNull
+        FenXiService.WeiDu weiDu;
+
+        Long gongSiId;
+    }
+
+    @ApiOperation(value = "报告缓存统计", notes = "命中, 未命中, 淘汰次数和当前大小", tags = {"Admin", "报告"})
+    @RequestMapping(value = "/admin/baoGaoCache", method = RequestMethod.GET)
+    public String gainBaoGaoCache() {
+        return ppResponse.response(baoGaoCache.gainTongJi());
     }
 
     @NoArgsConstructor
@@ -491,23 +937,43 @@ public class MainController {
         String password;
     }
 
-    @ApiOperation(value = "导入本人工作记录", tags = {"用户"})
+    @ApiOperation(value = "导入本人工作记录", notes = "可带Idempotency-Key请求头, 幂等键按提交人区分, 同一提交人用同一个键重试时跳过已提交的记录; dryRun=true时只检查不写入, 返回所有不合法记录", tags = {"用户"})
     @RequestMapping(value = "/importGongZuoJiLu", method = RequestMethod.POST)
     @DtoValid
-    public String importGongZuoJiLu(Authentication authentication, @RequestBody ImportGongZuoJiLuDto dto) {
-        for (GongZuoJiLuDto item : dto.data) {
-            String yongHuMing = ((YongHu) authentication.getPrincipal()).getYongHuMing();
+    public String importGongZuoJiLu(Authentication authentication, @RequestBody ImportGongZuoJiLuDto dto, @RequestHeader(value = "Idempotency-Key", required = false) String miYao, @RequestParam(defaultValue = "false") boolean dryRun) {
+        String yongHuMing = ((YongHu) authentication.getPrincipal()).getYongHuMing();
 
-            mainService.createGongZuoJiLu(yongHuMing,
+        List<ImportService.JiLu> jiLus = new ArrayList<>();
+        for (GongZuoJiLuDto item : dto.data) {
+            jiLus.add(new ImportService.JiLu(yongHuMing,
                     item.xiangMuMingCheng,
                     item.kaiShi,
                     item.jieShu,
-                    item.beiZhu);
+                    item.beiZhu));
+        }
+
+        if (dryRun) {
+            return ppResponse.response(yanZhengJieGuo(jiLus, ((YongHu) authentication.getPrincipal()).getId(), miYao));
         }
 
+        importService.importGongZuoJiLu(jiLus, ((YongHu) authentication.getPrincipal()).getId(), miYao);
+
         return ppResponse.response("ok");
     }
 
+    @ApiOperation(value = "流式导入本人工作记录", notes = "请求体为NDJSON(application/x-ndjson)或带表头的CSV(text/csv), 字段同导入本人工作记录的data; 其余同流式导入用户工作记录", tags = {"用户"})
+    @RequestMapping(value = "/streamImportGongZuoJiLu", method = RequestMethod.POST)
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public void streamImportGongZuoJiLu(Authentication authentication, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String yongHuMing = ((YongHu) authentication.getPrincipal()).getYongHuMing();
+
+        streamImport(authentication, request, response, GongZuoJiLuDto.class, item -> new ImportService.JiLu(yongHuMing,
+                item.xiangMuMingCheng,
+                item.kaiShi,
+                item.jieShu,
+                item.beiZhu));
+    }
+
     @NoArgsConstructor
     @AllArgsConstructor
     @Data
@@ -550,7 +1016,7 @@ public class MainController {
         return ppResponse.response("ok");
     }
 
-    @ApiOperation(value = "查询自己的工作记录", tags = {"用户"})
+    @ApiOperation(value = "查询自己的工作记录", notes = "按(开始时间, id)排序, 按游标分页; 返回{gongZuoJiLus, xiaYiYe}, 不再直接返回工作记录数组; 不再支持page参数, 把返回的xiaYiYe作为下一页的youBiao, 为null时没有下一页", tags = {"用户"})
     @RequestMapping(value = "/queryGongZuoJiLu", method = RequestMethod.POST)
     @DtoValid
     public String queryGongZuoJiLu(Authentication authentication, @RequestBody QueryGongZuoJiLuDto dto) {
@@ -568,13 +1034,9 @@ public class MainController {
             dto.size = 50;
         }
 
-        if (dto.page == null) {
-            dto.page = 0;
-        }
-
-        List<GongZuoJiLu> gongZuoJiLus = mainService.queryGongZuoJiLu(yongHuId, dto.kaiShi.atStartOfDay(), dto.jieShu.plusDays(1).atStartOfDay(), dto.size, dto.page);
+        MainService.GongZuoJiLuYe gongZuoJiLuYe = mainService.queryGongZuoJiLu(yongHuId, dto.kaiShi.atStartOfDay(), dto.jieShu.plusDays(1).atStartOfDay(), dto.size, dto.youBiao);
 
-        return ppResponse.response(gongZuoJiLus);
+        return ppResponse.response(gongZuoJiLuYe);
     }
 
     @NoArgsConstructor
@@ -585,11 +1047,13 @@ public class MainController {
 
         LocalDate jieShu;
 
-        @Min(0)
+        @Min(1)
         @Max(200)
         Integer size;
 
-        @Min(0)
-        Integer page;
+        /**
+         * 上一页返回的xiaYiYe, 第一页为空
+         */
+        String youBiao;
     }
 }
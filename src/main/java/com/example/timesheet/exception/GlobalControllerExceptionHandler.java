@@ -1,5 +1,7 @@
 package com.example.timesheet.exception;
 
+import lombok.AllArgsConstructor;
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -14,8 +16,6 @@ import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.ResponseStatus;
 
 import javax.servlet.http.HttpServletRequest;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.NoSuchElementException;
 
 @Slf4j
@@ -25,42 +25,66 @@ public class GlobalControllerExceptionHandler {
     @ExceptionHandler(Exception.class)
     @ResponseBody
     public String handleBadRequest(HttpServletRequest req, Exception ex) throws JSONException {
+        CuoWu cuoWu = gainCuoWu(ex);
+
         JSONObject jsonObject = new JSONObject();
+        jsonObject.put("code", cuoWu.getCode());
+        jsonObject.put("message", cuoWu.getMessage());
+
+        return jsonObject.toString();
+    }
+
+    /**
+     * 异常对应的结果代码和信息
+     * <p>
+     * 不经过本类返回的错误(如逐条返回的导入结果)也用这里的代码, 见ImportService.JieGuo
+     */
+    public static CuoWu gainCuoWu(Exception ex) {
+        String code;
         String customMessage = null;
 
         if (ex instanceof PPBusinessException) {
-            jsonObject.put("code", "1000");
+            code = "1000";
         } else if (ex instanceof PPDeleteReferenceException) {
-            jsonObject.put("code", "2000");
+            code = "2000";
         } else if (ex instanceof PPDuplicateException || ex instanceof DataIntegrityViolationException) {
             if (ex instanceof PPDuplicateException) {
-                jsonObject.put("code", "3000");
+                code = "3000";
             } else {
                 if (ex.getMessage().contains("constraint") && ex.getMessage().contains("UK")) {
-                    jsonObject.put("code", "3000");
+                    code = "3000";
                     customMessage = "违反唯一约束!";
                 } else if (ex.getCause().getCause().getMessage().contains("FOREIGN KEY")) {
-                    jsonObject.put("code", "3500");
+                    code = "3500";
                     customMessage = "被引用, 不可被删除!";
                 } else {
-                    jsonObject.put("code", "10000");
+                    code = "10000";
                 }
             }
 
 
         } else if (ex instanceof PPValidateException || ex instanceof HttpMessageNotReadableException) {
-            jsonObject.put("code", "4000");
+            code = "4000";
         } else if (ex instanceof NoSuchElementException
                 || ex instanceof EmptyResultDataAccessException
                 || ex instanceof UsernameNotFoundException
                 || ex instanceof PPItemNotExistException) {
-            jsonObject.put("code", "5000");
+            code = "5000";
         } else {
-            jsonObject.put("code", "10000");
+            code = "10000";
         }
 
-        jsonObject.put("message", customMessage == null ? ex.getMessage() : customMessage);
+        return new CuoWu(code, customMessage == null ? ex.getMessage() : customMessage);
+    }
+
+    /**
+     * 结果代码和信息
+     */
+    @AllArgsConstructor
+    @Getter
+    public static class CuoWu {
+        private final String code;
 
-        return jsonObject.toString();
+        private final String message;
     }
 }
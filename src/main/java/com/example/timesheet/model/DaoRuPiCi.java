@@ -0,0 +1,51 @@
+package com.example.timesheet.model;
+
+import com.example.timesheet.validator.PPEntityTypeValidatableAbstract;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+import javax.validation.constraints.NotBlank;
+import javax.validation.constraints.NotNull;
+import java.time.LocalDateTime;
+
+/**
+ * 导入批次
+ * <p>
+ * 客户端用同一个幂等键重试导入时, 已提交的工作记录按自然键哈希跳过; 幂等键按提交人区分
+ */
+@Entity
+@Table(uniqueConstraints = @UniqueConstraint(name = "uk_dao_ru_pi_ci_ti_jiao_ren_mi_yao", columnNames = {"ti_jiao_ren_id", "mi_yao"}))
+@NoArgsConstructor
+@AllArgsConstructor
+@Getter
+public class DaoRuPiCi extends PPEntityTypeValidatableAbstract {
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "daoRuPiCiSeq")
+    @SequenceGenerator(name = "daoRuPiCiSeq", sequenceName = "dao_ru_pi_ci_seq", allocationSize = 50)
+    private Long id;
+
+    /**
+     * 提交导入的用户id, 不做外键, 删除用户不受导入批次影响
+     */
+    @NotNull
+    private Long tiJiaoRenId;
+
+    /**
+     * 幂等键, 同一提交人内唯一
+     */
+    @NotBlank
+    private String miYao;
+
+    /**
+     * 第一次导入的时间
+     */
+    @NotNull
+    private LocalDateTime chuangJianShiJian;
+
+    @Override
+    public String toString() {
+        return "导入批次: (" + tiJiaoRenId + ", " + miYao + ")";
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.timesheet.model;
+
+import com.example.timesheet.validator.PPEntityTypeValidatableAbstract;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+import javax.validation.constraints.NotNull;
+import java.time.LocalDateTime;
+
+/**
+ * 导入任务
+ */
+@Entity
+@NoArgsConstructor
+@AllArgsConstructor
+@Getter
+public class DaoRuRenWu extends PPEntityTypeValidatableAbstract {
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "daoRuRenWuSeq")
+    @SequenceGenerator(name = "daoRuRenWuSeq", sequenceName = "dao_ru_ren_wu_seq", allocationSize = 50)
+    private Long id;
+
+    /**
+     * 状态
+     */
+    @NotNull
+    @Enumerated(EnumType.STRING)
+    private ZhuangTai zhuangTai;
+
+    /**
+     * 待导入的工作记录, JSON数组
+     */
+    @NotNull
+    @Lob
+    @JsonIgnore
+    private String shuJu;
+
+    /**
+     * 记录总数
+     */
+    @NotNull
+    private Long zongShu;
+
+    /**
+     * 已提交的最后一条记录的序号, 中断后从下一条继续
+     */
+    @NotNull
+    private Long yiTiJiaoHang;
+
+    /**
+     * 累计成功数
+     */
+    @NotNull
+    private Long chengGongShu;
+
+    /**
+     * 累计失败数
+     */
+    @NotNull
+    private Long shiBaiShu;
+
+    /**
+     * 每块提交的记录数, 提交时确定, 继续执行时块的边界不变
+     */
+    @NotNull
+    private Integer kuaiDaXiao;
+
+    /**
+     * 到最后提交的块为止累计的执行毫秒数, 跨重启累加, 与yiTiJiaoHang一起算出每秒处理行数
+     */
+    @NotNull
+    private Long haoShiHaoMiao;
+
+    /**
+     * 提交时间
+     */
+    @NotNull
+    private LocalDateTime tiJiaoShiJian;
+
+    /**
+     * 结束时间
+     */
+    private LocalDateTime jieShuShiJian;
+
+    /**
+     * 任务失败原因
+     */
+    @Column(length = 2000)
+    private String cuoWu;
+
+    /**
+     * 导入任务状态
+     */
+    public enum ZhuangTai {
+        /**
+         * 等待执行
+         */
+        DENG_DAI,
+        /**
+         * 执行中
+         */
+        YUN_XING,
+        /**
+         * 已完成
+         */
+        WAN_CHENG,
+        /**
+         * 已取消
+         */
+        QU_XIAO,
+        /**
+         * 任务失败
+         */
+        SHI_BAI
+    }
+
+    @Override
+    public String toString() {
+        return "导入任务: (" + id + ", " + zhuangTai + ", " + yiTiJiaoHang + "/" + zongShu + ")";
+    }
+}
@@ -10,7 +10,9 @@ import lombok.Setter;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.SequenceGenerator;
 import javax.validation.constraints.NotBlank;
 import javax.validation.constraints.NotEmpty;
 import java.time.LocalDate;
@@ -25,7 +27,8 @@ import java.time.LocalDateTime;
 @Getter
 public class GongSi extends PPEntityTypeValidatableAbstract {
     @Id
-    @GeneratedValue
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "gongSiSeq")
+    @SequenceGenerator(name = "gongSiSeq", sequenceName = "gong_si_seq", allocationSize = 50)
     private Long id;
 
     /**
@@ -21,12 +21,24 @@ import java.time.LocalDateTime;
  * 工作记录
  */
 @Entity
+@Table(indexes = {
+        // 缓存未就绪时重叠检查回退到SQL用
+        @Index(name = "idx_gong_zuo_ji_lu_yong_hu_jie_shu", columnList = "yong_hu_id, jie_shu"),
+        // 重试导入时查找已提交的记录用
+        @Index(name = "idx_gong_zuo_ji_lu_dao_ru_pi_ci_hash", columnList = "dao_ru_pi_ci_id, zi_ran_jian_hash"),
+        // 查询工作记录按(开始时间, id)分页用
+        @Index(name = "idx_gong_zuo_ji_lu_kai_shi_id", columnList = "kai_shi, id"),
+        @Index(name = "idx_gong_zuo_ji_lu_yong_hu_kai_shi_id", columnList = "yong_hu_id, kai_shi, id"),
+        // 按公司查询时经项目关联, 每个项目按(开始时间, id)范围查找
+        @Index(name = "idx_gong_zuo_ji_lu_xiang_mu_kai_shi_id", columnList = "xiang_mu_id, kai_shi, id")
+})
 @NoArgsConstructor
 @AllArgsConstructor
 @Getter
 public class GongZuoJiLu extends PPEntityTypeValidatableAbstract {
     @Id
-    @GeneratedValue
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "gongZuoJiLuSeq")
+    @SequenceGenerator(name = "gongZuoJiLuSeq", sequenceName = "gong_zuo_ji_lu_seq", allocationSize = 50)
     private Long id;
 
     /**
@@ -73,6 +85,20 @@ public class GongZuoJiLu extends PPEntityTypeValidatableAbstract {
     @NotBlank
     private String beiZhu;
 
+    /**
+     * 拆分前原始记录的自然键(用户, 项目, 开始时间, 结束时间)的哈希, 拆分出的各条记录相同
+     */
+    @JsonIgnore
+    @Column(length = 64)
+    private String ziRanJianHash;
+
+    /**
+     * 带幂等键导入时所属的导入批次
+     */
+    @ManyToOne
+    @JsonIgnore
+    private DaoRuPiCi daoRuPiCi;
+
     /**
      * 验证
      * <p>
@@ -1,5 +1,6 @@
 package com.example.timesheet.model;
 
+import com.example.timesheet.util.CostEngine;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
@@ -7,6 +8,7 @@ import lombok.NoArgsConstructor;
 import javax.persistence.Embeddable;
 import javax.persistence.ManyToOne;
 import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Digits;
 import javax.validation.constraints.NotNull;
 import javax.validation.constraints.Positive;
 import java.math.BigDecimal;
@@ -38,6 +40,7 @@ public class JiFeiBiaoZhun {
      */
     @NotNull
     @DecimalMin(value = "0", inclusive = false)
+    @Digits(integer = 6, fraction = CostEngine.XIAO_SHI_FEI_YONG_SCALE)
     private BigDecimal xiaoShiFeiYong;
 
     @Override
@@ -0,0 +1,77 @@
+package com.example.timesheet.model;
+
+import com.example.timesheet.validator.PPEntityTypeValidatableAbstract;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+import javax.validation.constraints.NotNull;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * 结算快照
+ * <p>
+ * 1) 公司结算日推进时写入, 记录截至结算日(包含)的费用总额, 支付总额和余额<br>
+ * 2) 结算日及之前的工作记录, 支付和计费标准都不允许修改, 快照之后不会变化<br>
+ * 3) 生成报告时从开始日期之前最近的快照算起, 只汇总快照之后的台账和支付
+ */
+@Entity
+@Table(uniqueConstraints = @UniqueConstraint(name = "uk_jie_suan_kuai_zhao_gong_si_jie_suan_ri", columnNames = {"gong_si_id", "jie_suan_ri"}))
+@NoArgsConstructor
+@AllArgsConstructor
+@Getter
+public class JieSuanKuaiZhao extends PPEntityTypeValidatableAbstract {
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "jieSuanKuaiZhaoSeq")
+    @SequenceGenerator(name = "jieSuanKuaiZhaoSeq", sequenceName = "jie_suan_kuai_zhao_seq", allocationSize = 50)
+    private Long id;
+
+    /**
+     * 公司
+     */
+    @NotNull
+    @ManyToOne(optional = false)
+    @JsonIgnore
+    private GongSi gongSi;
+
+    /**
+     * 结算日
+     */
+    @NotNull
+    private LocalDate jieSuanRi;
+
+    /**
+     * 截至结算日的费用总额, CostEngine的费用单位
+     */
+    @NotNull
+    private Long feiYongZongE;
+
+    /**
+     * 截至结算日的支付总额
+     */
+    @NotNull
+    @Column(precision = 38, scale = 20)
+    private BigDecimal zhiFuZongE;
+
+    /**
+     * 结算日的期末余额, 支付总额 - 费用总额
+     */
+    @NotNull
+    @Column(precision = 38, scale = 20)
+    private BigDecimal yuE;
+
+    /**
+     * 写入时间
+     */
+    @NotNull
+    private LocalDateTime chuangJianShiJian;
+
+    @Override
+    public String toString() {
+        return "结算快照: (" + gongSi.getMingCheng() + ", " + jieSuanRi + ")";
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.timesheet.model;
+
+import com.example.timesheet.validator.PPEntityTypeValidatableAbstract;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import javax.persistence.*;
+import javax.validation.constraints.NotNull;
+import java.time.LocalDate;
+
+/**
+ * 每日费用台账
+ * <p>
+ * 1) 每个(项目, 用户, 日期)一行, 日期为工作记录开始时间所在的日期, 与报告一致<br>
+ * 2) 与工作记录的新建, 删除和计费标准的修改在同一事务中增量更新, 见RiZhangService<br>
+ * 3) 没有适用的计费标准时feiYong为null, 生成报告时报错
+ */
+@Entity
+@Table(
+        uniqueConstraints = @UniqueConstraint(name = "uk_ri_zhang_xiang_mu_yong_hu_ri_qi", columnNames = {"xiang_mu_id", "yong_hu_id", "ri_qi"}),
+        indexes = {
+                // 按公司汇总期初费用用
+                @Index(name = "idx_ri_zhang_gong_si_ri_qi", columnList = "gong_si_id, ri_qi"),
+                // 不限公司的分析用
+                @Index(name = "idx_ri_zhang_ri_qi", columnList = "ri_qi")
+        }
+)
+@NoArgsConstructor
+@AllArgsConstructor
+@Getter
+public class RiZhang extends PPEntityTypeValidatableAbstract {
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "riZhangSeq")
+    @SequenceGenerator(name = "riZhangSeq", sequenceName = "ri_zhang_seq", allocationSize = 50)
+    private Long id;
+
+    /**
+     * 项目所属公司
+     */
+    @NotNull
+    @ManyToOne(optional = false)
+    @JsonIgnore
+    private GongSi gongSi;
+
+    /**
+     * 项目
+     */
+    @NotNull
+    @ManyToOne(optional = false)
+    @JsonIgnore
+    private XiangMu xiangMu;
+
+    /**
+     * 用户
+     */
+    @NotNull
+    @ManyToOne(optional = false)
+    @JsonIgnore
+    private YongHu yongHu;
+
+    /**
+     * 日期
+     */
+    @NotNull
+    private LocalDate riQi;
+
+    /**
+     * 工作记录条数, 减到0时删除本行
+     */
+    private int tiaoShu;
+
+    /**
+     * 耗时(秒)
+     */
+    private long miaoShu;
+
+    /**
+     * 费用, CostEngine的费用单位
+     */
+    @Setter
+    private Long feiYong;
+
+    @Override
+    public String toString() {
+        return "台账: (" + xiangMu.getMingCheng() + ", " + yongHu.getYongHuMing() + ", " + riQi + ")";
+    }
+}
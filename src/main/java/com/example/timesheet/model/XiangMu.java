@@ -27,7 +27,8 @@ import java.util.stream.Collectors;
 @Getter
 public class XiangMu extends PPEntityTypeValidatableAbstract {
     @Id
-    @GeneratedValue
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "xiangMuSeq")
+    @SequenceGenerator(name = "xiangMuSeq", sequenceName = "xiang_mu_seq", allocationSize = 50)
     private Long id;
 
     /**
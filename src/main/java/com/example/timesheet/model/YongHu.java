@@ -1,5 +1,6 @@
 package com.example.timesheet.model;
 
+import com.example.timesheet.util.CostEngine;
 import com.example.timesheet.util.PPUtil;
 import com.example.timesheet.validator.PPEntityTypeValidatableAbstract;
 import com.fasterxml.jackson.annotation.JsonIgnore;
@@ -28,7 +29,8 @@ import java.util.List;
 @Getter
 public class YongHu extends PPEntityTypeValidatableAbstract implements UserDetails {
     @Id
-    @GeneratedValue
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "yongHuSeq")
+    @SequenceGenerator(name = "yongHuSeq", sequenceName = "yong_hu_seq", allocationSize = 50)
     private Long id;
 
     /**
@@ -52,6 +54,7 @@ public class YongHu extends PPEntityTypeValidatableAbstract implements UserDetai
      */
     @NotNull
     @DecimalMin(value = "0", inclusive = false)
+    @Digits(integer = 6, fraction = CostEngine.XIAO_SHI_FEI_YONG_SCALE)
     @Setter
     private BigDecimal xiaoShiFeiYong;
 
@@ -17,12 +17,17 @@ import java.time.LocalDate;
  * 支付
  */
 @Entity
+@Table(indexes = {
+        // 报告按公司和日期范围汇总支付用
+        @Index(name = "idx_zhi_fu_gong_si_ri_qi", columnList = "gong_si_id, ri_qi")
+})
 @NoArgsConstructor
 @AllArgsConstructor
 @Getter
 public class ZhiFu extends PPEntityTypeValidatableAbstract {
     @Id
-    @GeneratedValue
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "zhiFuSeq")
+    @SequenceGenerator(name = "zhiFuSeq", sequenceName = "zhi_fu_seq", allocationSize = 50)
     private Long id;
 
     /**
@@ -0,0 +1,132 @@
+package com.example.timesheet.model;
+
+import com.example.timesheet.validator.PPEntityTypeValidatableAbstract;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+import javax.validation.constraints.NotNull;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.TemporalAdjusters;
+
+/**
+ * 按周, 按月汇总的费用台账
+ * <p>
+ * 1) 每个(项目, 用户, 周期, 周期开始日期)一行, 是同一周或同一月的每日费用台账的合计<br>
+ * 2) 与每日费用台账在同一事务中按增量更新, 见RiZhangService<br>
+ * 3) feiYong只合计有适用计费标准的天, 其余天的工作记录条数计入weiJiFeiTiaoShu
+ */
+@Entity
+@Table(
+        uniqueConstraints = @UniqueConstraint(name = "uk_zhou_qi_zhang_xiang_mu_yong_hu_zhou_qi_qi", columnNames = {"xiang_mu_id", "yong_hu_id", "zhou_qi", "qi"}),
+        indexes = {
+                // 按公司分析用
+                @Index(name = "idx_zhou_qi_zhang_gong_si_zhou_qi_qi", columnList = "gong_si_id, zhou_qi, qi"),
+                // 不限公司的分析用
+                @Index(name = "idx_zhou_qi_zhang_zhou_qi_qi", columnList = "zhou_qi, qi")
+        }
+)
+@NoArgsConstructor
+@AllArgsConstructor
+@Getter
+public class ZhouQiZhang extends PPEntityTypeValidatableAbstract {
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "zhouQiZhangSeq")
+    @SequenceGenerator(name = "zhouQiZhangSeq", sequenceName = "zhou_qi_zhang_seq", allocationSize = 50)
+    private Long id;
+
+    /**
+     * 项目所属公司
+     */
+    @NotNull
+    @ManyToOne(optional = false)
+    @JsonIgnore
+    private GongSi gongSi;
+
+    /**
+     * 项目
+     */
+    @NotNull
+    @ManyToOne(optional = false)
+    @JsonIgnore
+    private XiangMu xiangMu;
+
+    /**
+     * 用户
+     */
+    @NotNull
+    @ManyToOne(optional = false)
+    @JsonIgnore
+    private YongHu yongHu;
+
+    /**
+     * 周期
+     */
+    @NotNull
+    @Enumerated(EnumType.STRING)
+    private ZhouQi zhouQi;
+
+    /**
+     * 周期开始日期, 按周为周一, 按月为1日
+     */
+    @NotNull
+    private LocalDate qi;
+
+    /**
+     * 工作记录条数, 减到0时删除本行
+     */
+    private int tiaoShu;
+
+    /**
+     * 耗时(秒)
+     */
+    private long miaoShu;
+
+    /**
+     * 有适用计费标准的天的费用合计, CostEngine的费用单位
+     */
+    private long feiYong;
+
+    /**
+     * 没有适用计费标准的天的工作记录条数
+     */
+    private int weiJiFeiTiaoShu;
+
+    /**
+     * 台账的汇总周期
+     */
+    public enum ZhouQi {
+        /**
+         * 周, 周一开始
+         */
+        ZHOU,
+        /**
+         * 月
+         */
+        YUE;
+
+        /**
+         * 日期所在周期的开始日期
+         */
+        public LocalDate gainQi(LocalDate riQi) {
+            return this == ZHOU ? riQi.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY)) : riQi.withDayOfMonth(1);
+        }
+
+        /**
+         * 下一个周期的开始日期
+         *
+         * @param qi 周期开始日期
+         */
+        public LocalDate gainXiaYiQi(LocalDate qi) {
+            return this == ZHOU ? qi.plusWeeks(1) : qi.plusMonths(1);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "周期台账: (" + xiangMu.getMingCheng() + ", " + yongHu.getYongHuMing() + ", " + zhouQi + ", " + qi + ")";
+    }
+}
@@ -0,0 +1,8 @@
+package com.example.timesheet.repository;
+
+import com.example.timesheet.model.DaoRuPiCi;
+import org.springframework.data.repository.CrudRepository;
+
+public interface DaoRuPiCiRepository extends CrudRepository<DaoRuPiCi, Long> {
+    DaoRuPiCi findOneByTiJiaoRenIdAndMiYao(Long tiJiaoRenId, String miYao);
+}
@@ -0,0 +1,57 @@
+package com.example.timesheet.repository;
+
+import com.example.timesheet.model.DaoRuRenWu;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+public interface DaoRuRenWuRepository extends CrudRepository<DaoRuRenWu, Long> {
+    /**
+     * 指定状态的导入任务
+     *
+     * @param zhuangTais 状态
+     */
+    List<DaoRuRenWu> findByZhuangTaiInOrderById(Collection<DaoRuRenWu.ZhuangTai> zhuangTais);
+
+    /**
+     * 更新导入进度, 与导入的块在同一个事务中提交
+     *
+     * @param id            导入任务id
+     * @param yiTiJiaoHang  已提交的最后一条记录的序号
+     * @param chengGongShu  累计成功数
+     * @param shiBaiShu     累计失败数
+     * @param haoShiHaoMiao 累计执行毫秒数
+     */
+    @Transactional
+    @Modifying
+    @Query("update DaoRuRenWu r " +
+            "set r.yiTiJiaoHang = :yiTiJiaoHang, " +
+            "r.chengGongShu = :chengGongShu, " +
+            "r.shiBaiShu = :shiBaiShu, " +
+            "r.haoShiHaoMiao = :haoShiHaoMiao " +
+            "where r.id = :id")
+    int updateJinDu(@Param("id") Long id, @Param("yiTiJiaoHang") Long yiTiJiaoHang, @Param("chengGongShu") Long chengGongShu, @Param("shiBaiShu") Long shiBaiShu, @Param("haoShiHaoMiao") Long haoShiHaoMiao);
+
+    /**
+     * 更新导入任务状态
+     *
+     * @param id            导入任务id
+     * @param zhuangTai     状态
+     * @param jieShuShiJian 结束时间, 未结束为null
+     * @param cuoWu         任务失败原因
+     */
+    @Transactional
+    @Modifying
+    @Query("update DaoRuRenWu r " +
+            "set r.zhuangTai = :zhuangTai, " +
+            "r.jieShuShiJian = :jieShuShiJian, " +
+            "r.cuoWu = :cuoWu " +
+            "where r.id = :id")
+    int updateZhuangTai(@Param("id") Long id, @Param("zhuangTai") DaoRuRenWu.ZhuangTai zhuangTai, @Param("jieShuShiJian") LocalDateTime jieShuShiJian, @Param("cuoWu") String cuoWu);
+}
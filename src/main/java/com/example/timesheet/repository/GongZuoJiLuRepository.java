@@ -1,16 +1,23 @@
 package com.example.timesheet.repository;
 
+import com.example.timesheet.model.DaoRuPiCi;
 import com.example.timesheet.model.GongSi;
 import com.example.timesheet.model.GongZuoJiLu;
-import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.data.repository.PagingAndSortingRepository;
 import org.springframework.data.repository.query.Param;
 
+import javax.persistence.QueryHint;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
+import static org.hibernate.jpa.QueryHints.HINT_READONLY;
 
 public interface GongZuoJiLuRepository extends PagingAndSortingRepository<GongZuoJiLu, Long> {
     /**
@@ -63,21 +70,85 @@ public interface GongZuoJiLuRepository extends PagingAndSortingRepository<GongZu
     List<GongZuoJiLu> findGongSiGongZuoJiLu(@Param("gongSiId") Long gongSiId, @Param("kaiShi") LocalDateTime kaiShi, @Param("jieShu") LocalDateTime jieShu);
 
     /**
-     * 指定人员的指定时间段工作记录
+     * 逐条读取指定公司开始时间在一段时间内的工作记录, 流式生成报告用
+     * <p>
+     * 需要在事务中使用并关闭; 同时取出项目和用户, 不再逐条查询; 取出的实体是只读的
      *
-     * @param yongHuId 用户id
-     * @param kaiShi   开始日期时间 大于等于
-     * @param jieShu   结束日期时间 小于
+     * @param gongSiId 公司id
+     * @param kaiShi   开始时间 大于等于
+     * @param jieShu   开始时间 小于
      */
+    @QueryHints({@QueryHint(name = HINT_FETCH_SIZE, value = "500"), @QueryHint(name = HINT_READONLY, value = "true")})
     @Query("select " +
             "g " +
             "from GongZuoJiLu g " +
-            "join g.yongHu y " +
-            "where y.id = :yongHuId " +
+            "join fetch g.xiangMu x " +
+            "join fetch g.yongHu " +
+            "join x.gongSi gs " +
+            "where gs.id = :gongSiId " +
             "and g.kaiShi >= :kaiShi " +
-            "and g.jieShu < :jieShu " +
-            "order by g.xiangMu, g.kaiShi")
-    List<GongZuoJiLu> findYongHuGongZuoJiLu(@Param("yongHuId") Long yongHuId, @Param("kaiShi") LocalDateTime kaiShi, @Param("jieShu") LocalDateTime jieShu, Pageable pageable);
+            "and g.kaiShi < :jieShu " +
+            "order by g.xiangMu, g.kaiShi, g.id")
+    Stream<GongZuoJiLu> streamGongSiGongZuoJiLuAnKaiShi(@Param("gongSiId") Long gongSiId, @Param("kaiShi") LocalDateTime kaiShi, @Param("jieShu") LocalDateTime jieShu);
+
+    /**
+     * 逐条读取所有公司开始时间在一段时间内的工作记录, 批量生成报告用
+     * <p>
+     * 按(公司, 项目, 开始时间)排序, 每个公司内的顺序与streamGongSiGongZuoJiLuAnKaiShi一致;
+     * 需要在事务中使用并关闭; 同时取出项目, 公司和用户, 不再逐条查询; 取出的实体是只读的
+     *
+     * @param kaiShi 开始时间 大于等于
+     * @param jieShu 开始时间 小于
+     */
+    @QueryHints({@QueryHint(name = HINT_FETCH_SIZE, value = "500"), @QueryHint(name = HINT_READONLY, value = "true")})
+    @Query("select " +
+            "g " +
+            "from GongZuoJiLu g " +
+            "join fetch g.xiangMu x " +
+            "join fetch x.gongSi gs " +
+            "join fetch g.yongHu " +
+            "where g.kaiShi >= :kaiShi " +
+            "and g.kaiShi < :jieShu " +
+            "order by gs.id, x.id, g.kaiShi, g.id")
+    Stream<GongZuoJiLu> streamGongZuoJiLuAnGongSi(@Param("kaiShi") LocalDateTime kaiShi, @Param("jieShu") LocalDateTime jieShu);
+
+    /**
+     * 指定公司开始时间在一段时间内有工作记录的项目, 按项目id排序, 与生成报告时工作记录的顺序一致
+     *
+     * @param gongSiId 公司id
+     * @param kaiShi   开始时间 大于等于
+     * @param jieShu   开始时间 小于
+     */
+    @Query("select distinct " +
+            "x.id " +
+            "from GongZuoJiLu g " +
+            "join g.xiangMu x " +
+            "where x.gongSi.id = :gongSiId " +
+            "and g.kaiShi >= :kaiShi " +
+            "and g.kaiShi < :jieShu " +
+            "order by x.id")
+    List<Long> findGongSiXiangMuIdsAnKaiShi(@Param("gongSiId") Long gongSiId, @Param("kaiShi") LocalDateTime kaiShi, @Param("jieShu") LocalDateTime jieShu);
+
+    /**
+     * 逐条读取指定项目开始时间在一段时间内的工作记录, 按项目并行生成报告用
+     * <p>
+     * 需要在事务中使用并关闭; 同时取出项目和用户, 不再逐条查询; 取出的实体是只读的
+     *
+     * @param xiangMuId 项目id
+     * @param kaiShi    开始时间 大于等于
+     * @param jieShu    开始时间 小于
+     */
+    @QueryHints({@QueryHint(name = HINT_FETCH_SIZE, value = "500"), @QueryHint(name = HINT_READONLY, value = "true")})
+    @Query("select " +
+            "g " +
+            "from GongZuoJiLu g " +
+            "join fetch g.xiangMu x " +
+            "join fetch g.yongHu " +
+            "where x.id = :xiangMuId " +
+            "and g.kaiShi >= :kaiShi " +
+            "and g.kaiShi < :jieShu " +
+            "order by g.kaiShi, g.id")
+    Stream<GongZuoJiLu> streamXiangMuGongZuoJiLuAnKaiShi(@Param("xiangMuId") Long xiangMuId, @Param("kaiShi") LocalDateTime kaiShi, @Param("jieShu") LocalDateTime jieShu);
 
     /**
      * 指定人员的指定时间段工作记录
@@ -96,6 +167,49 @@ public interface GongZuoJiLuRepository extends PagingAndSortingRepository<GongZu
             "g.kaiShi <= :jieShu")
     Long findByOverlapWorkRecords(@Param("yongHuId") Long yongHuId, @Param("kaiShi") LocalDateTime kaiShi, @Param("jieShu") LocalDateTime jieShu);
 
+    /**
+     * 指定人员与指定时间段重叠的工作记录的开始和结束时间
+     *
+     * @param yongHuId 用户id
+     * @param kaiShi   开始日期时间 小于等于工作记录结束时间
+     * @param jieShu   结束日期时间 大于等于工作记录开始时间
+     */
+    @Query("select " +
+            "g.kaiShi, g.jieShu " +
+            "from GongZuoJiLu g " +
+            "join g.yongHu y " +
+            "where y.id = :yongHuId " +
+            "and " +
+            "g.jieShu >= :kaiShi " +
+            "and " +
+            "g.kaiShi <= :jieShu")
+    List<Object[]> findOverlapShiJianDuans(@Param("yongHuId") Long yongHuId, @Param("kaiShi") LocalDateTime kaiShi, @Param("jieShu") LocalDateTime jieShu);
+
+    /**
+     * 指定人员所有工作记录的开始和结束时间
+     *
+     * @param yongHuId 用户id
+     */
+    @Query("select " +
+            "g.kaiShi, g.jieShu " +
+            "from GongZuoJiLu g " +
+            "join g.yongHu y " +
+            "where y.id = :yongHuId")
+    List<Object[]> findShiJianDuans(@Param("yongHuId") Long yongHuId);
+
+    /**
+     * 导入批次中已提交的自然键哈希
+     *
+     * @param daoRuPiCi 导入批次
+     * @param hashes    待查的自然键哈希
+     */
+    @Query("select distinct " +
+            "g.ziRanJianHash " +
+            "from GongZuoJiLu g " +
+            "where g.daoRuPiCi = :daoRuPiCi " +
+            "and g.ziRanJianHash in :hashes")
+    List<String> findYiDaoRuHashes(@Param("daoRuPiCi") DaoRuPiCi daoRuPiCi, @Param("hashes") Collection<String> hashes);
+
     /**
      * 根据备注查找单条工作记录(给测试程序用)
      *
@@ -0,0 +1,33 @@
+package com.example.timesheet.repository;
+
+import com.example.timesheet.model.JieSuanKuaiZhao;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+
+import java.time.LocalDate;
+
+public interface JieSuanKuaiZhaoRepository extends CrudRepository<JieSuanKuaiZhao, Long> {
+    /**
+     * 指定日期之前最近的快照
+     *
+     * @param gongSiId 公司id
+     * @param riQi     日期 小于
+     */
+    JieSuanKuaiZhao findFirstByGongSiIdAndJieSuanRiLessThanOrderByJieSuanRiDesc(Long gongSiId, LocalDate riQi);
+
+    boolean existsByGongSiIdAndJieSuanRi(Long gongSiId, LocalDate jieSuanRi);
+
+    /**
+     * 删除指定日期之后的快照, 结算日回退时用
+     *
+     * @param gongSiId 公司id
+     * @param riQi     日期 大于
+     */
+    @Modifying
+    @Query("delete from JieSuanKuaiZhao k " +
+            "where k.gongSi.id = :gongSiId " +
+            "and k.jieSuanRi > :riQi")
+    int deleteAfter(@Param("gongSiId") Long gongSiId, @Param("riQi") LocalDate riQi);
+}
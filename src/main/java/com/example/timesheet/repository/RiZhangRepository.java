@@ -0,0 +1,201 @@
+package com.example.timesheet.repository;
+
+import com.example.timesheet.model.RiZhang;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+
+public interface RiZhangRepository extends CrudRepository<RiZhang, Long> {
+    /**
+     * 在原有行上累加, 在数据库中完成, 并发的累加不会互相覆盖
+     *
+     * @return 更新的行数, 0表示还没有这一行
+     */
+    @Modifying
+    @Query("update RiZhang r " +
+            "set r.tiaoShu = r.tiaoShu + :tiaoShu, " +
+            "r.miaoShu = r.miaoShu + :miaoShu, " +
+            "r.feiYong = r.feiYong + :feiYong " +
+            "where r.xiangMu.id = :xiangMuId " +
+            "and r.yongHu.id = :yongHuId " +
+            "and r.riQi = :riQi")
+    int leiJia(@Param("xiangMuId") Long xiangMuId, @Param("yongHuId") Long yongHuId, @Param("riQi") LocalDate riQi, @Param("tiaoShu") int tiaoShu, @Param("miaoShu") long miaoShu, @Param("feiYong") Long feiYong);
+
+    /**
+     * 批量累加前一次查出可能已有的行的键, 条件是键的范围, 结果可能多于需要的行
+     *
+     * @param kaiShi 开始日期 大于等于
+     * @param jieShu 结束日期 小于等于
+     * @return 每行: 项目id, 用户id, 日期
+     */
+    @Query("select " +
+            "r.xiangMu.id, r.yongHu.id, r.riQi " +
+            "from RiZhang r " +
+            "where r.xiangMu.id in :xiangMuIds " +
+            "and r.yongHu.id in :yongHuIds " +
+            "and r.riQi >= :kaiShi " +
+            "and r.riQi <= :jieShu")
+    List<Object[]> findJians(@Param("xiangMuIds") Collection<Long> xiangMuIds, @Param("yongHuIds") Collection<Long> yongHuIds, @Param("kaiShi") LocalDate kaiShi, @Param("jieShu") LocalDate jieShu);
+
+    /**
+     * 删除工作记录条数已减到0的行
+     */
+    @Modifying
+    @Query("delete from RiZhang r " +
+            "where r.xiangMu.id = :xiangMuId " +
+            "and r.yongHu.id = :yongHuId " +
+            "and r.riQi = :riQi " +
+            "and r.tiaoShu <= 0")
+    int deleteKong(@Param("xiangMuId") Long xiangMuId, @Param("yongHuId") Long yongHuId, @Param("riQi") LocalDate riQi);
+
+    /**
+     * 指定项目和用户从某日开始的台账, 修改计费标准后重算费用用
+     *
+     * @param kaiShi 开始日期 大于等于
+     */
+    @Query("select " +
+            "r " +
+            "from RiZhang r " +
+            "where r.xiangMu.id = :xiangMuId " +
+            "and r.yongHu.id = :yongHuId " +
+            "and r.riQi >= :kaiShi " +
+            "order by r.riQi")
+    List<RiZhang> findRiZhangs(@Param("xiangMuId") Long xiangMuId, @Param("yongHuId") Long yongHuId, @Param("kaiShi") LocalDate kaiShi);
+
+    /**
+     * 计算指定公司截至某日的费用总额, CostEngine的费用单位
+     *
+     * @param gongSiId 公司id
+     * @param jieShu   结束日期 小于
+     */
+    @Query("select coalesce(sum(r.feiYong), 0L) " +
+            "from RiZhang r " +
+            "where r.gongSi.id = :gongSiId " +
+            "and r.riQi < :jieShu")
+    long calFeiYongTotal(@Param("gongSiId") Long gongSiId, @Param("jieShu") LocalDate jieShu);
+
+    /**
+     * 指定公司截至某日没有适用计费标准的行数
+     *
+     * @param gongSiId 公司id
+     * @param jieShu   结束日期 小于
+     */
+    @Query("select count(r) " +
+            "from RiZhang r " +
+            "where r.gongSi.id = :gongSiId " +
+            "and r.riQi < :jieShu " +
+            "and r.feiYong is null")
+    long countWeiJiFei(@Param("gongSiId") Long gongSiId, @Param("jieShu") LocalDate jieShu);
+
+    /**
+     * 计算指定公司一段日期内的费用总额, CostEngine的费用单位
+     *
+     * @param gongSiId 公司id
+     * @param kaiShi   开始日期 大于
+     * @param jieShu   结束日期 小于
+     */
+    @Query("select coalesce(sum(r.feiYong), 0L) " +
+            "from RiZhang r " +
+            "where r.gongSi.id = :gongSiId " +
+            "and r.riQi > :kaiShi " +
+            "and r.riQi < :jieShu")
+    long calFeiYongTotal(@Param("gongSiId") Long gongSiId, @Param("kaiShi") LocalDate kaiShi, @Param("jieShu") LocalDate jieShu);
+
+    /**
+     * 指定公司一段日期内没有适用计费标准的行数
+     *
+     * @param gongSiId 公司id
+     * @param kaiShi   开始日期 大于
+     * @param jieShu   结束日期 小于
+     */
+    @Query("select count(r) " +
+            "from RiZhang r " +
+            "where r.gongSi.id = :gongSiId " +
+            "and r.riQi > :kaiShi " +
+            "and r.riQi < :jieShu " +
+            "and r.feiYong is null")
+    long countWeiJiFei(@Param("gongSiId") Long gongSiId, @Param("kaiShi") LocalDate kaiShi, @Param("jieShu") LocalDate jieShu);
+
+    /**
+     * 报告用的费用汇总, 一次查询
+     * <p>
+     * 台账的费用就是每天的 耗时 * 当天适用的计费标准, 修改计费标准时已重算
+     *
+     * @param gongSiId 公司id
+     * @param kaiShi   报告开始日期
+     * @param jieShu   报告结束日期 小于等于
+     * @return 一行: 开始日期之前的费用总额, 截至结束日期的费用总额(没有台账时为null),
+     * 开始日期之前没有适用计费标准的行数, 开始日期到结束日期没有适用计费标准的行数
+     */
+    @Query("select " +
+            "sum(case when r.riQi < :kaiShi then r.feiYong else 0 end), " +
+            "sum(r.feiYong), " +
+            "sum(case when r.riQi < :kaiShi and r.feiYong is null then 1 else 0 end), " +
+            "sum(case when r.riQi >= :kaiShi and r.feiYong is null then 1 else 0 end) " +
+            "from RiZhang r " +
+            "where r.gongSi.id = :gongSiId " +
+            "and r.riQi <= :jieShu")
+    List<Object[]> calBaoGaoFeiYong(@Param("gongSiId") Long gongSiId, @Param("kaiShi") LocalDate kaiShi, @Param("jieShu") LocalDate jieShu);
+
+    /**
+     * 报告用的费用汇总, 从结算快照之后算起, 返回值同calBaoGaoFeiYong(gongSiId, kaiShi, jieShu)
+     *
+     * @param gongSiId  公司id
+     * @param jieSuanRi 结算快照的结算日 大于
+     * @param kaiShi    报告开始日期
+     * @param jieShu    报告结束日期 小于等于
+     */
+    @Query("select " +
+            "sum(case when r.riQi < :kaiShi then r.feiYong else 0 end), " +
+            "sum(r.feiYong), " +
+            "sum(case when r.riQi < :kaiShi and r.feiYong is null then 1 else 0 end), " +
+            "sum(case when r.riQi >= :kaiShi and r.feiYong is null then 1 else 0 end) " +
+            "from RiZhang r " +
+            "where r.gongSi.id = :gongSiId " +
+            "and r.riQi > :jieSuanRi " +
+            "and r.riQi <= :jieShu")
+    List<Object[]> calBaoGaoFeiYong(@Param("gongSiId") Long gongSiId, @Param("jieSuanRi") LocalDate jieSuanRi, @Param("kaiShi") LocalDate kaiShi, @Param("jieShu") LocalDate jieShu);
+
+    /**
+     * 指定公司一段日期内按项目的合计, 报告摘要用
+     *
+     * @param gongSiId 公司id
+     * @param kaiShi   开始日期 大于等于
+     * @param jieShu   结束日期 小于等于
+     * @return 每个项目一行: 项目名称, 条数, 秒数, 费用(CostEngine的费用单位), 按项目id排序
+     */
+    @Query("select " +
+            "x.mingCheng, sum(r.tiaoShu), sum(r.miaoShu), sum(r.feiYong) " +
+            "from RiZhang r " +
+            "join r.xiangMu x " +
+            "where r.gongSi.id = :gongSiId " +
+            "and r.riQi >= :kaiShi " +
+            "and r.riQi <= :jieShu " +
+            "group by x.id, x.mingCheng " +
+            "order by x.id")
+    List<Object[]> calXiangMuHeJi(@Param("gongSiId") Long gongSiId, @Param("kaiShi") LocalDate kaiShi, @Param("jieShu") LocalDate jieShu);
+
+    /**
+     * 指定公司一段日期内按用户的合计, 报告摘要用
+     *
+     * @param gongSiId 公司id
+     * @param kaiShi   开始日期 大于等于
+     * @param jieShu   结束日期 小于等于
+     * @return 每个用户一行: 用户名, 条数, 秒数, 费用(CostEngine的费用单位), 按用户id排序
+     */
+    @Query("select " +
+            "y.yongHuMing, sum(r.tiaoShu), sum(r.miaoShu), sum(r.feiYong) " +
+            "from RiZhang r " +
+            "join r.yongHu y " +
+            "where r.gongSi.id = :gongSiId " +
+            "and r.riQi >= :kaiShi " +
+            "and r.riQi <= :jieShu " +
+            "group by y.id, y.yongHuMing " +
+            "order by y.id")
+    List<Object[]> calYongHuHeJi(@Param("gongSiId") Long gongSiId, @Param("kaiShi") LocalDate kaiShi, @Param("jieShu") LocalDate jieShu);
+}
@@ -2,8 +2,52 @@ package com.example.timesheet.repository;
 
 import com.example.timesheet.model.GongSi;
 import com.example.timesheet.model.XiangMu;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Collection;
+import java.util.List;
 
 public interface XiangMuRepository extends CrudRepository<XiangMu, Long> {
     XiangMu findOneByMingCheng(String mingCheng);
+
+    /**
+     * 根据名称批量查找项目, 同时取出所属公司和计费标准列表
+     *
+     * @param mingChengs 项目名称
+     */
+    @Query("select distinct " +
+            "x " +
+            "from XiangMu x " +
+            "join fetch x.gongSi " +
+            "left join fetch x.jiFeiBiaoZhuns " +
+            "where x.mingCheng in :mingChengs")
+    List<XiangMu> findByMingChengIn(@Param("mingChengs") Collection<String> mingChengs);
+
+    /**
+     * 根据id批量查找项目, 同时取出所属公司和计费标准列表
+     *
+     * @param ids 项目id
+     */
+    @Query("select distinct " +
+            "x " +
+            "from XiangMu x " +
+            "join fetch x.gongSi " +
+            "left join fetch x.jiFeiBiaoZhuns " +
+            "where x.id in :ids")
+    List<XiangMu> findByIdIn(@Param("ids") Collection<Long> ids);
+
+    /**
+     * 项目的计费标准: 用户id, 开始日期, 小时费用
+     *
+     * @param xiangMuId 项目id
+     */
+    @Query("select " +
+            "y.id, j.kaiShi, j.xiaoShiFeiYong " +
+            "from XiangMu x " +
+            "join x.jiFeiBiaoZhuns j " +
+            "join j.yongHu y " +
+            "where x.id = :xiangMuId")
+    List<Object[]> findJiFeiBiaoZhuns(@Param("xiangMuId") Long xiangMuId);
 }
@@ -4,6 +4,16 @@ import com.example.timesheet.model.GongSi;
 import com.example.timesheet.model.YongHu;
 import org.springframework.data.repository.CrudRepository;
 
+import java.util.Collection;
+import java.util.List;
+
 public interface YongHuRepository extends CrudRepository<YongHu, Long> {
     YongHu findOneByYongHuMing(String yongHuMing);
+
+    /**
+     * 根据用户名批量查找用户
+     *
+     * @param yongHuMings 用户名
+     */
+    List<YongHu> findByYongHuMingIn(Collection<String> yongHuMings);
 }
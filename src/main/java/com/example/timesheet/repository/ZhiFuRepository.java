@@ -42,4 +42,57 @@ public interface ZhiFuRepository extends CrudRepository<ZhiFu, Long> {
             "where g.id = :gongSiId " +
             "and z.riQi <= :jieShu")
     BigDecimal calIncomingTotal(@Param("gongSiId") Long gongSiId, @Param("jieShu") LocalDate jieShu);
+
+    /**
+     * 计算指定公司一段日期内的支付总额
+     *
+     * @param gongSiId 公司id
+     * @param kaiShi   开始日期 大于
+     * @param jieShu   结束日期 小于等于
+     */
+    @Query("select case when sum(z.jingE) is null then 0 else sum(z.jingE) end " +
+            "from ZhiFu z " +
+            "join z.gongSi g " +
+            "where g.id = :gongSiId " +
+            "and z.riQi > :kaiShi " +
+            "and z.riQi <= :jieShu")
+    BigDecimal calIncomingTotal(@Param("gongSiId") Long gongSiId, @Param("kaiShi") LocalDate kaiShi, @Param("jieShu") LocalDate jieShu);
+
+    /**
+     * 报告用的支付, 一次查询
+     * <p>
+     * 时间段内的每笔支付一行, 没有支付时也有一行(支付为null); 每行都带开始日期和结束日期的支付总和
+     *
+     * @param gongSiId 公司id
+     * @param kaiShi   开始日期, 支付 大于等于, 开始日期的支付总和 小于等于
+     * @param jieShu   结束日期 小于等于
+     * @return 每行: 支付, 截至开始日期的支付总和, 截至结束日期的支付总和; 公司不存在时没有行
+     */
+    @Query("select " +
+            "z, " +
+            "(select coalesce(sum(z1.jingE), 0) from ZhiFu z1 where z1.gongSi = g and z1.riQi <= :kaiShi), " +
+            "(select coalesce(sum(z2.jingE), 0) from ZhiFu z2 where z2.gongSi = g and z2.riQi <= :jieShu) " +
+            "from GongSi g " +
+            "left join ZhiFu z on z.gongSi = g and z.riQi >= :kaiShi and z.riQi <= :jieShu " +
+            "where g.id = :gongSiId " +
+            "order by z.riQi")
+    List<Object[]> findBaoGaoZhiFu(@Param("gongSiId") Long gongSiId, @Param("kaiShi") LocalDate kaiShi, @Param("jieShu") LocalDate jieShu);
+
+    /**
+     * 报告用的支付, 支付总和从结算快照之后算起, 返回值同findBaoGaoZhiFu(gongSiId, kaiShi, jieShu)
+     *
+     * @param gongSiId  公司id
+     * @param jieSuanRi 结算快照的结算日, 支付总和 大于
+     * @param kaiShi    开始日期
+     * @param jieShu    结束日期
+     */
+    @Query("select " +
+            "z, " +
+            "(select coalesce(sum(z1.jingE), 0) from ZhiFu z1 where z1.gongSi = g and z1.riQi > :jieSuanRi and z1.riQi <= :kaiShi), " +
+            "(select coalesce(sum(z2.jingE), 0) from ZhiFu z2 where z2.gongSi = g and z2.riQi > :jieSuanRi and z2.riQi <= :jieShu) " +
+            "from GongSi g " +
+            "left join ZhiFu z on z.gongSi = g and z.riQi >= :kaiShi and z.riQi <= :jieShu " +
+            "where g.id = :gongSiId " +
+            "order by z.riQi")
+    List<Object[]> findBaoGaoZhiFu(@Param("gongSiId") Long gongSiId, @Param("jieSuanRi") LocalDate jieSuanRi, @Param("kaiShi") LocalDate kaiShi, @Param("jieShu") LocalDate jieShu);
 }
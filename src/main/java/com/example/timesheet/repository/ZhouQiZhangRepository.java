@@ -0,0 +1,58 @@
+package com.example.timesheet.repository;
+
+import com.example.timesheet.model.ZhouQiZhang;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+
+public interface ZhouQiZhangRepository extends CrudRepository<ZhouQiZhang, Long> {
+    /**
+     * 在原有行上累加, 在数据库中完成, 并发的累加不会互相覆盖
+     *
+     * @return 更新的行数, 0表示还没有这一行
+     */
+    @Modifying
+    @Query("update ZhouQiZhang z " +
+            "set z.tiaoShu = z.tiaoShu + :tiaoShu, " +
+            "z.miaoShu = z.miaoShu + :miaoShu, " +
+            "z.feiYong = z.feiYong + :feiYong, " +
+            "z.weiJiFeiTiaoShu = z.weiJiFeiTiaoShu + :weiJiFeiTiaoShu " +
+            "where z.xiangMu.id = :xiangMuId " +
+            "and z.yongHu.id = :yongHuId " +
+            "and z.zhouQi = :zhouQi " +
+            "and z.qi = :qi")
+    int leiJia(@Param("xiangMuId") Long xiangMuId, @Param("yongHuId") Long yongHuId, @Param("zhouQi") ZhouQiZhang.ZhouQi zhouQi, @Param("qi") LocalDate qi, @Param("tiaoShu") int tiaoShu, @Param("miaoShu") long miaoShu, @Param("feiYong") long feiYong, @Param("weiJiFeiTiaoShu") int weiJiFeiTiaoShu);
+
+    /**
+     * 批量累加前一次查出可能已有的行的键, 条件是键的范围, 结果可能多于需要的行
+     *
+     * @param kaiShi 周期开始日期 大于等于
+     * @param jieShu 周期开始日期 小于等于
+     * @return 每行: 项目id, 用户id, 周期, 周期开始日期
+     */
+    @Query("select " +
+            "z.xiangMu.id, z.yongHu.id, z.zhouQi, z.qi " +
+            "from ZhouQiZhang z " +
+            "where z.xiangMu.id in :xiangMuIds " +
+            "and z.yongHu.id in :yongHuIds " +
+            "and z.qi >= :kaiShi " +
+            "and z.qi <= :jieShu")
+    List<Object[]> findJians(@Param("xiangMuIds") Collection<Long> xiangMuIds, @Param("yongHuIds") Collection<Long> yongHuIds, @Param("kaiShi") LocalDate kaiShi, @Param("jieShu") LocalDate jieShu);
+
+    /**
+     * 删除工作记录条数已减到0的行
+     */
+    @Modifying
+    @Query("delete from ZhouQiZhang z " +
+            "where z.xiangMu.id = :xiangMuId " +
+            "and z.yongHu.id = :yongHuId " +
+            "and z.zhouQi = :zhouQi " +
+            "and z.qi = :qi " +
+            "and z.tiaoShu <= 0")
+    int deleteKong(@Param("xiangMuId") Long xiangMuId, @Param("yongHuId") Long yongHuId, @Param("zhouQi") ZhouQiZhang.ZhouQi zhouQi, @Param("qi") LocalDate qi);
+}
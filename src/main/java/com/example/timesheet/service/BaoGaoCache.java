@@ -0,0 +1,261 @@
+package com.example.timesheet.service;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 报告缓存
+ * <p>
+ * 1) 按(公司id, 开始日期, 结束日期)缓存报告序列化后的JSON和其中每条消费记录的位置, 按UTF-8字节数限制总大小, 超出时淘汰最久未用的<br>
+ * 2) 修改过公司数据的事务结束后丢弃该公司的全部缓存, 见GongSiBianGeng<br>
+ * 3) 当前事务已经修改过的公司不读也不写缓存<br>
+ * 4) 每个公司有版本号, 生成期间有修改则不放入缓存<br>
+ * 5) 命中, 未命中, 淘汰次数见gainTongJi
+ */
+@Slf4j
+@Service
+public class BaoGaoCache {
+    @Autowired
+    private GongSiBianGeng gongSiBianGeng;
+
+    @Value("${timesheet.report-cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${timesheet.report-cache.max-bytes:67108864}")
+    private long maxBytes;
+
+    /**
+     * 按访问顺序排列, 第一个是最久未用的
+     */
+    private final LinkedHashMap<Jian, HuanCun> baoGaos = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final Map<Long, Long> versions = new HashMap<>();
+
+    private long bytes;
+
+    private final AtomicLong mingZhong = new AtomicLong();
+
+    private final AtomicLong weiMingZhong = new AtomicLong();
+
+    private final AtomicLong taoTai = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        gongSiBianGeng.addJianTingQi(this::changed);
+    }
+
+    /**
+     * 取得报告, 没有缓存时调用shengCheng生成并放入缓存
+     *
+     * @param gongSiId   公司id
+     * @param kaiShi     开始日期
+     * @param jieShu     结束日期
+     * @param shengCheng 生成报告, 出错时抛出的异常原样传给调用方
+     */
+    public BaoGao gainBaoGao(Long gongSiId, LocalDate kaiShi, LocalDate jieShu, Supplier<BaoGao> shengCheng) {
+        if (!enabled || gongSiBianGeng.isChanged(gongSiId)) {
+            return shengCheng.get();
+        }
+
+        Jian jian = new Jian(gongSiId, kaiShi, jieShu);
+        long version;
+        synchronized (baoGaos) {
+            HuanCun huanCun = baoGaos.get(jian);
+            if (huanCun != null) {
+                mingZhong.incrementAndGet();
+
+                return huanCun.baoGao;
+            }
+
+            version = versions.computeIfAbsent(gongSiId, key -> 0L);
+        }
+        weiMingZhong.incrementAndGet();
+
+        BaoGao baoGao = shengCheng.get();
+        long size = baoGao.gainSize();
+        if (size > maxBytes) {
+            return baoGao;
+        }
+
+        synchronized (baoGaos) {
+            if (versions.get(gongSiId) != version) {
+                return baoGao;
+            }
+
+            HuanCun old = baoGaos.put(jian, new HuanCun(baoGao, size));
+            if (old != null) {
+                bytes -= old.size;
+            }
+            bytes += size;
+
+            Iterator<Map.Entry<Jian, HuanCun>> iterator = baoGaos.entrySet().iterator();
+            while (bytes > maxBytes && iterator.hasNext()) {
+                Map.Entry<Jian, HuanCun> entry = iterator.next();
+                bytes -= entry.getValue().size;
+                iterator.remove();
+                taoTai.incrementAndGet();
+            }
+        }
+
+        return baoGao;
+    }
+
+    /**
+     * 公司的报告内容可能已变化, 丢弃这些公司的缓存
+     *
+     * @param gongSiIds 公司id
+     */
+    private void changed(Set<Long> gongSiIds) {
+        synchronized (baoGaos) {
+            for (Long gongSiId : gongSiIds) {
+                versions.merge(gongSiId, 1L, Long::sum);
+            }
+
+            Iterator<Map.Entry<Jian, HuanCun>> iterator = baoGaos.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Jian, HuanCun> entry = iterator.next();
+                if (gongSiIds.contains(entry.getKey().gongSiId)) {
+                    bytes -= entry.getValue().size;
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * 清空缓存, 数据库被整体替换时调用
+     */
+    public void clear() {
+        synchronized (baoGaos) {
+            for (Map.Entry<Long, Long> entry : versions.entrySet()) {
+                entry.setValue(entry.getValue() + 1);
+            }
+            baoGaos.clear();
+            bytes = 0;
+        }
+    }
+
+    /**
+     * 缓存统计
+     */
+    public TongJi gainTongJi() {
+        synchronized (baoGaos) {
+            return new TongJi(mingZhong.get(), weiMingZhong.get(), taoTai.get(), baoGaos.size(), bytes, maxBytes);
+        }
+    }
+
+    @AllArgsConstructor
+    @Getter
+    public static class TongJi {
+        /**
+         * 命中次数
+         */
+        private final long mingZhong;
+
+        /**
+         * 未命中次数
+         */
+        private final long weiMingZhong;
+
+        /**
+         * 因超出大小限制淘汰的次数, 不含修改引起的丢弃
+         */
+        private final long taoTai;
+
+        /**
+         * 缓存的报告数
+         */
+        private final int tiaoShu;
+
+        /**
+         * 缓存的字节数
+         */
+        private final long bytes;
+
+        /**
+         * 字节数上限
+         */
+        private final long maxBytes;
+    }
+
+    /**
+     * 序列化后的报告
+     * <p>
+     * 内容与BaoGaoService.generateBaoGao(...).toString()相同; 同时记录每条消费记录在JSON中的位置, 分页取消费记录时直接截取, 不再解析整个报告
+     */
+    @AllArgsConstructor
+    public static class BaoGao {
+        @Getter
+        private final String json;
+
+        /**
+         * 第i条消费记录在json中的开始位置; 最后一个元素是最后一条消费记录的结束位置加1, 相当于其后还有一个逗号
+         */
+        private final int[] weiZhi;
+
+        /**
+         * 消费记录条数
+         */
+        public int gainTiaoShu() {
+            return weiZhi.length - 1;
+        }
+
+        /**
+         * 从第kaiShi条起最多tiaoShu条消费记录, JSON数组
+         *
+         * @param kaiShi  开始序号, 从0开始
+         * @param tiaoShu 条数
+         */
+        public String gainXiaoFeiJiLu(int kaiShi, int tiaoShu) {
+            int jieShu = Math.min(kaiShi + tiaoShu, gainTiaoShu());
+            if (kaiShi >= jieShu) {
+                return "[]";
+            }
+
+            // 相邻的消费记录之间已有逗号
+            return "[" + json.substring(weiZhi[kaiShi], weiZhi[jieShu] - 1) + "]";
+        }
+
+        /**
+         * 占用的字节数, JSON按UTF-8计算
+         */
+        long gainSize() {
+            return json.getBytes(StandardCharsets.UTF_8).length + 4L * weiZhi.length;
+        }
+    }
+
+    /**
+     * 缓存的键(公司id, 开始日期, 结束日期)
+     */
+    @AllArgsConstructor
+    @EqualsAndHashCode
+    private static class Jian {
+        private final Long gongSiId;
+
+        private final LocalDate kaiShi;
+
+        private final LocalDate jieShu;
+    }
+
+    /**
+     * 缓存的报告和它的字节数
+     */
+    @AllArgsConstructor
+    private static class HuanCun {
+        private final BaoGao baoGao;
+
+        private final long size;
+    }
+}
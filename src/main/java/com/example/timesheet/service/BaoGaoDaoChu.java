@@ -0,0 +1,361 @@
+package com.example.timesheet.service;
+
+import com.example.timesheet.model.ZhiFu;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * 报告的输出格式, 消费记录逐条写出, 见BaoGaoService.exportBaoGao
+ * <p>
+ * 1) 调用顺序: start, 每条消费记录write, finish; 每隔一段调用flush<br>
+ * 2) 消费记录的列与generateBaoGao相同: 开始, 结束, 项目, 人员, 耗时, 小时费用, 费用<br>
+ * 3) Json与generateBaoGao的JSON相同; Csv和Xlsx给会计导入表格用
+ */
+public interface BaoGaoDaoChu extends Closeable {
+    String[] XIAO_FEI_JI_LU_LIE = {"开始", "结束", "项目", "人员", "耗时", "小时费用", "费用"};
+
+    /**
+     * 消费记录之前, 检查已全部完成
+     *
+     * @param kaiShi        开始日期
+     * @param jieShu        结束日期
+     * @param kaiShiBalance 期初Balance
+     */
+    void start(LocalDate kaiShi, LocalDate jieShu, BigDecimal kaiShiBalance) throws IOException;
+
+    /**
+     * 一条消费记录
+     */
+    void write(LocalDateTime kaiShi, LocalDateTime jieShu, String xiangMu, String renYuan, BigDecimal haoShi, BigDecimal xiaoShiFeiYong, BigDecimal feiYong) throws IOException;
+
+    /**
+     * 消费记录之后
+     *
+     * @param jieShuBalance 期末Balance
+     * @param zhiFus        时间段内的支付
+     */
+    void finish(BigDecimal jieShuBalance, List<ZhiFu> zhiFus) throws IOException;
+
+    /**
+     * 已写出的内容发送出去
+     */
+    void flush() throws IOException;
+
+    /**
+     * 释放资源, 不关闭调用方传入的输出
+     */
+    @Override
+    default void close() throws IOException {
+    }
+
+    /**
+     * 与generateBaoGao相同的JSON, 外面包一层{"code":"1","data":...}, 同PPResponse
+     */
+    class Json implements BaoGaoDaoChu {
+        private final JsonGenerator generator;
+
+        public Json(JsonGenerator generator) {
+            this.generator = generator;
+        }
+
+        @Override
+        public void start(LocalDate kaiShi, LocalDate jieShu, BigDecimal kaiShiBalance) throws IOException {
+            generator.writeStartObject();
+            generator.writeStringField("code", "1");
+            generator.writeObjectFieldStart("data");
+            generator.writeStringField("开始", kaiShi.toString());
+            generator.writeStringField("结束", jieShu.toString());
+            writeNumberField("期初Balance", kaiShiBalance);
+            generator.writeArrayFieldStart("消费记录");
+        }
+
+        @Override
+        public void write(LocalDateTime kaiShi, LocalDateTime jieShu, String xiangMu, String renYuan, BigDecimal haoShi, BigDecimal xiaoShiFeiYong, BigDecimal feiYong) throws IOException {
+            generator.writeStartObject();
+            generator.writeStringField("开始", kaiShi.toString());
+            generator.writeStringField("结束", jieShu.toString());
+            generator.writeStringField("项目", xiangMu);
+            generator.writeStringField("人员", renYuan);
+            writeNumberField("耗时", haoShi);
+            writeNumberField("小时费用", xiaoShiFeiYong);
+            writeNumberField("费用", feiYong);
+            generator.writeEndObject();
+        }
+
+        @Override
+        public void finish(BigDecimal jieShuBalance, List<ZhiFu> zhiFus) throws IOException {
+            generator.writeEndArray();
+
+            // --充值记录
+            generator.writeArrayFieldStart("充值记录");
+            for (ZhiFu zhiFu : zhiFus) {
+                generator.writeStartObject();
+                generator.writeStringField("日期", zhiFu.getRiQi().toString());
+                writeNumberField("金额", zhiFu.getJingE());
+                generator.writeStringField("备注", zhiFu.getBeiZhu());
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+            // --
+
+            writeNumberField("期末Balance", jieShuBalance);
+            generator.writeEndObject();
+            generator.writeEndObject();
+            generator.flush();
+        }
+
+        @Override
+        public void flush() throws IOException {
+            generator.flush();
+        }
+
+        /**
+         * 与org.json一致: 整数值不带小数部分
+         */
+        private void writeNumberField(String name, BigDecimal value) throws IOException {
+            generator.writeFieldName(name);
+
+            long longValue = value.longValue();
+            if (value.doubleValue() == (double) longValue) {
+                generator.writeNumber(longValue);
+            } else {
+                generator.writeNumber(value);
+            }
+        }
+    }
+
+    /**
+     * CSV, UTF-8带BOM, Excel直接打开不乱码
+     * <p>
+     * 第一行是列名, 之后每行一条消费记录; 空一行后是期初, 期末Balance和充值记录
+     */
+    class Csv implements BaoGaoDaoChu {
+        private final Writer writer;
+
+        private BigDecimal kaiShiBalance;
+
+        public Csv(OutputStream outputStream) {
+            this.writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void start(LocalDate kaiShi, LocalDate jieShu, BigDecimal kaiShiBalance) throws IOException {
+            this.kaiShiBalance = kaiShiBalance;
+
+            writer.write('\uFEFF');
+            writeHang((Object[]) XIAO_FEI_JI_LU_LIE);
+        }
+
+        @Override
+        public void write(LocalDateTime kaiShi, LocalDateTime jieShu, String xiangMu, String renYuan, BigDecimal haoShi, BigDecimal xiaoShiFeiYong, BigDecimal feiYong) throws IOException {
+            writeHang(kaiShi, jieShu, xiangMu, renYuan, haoShi, xiaoShiFeiYong, feiYong);
+        }
+
+        @Override
+        public void finish(BigDecimal jieShuBalance, List<ZhiFu> zhiFus) throws IOException {
+            writer.write("\r\n");
+            writeHang("期初Balance", kaiShiBalance);
+            for (ZhiFu zhiFu : zhiFus) {
+                writeHang("充值", zhiFu.getJingE(), zhiFu.getRiQi(), zhiFu.getBeiZhu());
+            }
+            writeHang("期末Balance", jieShuBalance);
+
+            writer.flush();
+        }
+
+        @Override
+        public void flush() throws IOException {
+            writer.flush();
+        }
+
+        /**
+         * 一行, 按RFC 4180转义
+         */
+        private void writeHang(Object... values) throws IOException {
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+
+                String text = toText(values[i]);
+                if (text.indexOf(',') >= 0 || text.indexOf('"') >= 0 || text.indexOf('\n') >= 0 || text.indexOf('\r') >= 0) {
+                    writer.write('"');
+                    writer.write(text.replace("\"", "\"\""));
+                    writer.write('"');
+                } else {
+                    writer.write(text);
+                }
+            }
+            writer.write("\r\n");
+        }
+
+        /**
+         * 与Json一致: 整数值不带小数部分
+         */
+        private static String toText(Object value) {
+            if (value == null) {
+                return "";
+            }
+
+            if (value instanceof BigDecimal) {
+                BigDecimal decimal = (BigDecimal) value;
+                long longValue = decimal.longValue();
+
+                return decimal.doubleValue() == (double) longValue ? Long.toString(longValue) : decimal.toPlainString();
+            }
+
+            return value.toString();
+        }
+    }
+
+    /**
+     * XLSX, 用POI的SXSSF流式写出
+     * <p>
+     * 1) 内存中只保留最近CHUANG_KOU行, 之前的行写入临时文件, 内存占用与消费记录条数无关<br>
+     * 2) 第一个工作表是余额(开始, 结束, 期初, 期末Balance和充值记录), 第二个是消费记录<br>
+     * 3) XLSX是zip格式, finish时才写出到输出; close删除临时文件
+     */
+    class Xlsx implements BaoGaoDaoChu {
+        /**
+         * 每个工作表在内存中保留的行数
+         */
+        private static final int CHUANG_KOU = 100;
+
+        private final OutputStream outputStream;
+
+        private final SXSSFWorkbook workbook = new SXSSFWorkbook(CHUANG_KOU);
+
+        private final CellStyle riQiStyle;
+
+        private final CellStyle shiJianStyle;
+
+        private SXSSFSheet yuESheet;
+
+        private SXSSFSheet xiaoFeiSheet;
+
+        private int hangHao;
+
+        private LocalDate kaiShi;
+
+        private LocalDate jieShu;
+
+        private BigDecimal kaiShiBalance;
+
+        public Xlsx(OutputStream outputStream) {
+            this.outputStream = outputStream;
+
+            // 临时文件压缩, 减少磁盘占用
+            workbook.setCompressTempFiles(true);
+
+            riQiStyle = workbook.createCellStyle();
+            riQiStyle.setDataFormat(workbook.createDataFormat().getFormat("yyyy-mm-dd"));
+            shiJianStyle = workbook.createCellStyle();
+            shiJianStyle.setDataFormat(workbook.createDataFormat().getFormat("yyyy-mm-dd hh:mm:ss"));
+        }
+
+        @Override
+        public void start(LocalDate kaiShi, LocalDate jieShu, BigDecimal kaiShiBalance) {
+            this.kaiShi = kaiShi;
+            this.jieShu = jieShu;
+            this.kaiShiBalance = kaiShiBalance;
+
+            yuESheet = workbook.createSheet("余额");
+            xiaoFeiSheet = workbook.createSheet("消费记录");
+
+            Row row = xiaoFeiSheet.createRow(hangHao++);
+            for (int i = 0; i < XIAO_FEI_JI_LU_LIE.length; i++) {
+                row.createCell(i).setCellValue(XIAO_FEI_JI_LU_LIE[i]);
+            }
+        }
+
+        @Override
+        public void write(LocalDateTime kaiShi, LocalDateTime jieShu, String xiangMu, String renYuan, BigDecimal haoShi, BigDecimal xiaoShiFeiYong, BigDecimal feiYong) {
+            Row row = xiaoFeiSheet.createRow(hangHao++);
+            setCellValue(row.createCell(0), kaiShi);
+            setCellValue(row.createCell(1), jieShu);
+            row.createCell(2).setCellValue(xiangMu);
+            row.createCell(3).setCellValue(renYuan);
+            row.createCell(4).setCellValue(haoShi.doubleValue());
+            row.createCell(5).setCellValue(xiaoShiFeiYong.doubleValue());
+            row.createCell(6).setCellValue(feiYong.doubleValue());
+        }
+
+        @Override
+        public void finish(BigDecimal jieShuBalance, List<ZhiFu> zhiFus) throws IOException {
+            int yuEHangHao = 0;
+            writeYuE(yuEHangHao++, "开始", kaiShi);
+            writeYuE(yuEHangHao++, "结束", jieShu);
+            writeYuE(yuEHangHao++, "期初Balance", kaiShiBalance);
+            writeYuE(yuEHangHao++, "期末Balance", jieShuBalance);
+
+            // --充值记录
+            yuEHangHao++;
+            Row row = yuESheet.createRow(yuEHangHao++);
+            row.createCell(0).setCellValue("充值日期");
+            row.createCell(1).setCellValue("金额");
+            row.createCell(2).setCellValue("备注");
+            for (ZhiFu zhiFu : zhiFus) {
+                row = yuESheet.createRow(yuEHangHao++);
+                setCellValue(row.createCell(0), zhiFu.getRiQi());
+                row.createCell(1).setCellValue(zhiFu.getJingE().doubleValue());
+                row.createCell(2).setCellValue(zhiFu.getBeiZhu());
+            }
+            // --
+
+            workbook.write(outputStream);
+            outputStream.flush();
+        }
+
+        /**
+         * 超出窗口的行已写入临时文件, 没有可以提前发送的内容
+         */
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+            workbook.dispose();
+        }
+
+        private void writeYuE(int hangHao, String mingCheng, Object value) {
+            Row row = yuESheet.createRow(hangHao);
+            row.createCell(0).setCellValue(mingCheng);
+
+            Cell cell = row.createCell(1);
+            if (value instanceof LocalDate) {
+                setCellValue(cell, (LocalDate) value);
+            } else {
+                cell.setCellValue(((BigDecimal) value).doubleValue());
+            }
+        }
+
+        private void setCellValue(Cell cell, LocalDate riQi) {
+            cell.setCellValue(Date.from(riQi.atStartOfDay(ZoneId.systemDefault()).toInstant()));
+            cell.setCellStyle(riQiStyle);
+        }
+
+        private void setCellValue(Cell cell, LocalDateTime shiJian) {
+            cell.setCellValue(Date.from(shiJian.atZone(ZoneId.systemDefault()).toInstant()));
+            cell.setCellStyle(shiJianStyle);
+        }
+    }
+}
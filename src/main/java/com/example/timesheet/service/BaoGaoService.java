@@ -0,0 +1,946 @@
+package com.example.timesheet.service;
+
+import com.example.timesheet.exception.PPBusinessException;
+import com.example.timesheet.model.*;
+import com.example.timesheet.repository.GongSiRepository;
+import com.example.timesheet.repository.GongZuoJiLuRepository;
+import com.example.timesheet.repository.JieSuanKuaiZhaoRepository;
+import com.example.timesheet.repository.RiZhangRepository;
+import com.example.timesheet.repository.ZhiFuRepository;
+import com.example.timesheet.util.CostEngine;
+import com.example.timesheet.util.RateTimeline;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.StringUtils;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * 报告
+ * <p>
+ * 1) 开始日期之前的费用从每日费用台账汇总, 不再逐条计算历史工作记录<br>
+ * 2) 有开始日期之前的结算快照时从最近的快照算起, 只汇总快照之后的台账和支付<br>
+ * 3) 只取出开始日期到结束日期之间的工作记录作为消费记录<br>
+ * 4) 费用用CostEngine的定点单位精确累加, 只在输出时舍入; 期初和期末的费用总额与支付总和在数据库中汇总, 见gainHuiZong<br>
+ * 5) generateBaoGao有多个项目时按项目并行计算, 见gainXiaoFeiJiLu<br>
+ * 6) 工作记录都用游标逐条读取, 分块移出持久化上下文; generateBaoGao在内存中生成整个报告, exportBaoGao边读取边按JSON, CSV或XLSX写出, 内存占用与消费记录条数无关<br>
+ * 7) writePiLiangBaoGao一次读取所有公司的工作记录, 为每个公司写出一个报告文件<br>
+ * 8) generateBaoGaoZhaiYao只从台账汇总, 不取消费记录; 消费记录可以从缓存的报告中分页读取, 见gainXiaoFeiJiLuYe
+ */
+@Slf4j
+@Service
+@Transactional
+public class BaoGaoService {
+    /**
+     * 逐条读取工作记录时每隔多少条移出一次持久化上下文, 见FenKuaiYiChu
+     */
+    private static final int QING_KONG_JIAN_GE = 500;
+
+    @Autowired
+    private GongZuoJiLuRepository gongZuoJiLuRepository;
+
+    @Autowired
+    private GongSiRepository gongSiRepository;
+
+    @Autowired
+    private ZhiFuRepository zhiFuRepository;
+
+    @Autowired
+    private RiZhangRepository riZhangRepository;
+
+    @Autowired
+    private JieSuanKuaiZhaoRepository jieSuanKuaiZhaoRepository;
+
+    @Autowired
+    private RateTimelineCache rateTimelineCache;
+
+    @Autowired
+    private GongSiBianGeng gongSiBianGeng;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    /**
+     * 按项目并行生成报告的线程数, 小于等于1时不并行
+     * <p>
+     * 所有报告共用这些线程, 每个线程同时占用一个数据库连接, 见bingXingBaoGao
+     */
+    @Value("${timesheet.report.parallelism:4}")
+    private int parallelism;
+
+    /**
+     * 数据库连接池大小, 与spring.datasource.hikari.maximum-pool-size一致
+     */
+    @Value("${spring.datasource.hikari.maximum-pool-size:10}")
+    private int lianJieChiDaXiao;
+
+    private ForkJoinPool forkJoinPool;
+
+    /**
+     * 同时在forkJoinPool中计算的报告数
+     * <p>
+     * 1) 每个报告在调用方的事务中占用一个连接, 等待工作线程从连接池取得各自的连接; 计费标准在取得许可之前用这个连接加载, 工作线程不访问RateTimelineCache, 不会再占用别的连接<br>
+     * 2) 许可数为连接池大小减去parallelism, 所有许可都被占用时工作线程仍能取得连接, 不会因连接池耗尽而互相等待到超时<br>
+     * 3) 取不到许可的报告在调用方的事务中串行计算
+     */
+    private Semaphore bingXingBaoGao;
+
+    /**
+     * 批量生成报告的输出目录
+     */
+    @Value("${timesheet.report.batch-dir:baoGao}")
+    private String piLiangMuLu;
+
+    @PostConstruct
+    public void init() {
+        if (parallelism > 1) {
+            forkJoinPool = new ForkJoinPool(parallelism, pool -> {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("baoGao-" + thread.getPoolIndex());
+
+                return thread;
+            }, null, false);
+
+            int xuKe = lianJieChiDaXiao - parallelism;
+            if (xuKe <= 0) {
+                log.warn("连接池大小(" + lianJieChiDaXiao + ")不大于报告并行线程数(" + parallelism + "), 报告都串行计算");
+            }
+            bingXingBaoGao = new Semaphore(Math.max(xuKe, 0));
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (forkJoinPool != null) {
+            forkJoinPool.shutdown();
+        }
+    }
+
+    /**
+     * 生成报告
+     *
+     * @param gongSiId 公司id
+     * @param kaiShi   开始日期
+     * @param jieShu   结束日期
+     */
+    public JSONObject generateBaoGao(Long gongSiId, LocalDate kaiShi, LocalDate jieShu) throws JSONException {
+        // --期初, 期末Balance和时间段内的支付, 在数据库中汇总
+        HuiZong huiZong = gainHuiZong(gongSiId, kaiShi, jieShu);
+        // --
+
+        // --查出时间段内指定公司相关的工作记录和对应费用
+        JSONArray gongZuoJiLusJsonArray = new JSONArray();
+        for (JSONObject jsonObject : gainXiaoFeiJiLu(gongSiId, kaiShi.atStartOfDay(), jieShu.plusDays(1).atStartOfDay())) {
+            gongZuoJiLusJsonArray.put(jsonObject);
+        }
+        // --
+
+        // --时间段内指定公司相关的支付
+        JSONArray zhiFusJsonArray = new JSONArray();
+
+        for (ZhiFu zhifu : huiZong.zhiFus) {
+            JSONObject jsonObject = new JSONObject();
+
+            jsonObject.put("日期", zhifu.getRiQi());
+            jsonObject.put("金额", zhifu.getJingE());
+            jsonObject.put("备注", zhifu.getBeiZhu());
+
+            zhiFusJsonArray.put(jsonObject);
+        }
+        // --
+
+        JSONObject reportJsonObject = new JSONObject();
+        reportJsonObject.put("开始", kaiShi);
+        reportJsonObject.put("结束", jieShu);
+        reportJsonObject.put("期初Balance", huiZong.kaiShiBalance);
+        reportJsonObject.put("期末Balance", huiZong.jieShuBalance);
+        reportJsonObject.put("消费记录", gongZuoJiLusJsonArray);
+        reportJsonObject.put("充值记录", zhiFusJsonArray);
+
+        return reportJsonObject;
+    }
+
+    /**
+     * 生成报告并序列化, 放入BaoGaoCache用
+     * <p>
+     * JSON与generateBaoGao(...).toString()相同, 逐条序列化消费记录并记录它们的位置
+     *
+     * @param gongSiId 公司id
+     * @param kaiShi   开始日期
+     * @param jieShu   结束日期
+     */
+    public BaoGaoCache.BaoGao generateBaoGaoXuLieHua(Long gongSiId, LocalDate kaiShi, LocalDate jieShu) throws JSONException {
+        JSONObject reportJsonObject = generateBaoGao(gongSiId, kaiShi, jieShu);
+        JSONArray gongZuoJiLusJsonArray = (JSONArray) reportJsonObject.remove("消费记录");
+        JSONArray zhiFusJsonArray = (JSONArray) reportJsonObject.remove("充值记录");
+
+        // 开始, 结束, 期初和期末Balance, 去掉最后的"}"
+        String tou = reportJsonObject.toString();
+        StringBuilder json = new StringBuilder(tou.length() + 128 * gongZuoJiLusJsonArray.length());
+        json.append(tou, 0, tou.length() - 1).append(",\"消费记录\":[");
+
+        int[] weiZhi = new int[gongZuoJiLusJsonArray.length() + 1];
+        for (int i = 0; i < gongZuoJiLusJsonArray.length(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            weiZhi[i] = json.length();
+            json.append(gongZuoJiLusJsonArray.getJSONObject(i).toString());
+        }
+        weiZhi[gongZuoJiLusJsonArray.length()] = json.length() + 1;
+
+        json.append("],\"充值记录\":").append(zhiFusJsonArray.toString()).append('}');
+
+        return new BaoGaoCache.BaoGao(json.toString(), weiZhi);
+    }
+
+    /**
+     * 报告摘要: 期初, 期末Balance和按项目, 按人员的合计, 不含消费记录
+     * <p>
+     * 合计从每日费用台账汇总, 与消费记录的条数无关
+     *
+     * @param gongSiId 公司id
+     * @param kaiShi   开始日期
+     * @param jieShu   结束日期
+     */
+    public JSONObject generateBaoGaoZhaiYao(Long gongSiId, LocalDate kaiShi, LocalDate jieShu) throws JSONException {
+        HuiZong huiZong = gainHuiZong(gongSiId, kaiShi, jieShu);
+
+        BigDecimal zhiFuZongE = BigDecimal.ZERO;
+        for (ZhiFu zhiFu : huiZong.zhiFus) {
+            zhiFuZongE = zhiFuZongE.add(zhiFu.getJingE());
+        }
+
+        long tiaoShu = 0;
+        long miaoShu = 0;
+        long feiYong = 0;
+        JSONArray xiangMusJsonArray = new JSONArray();
+        for (Object[] hang : riZhangRepository.calXiangMuHeJi(gongSiId, kaiShi, jieShu)) {
+            xiangMusJsonArray.put(toHeJi("项目", hang));
+
+            tiaoShu += toLong(hang[1]);
+            miaoShu += toLong(hang[2]);
+            feiYong = Math.addExact(feiYong, toLong(hang[3]));
+        }
+
+        JSONArray yongHusJsonArray = new JSONArray();
+        for (Object[] hang : riZhangRepository.calYongHuHeJi(gongSiId, kaiShi, jieShu)) {
+            yongHusJsonArray.put(toHeJi("人员", hang));
+        }
+
+        JSONObject zhaiYaoJsonObject = new JSONObject();
+        zhaiYaoJsonObject.put("开始", kaiShi);
+        zhaiYaoJsonObject.put("结束", jieShu);
+        zhaiYaoJsonObject.put("期初Balance", huiZong.kaiShiBalance);
+        zhaiYaoJsonObject.put("期末Balance", huiZong.jieShuBalance);
+        zhaiYaoJsonObject.put("充值合计", zhiFuZongE);
+        zhaiYaoJsonObject.put("消费条数", tiaoShu);
+        zhaiYaoJsonObject.put("耗时合计", CostEngine.haoShi(miaoShu));
+        zhaiYaoJsonObject.put("费用合计", CostEngine.toBigDecimal(feiYong));
+        zhaiYaoJsonObject.put("按项目", xiangMusJsonArray);
+        zhaiYaoJsonObject.put("按人员", yongHusJsonArray);
+
+        return zhaiYaoJsonObject;
+    }
+
+    /**
+     * 台账合计的一行(名称, 条数, 秒数, 费用)
+     */
+    private static JSONObject toHeJi(String mingChengJian, Object[] hang) throws JSONException {
+        JSONObject jsonObject = new JSONObject();
+        jsonObject.put(mingChengJian, hang[0]);
+        jsonObject.put("条数", toLong(hang[1]));
+        jsonObject.put("耗时", CostEngine.haoShi(toLong(hang[2])));
+        jsonObject.put("费用", CostEngine.toBigDecimal(toLong(hang[3])));
+
+        return jsonObject;
+    }
+
+    /**
+     * 一页消费记录
+     * <p>
+     * 1) 游标是不透明的字符串, 记录下一条的序号和报告内容的哈希; 没有游标时从第一条开始<br>
+     * 2) 报告内容在两页之间变化(修改了工作记录, 支付等)时序号不再可靠, 报错, 需要从第一页重新读取
+     *
+     * @param baoGao  序列化后的报告, 见generateBaoGaoXuLieHua
+     * @param youBiao 上一页返回的游标, 第一页为null或空
+     * @param size    每页条数
+     * @return 总条数, 消费记录, 下一页的游标(没有下一页时为null)
+     */
+    public JSONObject gainXiaoFeiJiLuYe(BaoGaoCache.BaoGao baoGao, String youBiao, int size) throws JSONException {
+        int kaiShi = StringUtils.isEmpty(youBiao) ? 0 : jieXiYouBiao(baoGao, youBiao);
+        int jieShu = Math.min(kaiShi + size, baoGao.gainTiaoShu());
+
+        JSONObject yeJsonObject = new JSONObject();
+        yeJsonObject.put("总条数", baoGao.gainTiaoShu());
+        yeJsonObject.put("消费记录", new JSONArray(baoGao.gainXiaoFeiJiLu(kaiShi, size)));
+        yeJsonObject.put("下一页", jieShu < baoGao.gainTiaoShu() ? toYouBiao(baoGao, jieShu) : JSONObject.NULL);
+
+        return yeJsonObject;
+    }
+
+    private static String toYouBiao(BaoGaoCache.BaoGao baoGao, int xuHao) {
+        String youBiao = xuHao + "." + Integer.toHexString(baoGao.getJson().hashCode());
+
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(youBiao.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static int jieXiYouBiao(BaoGaoCache.BaoGao baoGao, String youBiao) {
+        String[] bufens;
+        int xuHao;
+        try {
+            bufens = new String(Base64.getUrlDecoder().decode(youBiao), StandardCharsets.UTF_8).split("\\.");
+            xuHao = Integer.parseInt(bufens[0]);
+        } catch (IllegalArgumentException e) {
+            throw new PPBusinessException("游标无效!");
+        }
+        if (bufens.length != 2 || xuHao < 0) {
+            throw new PPBusinessException("游标无效!");
+        }
+
+        if (xuHao > baoGao.gainTiaoShu() || !bufens[1].equals(Integer.toHexString(baoGao.getJson().hashCode()))) {
+            throw new PPBusinessException("报告内容已变化, 请从第一页重新读取!");
+        }
+
+        return xuHao;
+    }
+
+    /**
+     * 检查能否生成报告, 与生成报告开始时的检查相同, 不读取消费记录
+     *
+     * @param gongSiId 公司id
+     * @param kaiShi   开始日期
+     * @param jieShu   结束日期
+     */
+    public void checkBaoGao(Long gongSiId, LocalDate kaiShi, LocalDate jieShu) {
+        gainHuiZong(gongSiId, kaiShi, jieShu);
+    }
+
+    /**
+     * 生成报告并直接写出, 内容与PPResponse.response(generateBaoGao(...))相同, 见exportBaoGao
+     *
+     * @param gongSiId  公司id
+     * @param kaiShi    开始日期
+     * @param jieShu    结束日期
+     * @param generator 输出, 由调用方关闭
+     */
+    public void writeBaoGao(Long gongSiId, LocalDate kaiShi, LocalDate jieShu, JsonGenerator generator) throws IOException {
+        exportBaoGao(gongSiId, kaiShi, jieShu, new BaoGaoDaoChu.Json(generator));
+    }
+
+    /**
+     * 生成报告并按指定格式逐条写出
+     * <p>
+     * 1) 所有可能报错的检查都在写出第一个字节之前完成, 出错时照常返回错误信息<br>
+     * 2) 消费记录用游标逐条读取并写出, 每QING_KONG_JIAN_GE条把写出过的工作记录移出持久化上下文<br>
+     * 3) 期初和期末Balance在写出之前汇总, 期末Balance在消费记录之后写出
+     *
+     * @param gongSiId 公司id
+     * @param kaiShi   开始日期
+     * @param jieShu   结束日期
+     * @param daoChu   输出格式, 由调用方关闭
+     */
+    public void exportBaoGao(Long gongSiId, LocalDate kaiShi, LocalDate jieShu, BaoGaoDaoChu daoChu) throws IOException {
+        BaoGaoXieChu xieChu = startBaoGao(gongSiId, kaiShi, jieShu, daoChu);
+        FenKuaiYiChu fenKuaiYiChu = new FenKuaiYiChu();
+
+        try (Stream<GongZuoJiLu> stream = gongZuoJiLuRepository.streamGongSiGongZuoJiLuAnKaiShi(gongSiId, kaiShi.atStartOfDay(), jieShu.plusDays(1).atStartOfDay())) {
+            Iterator<GongZuoJiLu> iterator = stream.iterator();
+            while (iterator.hasNext()) {
+                GongZuoJiLu gongZuoJiLu = iterator.next();
+                xieChu.write(gongZuoJiLu);
+
+                if (fenKuaiYiChu.add(gongZuoJiLu)) {
+                    daoChu.flush();
+                }
+            }
+        }
+        fenKuaiYiChu.finish();
+
+        xieChu.finish();
+    }
+
+    /**
+     * 月末批量生成所有公司的报告, 每个公司写出一个文件, 内容同writeBaoGao
+     * <p>
+     * 1) 时间段内所有公司的工作记录只查询一次, 按(公司, 项目, 开始时间)排序逐条读取, 依次写入各公司的文件<br>
+     * 2) 计费标准从RateTimelineCache取得, 各公司共用, 不随持久化上下文清空<br>
+     * 3) 某个公司检查出错(如没有找到计费标准)时删除它的文件, 跳过它的工作记录, 其他公司照常生成<br>
+     * 4) 文件写在piLiangMuLu下以时间段命名的目录中, 重复生成时覆盖<br>
+     * 5) 返回每个公司的条数和耗时, 以及总条数和每秒条数
+     *
+     * @param kaiShi 开始日期
+     * @param jieShu 结束日期
+     */
+    public PiLiangJieGuo writePiLiangBaoGao(LocalDate kaiShi, LocalDate jieShu) throws IOException {
+        Path muLu = Paths.get(piLiangMuLu, kaiShi + "_" + jieShu);
+        Files.createDirectories(muLu);
+
+        // 只保留id和名称, 清空持久化上下文后仍可使用
+        List<GongSi> gongSis = new ArrayList<>();
+        gongSiRepository.findAll().forEach(gongSis::add);
+        gongSis.sort(Comparator.comparing(GongSi::getId));
+
+        long kaiShiNanoTime = System.nanoTime();
+        List<GongSiJieGuo> gongSiJieGuos = new ArrayList<>(gongSis.size());
+        long zongTiaoShu = 0;
+        FenKuaiYiChu fenKuaiYiChu = new FenKuaiYiChu();
+
+        try (Stream<GongZuoJiLu> stream = gongZuoJiLuRepository.streamGongZuoJiLuAnGongSi(kaiShi.atStartOfDay(), jieShu.plusDays(1).atStartOfDay())) {
+            Iterator<GongZuoJiLu> iterator = stream.iterator();
+            GongZuoJiLu gongZuoJiLu = iterator.hasNext() ? iterator.next() : null;
+
+            for (GongSi gongSi : gongSis) {
+                Long gongSiId = gongSi.getId();
+                long gongSiNanoTime = System.nanoTime();
+                Path wenJian = muLu.resolve("gongSi-" + gongSiId + ".json");
+                String cuoWu = null;
+                long tiaoShu = 0;
+
+                // 取出公司列表之后新建的公司不在列表中, 跳过它们的工作记录
+                while (gongZuoJiLu != null && gongZuoJiLu.getXiangMu().getGongSi().getId() < gongSiId) {
+                    gongZuoJiLu = iterator.hasNext() ? iterator.next() : null;
+                }
+
+                try (JsonGenerator generator = objectMapper.getFactory().createGenerator(Files.newOutputStream(wenJian), JsonEncoding.UTF8)) {
+                    BaoGaoXieChu xieChu = null;
+                    try {
+                        xieChu = startBaoGao(gongSiId, kaiShi, jieShu, new BaoGaoDaoChu.Json(generator));
+                    } catch (PPBusinessException e) {
+                        cuoWu = e.getMessage();
+                    }
+
+                    while (gongZuoJiLu != null && gongZuoJiLu.getXiangMu().getGongSi().getId().equals(gongSiId)) {
+                        if (xieChu != null) {
+                            xieChu.write(gongZuoJiLu);
+                        }
+
+                        tiaoShu++;
+                        if (fenKuaiYiChu.add(gongZuoJiLu)) {
+                            generator.flush();
+                        }
+
+                        gongZuoJiLu = iterator.hasNext() ? iterator.next() : null;
+                    }
+
+                    if (xieChu != null) {
+                        xieChu.finish();
+                    }
+                }
+
+                if (cuoWu != null) {
+                    Files.delete(wenJian);
+                    wenJian = null;
+                    log.info(gongSi + ": " + cuoWu + ", 不生成报告");
+                }
+
+                zongTiaoShu += tiaoShu;
+                gongSiJieGuos.add(new GongSiJieGuo(gongSiId, gongSi.getMingCheng(), wenJian == null ? null : wenJian.toString(), tiaoShu, (System.nanoTime() - gongSiNanoTime) / 1_000_000, cuoWu));
+            }
+        }
+
+        fenKuaiYiChu.finish();
+
+        // 公司随工作记录只读地取出过, 清空后之后的结算重新读取
+        entityManager.clear();
+
+        long haoShiHaoMiao = (System.nanoTime() - kaiShiNanoTime) / 1_000_000;
+        long meiMiaoTiaoShu = zongTiaoShu * 1000 / Math.max(haoShiHaoMiao, 1);
+        log.info("批量生成报告: " + gongSis.size() + "个公司, " + zongTiaoShu + "条工作记录, 耗时" + haoShiHaoMiao + "ms, 每秒" + meiMiaoTiaoShu + "条");
+
+        return new PiLiangJieGuo(muLu.toString(), zongTiaoShu, haoShiHaoMiao, meiMiaoTiaoShu, gongSiJieGuos);
+    }
+
+    /**
+     * 检查并写出报告的开头, 返回之后逐条写出消费记录
+     * <p>
+     * 所有可能报错的检查都在写出第一个字节之前完成
+     */
+    private BaoGaoXieChu startBaoGao(Long gongSiId, LocalDate kaiShi, LocalDate jieShu, BaoGaoDaoChu daoChu) throws IOException {
+        HuiZong huiZong = gainHuiZong(gongSiId, kaiShi, jieShu);
+
+        daoChu.start(kaiShi, jieShu, huiZong.kaiShiBalance);
+
+        return new BaoGaoXieChu(daoChu, huiZong);
+    }
+
+    /**
+     * 写入结算快照
+     * <p>
+     * 1) 同一结算日已有快照时不重复写入<br>
+     * 2) 结算日之前有没有适用计费标准的工作记录时不写入, 报告照常按台账计算并报错
+     *
+     * @param gongSi    公司
+     * @param jieSuanRi 结算日
+     */
+    public void createJieSuanKuaiZhao(GongSi gongSi, LocalDate jieSuanRi) {
+        if (jieSuanKuaiZhaoRepository.existsByGongSiIdAndJieSuanRi(gongSi.getId(), jieSuanRi)) {
+            return;
+        }
+
+        JieSuanKuaiZhao qianYiGe = jieSuanKuaiZhaoRepository.findFirstByGongSiIdAndJieSuanRiLessThanOrderByJieSuanRiDesc(gongSi.getId(), jieSuanRi);
+
+        Long feiYongZongE = calFeiYongTotal(gongSi.getId(), qianYiGe, jieSuanRi.plusDays(1));
+        if (feiYongZongE == null) {
+            log.info(gongSi + ": " + jieSuanRi + "之前有工作记录没有找到计费标准, 不写入结算快照");
+            return;
+        }
+        BigDecimal zhiFuZongE = calIncomingTotal(gongSi.getId(), qianYiGe, jieSuanRi);
+
+        JieSuanKuaiZhao kuaiZhao = new JieSuanKuaiZhao(null, gongSi, jieSuanRi, feiYongZongE, zhiFuZongE, zhiFuZongE.subtract(CostEngine.toBigDecimal(feiYongZongE)), LocalDateTime.now());
+        kuaiZhao.v();
+        jieSuanKuaiZhaoRepository.save(kuaiZhao);
+    }
+
+    /**
+     * 报告的期初Balance, 期末Balance和时间段内的支付
+     * <p>
+     * 1) 费用总额从台账汇总, 支付总和与支付一起查出, 各一条语句, 与工作记录和支付的条数无关<br>
+     * 2) 有开始日期之前的快照时从快照算起<br>
+     * 3) 有没有适用计费标准的台账时抛异常, 之后生成消费记录时不会再报错
+     */
+    private HuiZong gainHuiZong(Long gongSiId, LocalDate kaiShi, LocalDate jieShu) {
+        JieSuanKuaiZhao kuaiZhao = jieSuanKuaiZhaoRepository.findFirstByGongSiIdAndJieSuanRiLessThanOrderByJieSuanRiDesc(gongSiId, kaiShi);
+
+        // --费用
+        Object[] feiYong = (kuaiZhao == null
+                ? riZhangRepository.calBaoGaoFeiYong(gongSiId, kaiShi, jieShu)
+                : riZhangRepository.calBaoGaoFeiYong(gongSiId, kuaiZhao.getJieSuanRi(), kaiShi, jieShu)).get(0);
+        if (toLong(feiYong[2]) > 0) {
+            throw new PPBusinessException("开始日期之前有工作记录没有找到计费标准!");
+        }
+        if (toLong(feiYong[3]) > 0) {
+            throw new PPBusinessException("报告时间段内有工作记录没有找到计费标准!");
+        }
+
+        long kaiShiCostTotal = toLong(feiYong[0]);
+        long jieShuCostTotal = toLong(feiYong[1]);
+        // --
+
+        // --支付
+        List<Object[]> hangs = kuaiZhao == null
+                ? zhiFuRepository.findBaoGaoZhiFu(gongSiId, kaiShi, jieShu)
+                : zhiFuRepository.findBaoGaoZhiFu(gongSiId, kuaiZhao.getJieSuanRi(), kaiShi, jieShu);
+
+        List<ZhiFu> zhiFus = new ArrayList<>(hangs.size());
+        BigDecimal kaiShiIncoming = BigDecimal.ZERO;
+        BigDecimal jieShuIncoming = BigDecimal.ZERO;
+        for (Object[] hang : hangs) {
+            if (hang[0] != null) {
+                zhiFus.add((ZhiFu) hang[0]);
+            }
+            kaiShiIncoming = (BigDecimal) hang[1];
+            jieShuIncoming = (BigDecimal) hang[2];
+        }
+        // --
+
+        if (kuaiZhao != null) {
+            kaiShiCostTotal = Math.addExact(kuaiZhao.getFeiYongZongE(), kaiShiCostTotal);
+            jieShuCostTotal = Math.addExact(kuaiZhao.getFeiYongZongE(), jieShuCostTotal);
+            kaiShiIncoming = kuaiZhao.getZhiFuZongE().add(kaiShiIncoming);
+            jieShuIncoming = kuaiZhao.getZhiFuZongE().add(jieShuIncoming);
+        }
+
+        return new HuiZong(
+                kaiShiIncoming.subtract(CostEngine.toBigDecimal(kaiShiCostTotal)),
+                jieShuIncoming.subtract(CostEngine.toBigDecimal(jieShuCostTotal)),
+                zhiFus
+        );
+    }
+
+    private static long toLong(Object value) {
+        return value == null ? 0 : ((Number) value).longValue();
+    }
+
+    /**
+     * 指定日期之前的费用总额(CostEngine的费用单位), 有快照时从快照算起
+     *
+     * @param gongSiId 公司id
+     * @param kuaiZhao 结算日早于jieShu的快照, 可以为null
+     * @param jieShu   结束日期 小于
+     * @return 有没有适用计费标准的工作记录时为null
+     */
+    private Long calFeiYongTotal(Long gongSiId, JieSuanKuaiZhao kuaiZhao, LocalDate jieShu) {
+        if (kuaiZhao == null) {
+            return riZhangRepository.countWeiJiFei(gongSiId, jieShu) > 0 ? null : riZhangRepository.calFeiYongTotal(gongSiId, jieShu);
+        }
+
+        if (riZhangRepository.countWeiJiFei(gongSiId, kuaiZhao.getJieSuanRi(), jieShu) > 0) {
+            return null;
+        }
+
+        return Math.addExact(kuaiZhao.getFeiYongZongE(), riZhangRepository.calFeiYongTotal(gongSiId, kuaiZhao.getJieSuanRi(), jieShu));
+    }
+
+    /**
+     * 截至指定日期的支付总额, 有快照时从快照算起
+     *
+     * @param gongSiId 公司id
+     * @param kuaiZhao 结算日早于或等于jieShu的快照, 可以为null
+     * @param jieShu   结束日期 小于等于
+     */
+    private BigDecimal calIncomingTotal(Long gongSiId, JieSuanKuaiZhao kuaiZhao, LocalDate jieShu) {
+        if (kuaiZhao == null) {
+            return zhiFuRepository.calIncomingTotal(gongSiId, jieShu);
+        }
+
+        return kuaiZhao.getZhiFuZongE().add(zhiFuRepository.calIncomingTotal(gongSiId, kuaiZhao.getJieSuanRi(), jieShu));
+    }
+
+    /**
+     * 时间段内的消费记录
+     * <p>
+     * 1) 有多个项目时按项目拆分, 在forkJoinPool中计算, 每个项目在自己的只读事务(连接)中查询<br>
+     * 2) 各项目的结果按项目id顺序拼接, 与串行查询的顺序(项目, 开始时间)一致<br>
+     * 3) 当前事务修改过公司的数据时, 其他连接看不到这些修改, 在当前事务中串行计算<br>
+     * 4) 同时并行计算的报告数受bingXingBaoGao限制, 超出时串行计算<br>
+     * 5) 并行时各项目的计费标准事先在当前事务中取出, 传给工作线程; 之后提交的计费标准修改不影响本报告
+     *
+     * @param kaiShi 开始时间 大于等于
+     * @param jieShu 开始时间 小于
+     */
+    private List<JSONObject> gainXiaoFeiJiLu(Long gongSiId, LocalDateTime kaiShi, LocalDateTime jieShu) {
+        if (forkJoinPool != null && !gongSiBianGeng.isChanged(gongSiId)) {
+            List<Long> xiangMuIds = gongZuoJiLuRepository.findGongSiXiangMuIdsAnKaiShi(gongSiId, kaiShi, jieShu);
+            if (xiangMuIds.size() > 1) {
+                // 计费标准在取得许可之前, 在调用方的事务中加载, 工作线程不再访问缓存
+                Map<Long, Map<Long, RateTimeline>> rateTimelines = new HashMap<>();
+                for (Long xiangMuId : xiangMuIds) {
+                    rateTimelines.put(xiangMuId, rateTimelineCache.gainRateTimelines(entityManager.getReference(XiangMu.class, xiangMuId)));
+                }
+
+                if (bingXingBaoGao.tryAcquire()) {
+                    try {
+                        return forkJoinPool.invoke(new XiangMuRenWu(xiangMuIds, 0, xiangMuIds.size(), kaiShi, jieShu, rateTimelines));
+                    } finally {
+                        bingXingBaoGao.release();
+                    }
+                }
+            }
+        }
+
+        return toJiLus(gongZuoJiLuRepository.streamGongSiGongZuoJiLuAnKaiShi(gongSiId, kaiShi, jieShu), this::gainRateTimeline);
+    }
+
+    /**
+     * 用游标逐条读取并转换, 转换过的工作记录分块移出持久化上下文
+     *
+     * @param rateTimeline 取得工作记录适用的计费标准时间线
+     */
+    private List<JSONObject> toJiLus(Stream<GongZuoJiLu> gongZuoJiLus, Function<GongZuoJiLu, RateTimeline> rateTimeline) {
+        List<JSONObject> jiLus = new ArrayList<>();
+        FenKuaiYiChu fenKuaiYiChu = new FenKuaiYiChu();
+
+        try (Stream<GongZuoJiLu> stream = gongZuoJiLus) {
+            Iterator<GongZuoJiLu> iterator = stream.iterator();
+            while (iterator.hasNext()) {
+                GongZuoJiLu gongZuoJiLu = iterator.next();
+                jiLus.add(toJiLu(gongZuoJiLu, rateTimeline.apply(gongZuoJiLu)));
+                fenKuaiYiChu.add(gongZuoJiLu);
+            }
+        }
+        fenKuaiYiChu.finish();
+
+        return jiLus;
+    }
+
+    private JSONObject toJiLu(GongZuoJiLu gongZuoJiLu, RateTimeline rateTimeline) {
+        XiaoFei xiaoFei = gainXiaoFei(gongZuoJiLu, rateTimeline);
+
+        try {
+            JSONObject jsonObject = new JSONObject();
+            jsonObject.put("开始", gongZuoJiLu.getKaiShi());
+            jsonObject.put("结束", gongZuoJiLu.getJieShu());
+            jsonObject.put("项目", gongZuoJiLu.getXiangMu().getMingCheng());
+            jsonObject.put("人员", gongZuoJiLu.getYongHu().getYongHuMing());
+            jsonObject.put("耗时", CostEngine.haoShi(xiaoFei.miaoShu));
+            jsonObject.put("小时费用", xiaoFei.xiaoShiFeiYong);
+            jsonObject.put("费用", CostEngine.toBigDecimal(xiaoFei.feiYong));
+
+            return jsonObject;
+        } catch (JSONException e) {
+            throw new PPBusinessException(e.getMessage());
+        }
+    }
+
+    private RateTimeline gainRateTimeline(GongZuoJiLu gongZuoJiLu) {
+        return rateTimelineCache.gainRateTimeline(gongZuoJiLu.getXiangMu(), gongZuoJiLu.getYongHu().getId());
+    }
+
+    /**
+     * 一条工作记录的消费
+     *
+     * @param rateTimeline 工作记录的项目和用户的计费标准时间线
+     */
+    private XiaoFei gainXiaoFei(GongZuoJiLu gongZuoJiLu, RateTimeline rateTimeline) {
+        LocalDate riQi = gongZuoJiLu.getKaiShi().toLocalDate();
+
+        long dingDianXiaoShiFeiYong = rateTimeline.gainDingDianXiaoShiFeiYong(riQi);
+        if (dingDianXiaoShiFeiYong == CostEngine.WU) {
+            throw new PPBusinessException(gongZuoJiLu.toString() + ": 没有找到计费标准!");
+        }
+
+        long miaoShu = Duration.between(gongZuoJiLu.getKaiShi(), gongZuoJiLu.getJieShu()).getSeconds();
+
+        return new XiaoFei(rateTimeline.gainXiaoShiFeiYong(riQi), miaoShu, CostEngine.feiYong(dingDianXiaoShiFeiYong, miaoShu));
+    }
+
+    /**
+     * 报告的期初Balance, 期末Balance和时间段内的支付, 见gainHuiZong
+     */
+    @AllArgsConstructor
+    private static class HuiZong {
+        private final BigDecimal kaiShiBalance;
+
+        private final BigDecimal jieShuBalance;
+
+        private final List<ZhiFu> zhiFus;
+    }
+
+    /**
+     * 计算xiangMuIds[kaiShi, jieShu)的消费记录, 多于一个项目时对半拆分
+     */
+    private class XiangMuRenWu extends RecursiveTask<List<JSONObject>> {
+        private final List<Long> xiangMuIds;
+
+        private final int kaiShi;
+
+        private final int jieShu;
+
+        private final LocalDateTime kaiShiShiJian;
+
+        private final LocalDateTime jieShuShiJian;
+
+        /**
+         * 项目id - 用户id - 计费标准时间线, 由调用方事先加载, 工作线程只读
+         */
+        private final Map<Long, Map<Long, RateTimeline>> rateTimelines;
+
+        XiangMuRenWu(List<Long> xiangMuIds, int kaiShi, int jieShu, LocalDateTime kaiShiShiJian, LocalDateTime jieShuShiJian, Map<Long, Map<Long, RateTimeline>> rateTimelines) {
+            this.xiangMuIds = xiangMuIds;
+            this.kaiShi = kaiShi;
+            this.jieShu = jieShu;
+            this.kaiShiShiJian = kaiShiShiJian;
+            this.jieShuShiJian = jieShuShiJian;
+            this.rateTimelines = rateTimelines;
+        }
+
+        @Override
+        protected List<JSONObject> compute() {
+            if (jieShu - kaiShi == 1) {
+                TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+                transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+                transactionTemplate.setReadOnly(true);
+
+                Long xiangMuId = xiangMuIds.get(kaiShi);
+                Map<Long, RateTimeline> xiangMuTimelines = rateTimelines.get(xiangMuId);
+
+                return transactionTemplate.execute(status -> toJiLus(
+                        gongZuoJiLuRepository.streamXiangMuGongZuoJiLuAnKaiShi(xiangMuId, kaiShiShiJian, jieShuShiJian),
+                        gongZuoJiLu -> xiangMuTimelines.getOrDefault(gongZuoJiLu.getYongHu().getId(), RateTimeline.EMPTY)
+                ));
+            }
+
+            int zhongJian = (kaiShi + jieShu) >>> 1;
+            XiangMuRenWu qianMian = new XiangMuRenWu(xiangMuIds, kaiShi, zhongJian, kaiShiShiJian, jieShuShiJian, rateTimelines);
+            XiangMuRenWu houMian = new XiangMuRenWu(xiangMuIds, zhongJian, jieShu, kaiShiShiJian, jieShuShiJian, rateTimelines);
+
+            qianMian.fork();
+            List<JSONObject> houMianJiLus = houMian.compute();
+
+            List<JSONObject> jiLus = qianMian.join();
+            jiLus.addAll(houMianJiLus);
+
+            return jiLus;
+        }
+    }
+
+    /**
+     * 逐条读取的工作记录, 每QING_KONG_JIAN_GE条移出一次持久化上下文
+     * <p>
+     * 只移出工作记录; 项目和用户留在持久化上下文中, 数量与工作记录条数无关; 调用方的其他实体不受影响
+     */
+    private class FenKuaiYiChu {
+        private final List<GongZuoJiLu> kuai = new ArrayList<>(QING_KONG_JIAN_GE);
+
+        /**
+         * @return 满一块并已移出时为true
+         */
+        boolean add(GongZuoJiLu gongZuoJiLu) {
+            kuai.add(gongZuoJiLu);
+            if (kuai.size() < QING_KONG_JIAN_GE) {
+                return false;
+            }
+
+            finish();
+            return true;
+        }
+
+        /**
+         * 移出剩余的工作记录
+         */
+        void finish() {
+            for (GongZuoJiLu gongZuoJiLu : kuai) {
+                entityManager.detach(gongZuoJiLu);
+            }
+            kuai.clear();
+        }
+    }
+
+    /**
+     * 一个报告从消费记录开始的写出过程, 见startBaoGao
+     */
+    @AllArgsConstructor
+    private class BaoGaoXieChu {
+        private final BaoGaoDaoChu daoChu;
+
+        private final HuiZong huiZong;
+
+        /**
+         * 写出一条消费记录
+         */
+        void write(GongZuoJiLu gongZuoJiLu) throws IOException {
+            XiaoFei xiaoFei = gainXiaoFei(gongZuoJiLu, gainRateTimeline(gongZuoJiLu));
+
+            daoChu.write(
+                    gongZuoJiLu.getKaiShi(),
+                    gongZuoJiLu.getJieShu(),
+                    gongZuoJiLu.getXiangMu().getMingCheng(),
+                    gongZuoJiLu.getYongHu().getYongHuMing(),
+                    CostEngine.haoShi(xiaoFei.miaoShu),
+                    xiaoFei.xiaoShiFeiYong,
+                    CostEngine.toBigDecimal(xiaoFei.feiYong)
+            );
+        }
+
+        /**
+         * 写出充值记录和期末Balance
+         */
+        void finish() throws IOException {
+            daoChu.finish(huiZong.jieShuBalance, huiZong.zhiFus);
+        }
+    }
+
+    /**
+     * 批量生成报告的结果
+     */
+    @AllArgsConstructor
+    @Getter
+    public static class PiLiangJieGuo {
+        /**
+         * 输出目录
+         */
+        private final String muLu;
+
+        /**
+         * 工作记录总条数
+         */
+        private final long zongTiaoShu;
+
+        /**
+         * 总耗时(毫秒)
+         */
+        private final long haoShiHaoMiao;
+
+        /**
+         * 每秒处理的工作记录条数
+         */
+        private final long meiMiaoTiaoShu;
+
+        private final List<GongSiJieGuo> gongSis;
+    }
+
+    /**
+     * 一个公司的报告
+     */
+    @AllArgsConstructor
+    @Getter
+    public static class GongSiJieGuo {
+        private final Long gongSiId;
+
+        private final String mingCheng;
+
+        /**
+         * 报告文件, 出错时为null
+         */
+        private final String wenJian;
+
+        /**
+         * 工作记录条数
+         */
+        private final long tiaoShu;
+
+        /**
+         * 耗时(毫秒)
+         */
+        private final long haoShiHaoMiao;
+
+        /**
+         * 出错信息, 成功时为null
+         */
+        private final String cuoWu;
+    }
+
+    @AllArgsConstructor
+    private static class XiaoFei {
+        /**
+         * 小时费用
+         */
+        private final BigDecimal xiaoShiFeiYong;
+
+        /**
+         * 耗时(秒)
+         */
+        private final long miaoShu;
+
+        /**
+         * 费用, CostEngine的费用单位
+         */
+        private final long feiYong;
+    }
+}
@@ -0,0 +1,369 @@
+package com.example.timesheet.service;
+
+import com.example.timesheet.exception.PPBusinessException;
+import com.example.timesheet.exception.PPValidateException;
+import com.example.timesheet.model.DaoRuRenWu;
+import com.example.timesheet.repository.DaoRuRenWuRepository;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * 异步导入任务
+ * <p>
+ * 1) 任务和待导入的数据先保存到数据库, 再交给有界线程池执行<br>
+ * 2) 执行时分块提交, 导入进度与块在同一个事务中提交; 块回滚时逐条重试, 进度与每条记录一起提交<br>
+ * 3) 应用重启后, 未结束的任务从最后提交的块之后继续, 执行耗时与进度一起保存, 每秒处理行数跨重启累计<br>
+ * 4) 取消在块之间生效, 已提交的块保留
+ */
+@Slf4j
+@Service
+public class DaoRuRenWuService {
+    /**
+     * 每个任务在内存中保留的失败记录条数
+     */
+    private static final int MAX_CUO_WU_SHU = 100;
+
+    @Autowired
+    private DaoRuRenWuRepository daoRuRenWuRepository;
+
+    @Autowired
+    private ImportService importService;
+
+    @Autowired
+    private MainService mainService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Value("${timesheet.import.chunk-size:500}")
+    private int chunkSize;
+
+    @Value("${timesheet.import.job.threads:2}")
+    private int threads;
+
+    @Value("${timesheet.import.job.queue-capacity:100}")
+    private int queueCapacity;
+
+    /**
+     * 已结束任务的内存进度(失败记录等)保留的分钟数, 之后只能查到数据库中的进度
+     */
+    @Value("${timesheet.import.job.retention-minutes:10}")
+    private long retentionMinutes;
+
+    private ThreadPoolTaskExecutor executor;
+
+    /**
+     * 内存进度, 任务结束retentionMinutes分钟后移除, 见removeGuoQi
+     */
+    private final Map<Long, JinDu> jinDus = new ConcurrentHashMap<>();
+
+    /**
+     * 每次提交进度后在执行线程中回调, 参数为任务id和已提交的最后一条记录的序号
+     */
+    private volatile BiConsumer<Long, Long> tiJiaoHouListener;
+
+    @PostConstruct
+    public void init() {
+        executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("daoRuRenWu-");
+        executor.initialize();
+    }
+
+    @PreDestroy
+    public void destroy() {
+        executor.shutdown();
+    }
+
+    /**
+     * 应用启动后继续执行未结束的任务
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void resume() {
+        for (DaoRuRenWu daoRuRenWu : daoRuRenWuRepository.findByZhuangTaiInOrderById(Arrays.asList(DaoRuRenWu.ZhuangTai.DENG_DAI, DaoRuRenWu.ZhuangTai.YUN_XING))) {
+            log.info("继续执行" + daoRuRenWu);
+            try {
+                execute(daoRuRenWu.getId());
+            } catch (PPBusinessException e) {
+                log.error("继续执行" + daoRuRenWu + "失败: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 提交导入任务, 按timesheet.import.chunk-size分块
+     *
+     * @param jiLus 待导入的工作记录
+     */
+    public DaoRuRenWu submit(List<ImportService.JiLu> jiLus) {
+        return submit(jiLus, chunkSize);
+    }
+
+    /**
+     * 提交导入任务
+     * <p>
+     * 在当前事务提交后才开始执行, 以保证执行线程能读到任务
+     *
+     * @param jiLus      待导入的工作记录
+     * @param kuaiDaXiao 每块提交的记录数
+     */
+    public DaoRuRenWu submit(List<ImportService.JiLu> jiLus, int kuaiDaXiao) {
+        String shuJu;
+        try {
+            shuJu = objectMapper.writeValueAsString(jiLus);
+        } catch (Exception e) {
+            throw new PPValidateException(e.getMessage());
+        }
+
+        DaoRuRenWu daoRuRenWu = daoRuRenWuRepository.save(new DaoRuRenWu(null, DaoRuRenWu.ZhuangTai.DENG_DAI, shuJu, (long) jiLus.size(), 0L, 0L, 0L, kuaiDaXiao, 0L, LocalDateTime.now(), null, null));
+        Long id = daoRuRenWu.getId();
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    execute(id);
+                }
+            });
+        } else {
+            execute(id);
+        }
+
+        return daoRuRenWu;
+    }
+
+    /**
+     * 取消导入任务
+     * <p>
+     * 等待中的任务不再执行, 执行中的任务在当前块之后停止, 已提交的块保留
+     *
+     * @param id 导入任务id
+     */
+    public void cancel(Long id) {
+        DaoRuRenWu daoRuRenWu = mainService.gainEntityWithExistsChecking(DaoRuRenWu.class, id);
+
+        if (daoRuRenWu.getZhuangTai() != DaoRuRenWu.ZhuangTai.DENG_DAI && daoRuRenWu.getZhuangTai() != DaoRuRenWu.ZhuangTai.YUN_XING) {
+            throw new PPBusinessException("导入任务已结束, 不能取消!");
+        }
+
+        JinDu jinDu = jinDus.get(id);
+        if (jinDu != null) {
+            jinDu.quXiao = true;
+        }
+
+        if (daoRuRenWu.getZhuangTai() == DaoRuRenWu.ZhuangTai.DENG_DAI) {
+            daoRuRenWuRepository.updateZhuangTai(id, DaoRuRenWu.ZhuangTai.QU_XIAO, LocalDateTime.now(), null);
+        }
+    }
+
+    /**
+     * 设置每次提交进度后的回调, 回调在进度所在的事务提交之后执行, 为null时清除
+     *
+     * @param tiJiaoHouListener 参数为任务id和已提交的最后一条记录的序号
+     */
+    public void setTiJiaoHouListener(BiConsumer<Long, Long> tiJiaoHouListener) {
+        this.tiJiaoHouListener = tiJiaoHouListener;
+    }
+
+    /**
+     * 查询导入进度
+     * <p>
+     * 每秒处理行数由保存的进度算出, 重启后仍然可以查到
+     *
+     * @param id 导入任务id
+     */
+    public Map<String, Object> gainJinDu(Long id) {
+        DaoRuRenWu daoRuRenWu = mainService.gainEntityWithExistsChecking(DaoRuRenWu.class, id);
+
+        removeGuoQi();
+        JinDu jinDu = jinDus.get(id);
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("id", daoRuRenWu.getId());
+        result.put("zhuangTai", daoRuRenWu.getZhuangTai());
+        result.put("zongShu", daoRuRenWu.getZongShu());
+        result.put("yiTiJiaoHang", daoRuRenWu.getYiTiJiaoHang());
+        result.put("chengGongShu", daoRuRenWu.getChengGongShu());
+        result.put("shiBaiShu", daoRuRenWu.getShiBaiShu());
+        result.put("meiMiaoHangShu", daoRuRenWu.getHaoShiHaoMiao() <= 0 ? 0 : daoRuRenWu.getYiTiJiaoHang() * 1000 / daoRuRenWu.getHaoShiHaoMiao());
+        result.put("tiJiaoShiJian", daoRuRenWu.getTiJiaoShiJian());
+        result.put("jieShuShiJian", daoRuRenWu.getJieShuShiJian());
+        result.put("cuoWu", daoRuRenWu.getCuoWu());
+
+        if (jinDu != null) {
+            result.put("yiChuLiShu", jinDu.yiChuLiShu);
+            synchronized (jinDu.cuoWus) {
+                result.put("cuoWus", new ArrayList<>(jinDu.cuoWus));
+            }
+        }
+
+        return result;
+    }
+
+    private void execute(Long id) {
+        removeGuoQi();
+
+        JinDu jinDu = new JinDu();
+        jinDus.put(id, jinDu);
+
+        try {
+            executor.execute(() -> {
+                try {
+                    run(id, jinDu);
+                } finally {
+                    jinDu.jieShu = System.nanoTime();
+                }
+            });
+        } catch (TaskRejectedException e) {
+            jinDus.remove(id);
+
+            // 可能在提交任务的事务的afterCommit中, 需要新事务
+            TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+            transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+            transactionTemplate.execute(status -> daoRuRenWuRepository.updateZhuangTai(id, DaoRuRenWu.ZhuangTai.SHI_BAI, LocalDateTime.now(), "导入任务队列已满, 请稍后再提交!"));
+
+            throw new PPBusinessException("导入任务队列已满, 请稍后再提交!");
+        }
+    }
+
+    private void run(Long id, JinDu jinDu) {
+        Optional<DaoRuRenWu> optional = daoRuRenWuRepository.findById(id);
+        if (!optional.isPresent()) {
+            return;
+        }
+
+        DaoRuRenWu daoRuRenWu = optional.get();
+        if (jinDu.quXiao || daoRuRenWu.getZhuangTai() == DaoRuRenWu.ZhuangTai.QU_XIAO) {
+            daoRuRenWuRepository.updateZhuangTai(id, DaoRuRenWu.ZhuangTai.QU_XIAO, LocalDateTime.now(), null);
+            return;
+        }
+
+        daoRuRenWuRepository.updateZhuangTai(id, DaoRuRenWu.ZhuangTai.YUN_XING, null, null);
+        jinDu.kaiShi = System.nanoTime();
+
+        // --从最后提交的块之后继续
+        long yiTiJiaoHang = daoRuRenWu.getYiTiJiaoHang();
+        long chengGongShu = daoRuRenWu.getChengGongShu();
+        long shiBaiShu = daoRuRenWu.getShiBaiShu();
+        long haoShiHaoMiao = daoRuRenWu.getHaoShiHaoMiao();
+
+        ImportService.FenKuaiDaoRu fenKuaiDaoRu = importService.fenKuaiDaoRu(
+                jieGuo -> {
+                    jinDu.yiChuLiShu++;
+                    if (!"1".equals(jieGuo.getCode())) {
+                        jinDu.addCuoWu(jieGuo);
+                    }
+                },
+                (hang, kuaiChengGongShu, kuaiShiBaiShu) -> {
+                    long benCiHaoMiao = (System.nanoTime() - jinDu.kaiShi) / 1_000_000;
+                    daoRuRenWuRepository.updateJinDu(id, hang, chengGongShu + kuaiChengGongShu, shiBaiShu + kuaiShiBaiShu, haoShiHaoMiao + benCiHaoMiao);
+
+                    BiConsumer<Long, Long> listener = tiJiaoHouListener;
+                    if (listener != null) {
+                        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                            @Override
+                            public void afterCommit() {
+                                listener.accept(id, hang);
+                            }
+                        });
+                    }
+                },
+                daoRuRenWu.getKuaiDaXiao()
+        );
+        // --
+
+        try {
+            MappingIterator<ImportService.JiLu> iterator = objectMapper.readerFor(ImportService.JiLu.class).readValues(daoRuRenWu.getShuJu());
+
+            long hang = 0;
+            while (iterator.hasNextValue()) {
+                ImportService.JiLu jiLu = iterator.nextValue();
+                hang++;
+
+                if (hang <= yiTiJiaoHang) {
+                    continue;
+                }
+
+                if (jinDu.quXiao || Thread.currentThread().isInterrupted()) {
+                    break;
+                }
+
+                fenKuaiDaoRu.add(hang, jiLu);
+            }
+
+            if (jinDu.quXiao) {
+                daoRuRenWuRepository.updateZhuangTai(id, DaoRuRenWu.ZhuangTai.QU_XIAO, LocalDateTime.now(), null);
+            } else if (!Thread.currentThread().isInterrupted()) {
+                fenKuaiDaoRu.finish();
+                daoRuRenWuRepository.updateZhuangTai(id, DaoRuRenWu.ZhuangTai.WAN_CHENG, LocalDateTime.now(), null);
+            }
+            // 线程被中断(应用关闭)时保持执行中状态, 下次启动后继续
+        } catch (Exception e) {
+            log.error("导入任务" + id + "失败", e);
+            String cuoWu = e.getMessage() == null ? e.getClass().getName() : e.getMessage();
+            daoRuRenWuRepository.updateZhuangTai(id, DaoRuRenWu.ZhuangTai.SHI_BAI, LocalDateTime.now(), cuoWu.length() > 2000 ? cuoWu.substring(0, 2000) : cuoWu);
+        }
+    }
+
+    /**
+     * 移除结束超过retentionMinutes分钟的任务的内存进度
+     */
+    private void removeGuoQi() {
+        long now = System.nanoTime();
+        long retentionNanos = TimeUnit.MINUTES.toNanos(retentionMinutes);
+
+        jinDus.values().removeIf(jinDu -> jinDu.jieShu != 0 && now - jinDu.jieShu > retentionNanos);
+    }
+
+    /**
+     * 执行中任务的内存进度
+     */
+    private static class JinDu {
+        volatile boolean quXiao = false;
+
+        volatile long kaiShi = 0;
+
+        volatile long yiChuLiShu = 0;
+
+        /**
+         * 本次执行结束的时间(System.nanoTime), 0为未结束
+         */
+        volatile long jieShu = 0;
+
+        final List<ImportService.JieGuo> cuoWus = new ArrayList<>();
+
+        void addCuoWu(ImportService.JieGuo jieGuo) {
+            synchronized (cuoWus) {
+                if (cuoWus.size() < MAX_CUO_WU_SHU) {
+                    cuoWus.add(jieGuo);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package com.example.timesheet.service;
+
+import com.example.timesheet.model.*;
+import com.example.timesheet.util.CostEngine;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Tuple;
+import javax.persistence.criteria.*;
+import javax.persistence.metamodel.SingularAttribute;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * 工时和费用分析
+ * <p>
+ * 1) 从费用台账汇总, 台账与工作记录在同一事务中增量更新, 不读取工作记录, 查询的行数与工作记录条数无关<br>
+ * 2) 周期: 日, 周(周一开始), 月; 维度: 用户, 项目, 公司<br>
+ * 3) 按日从每日台账(RiZhang)汇总; 按周, 按月时完整的周期从周期台账(ZhouQiZhang)汇总, 只有开始和结束所在的不完整周期从每日台账汇总,
+ * 多年的范围也只读取每个周期一行和两端最多两个周期的每日台账<br>
+ * 4) 没有适用的计费标准的台账不计入费用, 其条数见weiJiFeiTiaoShu
+ */
+@Service
+@Transactional
+public class FenXiService {
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    /**
+     * 汇总工时和费用
+     *
+     * @param kaiShi   开始日期(包含)
+     * @param jieShu   结束日期(包含)
+     * @param zhouQi   周期
+     * @param weiDu    维度
+     * @param gongSiId 公司id, 为null时不限公司
+     * @return 按周期开始日期, 维度id排序
+     */
+    public List<FenXiHang> fenXi(LocalDate kaiShi, LocalDate jieShu, ZhouQi zhouQi, WeiDu weiDu, Long gongSiId) {
+        Map<Jian, LeiJi> leiJis = new HashMap<>();
+
+        if (zhouQi == ZhouQi.RI) {
+            leiJiRiZhang(kaiShi, jieShu, null, weiDu, gongSiId, leiJis);
+        } else {
+            ZhouQiZhang.ZhouQi zhangZhouQi = zhouQi == ZhouQi.ZHOU ? ZhouQiZhang.ZhouQi.ZHOU : ZhouQiZhang.ZhouQi.YUE;
+
+            // 第一个完整周期的开始日期, 最后一个完整周期之后的第一天
+            LocalDate quanKaiShi = zhangZhouQi.gainQi(kaiShi);
+            if (quanKaiShi.isBefore(kaiShi)) {
+                quanKaiShi = zhangZhouQi.gainXiaYiQi(quanKaiShi);
+            }
+            LocalDate quanJieShu = zhangZhouQi.gainQi(jieShu.plusDays(1));
+
+            if (quanKaiShi.isBefore(quanJieShu)) {
+                leiJiRiZhang(kaiShi, quanKaiShi.minusDays(1), zhangZhouQi, weiDu, gongSiId, leiJis);
+                leiJiZhouQiZhang(quanKaiShi, quanJieShu.minusDays(1), zhangZhouQi, weiDu, gongSiId, leiJis);
+                leiJiRiZhang(quanJieShu, jieShu, zhangZhouQi, weiDu, gongSiId, leiJis);
+            } else {
+                // 范围内没有完整的周期
+                leiJiRiZhang(kaiShi, jieShu, zhangZhouQi, weiDu, gongSiId, leiJis);
+            }
+        }
+
+        List<FenXiHang> fenXiHangs = new ArrayList<>(leiJis.size());
+        leiJis.forEach((jian, leiJi) -> fenXiHangs.add(new FenXiHang(
+                jian.qi,
+                jian.id,
+                leiJi.mingCheng,
+                leiJi.tiaoShu,
+                CostEngine.haoShi(leiJi.miaoShu),
+                CostEngine.toBigDecimal(leiJi.feiYong),
+                leiJi.weiJiFeiTiaoShu
+        )));
+
+        fenXiHangs.sort(Comparator.comparing(FenXiHang::getQi).thenComparing(FenXiHang::getId));
+
+        return fenXiHangs;
+    }
+
+    /**
+     * 从每日台账按日和维度汇总, 累加到所在周期
+     *
+     * @param zhouQi 周期, 为null时按日
+     */
+    private void leiJiRiZhang(LocalDate kaiShi, LocalDate jieShu, ZhouQiZhang.ZhouQi zhouQi, WeiDu weiDu, Long gongSiId, Map<Jian, LeiJi> leiJis) {
+        if (kaiShi.isAfter(jieShu)) {
+            return;
+        }
+
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Tuple> c = cb.createTupleQuery();
+        Root<RiZhang> riZhang = c.from(RiZhang.class);
+
+        Path<LocalDate> riQi = riZhang.get(RiZhang_.riQi);
+
+        Predicate criteria = cb.conjunction();
+
+        if (gongSiId != null) {
+            criteria = cb.and(criteria, cb.equal(riZhang.get(RiZhang_.gongSi).get(GongSi_.id), gongSiId));
+        }
+
+        criteria = cb.and(criteria, cb.greaterThanOrEqualTo(riQi, kaiShi));
+
+        criteria = cb.and(criteria, cb.lessThanOrEqualTo(riQi, jieShu));
+
+        List<Expression<?>> fenZu = new ArrayList<>();
+        fenZu.add(riQi);
+        fenZu.addAll(gainWeiDu(riZhang, weiDu, RiZhang_.yongHu, RiZhang_.xiangMu, RiZhang_.gongSi));
+
+        List<Selection<?>> selections = new ArrayList<>(fenZu);
+        selections.add(cb.sum(riZhang.get(RiZhang_.tiaoShu)));
+        selections.add(cb.sum(riZhang.get(RiZhang_.miaoShu)));
+        selections.add(cb.sum(riZhang.get(RiZhang_.feiYong)));
+        selections.add(cb.sum(cb.<Integer>selectCase()
+                .when(cb.isNull(riZhang.get(RiZhang_.feiYong)), riZhang.get(RiZhang_.tiaoShu))
+                .otherwise(0)));
+
+        c.multiselect(selections).where(criteria).groupBy(fenZu);
+
+        for (Tuple tuple : entityManager.createQuery(c).getResultList()) {
+            LocalDate qi = tuple.get(0, LocalDate.class);
+            leiJia(zhouQi == null ? qi : zhouQi.gainQi(qi), tuple, leiJis);
+        }
+    }
+
+    /**
+     * 从周期台账按周期和维度汇总
+     *
+     * @param kaiShi 第一个周期的开始日期
+     * @param jieShu 最后一个周期的结束日期
+     */
+    private void leiJiZhouQiZhang(LocalDate kaiShi, LocalDate jieShu, ZhouQiZhang.ZhouQi zhouQi, WeiDu weiDu, Long gongSiId, Map<Jian, LeiJi> leiJis) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Tuple> c = cb.createTupleQuery();
+        Root<ZhouQiZhang> zhouQiZhang = c.from(ZhouQiZhang.class);
+
+        Path<LocalDate> qi = zhouQiZhang.get(ZhouQiZhang_.qi);
+
+        Predicate criteria = cb.conjunction();
+
+        if (gongSiId != null) {
+            criteria = cb.and(criteria, cb.equal(zhouQiZhang.get(ZhouQiZhang_.gongSi).get(GongSi_.id), gongSiId));
+        }
+
+        criteria = cb.and(criteria, cb.equal(zhouQiZhang.get(ZhouQiZhang_.zhouQi), zhouQi));
+
+        criteria = cb.and(criteria, cb.greaterThanOrEqualTo(qi, kaiShi));
+
+        criteria = cb.and(criteria, cb.lessThanOrEqualTo(qi, jieShu));
+
+        List<Expression<?>> fenZu = new ArrayList<>();
+        fenZu.add(qi);
+        fenZu.addAll(gainWeiDu(zhouQiZhang, weiDu, ZhouQiZhang_.yongHu, ZhouQiZhang_.xiangMu, ZhouQiZhang_.gongSi));
+
+        List<Selection<?>> selections = new ArrayList<>(fenZu);
+        selections.add(cb.sum(zhouQiZhang.get(ZhouQiZhang_.tiaoShu)));
+        selections.add(cb.sum(zhouQiZhang.get(ZhouQiZhang_.miaoShu)));
+        selections.add(cb.sum(zhouQiZhang.get(ZhouQiZhang_.feiYong)));
+        selections.add(cb.sum(zhouQiZhang.get(ZhouQiZhang_.weiJiFeiTiaoShu)));
+
+        c.multiselect(selections).where(criteria).groupBy(fenZu);
+
+        for (Tuple tuple : entityManager.createQuery(c).getResultList()) {
+            leiJia(tuple.get(0, LocalDate.class), tuple, leiJis);
+        }
+    }
+
+    /**
+     * 维度的id和名称, 同时用于分组和输出
+     */
+    private <Z> List<Path<?>> gainWeiDu(Root<Z> root, WeiDu weiDu, SingularAttribute<? super Z, YongHu> yongHuShuXing, SingularAttribute<? super Z, XiangMu> xiangMuShuXing, SingularAttribute<? super Z, GongSi> gongSiShuXing) {
+        switch (weiDu) {
+            case YONG_HU:
+                Join<Z, YongHu> yongHu = root.join(yongHuShuXing);
+                return Arrays.asList(yongHu.get(YongHu_.id), yongHu.get(YongHu_.yongHuMing));
+            case XIANG_MU:
+                Join<Z, XiangMu> xiangMu = root.join(xiangMuShuXing);
+                return Arrays.asList(xiangMu.get(XiangMu_.id), xiangMu.get(XiangMu_.mingCheng));
+            default:
+                Join<Z, GongSi> gongSi = root.join(gongSiShuXing);
+                return Arrays.asList(gongSi.get(GongSi_.id), gongSi.get(GongSi_.mingCheng));
+        }
+    }
+
+    /**
+     * 一行查询结果累加到所在周期: 日期, 维度id, 维度名称, 条数, 秒数, 费用, 未计费条数
+     */
+    private void leiJia(LocalDate qi, Tuple tuple, Map<Jian, LeiJi> leiJis) {
+        Long weiDuId = tuple.get(1, Long.class);
+        String weiDuMingCheng = tuple.get(2, String.class);
+
+        LeiJi leiJi = leiJis.computeIfAbsent(new Jian(qi, weiDuId), key -> new LeiJi(weiDuMingCheng));
+        leiJi.tiaoShu += ((Number) tuple.get(3)).longValue();
+        leiJi.miaoShu += ((Number) tuple.get(4)).longValue();
+        Number feiYong = (Number) tuple.get(5);
+        if (feiYong != null) {
+            leiJi.feiYong += feiYong.longValue();
+        }
+        leiJi.weiJiFeiTiaoShu += ((Number) tuple.get(6)).longValue();
+    }
+
+    /**
+     * 汇总周期
+     */
+    public enum ZhouQi {
+        /**
+         * 日
+         */
+        RI,
+        /**
+         * 周, 周一开始
+         */
+        ZHOU,
+        /**
+         * 月
+         */
+        YUE
+    }
+
+    /**
+     * 汇总维度
+     */
+    public enum WeiDu {
+        /**
+         * 用户
+         */
+        YONG_HU,
+        /**
+         * 项目
+         */
+        XIANG_MU,
+        /**
+         * 公司
+         */
+        GONG_SI
+    }
+
+    /**
+     * 一个周期一个维度成员的合计
+     */
+    @AllArgsConstructor
+    @Getter
+    public static class FenXiHang {
+        /**
+         * 周期开始日期: 按日为当天, 按周为周一, 按月为1日
+         */
+        private final LocalDate qi;
+
+        /**
+         * 用户, 项目或公司的id
+         */
+        private final Long id;
+
+        /**
+         * 用户名, 项目或公司名称
+         */
+        private final String mingCheng;
+
+        /**
+         * 工作记录条数
+         */
+        private final long tiaoShu;
+
+        /**
+         * 耗时(小时)
+         */
+        private final BigDecimal haoShi;
+
+        /**
+         * 费用
+         */
+        private final BigDecimal feiYong;
+
+        /**
+         * 没有适用的计费标准, 未计入费用的工作记录条数
+         */
+        private final long weiJiFeiTiaoShu;
+    }
+
+    @AllArgsConstructor
+    @EqualsAndHashCode
+    private static class Jian {
+        private final LocalDate qi;
+
+        private final Long id;
+    }
+
+    private static class LeiJi {
+        private final String mingCheng;
+
+        private long tiaoShu;
+
+        private long miaoShu;
+
+        private long feiYong;
+
+        private long weiJiFeiTiaoShu;
+
+        LeiJi(String mingCheng) {
+            this.mingCheng = mingCheng;
+        }
+    }
+}
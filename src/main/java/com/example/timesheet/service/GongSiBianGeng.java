@@ -0,0 +1,100 @@
+package com.example.timesheet.service;
+
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * 当前事务修改过的公司
+ * <p>
+ * 1) MainService, ImportService中影响公司报告的修改(工作记录, 支付, 计费标准, 成员, 结算日)调用changed, 记在当前事务上, 挂起的事务各自记录<br>
+ * 2) 其他连接看不到当前事务未提交的修改: BaoGaoCache不读也不写这些公司的缓存, BaoGaoService不把这些公司的报告拆到其他连接并行计算<br>
+ * 3) 事务结束后把修改过的公司通知给addJianTingQi登记的监听器; 没有事务时立即通知
+ */
+@Service
+public class GongSiBianGeng {
+    private final List<Consumer<Set<Long>>> jianTingQis = new CopyOnWriteArrayList<>();
+
+    /**
+     * 登记监听器, 修改公司数据的事务结束后调用, 参数是修改过的公司id
+     */
+    public void addJianTingQi(Consumer<Set<Long>> jianTingQi) {
+        jianTingQis.add(jianTingQi);
+    }
+
+    /**
+     * 当前事务修改了公司的数据
+     *
+     * @param gongSiId 公司id
+     */
+    public void changed(Long gongSiId) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            tongZhi(Collections.singleton(gongSiId));
+
+            return;
+        }
+
+        BianGeng bianGeng = findBianGeng();
+        if (bianGeng == null) {
+            bianGeng = new BianGeng();
+            TransactionSynchronizationManager.registerSynchronization(bianGeng);
+        }
+
+        bianGeng.gongSiIds.add(gongSiId);
+    }
+
+    /**
+     * 当前事务是否修改过公司的数据, 修改过时其他连接看不到这些修改
+     *
+     * @param gongSiId 公司id
+     */
+    public boolean isChanged(Long gongSiId) {
+        BianGeng bianGeng = findBianGeng();
+
+        return bianGeng != null && bianGeng.gongSiIds.contains(gongSiId);
+    }
+
+    private void tongZhi(Set<Long> gongSiIds) {
+        for (Consumer<Set<Long>> jianTingQi : jianTingQis) {
+            jianTingQi.accept(gongSiIds);
+        }
+    }
+
+    /**
+     * 登记在当前事务上, 随事务挂起和恢复
+     */
+    private BianGeng findBianGeng() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return null;
+        }
+
+        for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+            if (synchronization instanceof BianGeng) {
+                return (BianGeng) synchronization;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * 一个事务中修改过的公司
+     */
+    private class BianGeng extends TransactionSynchronizationAdapter {
+        private final Set<Long> gongSiIds = new HashSet<>();
+
+        @Override
+        public void afterCompletion(int status) {
+            // 回滚时数据库没有变化, 通知了也无妨
+            tongZhi(gongSiIds);
+        }
+    }
+}
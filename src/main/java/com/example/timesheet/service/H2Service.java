@@ -11,6 +11,15 @@ public class H2Service {
     @Autowired
     private JdbcTemplate jdbcTemplate;
 
+    @Autowired
+    private ShiJianDuanCache shiJianDuanCache;
+
+    @Autowired
+    private RateTimelineCache rateTimelineCache;
+
+    @Autowired
+    private BaoGaoCache baoGaoCache;
+
     public void dump(String name) {
         jdbcTemplate.execute("script to 'src/test/resources/" + name  + ".sql'");
     }
@@ -18,6 +27,9 @@ public class H2Service {
     public void restore(String name) {
         jdbcTemplate.execute("DROP ALL OBJECTS");
         jdbcTemplate.execute("RUNSCRIPT FROM 'src/test/resources/" + name + ".sql'");
+        shiJianDuanCache.clear();
+        rateTimelineCache.clear();
+        baoGaoCache.clear();
         log.info("pptest restored");
     }
 
@@ -0,0 +1,778 @@
+package com.example.timesheet.service;
+
+import com.example.timesheet.exception.GlobalControllerExceptionHandler;
+import com.example.timesheet.exception.PPBusinessException;
+import com.example.timesheet.exception.PPItemNotExistException;
+import com.example.timesheet.exception.PPValidateException;
+import com.example.timesheet.model.DaoRuPiCi;
+import com.example.timesheet.model.GongZuoJiLu;
+import com.example.timesheet.model.XiangMu;
+import com.example.timesheet.model.YongHu;
+import com.example.timesheet.repository.DaoRuPiCiRepository;
+import com.example.timesheet.repository.GongZuoJiLuRepository;
+import com.example.timesheet.repository.XiangMuRepository;
+import com.example.timesheet.repository.YongHuRepository;
+import com.example.timesheet.util.DaySplitter;
+import com.example.timesheet.util.ShiJianDuanIndex;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * 批量导入工作记录
+ * <p>
+ * 业务规则和异常信息与逐条新建工作记录一致, 但是:<br>
+ * 1) 涉及的用户和项目各用一次查询取出<br>
+ * 2) 同批次记录之间的重叠在内存中检查, 留下的记录按用户放入ShiJianDuanIndex, 每条O(log n), 内存与记录条数成正比, 检查顺序和异常信息不变<br>
+ * 3) 与已有工作记录的重叠检查在内存中完成, 优先用ShiJianDuanCache, 缓存未就绪的用户用一次时间范围查询取出可能重叠的记录<br>
+ * 4) 所有拆分后的工作记录在检查完成后统一批量写入, 中间没有flush和查询<br>
+ * 5) 流式导入时按timesheet.import.chunk-size分块, 每块单独提交, 块回滚时逐条重试<br>
+ * 6) 带幂等键导入时, 同一幂等键下已提交的记录(按自然键哈希判断)跳过, 算作成功
+ */
+@Slf4j
+@Service
+@Transactional
+public class ImportService {
+    @Autowired
+    private YongHuRepository yongHuRepository;
+
+    @Autowired
+    private XiangMuRepository xiangMuRepository;
+
+    @Autowired
+    private GongZuoJiLuRepository gongZuoJiLuRepository;
+
+    @Autowired
+    private DaoRuPiCiRepository daoRuPiCiRepository;
+
+    @Autowired
+    private ShiJianDuanCache shiJianDuanCache;
+
+    @Autowired
+    private RiZhangService riZhangService;
+
+    @Autowired
+    private RateTimelineCache rateTimelineCache;
+
+    @Autowired
+    private GongSiBianGeng gongSiBianGeng;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Value("${timesheet.import.chunk-size:500}")
+    private int chunkSize;
+
+    @Value("${timesheet.day-boundary:00:00}")
+    private String dayBoundary;
+
+    private DaySplitter daySplitter;
+
+    @PostConstruct
+    public void init() {
+        daySplitter = new DaySplitter(LocalTime.parse(dayBoundary));
+    }
+
+    /**
+     * 批量新建工作记录
+     * <p>
+     * 1) 项目没有用户的计费标准, 抛异常, 不允许添加<br>
+     * 2) 工作记录的时间早于或等于项目所属公司的结算日, 抛异常, 不允许添加<br>
+     * 3) 如工作记录跨越24:00(可用timesheet.day-boundary配置)则拆分成以所属日期为粒度的多条记录<br>
+     * 4) 如工作记录时间段有重叠(包括与同批次之前的记录重叠), 抛异常, 不允许添加<br>
+     * 按顺序检查, 抛出第一条不合法记录的异常, 整批都不写入
+     *
+     * @param jiLus 待导入的工作记录
+     */
+    public List<GongZuoJiLu> importGongZuoJiLu(List<JiLu> jiLus) {
+        return importGongZuoJiLu(jiLus, null, null);
+    }
+
+    /**
+     * 批量新建工作记录, 规则同上
+     * <p>
+     * 带幂等键时, 同一提交人同一幂等键之前已提交的记录跳过, 不再报重叠
+     *
+     * @param jiLus       待导入的工作记录
+     * @param tiJiaoRenId 提交导入的用户id, 幂等键只在同一提交人的导入之间有效
+     * @param miYao       幂等键, 可以为null
+     */
+    public List<GongZuoJiLu> importGongZuoJiLu(List<JiLu> jiLus, Long tiJiaoRenId, String miYao) {
+        List<GongZuoJiLu> gongZuoJiLus = check(jiLus, gainDaoRuPiCi(tiJiaoRenId, miYao), (index, e) -> {
+            throw e;
+        }, index -> {
+        });
+
+        // 检查都通过后统一写入, 配合hibernate.jdbc.batch_size批量插入
+        save(gongZuoJiLus);
+
+        return gongZuoJiLus;
+    }
+
+    /**
+     * 只检查不写入(dryRun)
+     * <p>
+     * 1) 按批量新建的全部规则检查每一条记录: 用户和项目是否存在, 计费标准, 结算日, 与已有记录和同批次记录的重叠<br>
+     * 2) 不合法的记录不中止检查, 返回所有不合法记录的结果, 全部合法时返回空列表<br>
+     * 3) 带幂等键时, 同一提交人同一幂等键下已提交的记录跳过, 与重试时的实际导入一致
+     *
+     * @param jiLus       待导入的工作记录
+     * @param tiJiaoRenId 提交导入的用户id
+     * @param miYao       幂等键, 可以为null
+     */
+    @Transactional(readOnly = true)
+    public List<JieGuo> yanZheng(List<JiLu> jiLus, Long tiJiaoRenId, String miYao) {
+        List<Long> hangs = xuHaos(jiLus.size());
+
+        DaoRuPiCi daoRuPiCi = miYao == null || miYao.trim().isEmpty() ? null : daoRuPiCiRepository.findOneByTiJiaoRenIdAndMiYao(tiJiaoRenId, miYao);
+
+        Map<Integer, RuntimeException> cuoWus = new TreeMap<>();
+        check(jiLus, daoRuPiCi, cuoWus::put, index -> {
+        });
+
+        List<JieGuo> jieGuos = new ArrayList<>();
+        for (Map.Entry<Integer, RuntimeException> entry : cuoWus.entrySet()) {
+            jieGuos.add(JieGuo.shiBai(hangs.get(entry.getKey()), entry.getValue()));
+        }
+
+        return jieGuos;
+    }
+
+    /**
+     * 新建分块流式导入
+     * <p>
+     * 1) 每凑满timesheet.import.chunk-size条记录就在新事务中检查并写入, 不合法的记录跳过, 其余记录照常提交<br>
+     * 2) 每块提交后清空持久化上下文, 内存占用与导入总量无关<br>
+     * 3) 每条记录的结果按顺序交给jieGuoConsumer
+     *
+     * @param jieGuoConsumer 逐条记录结果的接收者
+     */
+    public FenKuaiDaoRu fenKuaiDaoRu(Consumer<JieGuo> jieGuoConsumer) {
+        return new FenKuaiDaoRu(jieGuoConsumer, null, null, null, chunkSize);
+    }
+
+    /**
+     * 新建带幂等键的分块流式导入, 同一提交人同一幂等键下已提交的记录跳过
+     *
+     * @param jieGuoConsumer 逐条记录结果的接收者
+     * @param tiJiaoRenId    提交导入的用户id
+     * @param miYao          幂等键, 可以为null
+     */
+    public FenKuaiDaoRu fenKuaiDaoRu(Consumer<JieGuo> jieGuoConsumer, Long tiJiaoRenId, String miYao) {
+        return new FenKuaiDaoRu(jieGuoConsumer, null, tiJiaoRenId, miYao, chunkSize);
+    }
+
+    /**
+     * 新建分块流式导入, 每块提交时在块的事务内回调tiJiaoListener
+     *
+     * @param jieGuoConsumer 逐条记录结果的接收者
+     * @param tiJiaoListener 块提交回调, 用于和块一起提交进度
+     * @param kuaiDaXiao     每块的记录数
+     */
+    public FenKuaiDaoRu fenKuaiDaoRu(Consumer<JieGuo> jieGuoConsumer, TiJiaoListener tiJiaoListener, int kuaiDaXiao) {
+        return new FenKuaiDaoRu(jieGuoConsumer, tiJiaoListener, null, null, kuaiDaXiao);
+    }
+
+    /**
+     * 按原有规则逐条检查并拆分
+     * <p>
+     * 1) 与同批次之前的合法记录重叠的记录不合法, 与逐条新建时一样, 之前不合法的记录不参与重叠检查; 合法的记录按用户放入ShiJianDuanIndex, 每条记录O(log n)<br>
+     * 2) 不合法的记录交给cuoWuConsumer, 其拆分结果不计入返回值<br>
+     * 3) 留下的记录互不重叠, 只需要与已有工作记录比较<br>
+     * 4) 导入批次中已提交的记录交给tiaoGuoConsumer, 不再检查
+     *
+     * @param jiLus           待导入的工作记录
+     * @param daoRuPiCi       导入批次, 不带幂等键时为null
+     * @param cuoWuConsumer   不合法记录的下标和异常, 抛出异常即中止检查
+     * @param tiaoGuoConsumer 已提交而跳过的记录的下标
+     */
+    private List<GongZuoJiLu> check(List<JiLu> jiLus, DaoRuPiCi daoRuPiCi, BiConsumer<Integer, RuntimeException> cuoWuConsumer, Consumer<Integer> tiaoGuoConsumer) {
+        if (jiLus.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        // --一次查询取出涉及的用户和项目, 按名称或id解析每条记录
+        Set<String> yongHuMings = new HashSet<>();
+        Set<Long> yongHuIds = new HashSet<>();
+        Set<String> xiangMuMingChengs = new HashSet<>();
+        Set<Long> xiangMuIds = new HashSet<>();
+        for (JiLu jiLu : jiLus) {
+            if (jiLu.yongHuId != null) {
+                yongHuIds.add(jiLu.yongHuId);
+            } else {
+                yongHuMings.add(jiLu.yongHuMing);
+            }
+
+            if (jiLu.xiangMuId != null) {
+                xiangMuIds.add(jiLu.xiangMuId);
+            } else {
+                xiangMuMingChengs.add(jiLu.xiangMuMingCheng);
+            }
+        }
+
+        List<YongHu> yongHuList = new ArrayList<>();
+        if (!yongHuMings.isEmpty()) {
+            yongHuList.addAll(yongHuRepository.findByYongHuMingIn(yongHuMings));
+        }
+        if (!yongHuIds.isEmpty()) {
+            yongHuRepository.findAllById(yongHuIds).forEach(yongHuList::add);
+        }
+
+        Map<String, YongHu> yongHuMap = new HashMap<>();
+        Map<Long, YongHu> yongHuIdMap = new HashMap<>();
+        for (YongHu yongHu : yongHuList) {
+            yongHuMap.put(yongHu.getYongHuMing(), yongHu);
+            yongHuIdMap.put(yongHu.getId(), yongHu);
+        }
+
+        List<XiangMu> xiangMuList = new ArrayList<>();
+        if (!xiangMuMingChengs.isEmpty()) {
+            xiangMuList.addAll(xiangMuRepository.findByMingChengIn(xiangMuMingChengs));
+        }
+        if (!xiangMuIds.isEmpty()) {
+            xiangMuList.addAll(xiangMuRepository.findByIdIn(xiangMuIds));
+        }
+
+        Map<String, XiangMu> xiangMuMap = new HashMap<>();
+        Map<Long, XiangMu> xiangMuIdMap = new HashMap<>();
+        for (XiangMu xiangMu : xiangMuList) {
+            xiangMuMap.put(xiangMu.getMingCheng(), xiangMu);
+            xiangMuIdMap.put(xiangMu.getId(), xiangMu);
+        }
+
+        YongHu[] yongHus = new YongHu[jiLus.size()];
+        XiangMu[] xiangMus = new XiangMu[jiLus.size()];
+        for (int i = 0; i < jiLus.size(); i++) {
+            JiLu jiLu = jiLus.get(i);
+            yongHus[i] = jiLu.yongHuId != null ? yongHuIdMap.get(jiLu.yongHuId) : yongHuMap.get(jiLu.yongHuMing);
+            xiangMus[i] = jiLu.xiangMuId != null ? xiangMuIdMap.get(jiLu.xiangMuId) : xiangMuMap.get(jiLu.xiangMuMingCheng);
+        }
+        // --
+
+        // --一次查询取出导入批次中已提交的自然键哈希
+        String[] hashes = new String[jiLus.size()];
+        for (int i = 0; i < jiLus.size(); i++) {
+            JiLu jiLu = jiLus.get(i);
+            YongHu yongHu = yongHus[i];
+            XiangMu xiangMu = xiangMus[i];
+            if (yongHu != null && xiangMu != null && jiLu.kaiShi != null && jiLu.jieShu != null) {
+                hashes[i] = ziRanJianHash(yongHu.getId(), xiangMu.getId(), jiLu.kaiShi, jiLu.jieShu);
+            }
+        }
+
+        Set<String> yiDaoRuHashes = new HashSet<>();
+        if (daoRuPiCi != null && daoRuPiCi.getId() != null) {
+            Set<String> chaXunHashes = new HashSet<>(Arrays.asList(hashes));
+            chaXunHashes.remove(null);
+            if (!chaXunHashes.isEmpty()) {
+                yiDaoRuHashes.addAll(gongZuoJiLuRepository.findYiDaoRuHashes(daoRuPiCi, chaXunHashes));
+            }
+        }
+        // --
+
+        // --已有工作记录的时间段, 缓存未就绪的用户一次范围查询取出可能重叠的记录
+        Map<Long, ShiJianDuanIndex> shiJianDuanIndexes = new HashMap<>();
+        Map<Long, LocalDateTime[]> fanWeis = new HashMap<>();
+        for (int i = 0; i < jiLus.size(); i++) {
+            JiLu jiLu = jiLus.get(i);
+            YongHu yongHu = yongHus[i];
+            if (yongHu == null || shiJianDuanIndexes.containsKey(yongHu.getId())) {
+                continue;
+            }
+
+            LocalDateTime[] fanWei = fanWeis.get(yongHu.getId());
+            if (fanWei == null) {
+                // 每个用户只问一次缓存, 同一批次内不会既用缓存又用查询
+                ShiJianDuanIndex yiYouIndex = shiJianDuanCache.gainIndex(yongHu.getId());
+                if (yiYouIndex != null) {
+                    shiJianDuanIndexes.put(yongHu.getId(), yiYouIndex);
+                    continue;
+                }
+
+                fanWeis.put(yongHu.getId(), new LocalDateTime[]{jiLu.kaiShi, jiLu.jieShu});
+            } else {
+                fanWei[0] = jiLu.kaiShi.isBefore(fanWei[0]) ? jiLu.kaiShi : fanWei[0];
+                fanWei[1] = jiLu.jieShu.isAfter(fanWei[1]) ? jiLu.jieShu : fanWei[1];
+            }
+        }
+
+        for (Map.Entry<Long, LocalDateTime[]> entry : fanWeis.entrySet()) {
+            ShiJianDuanIndex shiJianDuanIndex = new ShiJianDuanIndex();
+            for (Object[] shiJianDuan : gongZuoJiLuRepository.findOverlapShiJianDuans(entry.getKey(), entry.getValue()[0], entry.getValue()[1])) {
+                shiJianDuanIndex.add((LocalDateTime) shiJianDuan[0], (LocalDateTime) shiJianDuan[1]);
+            }
+            shiJianDuanIndexes.put(entry.getKey(), shiJianDuanIndex);
+        }
+        // --
+
+        List<GongZuoJiLu> gongZuoJiLus = new ArrayList<>();
+        // 本批次合法或已提交而跳过的记录的时间段, 之后的记录与它们重叠时不合法
+        Map<Long, ShiJianDuanIndex> piCiIndexes = new HashMap<>();
+        for (int i = 0; i < jiLus.size(); i++) {
+            JiLu jiLu = jiLus.get(i);
+
+            try {
+                YongHu yongHu = yongHus[i];
+                if (yongHu == null) {
+                    throw new PPItemNotExistException("指定用户不存在!");
+                }
+
+                XiangMu xiangMu = xiangMus[i];
+                if (xiangMu == null) {
+                    throw new PPItemNotExistException("指定项目不存在!");
+                }
+
+                // 同一幂等键下已提交
+                if (yiDaoRuHashes.contains(hashes[i])) {
+                    piCiIndexes.computeIfAbsent(yongHu.getId(), key -> new ShiJianDuanIndex()).add(jiLu.kaiShi, jiLu.jieShu);
+                    tiaoGuoConsumer.accept(i);
+                    continue;
+                }
+
+                // --项目没有用户的计费标准, 抛异常, 不允许添加
+                if (rateTimelineCache.gainRateTimeline(xiangMu, yongHu.getId()).isEmpty()) {
+                    throw new PPBusinessException("项目没有用户的计费标准, 不允许添加!");
+                }
+                // --
+
+                // --工作记录的时间早于或等于项目所属公司的计算日, 抛异常, 不允许添加
+                // 开始时间也要检查, 否则跨过结算日的记录会拆出结算日当天的一段, 改变已结算的费用
+                LocalDateTime dateTime = xiangMu.getGongSi().getJieSuanRi().plusDays(1).atStartOfDay();
+                if (jiLu.kaiShi.isBefore(dateTime) || jiLu.jieShu.isBefore(dateTime)) {
+                    throw new PPBusinessException("工作记录的时间早于或等于项目所属公司的计算日, 不允许添加!");
+                }
+                // --
+
+                // --如工作记录时间段有重叠, 抛异常, 不允许添加
+                // 时间颠倒的记录由之后的检查报告
+                ShiJianDuanIndex piCiIndex = piCiIndexes.get(yongHu.getId());
+                if (piCiIndex != null && !jiLu.kaiShi.isAfter(jiLu.jieShu) && piCiIndex.overlaps(jiLu.kaiShi, jiLu.jieShu)) {
+                    throw new PPBusinessException("工作记录时间段有重叠, 不允许添加!");
+                }
+
+                if (shiJianDuanIndexes.get(yongHu.getId()).overlaps(jiLu.kaiShi, jiLu.jieShu)) {
+                    throw new PPBusinessException("工作记录时间段有重叠, 不允许添加!");
+                }
+                // --
+
+                // 提前做实体验证, 不合法的记录在写入前就能定位到
+                List<GongZuoJiLu> chaiFens = split(yongHu, xiangMu, jiLu.kaiShi, jiLu.jieShu, jiLu.beiZhu, hashes[i], daoRuPiCi);
+                for (GongZuoJiLu gongZuoJiLu : chaiFens) {
+                    gongZuoJiLu.v();
+                }
+
+                gongZuoJiLus.addAll(chaiFens);
+                piCiIndexes.computeIfAbsent(yongHu.getId(), key -> new ShiJianDuanIndex()).add(jiLu.kaiShi, jiLu.jieShu);
+            } catch (PPBusinessException | PPItemNotExistException | PPValidateException e) {
+                cuoWuConsumer.accept(i, e);
+            }
+        }
+
+        return gongZuoJiLus;
+    }
+
+    /**
+     * 记录序号1..size
+     */
+    private static List<Long> xuHaos(int size) {
+        List<Long> hangs = new ArrayList<>(size);
+        for (int i = 1; i <= size; i++) {
+            hangs.add((long) i);
+        }
+
+        return hangs;
+    }
+
+    /**
+     * 按幂等键取得导入批次
+     * <p>
+     * 1) 幂等键按提交人区分, 不同用户用了相同的键也不会跳过彼此的记录<br>
+     * 2) 没有时在单独的事务中新建并提交, 导入回滚时批次保留, 重试时照常按自然键哈希跳过<br>
+     * 3) 同一提交人同一幂等键的两个请求同时新建时, 后提交的违反唯一约束, 重新读取先提交的批次, 按重试处理
+     *
+     * @param tiJiaoRenId 提交导入的用户id, 不同用户的同名幂等键是不同的批次
+     * @param miYao       幂等键, 为null时返回null
+     */
+    private DaoRuPiCi gainDaoRuPiCi(Long tiJiaoRenId, String miYao) {
+        if (miYao == null || miYao.trim().isEmpty()) {
+            return null;
+        }
+
+        DaoRuPiCi daoRuPiCi = daoRuPiCiRepository.findOneByTiJiaoRenIdAndMiYao(tiJiaoRenId, miYao);
+        if (daoRuPiCi != null) {
+            return daoRuPiCi;
+        }
+
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        try {
+            transactionTemplate.execute(status -> {
+                DaoRuPiCi xinPiCi = new DaoRuPiCi(null, tiJiaoRenId, miYao, LocalDateTime.now());
+                xinPiCi.v();
+
+                return daoRuPiCiRepository.save(xinPiCi);
+            });
+        } catch (DataIntegrityViolationException e) {
+            log.info("导入批次" + miYao + "已由并发的请求新建");
+        }
+
+        daoRuPiCi = daoRuPiCiRepository.findOneByTiJiaoRenIdAndMiYao(tiJiaoRenId, miYao);
+        if (daoRuPiCi == null) {
+            throw new PPBusinessException("同一幂等键的导入正在进行, 请稍后重试!");
+        }
+
+        return daoRuPiCi;
+    }
+
+    /**
+     * 自然键(用户, 项目, 开始时间, 结束时间)的SHA-256, 十六进制
+     */
+    private static String ziRanJianHash(Long yongHuId, Long xiangMuId, LocalDateTime kaiShi, LocalDateTime jieShu) {
+        try {
+            MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+            byte[] bytes = messageDigest.digest((yongHuId + "|" + xiangMuId + "|" + kaiShi + "|" + jieShu).getBytes(StandardCharsets.UTF_8));
+
+            StringBuilder stringBuilder = new StringBuilder(bytes.length * 2);
+            for (byte b : bytes) {
+                stringBuilder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+
+            return stringBuilder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 写入并在同一事务中累加每日费用台账, 事务提交后更新时间段缓存, 丢弃相关公司的报告缓存
+     */
+    private void save(List<GongZuoJiLu> gongZuoJiLus) {
+        gongZuoJiLuRepository.saveAll(gongZuoJiLus);
+        riZhangService.added(gongZuoJiLus);
+        shiJianDuanCache.added(gongZuoJiLus);
+        for (GongZuoJiLu gongZuoJiLu : gongZuoJiLus) {
+            gongSiBianGeng.changed(gongZuoJiLu.getXiangMu().getGongSi().getId());
+        }
+    }
+
+    /**
+     * 如工作记录跨越分界(默认24:00)则拆分成以所属日期为粒度的多条记录
+     */
+    private List<GongZuoJiLu> split(YongHu yongHu, XiangMu xiangMu, LocalDateTime kaiShi, LocalDateTime jieShu, String beiZhu, String ziRanJianHash, DaoRuPiCi daoRuPiCi) {
+        List<GongZuoJiLu> gongZuoJiLus = new ArrayList<>();
+        Iterator<DaySplitter.ShiJianDuan> iterator = daySplitter.split(kaiShi, jieShu);
+        while (iterator.hasNext()) {
+            DaySplitter.ShiJianDuan shiJianDuan = iterator.next();
+            gongZuoJiLus.add(new GongZuoJiLu(null, shiJianDuan.getKaiShi(), shiJianDuan.getJieShu(), yongHu, xiangMu, beiZhu, ziRanJianHash, daoRuPiCi));
+        }
+
+        return gongZuoJiLus;
+    }
+
+    /**
+     * 待导入的工作记录
+     * <p>
+     * 用户和项目按名称或id指定, 有id时忽略名称
+     */
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @Data
+    public static class JiLu {
+        String yongHuMing;
+
+        String xiangMuMingCheng;
+
+        LocalDateTime kaiShi;
+
+        LocalDateTime jieShu;
+
+        String beiZhu;
+
+        Long yongHuId;
+
+        Long xiangMuId;
+
+        public JiLu(String yongHuMing, String xiangMuMingCheng, LocalDateTime kaiShi, LocalDateTime jieShu, String beiZhu) {
+            this(yongHuMing, xiangMuMingCheng, kaiShi, jieShu, beiZhu, null, null);
+        }
+
+        /**
+         * 按id指定用户和项目的工作记录
+         */
+        public static JiLu anId(Long yongHuId, Long xiangMuId, LocalDateTime kaiShi, LocalDateTime jieShu, String beiZhu) {
+            return new JiLu(null, null, kaiShi, jieShu, beiZhu, yongHuId, xiangMuId);
+        }
+    }
+
+    /**
+     * 单条记录的导入结果
+     */
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @Data
+    public static class JieGuo {
+        /**
+         * 记录序号, 从1开始
+         */
+        long hang;
+
+        /**
+         * 与GlobalControllerExceptionHandler一致的结果代码
+         */
+        String code;
+
+        String message;
+
+        public static JieGuo chengGong(long hang) {
+            return new JieGuo(hang, "1", "ok");
+        }
+
+        public static JieGuo tiaoGuo(long hang) {
+            return new JieGuo(hang, "1", "已导入, 跳过");
+        }
+
+        public static JieGuo shiBai(long hang, RuntimeException e) {
+            GlobalControllerExceptionHandler.CuoWu cuoWu = GlobalControllerExceptionHandler.gainCuoWu(e);
+
+            return new JieGuo(hang, cuoWu.getCode(), cuoWu.getMessage());
+        }
+    }
+
+    /**
+     * 块提交回调
+     */
+    public interface TiJiaoListener {
+        /**
+         * 在块的事务内调用, 与块一起提交; 块回滚后逐条重试时, 在每条记录的事务内调用
+         *
+         * @param hang         已提交的最后一条记录的序号
+         * @param chengGongShu 累计成功数(含本块)
+         * @param shiBaiShu    累计失败数(含本块)
+         */
+        void tiJiao(long hang, long chengGongShu, long shiBaiShu);
+    }
+
+    /**
+     * 分块流式导入
+     * <p>
+     * 逐条add, 凑满一块即提交, 最后调用finish提交剩余记录
+     */
+    public class FenKuaiDaoRu {
+        private final Consumer<JieGuo> jieGuoConsumer;
+
+        private final TiJiaoListener tiJiaoListener;
+
+        private final Long tiJiaoRenId;
+
+        private final String miYao;
+
+        private final int kuaiDaXiao;
+
+        private final TransactionTemplate transactionTemplate;
+
+        private final List<Long> hangs = new ArrayList<>();
+
+        private final List<JiLu> jiLus = new ArrayList<>();
+
+        private final Map<Long, RuntimeException> cuoWus = new HashMap<>();
+
+        private final Set<Long> tiaoGuos = new HashSet<>();
+
+        @Getter
+        private long chengGongShu = 0;
+
+        @Getter
+        private long shiBaiShu = 0;
+
+        private FenKuaiDaoRu(Consumer<JieGuo> jieGuoConsumer, TiJiaoListener tiJiaoListener, Long tiJiaoRenId, String miYao, int kuaiDaXiao) {
+            this.jieGuoConsumer = jieGuoConsumer;
+            this.tiJiaoListener = tiJiaoListener;
+            this.tiJiaoRenId = tiJiaoRenId;
+            this.miYao = miYao;
+            this.kuaiDaXiao = kuaiDaXiao;
+            this.transactionTemplate = new TransactionTemplate(transactionManager);
+            this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        }
+
+        /**
+         * 添加一条已解析的记录
+         *
+         * @param hang 记录序号
+         * @param jiLu 待导入的工作记录
+         */
+        public void add(long hang, JiLu jiLu) {
+            hangs.add(hang);
+            jiLus.add(jiLu);
+
+            if (hangs.size() >= kuaiDaXiao) {
+                flush();
+            }
+        }
+
+        /**
+         * 添加一条解析或验证失败的记录
+         *
+         * @param hang 记录序号
+         * @param e    失败原因
+         */
+        public void addCuoWu(long hang, RuntimeException e) {
+            hangs.add(hang);
+            jiLus.add(null);
+            cuoWus.put(hang, e);
+
+            if (hangs.size() >= kuaiDaXiao) {
+                flush();
+            }
+        }
+
+        /**
+         * 提交剩余记录
+         */
+        public void finish() {
+            flush();
+        }
+
+        private void flush() {
+            if (hangs.isEmpty()) {
+                return;
+            }
+
+            List<Long> youXiaoHangs = new ArrayList<>();
+            List<JiLu> youXiaoJiLus = new ArrayList<>();
+            for (int i = 0; i < hangs.size(); i++) {
+                if (jiLus.get(i) != null) {
+                    youXiaoHangs.add(hangs.get(i));
+                    youXiaoJiLus.add(jiLus.get(i));
+                }
+            }
+
+            try {
+                transactionTemplate.execute(status -> {
+                    // 每块在自己的事务中取得导入批次, 批次在单独的事务中新建, 不随块回滚
+                    List<GongZuoJiLu> gongZuoJiLus = check(youXiaoJiLus, gainDaoRuPiCi(tiJiaoRenId, miYao),
+                            (index, e) -> cuoWus.put(youXiaoHangs.get(index), e),
+                            index -> tiaoGuos.add(youXiaoHangs.get(index)));
+                    save(gongZuoJiLus);
+
+                    if (tiJiaoListener != null) {
+                        long kuaiShiBaiShu = cuoWus.size();
+                        tiJiaoListener.tiJiao(hangs.get(hangs.size() - 1), chengGongShu + hangs.size() - kuaiShiBaiShu, shiBaiShu + kuaiShiBaiShu);
+                    }
+
+                    return null;
+                });
+            } catch (RuntimeException e) {
+                // 整块回滚(如写入时违反数据库约束), 逐条重试, 只有出错的记录失败
+                log.info("导入的块回滚, 逐条重试: " + e.getMessage());
+                entityManager.clear();
+                zhuTiaoChongShi();
+            } finally {
+                // 清空持久化上下文, 保持内存占用稳定
+                entityManager.clear();
+            }
+
+            for (Long hang : hangs) {
+                RuntimeException e = cuoWus.get(hang);
+                if (e == null) {
+                    chengGongShu++;
+                    jieGuoConsumer.accept(tiaoGuos.contains(hang) ? JieGuo.tiaoGuo(hang) : JieGuo.chengGong(hang));
+                } else {
+                    shiBaiShu++;
+                    jieGuoConsumer.accept(JieGuo.shiBai(hang, e));
+                }
+            }
+
+            hangs.clear();
+            jiLus.clear();
+            cuoWus.clear();
+            tiaoGuos.clear();
+        }
+
+        /**
+         * 块回滚后每条记录在自己的事务中重新检查并写入
+         * <p>
+         * 1) 块内的检查结果随块作废, 解析或验证失败的记录除外<br>
+         * 2) 进度与每条记录一起提交, 重启后从最后提交的记录之后继续
+         */
+        private void zhuTiaoChongShi() {
+            tiaoGuos.clear();
+
+            long kuaiChengGongShu = 0;
+            long kuaiShiBaiShu = 0;
+            for (int i = 0; i < hangs.size(); i++) {
+                Long hang = hangs.get(i);
+                JiLu jiLu = jiLus.get(i);
+                if (jiLu == null) {
+                    kuaiShiBaiShu++;
+                    continue;
+                }
+                cuoWus.remove(hang);
+
+                long yiChengGongShu = kuaiChengGongShu;
+                long yiShiBaiShu = kuaiShiBaiShu;
+                try {
+                    transactionTemplate.execute(status -> {
+                        List<GongZuoJiLu> gongZuoJiLus = check(Collections.singletonList(jiLu), gainDaoRuPiCi(tiJiaoRenId, miYao),
+                                (index, e) -> cuoWus.put(hang, e),
+                                index -> tiaoGuos.add(hang));
+                        save(gongZuoJiLus);
+
+                        if (tiJiaoListener != null) {
+                            boolean shiBai = cuoWus.containsKey(hang);
+                            tiJiaoListener.tiJiao(hang, chengGongShu + yiChengGongShu + (shiBai ? 0 : 1), shiBaiShu + yiShiBaiShu + (shiBai ? 1 : 0));
+                        }
+
+                        return null;
+                    });
+                } catch (RuntimeException e) {
+                    tiaoGuos.remove(hang);
+                    cuoWus.put(hang, e);
+                } finally {
+                    entityManager.clear();
+                }
+
+                if (cuoWus.containsKey(hang)) {
+                    kuaiShiBaiShu++;
+                } else {
+                    kuaiChengGongShu++;
+                }
+            }
+
+            // 失败的记录没有随记录提交进度, 最后在单独的事务中记录本块的进度, 重启后不再重做本块
+            if (tiJiaoListener != null) {
+                long zongChengGongShu = chengGongShu + kuaiChengGongShu;
+                long zongShiBaiShu = shiBaiShu + kuaiShiBaiShu;
+                transactionTemplate.execute(status -> {
+                    tiJiaoListener.tiJiao(hangs.get(hangs.size() - 1), zongChengGongShu, zongShiBaiShu);
+
+                    return null;
+                });
+            }
+        }
+    }
+}
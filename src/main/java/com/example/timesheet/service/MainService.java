@@ -4,16 +4,17 @@ import com.example.timesheet.exception.PPBusinessException;
 import com.example.timesheet.exception.PPItemNotExistException;
 import com.example.timesheet.model.*;
 import com.example.timesheet.repository.*;
+import com.example.timesheet.util.PPUtil;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.hibernate.criterion.ProjectionList;
 import org.hibernate.criterion.Projections;
 import org.javatuples.Pair;
-import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.springframework.beans.factory.ListableBeanFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.domain.*;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.data.repository.support.Repositories;
 import org.springframework.security.crypto.password.PasswordEncoder;
@@ -28,15 +29,12 @@ import javax.persistence.TypedQuery;
 import javax.persistence.criteria.*;
 import javax.persistence.metamodel.EntityType;
 import java.math.BigDecimal;
-import java.math.MathContext;
-import java.time.Duration;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
 import java.util.*;
 
-
-import static java.time.temporal.ChronoUnit.DAYS;
-
 @Slf4j
 @Service
 @Transactional
@@ -56,6 +54,33 @@ public class MainService {
     @Autowired
     private ZhiFuRepository zhiFuRepository;
 
+    @Autowired
+    private ImportService importService;
+
+    @Autowired
+    private ShiJianDuanCache shiJianDuanCache;
+
+    @Autowired
+    private RiZhangService riZhangService;
+
+    @Autowired
+    private BaoGaoService baoGaoService;
+
+    @Autowired
+    private RateTimelineCache rateTimelineCache;
+
+    @Autowired
+    private BaoGaoCache baoGaoCache;
+
+    @Autowired
+    private GongSiBianGeng gongSiBianGeng;
+
+    @Autowired
+    private JieSuanKuaiZhaoRepository jieSuanKuaiZhaoRepository;
+
+    @Autowired
+    private RiZhangRepository riZhangRepository;
+
     @PersistenceContext
     protected EntityManager entityManager;
 
@@ -131,7 +156,9 @@ public class MainService {
      * @param id 公司id
      */
     public void deleteGongSi(Long id) {
+        jieSuanKuaiZhaoRepository.deleteAfter(id, PPUtil.MIN_DATE.minusDays(1));
         gongSiRepository.deleteById(id);
+        gongSiBianGeng.changed(id);
     }
 
     /**
@@ -147,6 +174,9 @@ public class MainService {
 
     /**
      * 设置公司结算日
+     * <p>
+     * 1) 写入结算日的结算快照<br>
+     * 2) 结算日回退时删除之后的快照, 回退后这些日期的数据又可以修改
      *
      * @param id        公司id
      * @param jieSuanRi 公司结算日
@@ -154,6 +184,46 @@ public class MainService {
     public void setGongSiJieSuanRi(Long id, LocalDate jieSuanRi) {
         GongSi gongSi = gongSiRepository.findById(id).get();
         gongSi.setJieSuanRi(jieSuanRi);
+
+        jieSuanKuaiZhaoRepository.deleteAfter(id, jieSuanRi);
+        baoGaoService.createJieSuanKuaiZhao(gongSi, jieSuanRi);
+        gongSiBianGeng.changed(id);
+    }
+
+    /**
+     * 结算
+     * <p>
+     * 1) 结算日早于jieSuanRi时推进到jieSuanRi并写入结算快照, 已在其后时不变<br>
+     * 2) 结算日之前有没有适用计费标准的工作记录时不能结算
+     *
+     * @param gongSiId  公司id
+     * @param jieSuanRi 结算日
+     */
+    public void jieSuan(Long gongSiId, LocalDate jieSuanRi) {
+        GongSi gongSi = gainEntityWithExistsChecking(GongSi.class, gongSiId);
+
+        if (riZhangRepository.countWeiJiFei(gongSiId, jieSuanRi.plusDays(1)) > 0) {
+            throw new PPBusinessException("结算日之前有工作记录没有找到计费标准!");
+        }
+
+        if (gongSi.getJieSuanRi().isBefore(jieSuanRi)) {
+            setGongSiJieSuanRi(gongSiId, jieSuanRi);
+        }
+    }
+
+    /**
+     * 在同一事务中生成报告之后结算, 见jieSuan
+     * <p>
+     * 生成报告时公司, 项目和用户随工作记录只读地取出, 留在持久化上下文中时对它们的修改不会写回; 先写回其他修改再清空, 结算时重新读取
+     *
+     * @param gongSiId  公司id
+     * @param jieSuanRi 结算日
+     */
+    public void baoGaoJieSuan(Long gongSiId, LocalDate jieSuanRi) {
+        entityManager.flush();
+        entityManager.clear();
+
+        jieSuan(gongSiId, jieSuanRi);
     }
     // -
 
@@ -178,7 +248,10 @@ public class MainService {
      * @param id 项目id
      */
     public void deleteXiangMu(Long id) {
+        xiangMuRepository.findById(id).ifPresent(xiangMu -> gongSiBianGeng.changed(xiangMu.getGongSi().getId()));
+
         xiangMuRepository.deleteById(id);
+        rateTimelineCache.changed(id);
     }
 
     /**
@@ -207,6 +280,9 @@ public class MainService {
         // --
 
         xiangMu.addJiFeiBiaoZhun(new JiFeiBiaoZhun(yongHu, kaiShi, xiaoShiFeiYong));
+        rateTimelineCache.changed(xiangMuId);
+        gongSiBianGeng.changed(gongSi.getId());
+        riZhangService.jiFeiBiaoZhunChanged(xiangMu, yongHuId, kaiShi);
     }
 
     /**
@@ -230,6 +306,9 @@ public class MainService {
         // -
 
         xiangMu.removeJiFeiBiaoZhun(yongHu, kaiShi);
+        rateTimelineCache.changed(xiangMuId);
+        gongSiBianGeng.changed(gongSi.getId());
+        riZhangService.jiFeiBiaoZhunChanged(xiangMu, yongHuId, kaiShi);
     }
 
     /**
@@ -245,6 +324,8 @@ public class MainService {
         YongHu yongHu = gainEntityWithExistsChecking(YongHu.class, yongHuId);
 
         xiangMu.addChengYuan(yongHu);
+        rateTimelineCache.changed(xiangMuId);
+        gongSiBianGeng.changed(xiangMu.getGongSi().getId());
     }
 
     /**
@@ -266,6 +347,8 @@ public class MainService {
         // --
 
         xiangMu.removeChengYuan(yongHu);
+        rateTimelineCache.changed(xiangMuId);
+        gongSiBianGeng.changed(xiangMu.getGongSi().getId());
     }
     // -
 
@@ -277,7 +360,8 @@ public class MainService {
      * 1) 项目没有用户的计费标准, 抛异常, 不允许添加<br>
      * 2) 工作记录的时间早于或等于项目所属公司的结算日, 抛异常, 不允许添加<br>
      * 3) 如工作记录跨越24:00则拆分成以所属日期为粒度的多条记录<br>
-     * 4) 如工作记录时间段有重叠, 抛异常, 不允许添加
+     * 4) 如工作记录时间段有重叠, 抛异常, 不允许添加<br>
+     * 与批量导入共用ImportService的检查和拆分
      *
      * @param yongHuMing       用户名
      * @param xiangMuMingCheng 项目名称
@@ -285,58 +369,7 @@ public class MainService {
      * @param jieShu           工作记录结束时间
      */
     public void createGongZuoJiLu(String yongHuMing, String xiangMuMingCheng, LocalDateTime kaiShi, LocalDateTime jieShu, String beiZhu) {
-        YongHu yongHu = yongHuRepository.findOneByYongHuMing(yongHuMing);
-        if (yongHu == null) {
-            throw new PPItemNotExistException("指定用户不存在!");
-        }
-
-        XiangMu xiangMu = xiangMuRepository.findOneByMingCheng(xiangMuMingCheng);
-        if (xiangMu == null) {
-            throw new PPItemNotExistException("指定项目不存在!");
-        }
-
-        // --项目没有用户的计费标准, 抛异常, 不允许添加
-        if (xiangMu.getJiFeiBiaoZhuns().stream().noneMatch(item -> item.getYongHu().getYongHuMing().equals(yongHuMing))) {
-            throw new PPBusinessException("项目没有用户的计费标准, 不允许添加!");
-        }
-        // --
-
-        // --工作记录的时间早于或等于项目所属公司的计算日, 抛异常, 不允许添加
-        LocalDateTime dateTime = xiangMu.getGongSi().getJieSuanRi().plusDays(1).atStartOfDay();
-        if (jieShu.isBefore(dateTime)) {
-            throw new PPBusinessException("工作记录的时间早于或等于项目所属公司的计算日, 不允许添加!");
-        }
-        // --
-
-        // --
-        Long overLapedGongZuoJiLuCount = gongZuoJiLuRepository.findByOverlapWorkRecords(yongHu.getId(), kaiShi, jieShu);
-        if (overLapedGongZuoJiLuCount > 0) {
-            throw new PPBusinessException("工作记录时间段有重叠, 不允许添加!");
-        }
-        // --
-
-        // --如工作记录跨越24:00则拆分成以所属日期为粒度的多条记录
-        List<GongZuoJiLu> gongZuoJiLus = new ArrayList<>();
-        Long days = DAYS.between(kaiShi.toLocalDate(), jieShu.toLocalDate());
-        switch (days.intValue()) {
-            case 0:
-                gongZuoJiLus.add(new GongZuoJiLu(null, kaiShi, jieShu, yongHu, xiangMu, beiZhu));
-                break;
-            case 1:
-                gongZuoJiLus.add(new GongZuoJiLu(null, kaiShi, kaiShi.toLocalDate().plusDays(1).atStartOfDay().minusSeconds(1), yongHu, xiangMu, beiZhu));
-                gongZuoJiLus.add(new GongZuoJiLu(null, kaiShi.toLocalDate().plusDays(1).atStartOfDay(), jieShu, yongHu, xiangMu, beiZhu));
-                break;
-            default:
-                gongZuoJiLus.add(new GongZuoJiLu(null, kaiShi, kaiShi.toLocalDate().plusDays(1).atStartOfDay().minusSeconds(1), yongHu, xiangMu, beiZhu));
-                for (int i = 1; i <= days - 1; i++) {
-                    gongZuoJiLus.add(new GongZuoJiLu(null, kaiShi.toLocalDate().plusDays(i).atStartOfDay(), kaiShi.toLocalDate().plusDays(i + 1).atStartOfDay().minusSeconds(1), yongHu, xiangMu, beiZhu));
-                }
-                gongZuoJiLus.add(new GongZuoJiLu(null, jieShu.toLocalDate().atStartOfDay(), jieShu, yongHu, xiangMu, beiZhu));
-                break;
-        }
-        // --
-
-        gongZuoJiLuRepository.saveAll(gongZuoJiLus);
+        importService.importGongZuoJiLu(Collections.singletonList(new ImportService.JiLu(yongHuMing, xiangMuMingCheng, kaiShi, jieShu, beiZhu)));
     }
 
     /**
@@ -358,6 +391,9 @@ public class MainService {
         }
 
         gongZuoJiLuRepository.deleteById(id);
+        riZhangService.removed(gongZuoJiLu);
+        shiJianDuanCache.removed(gongZuoJiLu);
+        gongSiBianGeng.changed(gongZuoJiLu.getXiangMu().getGongSi().getId());
     }
     // -
 
@@ -388,6 +424,7 @@ public class MainService {
         // --
 
         ZhiFu zhiFu = new ZhiFu(null, gongSi, riQi, jinE, beiZhu);
+        gongSiBianGeng.changed(gongSi.getId());
 
         return zhiFuRepository.save(zhiFu);
     }
@@ -411,174 +448,192 @@ public class MainService {
         }
 
         zhiFuRepository.deleteById(id);
+        gongSiBianGeng.changed(zhiFu.getGongSi().getId());
     }
     // -
 
     /**
-     * 查询工作记录
+     * 查询用户自己的工作记录
      * <p>
+     * 1) 与原来一样只返回开始时间不早于kaiShi且结束时间早于jieShu的记录, 开始于时间段内而结束于其后的记录不返回<br>
+     * 2) 排序和游标同queryGongZuoJiLu(Long, Long, LocalDateTime, LocalDateTime, int, String), 结束时间只是附加的过滤条件, 不影响游标
      *
      * @param yongHuId 用户id
-     * @param kaiShi   开始日期(包含)
-     * @param jieShu   结束日期(不包含)
+     * @param kaiShi   开始时间 大于等于
+     * @param jieShu   结束时间 小于
+     * @param size     每页条数
+     * @param youBiao  上一页返回的游标, 第一页为null或空
      */
-    public List<GongZuoJiLu> queryGongZuoJiLu(Long yongHuId, LocalDateTime kaiShi, LocalDateTime jieShu, Integer size, Integer page) {
-        Pageable pageable = PageRequest.of(page, size, Sort.by("kaiShi").ascending());
-
-        return gongZuoJiLuRepository.findYongHuGongZuoJiLu(yongHuId, kaiShi, jieShu, pageable);
+    public GongZuoJiLuYe queryGongZuoJiLu(Long yongHuId, LocalDateTime kaiShi, LocalDateTime jieShu, int size, String youBiao) {
+        return queryGongZuoJiLu(yongHuId, null, kaiShi, jieShu, true, size, youBiao);
     }
 
     /**
      * 查询工作记录
      * <p>
+     * 1) 按(开始时间, id)排序, 开始时间在[kaiShi, jieShu)之间<br>
+     * 2) 游标是不透明的字符串, 记录上一页最后一条的开始时间和id, 下一页从其后开始(keyset), 不用偏移量, 任何一页的代价都与第一页相同<br>
+     * 3) 两页之间新建或删除的工作记录不会造成重复或遗漏已读过的记录<br>
+     * 4) 工作记录上没有公司, 按公司查询时经项目关联, 每页要先取出该公司各项目在游标之后的记录再排序, 代价随这些记录的条数增长, 不是与第一页相同
      *
-     * @param yongHuId 用户id
+     * @param yongHuId 用户id, 为null时不限用户
+     * @param gongSiId 公司id, 为null时不限公司
      * @param kaiShi   开始日期(包含)
      * @param jieShu   结束日期(不包含)
+     * @param size     每页条数
+     * @param youBiao  上一页返回的游标, 第一页为null或空
      */
-    public List<GongZuoJiLu> queryGongZuoJiLu(Long yongHuId, Long gongSiId, LocalDateTime kaiShi, LocalDateTime jieShu, Integer size, Integer page) {
-        Pageable pageable = PageRequest.of(page, size, Sort.by("kaiShi").ascending());
+    public GongZuoJiLuYe queryGongZuoJiLu(Long yongHuId, Long gongSiId, LocalDateTime kaiShi, LocalDateTime jieShu, int size, String youBiao) {
+        return queryGongZuoJiLu(yongHuId, gongSiId, kaiShi, jieShu, false, size, youBiao);
+    }
 
+    /**
+     * @param jieShuZaiQiNei 是否还要求结束时间早于jieShu
+     */
+    private GongZuoJiLuYe queryGongZuoJiLu(Long yongHuId, Long gongSiId, LocalDateTime kaiShi, LocalDateTime jieShu, boolean jieShuZaiQiNei, int size, String youBiao) {
         CriteriaBuilder cb = entityManager.getCriteriaBuilder();
         CriteriaQuery<GongZuoJiLu> c = cb.createQuery(GongZuoJiLu.class);
         Root<GongZuoJiLu> gongZuoJiLu = c.from(GongZuoJiLu.class);
 
-        Join<XiangMu, GongSi> gongSi = gongZuoJiLu.join(GongZuoJiLu_.xiangMu).join(XiangMu_.gongSi);
-
-        Join<GongZuoJiLu, YongHu> yongHu = gongZuoJiLu.join(GongZuoJiLu_.yongHu);
+        Path<LocalDateTime> kaiShiPath = gongZuoJiLu.get(GongZuoJiLu_.kaiShi);
+        Path<Long> idPath = gongZuoJiLu.get(GongZuoJiLu_.id);
 
         Predicate criteria = cb.conjunction();
 
         if (yongHuId != null) {
-            criteria = cb.and(criteria, cb.equal(yongHu.get(YongHu_.id), yongHuId));
+            criteria = cb.and(criteria, cb.equal(gongZuoJiLu.get(GongZuoJiLu_.yongHu).get(YongHu_.id), yongHuId));
         }
 
         if (gongSiId != null) {
+            Join<XiangMu, GongSi> gongSi = gongZuoJiLu.join(GongZuoJiLu_.xiangMu).join(XiangMu_.gongSi);
+
             criteria = cb.and(criteria, cb.equal(gongSi.get(GongSi_.id), gongSiId));
         }
 
-        criteria = cb.and(criteria, cb.greaterThanOrEqualTo(gongZuoJiLu.get(GongZuoJiLu_.kaiShi), kaiShi));
+        criteria = cb.and(criteria, cb.greaterThanOrEqualTo(kaiShiPath, kaiShi));
 
-        criteria = cb.and(criteria, cb.lessThan(gongZuoJiLu.get(GongZuoJiLu_.kaiShi), jieShu));
+        criteria = cb.and(criteria, cb.lessThan(kaiShiPath, jieShu));
 
-        c.select(gongZuoJiLu).where(criteria);
+        if (jieShuZaiQiNei) {
+            criteria = cb.and(criteria, cb.lessThan(gongZuoJiLu.get(GongZuoJiLu_.jieShu), jieShu));
+        }
 
-        TypedQuery<GongZuoJiLu> query = entityManager.createQuery(c);
+        if (!StringUtils.isEmpty(youBiao)) {
+            Pair<LocalDateTime, Long> shangYiTiao = jieXiYouBiao(youBiao);
+
+            criteria = cb.and(criteria, cb.or(
+                    cb.greaterThan(kaiShiPath, shangYiTiao.getValue0()),
+                    cb.and(cb.equal(kaiShiPath, shangYiTiao.getValue0()), cb.greaterThan(idPath, shangYiTiao.getValue1()))
+            ));
+        }
 
-        query.setFirstResult(page * size);
-        query.setMaxResults(size);
+        c.select(gongZuoJiLu).where(criteria).orderBy(cb.asc(kaiShiPath), cb.asc(idPath));
 
-        return query.getResultList();
+        // 多取一条, 判断是否有下一页
+        List<GongZuoJiLu> gongZuoJiLus = entityManager.createQuery(c).setMaxResults(size + 1).getResultList();
 
-//        Page<GongZuoJiLu> result = new PageImpl<GongZuoJiLu>(query.getResultList(), pageable, count);
+        if (gongZuoJiLus.size() <= size) {
+            return new GongZuoJiLuYe(gongZuoJiLus, null);
+        }
+
+        gongZuoJiLus = gongZuoJiLus.subList(0, size);
+
+        return new GongZuoJiLuYe(gongZuoJiLus, toYouBiao(gongZuoJiLus.get(size - 1)));
+    }
+
+    private static String toYouBiao(GongZuoJiLu gongZuoJiLu) {
+        String youBiao = gongZuoJiLu.getKaiShi() + "," + gongZuoJiLu.getId();
+
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(youBiao.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Pair<LocalDateTime, Long> jieXiYouBiao(String youBiao) {
+        try {
+            String[] bufens = new String(Base64.getUrlDecoder().decode(youBiao), StandardCharsets.UTF_8).split(",");
+            if (bufens.length != 2) {
+                throw new PPBusinessException("游标无效!");
+            }
+
+            return Pair.with(LocalDateTime.parse(bufens[0]), Long.parseLong(bufens[1]));
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            throw new PPBusinessException("游标无效!");
+        }
+    }
 
-//        return result;
+    /**
+     * 一页工作记录
+     */
+    @AllArgsConstructor
+    @Getter
+    public static class GongZuoJiLuYe {
+        private final List<GongZuoJiLu> gongZuoJiLus;
+
+        /**
+         * 下一页的游标, 没有下一页时为null
+         */
+        private final String xiaYiYe;
     }
 
     // -报告
 
     /**
      * 生成报告
+     * <p>
+     * 见BaoGaoService
      *
      * @param gongSiId 公司id
      * @param kaiShi   开始日期
      * @param jieShu   结束日期
      */
     public JSONObject generateBaoGao(Long gongSiId, LocalDate kaiShi, LocalDate jieShu) throws JSONException {
-        // --查出结束日期前指定公司相关的工作记录和对应费用
-        JSONArray gongZuoJiLusJsonArray = new JSONArray();
-
-        List<GongZuoJiLu> gongZuoJiLus = gongZuoJiLuRepository.findGongSiGongZuoJiLu(gongSiId, jieShu.plusDays(1).atStartOfDay());
-
-        // 开始日期消费总额
-        BigDecimal kaiShiCostTotal = new BigDecimal("0");
-
-        // 结束日期消费总额
-        BigDecimal jieShuCostTotal = new BigDecimal("0");
-
-        for (GongZuoJiLu gongZuoJiLu : gongZuoJiLus) {
-            JSONObject jsonObject = new JSONObject();
-            XiangMu xiangMu = gongZuoJiLu.getXiangMu();
-            List<JiFeiBiaoZhun> jiFeiBiaoZhuns = xiangMu.getJiFeiBiaoZhuns();
-
-            Optional<JiFeiBiaoZhun> optionalJiFeiBiaoZhun = jiFeiBiaoZhuns.stream().filter(
-                    item -> item.getYongHu().getId().compareTo(gongZuoJiLu.getYongHu().getId()) == 0
-                            && item.getKaiShi().isBefore(gongZuoJiLu.getKaiShi().toLocalDate().plusDays(1))
-            ).findFirst();
-
-            if (!optionalJiFeiBiaoZhun.isPresent()) {
-                throw new PPBusinessException(gongZuoJiLu.toString() + ": 没有找到计费标准!");
-            }
+        return baoGaoService.generateBaoGao(gongSiId, kaiShi, jieShu);
+    }
 
-            BigDecimal xiaoShiFeiYong = optionalJiFeiBiaoZhun.get().getXiaoShiFeiYong();
-            BigDecimal secondCost = xiaoShiFeiYong.divide(new BigDecimal("3600"), MathContext.DECIMAL128);
+    /**
+     * 生成报告, 返回序列化后的JSON
+     * <p>
+     * 见BaoGaoCache, 相同参数的报告在公司数据没有修改时直接取缓存
+     *
+     * @param gongSiId 公司id
+     * @param kaiShi   开始日期
+     * @param jieShu   结束日期
+     */
+    public String generateBaoGaoJson(Long gongSiId, LocalDate kaiShi, LocalDate jieShu) {
+        return gainBaoGao(gongSiId, kaiShi, jieShu).getJson();
+    }
 
-            Duration duration = Duration.between(gongZuoJiLu.getKaiShi(), gongZuoJiLu.getJieShu());
-            BigDecimal cost = secondCost.multiply(new BigDecimal("" + duration.getSeconds()));
+    /**
+     * 报告摘要, 不含消费记录, 见BaoGaoService.generateBaoGaoZhaiYao
+     *
+     * @param gongSiId 公司id
+     * @param kaiShi   开始日期
+     * @param jieShu   结束日期
+     */
+    public JSONObject generateBaoGaoZhaiYao(Long gongSiId, LocalDate kaiShi, LocalDate jieShu) throws JSONException {
+        return baoGaoService.generateBaoGaoZhaiYao(gongSiId, kaiShi, jieShu);
+    }
 
-            if (gongZuoJiLu.getKaiShi().isBefore(kaiShi.atStartOfDay())) {
-                kaiShiCostTotal = kaiShiCostTotal.add(cost);
-            }
+    /**
+     * 报告的一页消费记录, 与generateBaoGaoJson使用同一个缓存
+     *
+     * @param gongSiId 公司id
+     * @param kaiShi   开始日期
+     * @param jieShu   结束日期
+     * @param youBiao  上一页返回的游标, 第一页为null
+     * @param size     每页条数
+     */
+    public JSONObject gainBaoGaoXiaoFeiJiLu(Long gongSiId, LocalDate kaiShi, LocalDate jieShu, String youBiao, int size) throws JSONException {
+        return baoGaoService.gainXiaoFeiJiLuYe(gainBaoGao(gongSiId, kaiShi, jieShu), youBiao, size);
+    }
 
-            jieShuCostTotal = jieShuCostTotal.add(cost);
-
-            if (
-                    (
-                            gongZuoJiLu.getKaiShi().toLocalDate().isEqual(kaiShi) || gongZuoJiLu.getKaiShi().toLocalDate().isAfter(kaiShi)
-                    ) && (
-                            gongZuoJiLu.getKaiShi().toLocalDate().isEqual(jieShu) || gongZuoJiLu.getKaiShi().toLocalDate().isBefore(jieShu)
-                    )
-
-            ) {
-                jsonObject.put("开始", gongZuoJiLu.getKaiShi());
-                jsonObject.put("结束", gongZuoJiLu.getJieShu());
-                jsonObject.put("项目", gongZuoJiLu.getXiangMu().getMingCheng());
-                jsonObject.put("人员", gongZuoJiLu.getYongHu().getYongHuMing());
-                jsonObject.put("耗时", (new BigDecimal("" + duration.getSeconds())).divide(new BigDecimal("" + 3600), MathContext.DECIMAL128));
-                jsonObject.put("小时费用", xiaoShiFeiYong);
-                jsonObject.put("费用", cost);
-
-                gongZuoJiLusJsonArray.put(jsonObject);
+    private BaoGaoCache.BaoGao gainBaoGao(Long gongSiId, LocalDate kaiShi, LocalDate jieShu) {
+        return baoGaoCache.gainBaoGao(gongSiId, kaiShi, jieShu, () -> {
+            try {
+                return baoGaoService.generateBaoGaoXuLieHua(gongSiId, kaiShi, jieShu);
+            } catch (JSONException e) {
+                throw new PPBusinessException(e.getMessage());
             }
-        }
-        // --
-
-        // --查出时间段内指定公司相关的支付
-        JSONArray zhiFusJsonArray = new JSONArray();
-
-        List<ZhiFu> zhiFus = zhiFuRepository.findGongSiZhiFu(gongSiId, kaiShi, jieShu.plusDays(1));
-
-        for (ZhiFu zhifu : zhiFus) {
-            JSONObject jsonObject = new JSONObject();
-
-            jsonObject.put("日期", zhifu.getRiQi());
-            jsonObject.put("金额", zhifu.getJingE());
-            jsonObject.put("备注", zhifu.getBeiZhu());
-
-            zhiFusJsonArray.put(jsonObject);
-        }
-
-        // --
-
-        // --查出开始时公司Balance
-        BigDecimal kaiShiIncoming = zhiFuRepository.calIncomingTotal(gongSiId, kaiShi);
-        BigDecimal kaiShiBalance = kaiShiIncoming.subtract(kaiShiCostTotal);
-        // --
-
-        // --查出结束时公司Balance
-        BigDecimal jieShuIncoming = zhiFuRepository.calIncomingTotal(gongSiId, jieShu);
-        BigDecimal jieShuBalance = jieShuIncoming.subtract(jieShuCostTotal);
-        // --
-
-        JSONObject reportJsonObject = new JSONObject();
-        reportJsonObject.put("开始", kaiShi);
-        reportJsonObject.put("结束", jieShu);
-        reportJsonObject.put("期初Balance", kaiShiBalance);
-        reportJsonObject.put("期末Balance", jieShuBalance);
-        reportJsonObject.put("消费记录", gongZuoJiLusJsonArray);
-        reportJsonObject.put("充值记录", zhiFusJsonArray);
-
-        return reportJsonObject;
+        });
     }
     // -
 
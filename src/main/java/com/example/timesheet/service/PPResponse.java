@@ -43,6 +43,13 @@ public class PPResponse {
         return jsonObject.toString();
     }
 
+    /**
+     * data已经是JSON, 结果与response(JSONObject)相同
+     */
+    public String responseJson(String dataJson) {
+        return "{\"code\":\"1\",\"data\":" + dataJson + "}";
+    }
+
     public String response(Object data) {
         try {
             ObjectMapper objectMapper = springMvcJacksonConverter.getObjectMapper();
@@ -0,0 +1,234 @@
+package com.example.timesheet.service;
+
+import com.example.timesheet.model.JiFeiBiaoZhun;
+import com.example.timesheet.model.XiangMu;
+import com.example.timesheet.repository.XiangMuRepository;
+import com.example.timesheet.util.RateTimeline;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 计费标准时间线缓存
+ * <p>
+ * 1) 每个项目第一次用到时在调用方的事务中一次查询取出全部计费标准, 按用户建立RateTimeline, 不另外占用连接<br>
+ * 2) 加载的时间线先在本事务内复用, 事务提交后才放入共享缓存<br>
+ * 3) 修改计费标准或成员时调用changed, 事务结束后丢弃该项目的缓存, 下次用到时重新加载<br>
+ * 4) 当前事务已经修改过的项目不走缓存, 按传入项目实体上的计费标准列表建立, 在本事务内复用<br>
+ * 5) 每个项目有版本号, 加载之后有修改提交则不放入缓存
+ */
+@Slf4j
+@Service
+public class RateTimelineCache {
+    @Autowired
+    private XiangMuRepository xiangMuRepository;
+
+    private final Map<Long, Map<Long, RateTimeline>> timelines = new ConcurrentHashMap<>();
+
+    private final Map<Long, Long> versions = new HashMap<>();
+
+    /**
+     * 取得项目中用户的计费标准时间线
+     *
+     * @param xiangMu  项目
+     * @param yongHuId 用户id
+     * @return 没有计费标准时为RateTimeline.EMPTY
+     */
+    public RateTimeline gainRateTimeline(XiangMu xiangMu, Long yongHuId) {
+        return gainRateTimelines(xiangMu).getOrDefault(yongHuId, RateTimeline.EMPTY);
+    }
+
+    /**
+     * 取得项目中所有用户的计费标准时间线
+     * <p>
+     * 返回的Map创建后不再修改, 可以交给其他线程读取
+     *
+     * @param xiangMu 项目, 当前事务没有修改过它时只用到id
+     * @return 用户id - 时间线, 没有计费标准的用户不在其中
+     */
+    public Map<Long, RateTimeline> gainRateTimelines(XiangMu xiangMu) {
+        BianGeng bianGeng = findBianGeng();
+        if (bianGeng != null) {
+            Map<Long, RateTimeline> xiangMuTimelines = bianGeng.timelines.get(xiangMu.getId());
+            if (xiangMuTimelines != null) {
+                return xiangMuTimelines;
+            }
+
+            // 当前事务未提交的修改不在缓存中
+            if (bianGeng.xiangMuIds.contains(xiangMu.getId())) {
+                xiangMuTimelines = build(xiangMu);
+                bianGeng.timelines.put(xiangMu.getId(), xiangMuTimelines);
+
+                return xiangMuTimelines;
+            }
+        }
+
+        Map<Long, RateTimeline> xiangMuTimelines = timelines.get(xiangMu.getId());
+        if (xiangMuTimelines == null) {
+            xiangMuTimelines = load(xiangMu.getId());
+        }
+
+        return xiangMuTimelines;
+    }
+
+    /**
+     * 项目的计费标准或成员已修改, 在当前事务结束后丢弃缓存
+     *
+     * @param xiangMuId 项目id
+     */
+    public void changed(Long xiangMuId) {
+        BianGeng bianGeng = findBianGeng();
+        if (bianGeng == null) {
+            bianGeng = new BianGeng();
+            if (TransactionSynchronizationManager.isSynchronizationActive()) {
+                TransactionSynchronizationManager.registerSynchronization(bianGeng);
+            }
+        }
+
+        bianGeng.xiangMuIds.add(xiangMuId);
+        bianGeng.timelines.remove(xiangMuId);
+
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            bianGeng.apply();
+        }
+    }
+
+    /**
+     * 清空缓存, 数据库被整体替换时调用
+     */
+    public void clear() {
+        synchronized (versions) {
+            for (Map.Entry<Long, Long> entry : versions.entrySet()) {
+                entry.setValue(entry.getValue() + 1);
+            }
+            timelines.clear();
+        }
+    }
+
+    /**
+     * 在调用方的事务中查询, 事务提交后放入缓存; 没有事务时立即放入
+     */
+    private Map<Long, RateTimeline> load(Long xiangMuId) {
+        long version;
+        synchronized (versions) {
+            version = versions.computeIfAbsent(xiangMuId, key -> 0L);
+        }
+
+        Map<Long, NavigableMap<LocalDate, BigDecimal>> xiaoShiFeiYongs = new HashMap<>();
+        for (Object[] jiFeiBiaoZhun : xiangMuRepository.findJiFeiBiaoZhuns(xiangMuId)) {
+            xiaoShiFeiYongs.computeIfAbsent((Long) jiFeiBiaoZhun[0], key -> new TreeMap<>())
+                    .put((LocalDate) jiFeiBiaoZhun[1], (BigDecimal) jiFeiBiaoZhun[2]);
+        }
+        Map<Long, RateTimeline> xiangMuTimelines = toTimelines(xiaoShiFeiYongs);
+
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            publish(xiangMuId, version, xiangMuTimelines);
+
+            return xiangMuTimelines;
+        }
+
+        BianGeng bianGeng = findBianGeng();
+        if (bianGeng == null) {
+            bianGeng = new BianGeng();
+            TransactionSynchronizationManager.registerSynchronization(bianGeng);
+        }
+        bianGeng.timelines.put(xiangMuId, xiangMuTimelines);
+        bianGeng.jiaZaiVersions.put(xiangMuId, version);
+
+        return xiangMuTimelines;
+    }
+
+    /**
+     * 加载之后没有修改提交过时放入缓存
+     */
+    private void publish(Long xiangMuId, long version, Map<Long, RateTimeline> xiangMuTimelines) {
+        synchronized (versions) {
+            if (versions.get(xiangMuId) == version) {
+                timelines.put(xiangMuId, xiangMuTimelines);
+            }
+        }
+    }
+
+    private static Map<Long, RateTimeline> build(XiangMu xiangMu) {
+        Map<Long, NavigableMap<LocalDate, BigDecimal>> xiaoShiFeiYongs = new HashMap<>();
+        for (JiFeiBiaoZhun jiFeiBiaoZhun : xiangMu.getJiFeiBiaoZhuns()) {
+            xiaoShiFeiYongs.computeIfAbsent(jiFeiBiaoZhun.getYongHu().getId(), key -> new TreeMap<>())
+                    .put(jiFeiBiaoZhun.getKaiShi(), jiFeiBiaoZhun.getXiaoShiFeiYong());
+        }
+
+        return toTimelines(xiaoShiFeiYongs);
+    }
+
+    private static Map<Long, RateTimeline> toTimelines(Map<Long, NavigableMap<LocalDate, BigDecimal>> xiaoShiFeiYongs) {
+        Map<Long, RateTimeline> xiangMuTimelines = new HashMap<>();
+        for (Map.Entry<Long, NavigableMap<LocalDate, BigDecimal>> entry : xiaoShiFeiYongs.entrySet()) {
+            xiangMuTimelines.put(entry.getKey(), RateTimeline.of(entry.getValue()));
+        }
+
+        return xiangMuTimelines;
+    }
+
+    private BianGeng findBianGeng() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return null;
+        }
+
+        for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+            if (synchronization instanceof BianGeng) {
+                return (BianGeng) synchronization;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * 一个事务中修改过计费标准或成员的项目, 以及加载过的时间线
+     */
+    private class BianGeng extends TransactionSynchronizationAdapter {
+        private final Set<Long> xiangMuIds = new HashSet<>();
+
+        /**
+         * 本事务内加载或按项目实体建立的时间线
+         */
+        private final Map<Long, Map<Long, RateTimeline>> timelines = new HashMap<>();
+
+        /**
+         * 本事务内加载的项目 - 加载前的版本号, 提交后放入缓存
+         */
+        private final Map<Long, Long> jiaZaiVersions = new HashMap<>();
+
+        void apply() {
+            synchronized (versions) {
+                for (Long xiangMuId : xiangMuIds) {
+                    versions.merge(xiangMuId, 1L, Long::sum);
+                    RateTimelineCache.this.timelines.remove(xiangMuId);
+                }
+            }
+        }
+
+        @Override
+        public void afterCommit() {
+            for (Map.Entry<Long, Long> entry : jiaZaiVersions.entrySet()) {
+                // 加载之后本事务又修改过的项目不放入缓存
+                if (!xiangMuIds.contains(entry.getKey())) {
+                    publish(entry.getKey(), entry.getValue(), timelines.get(entry.getKey()));
+                }
+            }
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            // 回滚时数据库没有变化, 丢弃缓存也无妨
+            apply();
+        }
+    }
+}
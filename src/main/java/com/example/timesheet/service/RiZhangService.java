@@ -0,0 +1,526 @@
+package com.example.timesheet.service;
+
+import com.example.timesheet.model.*;
+import com.example.timesheet.repository.RiZhangRepository;
+import com.example.timesheet.repository.ZhouQiZhangRepository;
+import com.example.timesheet.util.CostEngine;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.id.IdentifierGenerator;
+import org.hibernate.type.LocalDateType;
+import org.hibernate.type.LongType;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.sql.BatchUpdateException;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * 每日费用台账
+ * <p>
+ * 1) 工作记录写入和删除时按(项目, 用户, 日期)累加条数, 耗时和费用, 在调用方的事务中完成<br>
+ * 2) 计费标准修改后重算该项目该用户从计费标准开始日期起的费用<br>
+ * 3) 费用用CostEngine的定点单位, 小时费用 * 秒数是精确值, 累加和重算的结果一致<br>
+ * 4) 批量写入的工作记录先按键合并, 每种台账用一次查询找出已有的行, 再用JDBC批量UPDATE已有的行, 批量INSERT其余的行, 语句数与键的个数无关, 见added<br>
+ * 5) 两个事务同时新建同一(项目, 用户, 日期)的第一行时, 后插入的等先插入的提交后违反唯一约束, 只有这一行失败, 逐行重试时改为在已有行上累加, 见piLiangXinJian<br>
+ * 6) 每日台账的每次增量同时累加到所在周和所在月的周期台账(ZhouQiZhang), 见FenXiService
+ */
+@Slf4j
+@Service
+@Transactional
+public class RiZhangService {
+    private static final String INSERT = "insert into ri_zhang (id, gong_si_id, xiang_mu_id, yong_hu_id, ri_qi, tiao_shu, miao_shu, fei_yong) values (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String UPDATE = "update ri_zhang set tiao_shu = tiao_shu + ?, miao_shu = miao_shu + ?, fei_yong = fei_yong + ? where xiang_mu_id = ? and yong_hu_id = ? and ri_qi = ?";
+
+    private static final String INSERT_ZHOU_QI = "insert into zhou_qi_zhang (id, gong_si_id, xiang_mu_id, yong_hu_id, zhou_qi, qi, tiao_shu, miao_shu, fei_yong, wei_ji_fei_tiao_shu) values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String UPDATE_ZHOU_QI = "update zhou_qi_zhang set tiao_shu = tiao_shu + ?, miao_shu = miao_shu + ?, fei_yong = fei_yong + ?, wei_ji_fei_tiao_shu = wei_ji_fei_tiao_shu + ? where xiang_mu_id = ? and yong_hu_id = ? and zhou_qi = ? and qi = ?";
+
+    /**
+     * 违反唯一约束的SQLState
+     */
+    private static final String WEI_YI_YUE_SHU_CHONG_TU = "23505";
+
+    /**
+     * 每日台账的语句
+     */
+    private static final YuJu<Jian> RI_ZHANG = new YuJu<Jian>(RiZhang.class, UPDATE, INSERT,
+            (preparedStatement, jian, leiJi, session) -> {
+                preparedStatement.setInt(1, leiJi.tiaoShu);
+                preparedStatement.setLong(2, leiJi.miaoShu);
+                LongType.INSTANCE.nullSafeSet(preparedStatement, leiJi.feiYong, 3, session);
+                preparedStatement.setLong(4, jian.xiangMuId);
+                preparedStatement.setLong(5, jian.yongHuId);
+                LocalDateType.INSTANCE.nullSafeSet(preparedStatement, jian.riQi, 6, session);
+            },
+            (preparedStatement, jian, leiJi, session) -> {
+                preparedStatement.setLong(1, leiJi.id);
+                preparedStatement.setLong(2, leiJi.xiangMu.getGongSi().getId());
+                preparedStatement.setLong(3, jian.xiangMuId);
+                preparedStatement.setLong(4, jian.yongHuId);
+                LocalDateType.INSTANCE.nullSafeSet(preparedStatement, jian.riQi, 5, session);
+                preparedStatement.setInt(6, leiJi.tiaoShu);
+                preparedStatement.setLong(7, leiJi.miaoShu);
+                LongType.INSTANCE.nullSafeSet(preparedStatement, leiJi.feiYong, 8, session);
+            }
+    );
+
+    /**
+     * 周期台账的语句, feiYong不为null
+     */
+    private static final YuJu<ZhouQiJian> ZHOU_QI_ZHANG = new YuJu<ZhouQiJian>(ZhouQiZhang.class, UPDATE_ZHOU_QI, INSERT_ZHOU_QI,
+            (preparedStatement, jian, leiJi, session) -> {
+                preparedStatement.setInt(1, leiJi.tiaoShu);
+                preparedStatement.setLong(2, leiJi.miaoShu);
+                preparedStatement.setLong(3, leiJi.feiYong);
+                preparedStatement.setInt(4, leiJi.weiJiFeiTiaoShu);
+                preparedStatement.setLong(5, jian.xiangMuId);
+                preparedStatement.setLong(6, jian.yongHuId);
+                preparedStatement.setString(7, jian.zhouQi.name());
+                LocalDateType.INSTANCE.nullSafeSet(preparedStatement, jian.qi, 8, session);
+            },
+            (preparedStatement, jian, leiJi, session) -> {
+                preparedStatement.setLong(1, leiJi.id);
+                preparedStatement.setLong(2, leiJi.xiangMu.getGongSi().getId());
+                preparedStatement.setLong(3, jian.xiangMuId);
+                preparedStatement.setLong(4, jian.yongHuId);
+                preparedStatement.setString(5, jian.zhouQi.name());
+                LocalDateType.INSTANCE.nullSafeSet(preparedStatement, jian.qi, 6, session);
+                preparedStatement.setInt(7, leiJi.tiaoShu);
+                preparedStatement.setLong(8, leiJi.miaoShu);
+                preparedStatement.setLong(9, leiJi.feiYong);
+                preparedStatement.setInt(10, leiJi.weiJiFeiTiaoShu);
+            }
+    );
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Autowired
+    private RiZhangRepository riZhangRepository;
+
+    @Autowired
+    private ZhouQiZhangRepository zhouQiZhangRepository;
+
+    @Autowired
+    private RateTimelineCache rateTimelineCache;
+
+    /**
+     * 费用
+     *
+     * @param xiangMu  项目
+     * @param yongHuId 用户id
+     * @param riQi     日期
+     * @param miaoShu  耗时(秒)
+     * @return 按日期适用的计费标准(开始日期早于或等于日期的最后一个)计算的费用单位, 没有计费标准时为null
+     */
+    public Long gainFeiYong(XiangMu xiangMu, Long yongHuId, LocalDate riQi, long miaoShu) {
+        long xiaoShiFeiYong = rateTimelineCache.gainRateTimeline(xiangMu, yongHuId).gainDingDianXiaoShiFeiYong(riQi);
+
+        return xiaoShiFeiYong == CostEngine.WU ? null : CostEngine.feiYong(xiaoShiFeiYong, miaoShu);
+    }
+
+    /**
+     * 工作记录已写入
+     * <p>
+     * 1) 按(项目, 用户, 日期)和(项目, 用户, 周期, 周期开始日期)合并<br>
+     * 2) 只在开始时刷新一次持久化上下文, 之后直接用JDBC写入<br>
+     * 3) 每种台账一次查询已有的行, 一批UPDATE, 一批INSERT
+     */
+    public void added(Collection<GongZuoJiLu> gongZuoJiLus) {
+        if (gongZuoJiLus.isEmpty()) {
+            return;
+        }
+
+        Map<Jian, LeiJi> leiJis = new LinkedHashMap<>();
+        for (GongZuoJiLu gongZuoJiLu : gongZuoJiLus) {
+            LeiJi leiJi = leiJis.computeIfAbsent(new Jian(gongZuoJiLu), key -> new LeiJi(gongZuoJiLu.getXiangMu()));
+            leiJi.tiaoShu++;
+            leiJi.miaoShu += Duration.between(gongZuoJiLu.getKaiShi(), gongZuoJiLu.getJieShu()).getSeconds();
+        }
+
+        Map<ZhouQiJian, LeiJi> zhouQiLeiJis = new LinkedHashMap<>();
+        for (Map.Entry<Jian, LeiJi> entry : leiJis.entrySet()) {
+            Jian jian = entry.getKey();
+            LeiJi leiJi = entry.getValue();
+            leiJi.feiYong = gainFeiYong(leiJi.xiangMu, jian.yongHuId, jian.riQi, leiJi.miaoShu);
+
+            for (ZhouQiZhang.ZhouQi zhouQi : ZhouQiZhang.ZhouQi.values()) {
+                LeiJi zhouQiLeiJi = zhouQiLeiJis.computeIfAbsent(new ZhouQiJian(jian.xiangMuId, jian.yongHuId, zhouQi, zhouQi.gainQi(jian.riQi)), key -> new LeiJi(leiJi.xiangMu, 0L));
+                zhouQiLeiJi.tiaoShu += leiJi.tiaoShu;
+                zhouQiLeiJi.miaoShu += leiJi.miaoShu;
+                if (leiJi.feiYong == null) {
+                    zhouQiLeiJi.weiJiFeiTiaoShu += leiJi.tiaoShu;
+                } else {
+                    zhouQiLeiJi.feiYong += leiJi.feiYong;
+                }
+            }
+        }
+
+        SessionImplementor session = entityManager.unwrap(SessionImplementor.class);
+        // 引用的项目, 用户可能还没有写入数据库
+        session.flush();
+
+        piLiangLeiJia(session, RI_ZHANG, leiJis, findYiYouRiZhangs(leiJis.keySet()));
+        piLiangLeiJia(session, ZHOU_QI_ZHANG, zhouQiLeiJis, findYiYouZhouQiZhangs(zhouQiLeiJis.keySet()));
+    }
+
+    /**
+     * 工作记录已删除
+     */
+    public void removed(GongZuoJiLu gongZuoJiLu) {
+        Jian jian = new Jian(gongZuoJiLu);
+        long miaoShu = Duration.between(gongZuoJiLu.getKaiShi(), gongZuoJiLu.getJieShu()).getSeconds();
+        Long feiYong = gainFeiYong(gongZuoJiLu.getXiangMu(), jian.yongHuId, jian.riQi, -miaoShu);
+
+        riZhangRepository.leiJia(jian.xiangMuId, jian.yongHuId, jian.riQi, -1, -miaoShu, feiYong);
+        riZhangRepository.deleteKong(jian.xiangMuId, jian.yongHuId, jian.riQi);
+
+        zhouQiLeiJia(gongZuoJiLu.getXiangMu(), jian.yongHuId, jian.riQi, -1, -miaoShu, feiYong);
+    }
+
+    /**
+     * 项目计费标准已修改
+     *
+     * @param xiangMu  项目, 计费标准列表已修改, 并已通知RateTimelineCache
+     * @param yongHuId 用户id
+     * @param kaiShi   修改的计费标准的开始日期, 此前的费用不受影响
+     */
+    public void jiFeiBiaoZhunChanged(XiangMu xiangMu, Long yongHuId, LocalDate kaiShi) {
+        for (RiZhang riZhang : riZhangRepository.findRiZhangs(xiangMu.getId(), yongHuId, kaiShi)) {
+            Long yuanFeiYong = riZhang.getFeiYong();
+            Long feiYong = gainFeiYong(xiangMu, yongHuId, riZhang.getRiQi(), riZhang.getMiaoShu());
+            if (Objects.equals(yuanFeiYong, feiYong)) {
+                continue;
+            }
+
+            riZhang.setFeiYong(feiYong);
+
+            // 周期台账中先减去原来的费用, 再加上新的费用
+            long feiYongZengLiang = (feiYong == null ? 0 : feiYong) - (yuanFeiYong == null ? 0 : yuanFeiYong);
+            int weiJiFeiZengLiang = (feiYong == null ? riZhang.getTiaoShu() : 0) - (yuanFeiYong == null ? riZhang.getTiaoShu() : 0);
+            for (ZhouQiZhang.ZhouQi zhouQi : ZhouQiZhang.ZhouQi.values()) {
+                zhouQiZhangRepository.leiJia(xiangMu.getId(), yongHuId, zhouQi, zhouQi.gainQi(riZhang.getRiQi()), 0, 0, feiYongZengLiang, weiJiFeiZengLiang);
+            }
+        }
+    }
+
+    /**
+     * 累加时还没有这一行, 新建一行; 已由并发的事务新建时改为在其上累加
+     *
+     * @param xiangMu  项目
+     * @param yongHuId 用户id
+     * @param riQi     日期
+     * @param tiaoShu  工作记录条数
+     * @param miaoShu  耗时(秒)
+     * @param feiYong  费用, 没有适用的计费标准时为null
+     */
+    public void xinJian(XiangMu xiangMu, Long yongHuId, LocalDate riQi, int tiaoShu, long miaoShu, Long feiYong) {
+        LeiJi leiJi = new LeiJi(xiangMu, feiYong);
+        leiJi.tiaoShu = tiaoShu;
+        leiJi.miaoShu = miaoShu;
+
+        SessionImplementor session = entityManager.unwrap(SessionImplementor.class);
+        // 引用的项目, 用户可能还没有写入数据库
+        session.flush();
+
+        Jian jian = new Jian(xiangMu.getId(), yongHuId, riQi);
+        piLiangXinJian(session, RI_ZHANG, Collections.singletonMap(jian, leiJi), Collections.singletonList(jian));
+    }
+
+    /**
+     * 把一天的增量累加到所在周和所在月的周期台账, 条数减到0的行删除
+     *
+     * @param feiYong 费用增量, 为null表示这一天没有适用的计费标准, 条数计入weiJiFeiTiaoShu
+     */
+    private void zhouQiLeiJia(XiangMu xiangMu, Long yongHuId, LocalDate riQi, int tiaoShu, long miaoShu, Long feiYong) {
+        long feiYongZengLiang = feiYong == null ? 0 : feiYong;
+        int weiJiFeiTiaoShu = feiYong == null ? tiaoShu : 0;
+
+        for (ZhouQiZhang.ZhouQi zhouQi : ZhouQiZhang.ZhouQi.values()) {
+            LocalDate qi = zhouQi.gainQi(riQi);
+
+            if (zhouQiZhangRepository.leiJia(xiangMu.getId(), yongHuId, zhouQi, qi, tiaoShu, miaoShu, feiYongZengLiang, weiJiFeiTiaoShu) > 0) {
+                if (tiaoShu < 0) {
+                    zhouQiZhangRepository.deleteKong(xiangMu.getId(), yongHuId, zhouQi, qi);
+                }
+                continue;
+            }
+
+            LeiJi leiJi = new LeiJi(xiangMu, feiYongZengLiang);
+            leiJi.tiaoShu = tiaoShu;
+            leiJi.miaoShu = miaoShu;
+            leiJi.weiJiFeiTiaoShu = weiJiFeiTiaoShu;
+
+            ZhouQiJian jian = new ZhouQiJian(xiangMu.getId(), yongHuId, zhouQi, qi);
+            piLiangXinJian(entityManager.unwrap(SessionImplementor.class), ZHOU_QI_ZHANG, Collections.singletonMap(jian, leiJi), Collections.singletonList(jian));
+        }
+    }
+
+    /**
+     * 批量中已有的每日台账的键
+     * <p>
+     * 按项目, 用户和日期的范围一次查询, 查出的多余的行忽略
+     */
+    private Set<Jian> findYiYouRiZhangs(Set<Jian> jians) {
+        Set<Long> xiangMuIds = new HashSet<>();
+        Set<Long> yongHuIds = new HashSet<>();
+        LocalDate kaiShi = LocalDate.MAX;
+        LocalDate jieShu = LocalDate.MIN;
+        for (Jian jian : jians) {
+            xiangMuIds.add(jian.xiangMuId);
+            yongHuIds.add(jian.yongHuId);
+            kaiShi = jian.riQi.isBefore(kaiShi) ? jian.riQi : kaiShi;
+            jieShu = jian.riQi.isAfter(jieShu) ? jian.riQi : jieShu;
+        }
+
+        Set<Jian> yiYous = new HashSet<>();
+        for (Object[] hang : riZhangRepository.findJians(xiangMuIds, yongHuIds, kaiShi, jieShu)) {
+            Jian jian = new Jian((Long) hang[0], (Long) hang[1], (LocalDate) hang[2]);
+            if (jians.contains(jian)) {
+                yiYous.add(jian);
+            }
+        }
+
+        return yiYous;
+    }
+
+    /**
+     * 批量中已有的周期台账的键, 同findYiYouRiZhangs
+     */
+    private Set<ZhouQiJian> findYiYouZhouQiZhangs(Set<ZhouQiJian> jians) {
+        Set<Long> xiangMuIds = new HashSet<>();
+        Set<Long> yongHuIds = new HashSet<>();
+        LocalDate kaiShi = LocalDate.MAX;
+        LocalDate jieShu = LocalDate.MIN;
+        for (ZhouQiJian jian : jians) {
+            xiangMuIds.add(jian.xiangMuId);
+            yongHuIds.add(jian.yongHuId);
+            kaiShi = jian.qi.isBefore(kaiShi) ? jian.qi : kaiShi;
+            jieShu = jian.qi.isAfter(jieShu) ? jian.qi : jieShu;
+        }
+
+        Set<ZhouQiJian> yiYous = new HashSet<>();
+        for (Object[] hang : zhouQiZhangRepository.findJians(xiangMuIds, yongHuIds, kaiShi, jieShu)) {
+            ZhouQiJian jian = new ZhouQiJian((Long) hang[0], (Long) hang[1], (ZhouQiZhang.ZhouQi) hang[2], (LocalDate) hang[3]);
+            if (jians.contains(jian)) {
+                yiYous.add(jian);
+            }
+        }
+
+        return yiYous;
+    }
+
+    /**
+     * 把累计批量写入一种台账
+     * <p>
+     * 1) 已有的行一批UPDATE, 批量中失败的行逐行重试<br>
+     * 2) UPDATE不到的行(并发的事务已删除)和原来没有的行一起批量新建, 见piLiangXinJian
+     *
+     * @param yiYous 已有的行的键
+     */
+    private <K> void piLiangLeiJia(SessionImplementor session, YuJu<K> yuJu, Map<K, LeiJi> leiJis, Set<K> yiYous) {
+        List<K> gengXins = new ArrayList<>(yiYous.size());
+        List<K> xinJians = new ArrayList<>(leiJis.size() - yiYous.size());
+        for (K jian : leiJis.keySet()) {
+            (yiYous.contains(jian) ? gengXins : xinJians).add(jian);
+        }
+
+        int[] gengXinShus = piLiang(session, yuJu.update, yuJu.updateCanShu, leiJis, gengXins);
+        for (int i = 0; i < gengXins.size(); i++) {
+            K jian = gengXins.get(i);
+            int gengXinShu = gengXinShus[i] == Statement.EXECUTE_FAILED ? zhiXing(session, yuJu.update, yuJu.updateCanShu, jian, leiJis.get(jian)) : gengXinShus[i];
+            if (gengXinShu == 0) {
+                xinJians.add(jian);
+            }
+        }
+
+        piLiangXinJian(session, yuJu, leiJis, xinJians);
+    }
+
+    /**
+     * 批量新建
+     * <p>
+     * 1) 直接用JDBC插入, 违反唯一约束时只有这一行失败, 事务可以继续; 经过Hibernate时整个事务会被标记为回滚<br>
+     * 2) id取自实体的序列生成器, 日期按Hibernate的方式绑定(hibernate.jdbc.time_zone), 与实体写入的一致<br>
+     * 3) 批量中失败的行逐行重试, 违反唯一约束(并发的事务已经插入了这一行)时改为在其上累加
+     *
+     * @param xinJians 要新建的行的键
+     */
+    private <K> void piLiangXinJian(SessionImplementor session, YuJu<K> yuJu, Map<K, LeiJi> leiJis, List<K> xinJians) {
+        IdentifierGenerator identifierGenerator = session.getFactory().getMetamodel().entityPersister(yuJu.shiTiLei).getIdentifierGenerator();
+        for (K jian : xinJians) {
+            leiJis.get(jian).id = (Long) identifierGenerator.generate(session, null);
+        }
+
+        int[] chaRuShus = piLiang(session, yuJu.insert, yuJu.insertCanShu, leiJis, xinJians);
+        for (int i = 0; i < xinJians.size(); i++) {
+            if (chaRuShus[i] != Statement.EXECUTE_FAILED) {
+                continue;
+            }
+
+            K jian = xinJians.get(i);
+            LeiJi leiJi = leiJis.get(jian);
+            if (zhiXing(session, yuJu.insert, yuJu.insertCanShu, jian, leiJi) < 0) {
+                log.info(yuJu.shiTiLei.getSimpleName() + jian + "已由并发的事务新建, 在其上累加");
+                zhiXing(session, yuJu.update, yuJu.updateCanShu, jian, leiJi);
+            }
+        }
+    }
+
+    /**
+     * 用JDBC批量执行, 每个键一行
+     *
+     * @return 每行更新的行数, 批量中失败的行为Statement.EXECUTE_FAILED
+     */
+    private static <K> int[] piLiang(SessionImplementor session, String sql, CanShu<K> canShu, Map<K, LeiJi> leiJis, List<K> jians) {
+        if (jians.isEmpty()) {
+            return new int[0];
+        }
+
+        return session.doReturningWork(connection -> {
+            try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+                for (K jian : jians) {
+                    canShu.set(preparedStatement, jian, leiJis.get(jian), session);
+                    preparedStatement.addBatch();
+                }
+
+                return preparedStatement.executeBatch();
+            } catch (BatchUpdateException e) {
+                // 驱动在失败处停止时, 之后的行也算失败, 由调用方逐行重试
+                int[] gengXinShus = e.getUpdateCounts() == null ? new int[0] : e.getUpdateCounts();
+                int yiZhiXing = gengXinShus.length;
+                gengXinShus = Arrays.copyOf(gengXinShus, jians.size());
+                Arrays.fill(gengXinShus, Math.min(yiZhiXing, jians.size()), jians.size(), Statement.EXECUTE_FAILED);
+
+                return gengXinShus;
+            }
+        });
+    }
+
+    /**
+     * 用JDBC执行一行
+     *
+     * @return 更新的行数, 违反唯一约束时为-1
+     */
+    private static <K> int zhiXing(SessionImplementor session, String sql, CanShu<K> canShu, K jian, LeiJi leiJi) {
+        return session.doReturningWork(connection -> {
+            try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+                canShu.set(preparedStatement, jian, leiJi, session);
+
+                return preparedStatement.executeUpdate();
+            } catch (SQLException e) {
+                if (WEI_YI_YUE_SHU_CHONG_TU.equals(e.getSQLState())) {
+                    return -1;
+                }
+
+                throw e;
+            }
+        });
+    }
+
+    /**
+     * 设置语句的参数
+     */
+    @FunctionalInterface
+    private interface CanShu<K> {
+        void set(PreparedStatement preparedStatement, K jian, LeiJi leiJi, SessionImplementor session) throws SQLException;
+    }
+
+    /**
+     * 一种台账的实体和累加, 新建语句
+     */
+    @AllArgsConstructor
+    private static class YuJu<K> {
+        private final Class<?> shiTiLei;
+
+        private final String update;
+
+        private final String insert;
+
+        private final CanShu<K> updateCanShu;
+
+        private final CanShu<K> insertCanShu;
+    }
+
+    /**
+     * 台账的键(项目, 用户, 日期)
+     */
+    @AllArgsConstructor
+    @EqualsAndHashCode
+    @ToString
+    private static class Jian {
+        private final Long xiangMuId;
+
+        private final Long yongHuId;
+
+        private final LocalDate riQi;
+
+        Jian(GongZuoJiLu gongZuoJiLu) {
+            this(gongZuoJiLu.getXiangMu().getId(), gongZuoJiLu.getYongHu().getId(), gongZuoJiLu.getKaiShi().toLocalDate());
+        }
+    }
+
+    /**
+     * 周期台账的键(项目, 用户, 周期, 周期开始日期)
+     */
+    @AllArgsConstructor
+    @EqualsAndHashCode
+    @ToString
+    private static class ZhouQiJian {
+        private final Long xiangMuId;
+
+        private final Long yongHuId;
+
+        private final ZhouQiZhang.ZhouQi zhouQi;
+
+        private final LocalDate qi;
+    }
+
+    /**
+     * 同一个键上的累计
+     */
+    private static class LeiJi {
+        private final XiangMu xiangMu;
+
+        /**
+         * 新建时的id
+         */
+        private Long id;
+
+        private int tiaoShu;
+
+        private long miaoShu;
+
+        /**
+         * 费用, 每日台账没有适用的计费标准时为null, 周期台账不为null
+         */
+        private Long feiYong;
+
+        /**
+         * 没有适用计费标准的条数, 只用于周期台账
+         */
+        private int weiJiFeiTiaoShu;
+
+        LeiJi(XiangMu xiangMu) {
+            this.xiangMu = xiangMu;
+        }
+
+        LeiJi(XiangMu xiangMu, Long feiYong) {
+            this.xiangMu = xiangMu;
+            this.feiYong = feiYong;
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package com.example.timesheet.service;
+
+import com.example.timesheet.model.GongZuoJiLu;
+import com.example.timesheet.repository.GongZuoJiLuRepository;
+import com.example.timesheet.util.ShiJianDuanIndex;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 用户工作记录时间段缓存
+ * <p>
+ * 1) 每个用户一个ShiJianDuanIndex, 第一次用到时在后台线程从数据库加载该用户的全部工作记录<br>
+ * 2) 未加载完成, 或当前事务已经修改过该用户的工作记录时, gainIndex返回null, 调用方回退到SQL查询<br>
+ * 3) 新建和删除在事务提交后才更新缓存, 回滚的修改不会进入缓存<br>
+ * 4) 每个用户有版本号, 加载期间有修改提交则丢弃加载结果, 下次用到时重新加载<br>
+ * 5) 最多缓存maxYongHuShu个用户, 超出时淘汰最久未用的, 被淘汰的用户下次用到时重新加载
+ */
+@Slf4j
+@Service
+public class ShiJianDuanCache {
+    @Autowired
+    private GongZuoJiLuRepository gongZuoJiLuRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Value("${timesheet.overlap-cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${timesheet.overlap-cache.max-users:1000}")
+    private int maxYongHuShu;
+
+    private ThreadPoolTaskExecutor executor;
+
+    /**
+     * 按访问顺序排列, 第一个是最久未用的; 读写都在versions上同步
+     */
+    private final LinkedHashMap<Long, ShiJianDuanIndex> indexes = new LinkedHashMap<Long, ShiJianDuanIndex>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, ShiJianDuanIndex> eldest) {
+            return size() > maxYongHuShu;
+        }
+    };
+
+    private final Map<Long, Long> versions = new HashMap<>();
+
+    private final Set<Long> loadings = ConcurrentHashMap.newKeySet();
+
+    @PostConstruct
+    public void init() {
+        executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(1);
+        executor.setMaxPoolSize(1);
+        executor.setThreadNamePrefix("shiJianDuanCache-");
+        executor.initialize();
+    }
+
+    @PreDestroy
+    public void destroy() {
+        executor.shutdown();
+    }
+
+    /**
+     * 取得用户的时间段索引
+     * <p>
+     * 未加载时触发后台加载并返回null
+     *
+     * @param yongHuId 用户id
+     */
+    public ShiJianDuanIndex gainIndex(Long yongHuId) {
+        if (!enabled) {
+            return null;
+        }
+
+        // 当前事务未提交的修改不在缓存中
+        BianGeng bianGeng = findBianGeng();
+        if (bianGeng != null && bianGeng.yongHuIds.contains(yongHuId)) {
+            return null;
+        }
+
+        ShiJianDuanIndex index;
+        synchronized (versions) {
+            index = indexes.get(yongHuId);
+        }
+        if (index == null && loadings.add(yongHuId)) {
+            executor.execute(() -> load(yongHuId));
+        }
+
+        return index;
+    }
+
+    /**
+     * 新建的工作记录, 在当前事务提交后加入缓存
+     *
+     * @param gongZuoJiLus 新建的工作记录
+     */
+    public void added(Collection<GongZuoJiLu> gongZuoJiLus) {
+        if (!enabled) {
+            return;
+        }
+
+        BianGeng bianGeng = gainBianGeng();
+        for (GongZuoJiLu gongZuoJiLu : gongZuoJiLus) {
+            bianGeng.add(gongZuoJiLu, true);
+        }
+
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            bianGeng.apply();
+        }
+    }
+
+    /**
+     * 删除的工作记录, 在当前事务提交后移出缓存
+     *
+     * @param gongZuoJiLu 删除的工作记录
+     */
+    public void removed(GongZuoJiLu gongZuoJiLu) {
+        if (!enabled) {
+            return;
+        }
+
+        BianGeng bianGeng = gainBianGeng();
+        bianGeng.add(gongZuoJiLu, false);
+
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            bianGeng.apply();
+        }
+    }
+
+    /**
+     * 清空缓存, 数据库被整体替换时调用
+     */
+    public void clear() {
+        synchronized (versions) {
+            for (Map.Entry<Long, Long> entry : versions.entrySet()) {
+                entry.setValue(entry.getValue() + 1);
+            }
+            indexes.clear();
+        }
+    }
+
+    private void load(Long yongHuId) {
+        try {
+            long version;
+            synchronized (versions) {
+                version = versions.computeIfAbsent(yongHuId, key -> 0L);
+            }
+
+            TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+            transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+            transactionTemplate.setReadOnly(true);
+            ShiJianDuanIndex index = transactionTemplate.execute(status -> {
+                ShiJianDuanIndex shiJianDuanIndex = new ShiJianDuanIndex();
+                for (Object[] shiJianDuan : gongZuoJiLuRepository.findShiJianDuans(yongHuId)) {
+                    shiJianDuanIndex.add((LocalDateTime) shiJianDuan[0], (LocalDateTime) shiJianDuan[1]);
+                }
+
+                return shiJianDuanIndex;
+            });
+
+            synchronized (versions) {
+                if (versions.get(yongHuId) == version) {
+                    indexes.put(yongHuId, index);
+                }
+            }
+        } catch (Exception e) {
+            log.error("加载用户" + yongHuId + "的工作记录时间段失败", e);
+        } finally {
+            loadings.remove(yongHuId);
+        }
+    }
+
+    /**
+     * 当前事务中的变更, 没有事务时是一次性的
+     */
+    private BianGeng findBianGeng() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return null;
+        }
+
+        for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+            if (synchronization instanceof BianGeng) {
+                return (BianGeng) synchronization;
+            }
+        }
+
+        return null;
+    }
+
+    private BianGeng gainBianGeng() {
+        BianGeng bianGeng = findBianGeng();
+        if (bianGeng == null) {
+            bianGeng = new BianGeng();
+            if (TransactionSynchronizationManager.isSynchronizationActive()) {
+                TransactionSynchronizationManager.registerSynchronization(bianGeng);
+            }
+        }
+
+        return bianGeng;
+    }
+
+    /**
+     * 一个事务中对工作记录时间段的变更
+     * <p>
+     * 注册为事务同步, 挂起的外层事务的变更不会被内层事务看到
+     */
+    private class BianGeng extends TransactionSynchronizationAdapter {
+        private final Set<Long> yongHuIds = new HashSet<>();
+
+        private final List<Object[]> shiJianDuans = new ArrayList<>();
+
+        void add(GongZuoJiLu gongZuoJiLu, boolean xinJian) {
+            Long yongHuId = gongZuoJiLu.getYongHu().getId();
+            yongHuIds.add(yongHuId);
+            shiJianDuans.add(new Object[]{yongHuId, gongZuoJiLu.getKaiShi(), gongZuoJiLu.getJieShu(), xinJian});
+        }
+
+        void apply() {
+            synchronized (versions) {
+                for (Long yongHuId : yongHuIds) {
+                    versions.merge(yongHuId, 1L, Long::sum);
+                }
+
+                for (Object[] shiJianDuan : shiJianDuans) {
+                    ShiJianDuanIndex index = indexes.get(shiJianDuan[0]);
+                    if (index == null) {
+                        continue;
+                    }
+
+                    if ((Boolean) shiJianDuan[3]) {
+                        index.add((LocalDateTime) shiJianDuan[1], (LocalDateTime) shiJianDuan[2]);
+                    } else {
+                        index.remove((LocalDateTime) shiJianDuan[1], (LocalDateTime) shiJianDuan[2]);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            if (status == STATUS_COMMITTED) {
+                apply();
+            } else if (status == STATUS_UNKNOWN) {
+                // 不确定是否提交, 丢弃相关用户的缓存
+                synchronized (versions) {
+                    for (Long yongHuId : yongHuIds) {
+                        versions.merge(yongHuId, 1L, Long::sum);
+                        indexes.remove(yongHuId);
+                    }
+                }
+            }
+        }
+    }
+}
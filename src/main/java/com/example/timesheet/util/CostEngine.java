@@ -0,0 +1,90 @@
+package com.example.timesheet.util;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * 定点费用计算
+ * <p>
+ * 1) 小时费用最多XIAO_SHI_FEI_YONG_SCALE位小数(由验证保证), 存为万分之一货币单位的long<br>
+ * 2) 费用单位是 万分之一货币单位 / 3600, 一条记录的费用 = 小时费用(long) * 秒数, 是精确值, 不舍入<br>
+ * 3) 汇总直接做long加法, 仍然精确; 台账, 快照和报告都按这个单位累加<br>
+ * 4) 唯一的舍入: 输出时toBigDecimal换算成货币单位, 保留XIAN_SHI_SCALE位小数, HALF_UP<br>
+ * 5) 溢出时抛ArithmeticException; 每条记录不超过一天, 小时费用小于一百万时单条不会溢出, 总额上限约2.5 * 10^11货币单位
+ */
+public final class CostEngine {
+    /**
+     * 小时费用的小数位数
+     */
+    public static final int XIAO_SHI_FEI_YONG_SCALE = 4;
+
+    /**
+     * 输出费用和耗时的小数位数
+     */
+    public static final int XIAN_SHI_SCALE = 8;
+
+    /**
+     * 一个货币单位等于多少费用单位: 10^4 * 3600
+     */
+    public static final long DAN_WEI = 36_000_000L;
+
+    /**
+     * 没有计费标准
+     */
+    public static final long WU = -1L;
+
+    private static final BigDecimal DAN_WEI_DECIMAL = BigDecimal.valueOf(DAN_WEI);
+
+    private static final BigDecimal XIAO_SHI_MIAO_SHU = BigDecimal.valueOf(3600);
+
+    private CostEngine() {
+    }
+
+    /**
+     * 小时费用换算成万分之一货币单位
+     * <p>
+     * 超过XIAO_SHI_FEI_YONG_SCALE位小数的旧数据按HALF_UP取舍
+     *
+     * @param xiaoShiFeiYong 小时费用
+     */
+    public static long toXiaoShiFeiYong(BigDecimal xiaoShiFeiYong) {
+        return xiaoShiFeiYong.setScale(XIAO_SHI_FEI_YONG_SCALE, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+    }
+
+    /**
+     * 费用
+     *
+     * @param xiaoShiFeiYong 小时费用, 万分之一货币单位, 见toXiaoShiFeiYong
+     * @param miaoShu        耗时(秒)
+     * @return 费用单位
+     */
+    public static long feiYong(long xiaoShiFeiYong, long miaoShu) {
+        return Math.multiplyExact(xiaoShiFeiYong, miaoShu);
+    }
+
+    /**
+     * 费用单位换算成货币单位, 保留XIAN_SHI_SCALE位小数, HALF_UP
+     *
+     * @param feiYong 费用单位
+     */
+    public static BigDecimal toBigDecimal(long feiYong) {
+        if (feiYong % DAN_WEI == 0) {
+            return BigDecimal.valueOf(feiYong / DAN_WEI);
+        }
+
+        return BigDecimal.valueOf(feiYong).divide(DAN_WEI_DECIMAL, XIAN_SHI_SCALE, RoundingMode.HALF_UP);
+    }
+
+    /**
+     * 耗时(小时), 保留XIAN_SHI_SCALE位小数, HALF_UP
+     *
+     * @param miaoShu 耗时(秒)
+     */
+    public static BigDecimal haoShi(long miaoShu) {
+        if (miaoShu % 3600 == 0) {
+            return BigDecimal.valueOf(miaoShu / 3600);
+        }
+
+        return BigDecimal.valueOf(miaoShu).divide(XIAO_SHI_MIAO_SHU, XIAN_SHI_SCALE, RoundingMode.HALF_UP);
+    }
+}
@@ -0,0 +1,146 @@
+package com.example.timesheet.util;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static java.time.temporal.ChronoUnit.DAYS;
+
+/**
+ * 按天拆分时间段
+ * <p>
+ * 1) 一天从fenJie开始, 默认0点; 跨越fenJie的时间段拆分成每天一段<br>
+ * 2) 除最后一段外, 每段在下一个fenJie的前一秒结束(0点时即23:59:59), 下一段从fenJie开始<br>
+ * 3) 各段按需生成, 不在列表中全部展开; 每段只新建下一个分界时间和本段的对象<br>
+ * 4) 结束时间所属的天早于或等于开始时间所属的天时, 原样返回一段, 由调用方验证
+ */
+public class DaySplitter {
+    /**
+     * 以0点为分界
+     */
+    public static final DaySplitter MIDNIGHT = new DaySplitter(LocalTime.MIDNIGHT);
+
+    private final LocalTime fenJie;
+
+    public DaySplitter(LocalTime fenJie) {
+        this.fenJie = fenJie;
+    }
+
+    /**
+     * 时间所属的天
+     *
+     * @param shiJian 时间
+     */
+    public LocalDate gainRiQi(LocalDateTime shiJian) {
+        LocalDate riQi = shiJian.toLocalDate();
+
+        return shiJian.toLocalTime().isBefore(fenJie) ? riQi.minusDays(1) : riQi;
+    }
+
+    /**
+     * 拆分后的段数
+     *
+     * @param kaiShi 开始时间
+     * @param jieShu 结束时间
+     */
+    public long count(LocalDateTime kaiShi, LocalDateTime jieShu) {
+        long days = DAYS.between(gainRiQi(kaiShi), gainRiQi(jieShu));
+
+        return days > 0 ? days + 1 : 1;
+    }
+
+    /**
+     * 按天拆分
+     *
+     * @param kaiShi 开始时间
+     * @param jieShu 结束时间
+     */
+    public Iterator<ShiJianDuan> split(LocalDateTime kaiShi, LocalDateTime jieShu) {
+        return new ChaiFenIterator(kaiShi, jieShu, count(kaiShi, jieShu));
+    }
+
+    /**
+     * 按天拆分
+     *
+     * @param kaiShi 开始时间
+     * @param jieShu 结束时间
+     */
+    public Stream<ShiJianDuan> stream(LocalDateTime kaiShi, LocalDateTime jieShu) {
+        long count = count(kaiShi, jieShu);
+
+        return StreamSupport.stream(
+                Spliterators.spliterator(new ChaiFenIterator(kaiShi, jieShu, count), count, Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.IMMUTABLE),
+                false
+        );
+    }
+
+    /**
+     * 拆分后的一段
+     */
+    @AllArgsConstructor
+    @Getter
+    public static class ShiJianDuan {
+        private final LocalDateTime kaiShi;
+
+        private final LocalDateTime jieShu;
+
+        @Override
+        public String toString() {
+            return "(" + kaiShi + ", " + jieShu + ")";
+        }
+    }
+
+    private class ChaiFenIterator implements Iterator<ShiJianDuan> {
+        private final LocalDateTime jieShu;
+
+        private long shengYu;
+
+        private boolean diYiDuan = true;
+
+        /**
+         * 下一段的开始时间
+         */
+        private LocalDateTime xiaYiKaiShi;
+
+        ChaiFenIterator(LocalDateTime kaiShi, LocalDateTime jieShu, long count) {
+            this.jieShu = jieShu;
+            this.shengYu = count;
+            this.xiaYiKaiShi = kaiShi;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return shengYu > 0;
+        }
+
+        @Override
+        public ShiJianDuan next() {
+            if (shengYu <= 0) {
+                throw new NoSuchElementException();
+            }
+
+            shengYu--;
+            LocalDateTime kaiShi = xiaYiKaiShi;
+            if (shengYu == 0) {
+                xiaYiKaiShi = null;
+
+                return new ShiJianDuan(kaiShi, jieShu);
+            }
+
+            // 第一段到开始时间所属天的下一个分界为止, 之后每段都从分界开始, 是整天
+            xiaYiKaiShi = diYiDuan ? gainRiQi(kaiShi).plusDays(1).atTime(fenJie) : kaiShi.plusDays(1);
+            diYiDuan = false;
+
+            return new ShiJianDuan(kaiShi, xiaYiKaiShi.minusSeconds(1));
+        }
+    }
+}
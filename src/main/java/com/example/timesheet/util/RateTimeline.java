@@ -0,0 +1,100 @@
+package com.example.timesheet.util;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.NavigableMap;
+
+/**
+ * 一个项目中一个用户的计费标准时间线
+ * <p>
+ * 1) 按开始日期升序保存小时费用, 开始日期存为epochDay<br>
+ * 2) 某日适用的计费标准是开始日期早于或等于该日的最后一个, 二分查找, O(log n)<br>
+ * 3) 同时保存CostEngine计费用的定点小时费用, 建立时换算一次<br>
+ * 4) 创建后不再修改, 可以被RateTimelineCache在多个请求之间共享
+ */
+public class RateTimeline {
+    /**
+     * 没有计费标准
+     */
+    public static final RateTimeline EMPTY = new RateTimeline(new long[0], new BigDecimal[0], new long[0]);
+
+    private final long[] kaiShis;
+
+    private final BigDecimal[] xiaoShiFeiYongs;
+
+    /**
+     * 计费用的小时费用, 见CostEngine.toXiaoShiFeiYong
+     */
+    private final long[] dingDianXiaoShiFeiYongs;
+
+    private RateTimeline(long[] kaiShis, BigDecimal[] xiaoShiFeiYongs, long[] dingDianXiaoShiFeiYongs) {
+        this.kaiShis = kaiShis;
+        this.xiaoShiFeiYongs = xiaoShiFeiYongs;
+        this.dingDianXiaoShiFeiYongs = dingDianXiaoShiFeiYongs;
+    }
+
+    /**
+     * @param xiaoShiFeiYongs 开始日期 -> 小时费用
+     */
+    public static RateTimeline of(NavigableMap<LocalDate, BigDecimal> xiaoShiFeiYongs) {
+        if (xiaoShiFeiYongs.isEmpty()) {
+            return EMPTY;
+        }
+
+        long[] kaiShis = new long[xiaoShiFeiYongs.size()];
+        BigDecimal[] feiYongs = new BigDecimal[xiaoShiFeiYongs.size()];
+        long[] dingDianFeiYongs = new long[xiaoShiFeiYongs.size()];
+        int i = 0;
+        for (Map.Entry<LocalDate, BigDecimal> entry : xiaoShiFeiYongs.entrySet()) {
+            kaiShis[i] = entry.getKey().toEpochDay();
+            feiYongs[i] = entry.getValue();
+            dingDianFeiYongs[i] = CostEngine.toXiaoShiFeiYong(entry.getValue());
+            i++;
+        }
+
+        return new RateTimeline(kaiShis, feiYongs, dingDianFeiYongs);
+    }
+
+    /**
+     * 指定日期适用的小时费用
+     *
+     * @param riQi 日期
+     * @return 没有开始日期早于或等于riQi的计费标准时为null
+     */
+    public BigDecimal gainXiaoShiFeiYong(LocalDate riQi) {
+        int i = floor(riQi.toEpochDay());
+
+        return i < 0 ? null : xiaoShiFeiYongs[i];
+    }
+
+    /**
+     * 指定日期适用的计费用小时费用
+     *
+     * @param riQi 日期
+     * @return 万分之一货币单位, 没有开始日期早于或等于riQi的计费标准时为CostEngine.WU
+     */
+    public long gainDingDianXiaoShiFeiYong(LocalDate riQi) {
+        int i = floor(riQi.toEpochDay());
+
+        return i < 0 ? CostEngine.WU : dingDianXiaoShiFeiYongs[i];
+    }
+
+    /**
+     * 是否没有计费标准
+     */
+    public boolean isEmpty() {
+        return kaiShis.length == 0;
+    }
+
+    public int size() {
+        return kaiShis.length;
+    }
+
+    private int floor(long epochDay) {
+        int i = Arrays.binarySearch(kaiShis, epochDay);
+
+        return i >= 0 ? i : -i - 2;
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.timesheet.util;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 时间段索引
+ * <p>
+ * 1) 保存同一用户互不重叠的时间段, 按开始时间排序<br>
+ * 2) 重叠的判断与GongZuoJiLuRepository.findByOverlapWorkRecords一致, 首尾相接也算重叠<br>
+ * 3) 因为时间段互不重叠, 开始时间不晚于待查结束时间的最后一个时间段就是唯一可能重叠的时间段, 所以查询是O(log n)<br>
+ * 4) 线程安全, 可以被ShiJianDuanCache在多个请求之间共享
+ */
+public class ShiJianDuanIndex {
+    private final TreeMap<LocalDateTime, LocalDateTime> shiJianDuans = new TreeMap<>();
+
+    /**
+     * 是否与已有时间段重叠
+     *
+     * @param kaiShi 开始时间
+     * @param jieShu 结束时间
+     */
+    public synchronized boolean overlaps(LocalDateTime kaiShi, LocalDateTime jieShu) {
+        Map.Entry<LocalDateTime, LocalDateTime> floor = shiJianDuans.floorEntry(jieShu);
+
+        return floor != null && !floor.getValue().isBefore(kaiShi);
+    }
+
+    /**
+     * 添加时间段
+     *
+     * @param kaiShi 开始时间
+     * @param jieShu 结束时间
+     */
+    public synchronized void add(LocalDateTime kaiShi, LocalDateTime jieShu) {
+        shiJianDuans.merge(kaiShi, jieShu, (oldJieShu, newJieShu) -> oldJieShu.isAfter(newJieShu) ? oldJieShu : newJieShu);
+    }
+
+    /**
+     * 移除时间段
+     *
+     * @param kaiShi 开始时间
+     * @param jieShu 结束时间
+     */
+    public synchronized void remove(LocalDateTime kaiShi, LocalDateTime jieShu) {
+        shiJianDuans.remove(kaiShi, jieShu);
+    }
+
+    public synchronized int size() {
+        return shiJianDuans.size();
+    }
+}
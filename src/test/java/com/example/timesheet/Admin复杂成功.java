@@ -306,8 +306,8 @@ public class Admin复杂成功 extends TimesheetApplicationTests {
         // 清空当前repository以从数据库获取最新数据
         entityManager.clear();
 
-        gongSi.getJieSuanRi().isEqual(LocalDate.of(2900, 12, 31));
-
+        gongSi = gongSiRepository.findOneByMingCheng("g1");
+        Assert.assertEquals(true, gongSi.getJieSuanRi().isEqual(LocalDate.of(2900, 12, 31)));
     }
 
     /**
@@ -636,5 +636,20 @@ public class Admin复杂成功 extends TimesheetApplicationTests {
 
         Assert.assertTrue(Math.abs((-14000) - qiChuBalance) < 1);
         Assert.assertTrue(Math.abs((-50000) - qiMoBalance) < 1);
+
+        // gt1有两个项目, 按项目并行计算的消费记录与流式报告逐条读取的顺序和内容一致
+        response = request(
+                "/admin/streamGenerateBaoGao",
+                HttpMethod.POST,
+                "Admin",
+                "gongSiId, " + gt1Id,
+                "kaiShi, 2000-01-02",
+                "jieShu, 2000-01-04"
+        );
+        checkCode(response, PPOK);
+
+        JSONObject liuShi = new JSONObject(response.getBody()).getJSONObject("data");
+        Assert.assertEquals(jsonObject.getJSONObject("data").getJSONArray("消费记录").toString(), liuShi.getJSONArray("消费记录").toString());
+        Assert.assertEquals(jsonObject.getJSONObject("data").get("期末Balance").toString(), liuShi.get("期末Balance").toString());
     }
 }
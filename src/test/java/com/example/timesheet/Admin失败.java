@@ -8,6 +8,8 @@ import com.example.timesheet.util.PPJson;
 import com.example.timesheet.util.PPUtil;
 import lombok.extern.slf4j.Slf4j;
 import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.FixMethodOrder;
@@ -731,6 +733,177 @@ public class Admin失败 extends TimesheetApplicationTests {
         checkCode(response, PPBusinessExceptionCode);
     }
 
+    @Test
+    public void 导入用户工作记录_同批次记录时间有重合() throws JSONException {
+        PPJson gongZuoJiLu1 = new PPJson();
+        gongZuoJiLu1.put("yongHuMing", "y1");
+        gongZuoJiLu1.put("xiangMuMingCheng", "g1x1");
+        gongZuoJiLu1.put("kaiShi", "2000-03-01T10:00");
+        gongZuoJiLu1.put("jieShu", "2000-03-02T10:00");
+        gongZuoJiLu1.put("beiZhu", "导入用户工作记录_同批次记录时间有重合1");
+
+        PPJson gongZuoJiLu2 = new PPJson();
+        gongZuoJiLu2.put("yongHuMing", "y1");
+        gongZuoJiLu2.put("xiangMuMingCheng", "g1x1");
+        gongZuoJiLu2.put("kaiShi", "2000-03-02T09:00");
+        gongZuoJiLu2.put("jieShu", "2000-03-02T11:00");
+        gongZuoJiLu2.put("beiZhu", "导入用户工作记录_同批次记录时间有重合2");
+
+        PPJson gongZuoJiLu3 = new PPJson();
+        gongZuoJiLu3.put("yongHuMing", "y1");
+        gongZuoJiLu3.put("xiangMuMingCheng", "g1x1");
+        gongZuoJiLu3.put("kaiShi", "2000-03-01T08:00");
+        gongZuoJiLu3.put("jieShu", "2000-03-01T10:00");
+        gongZuoJiLu3.put("beiZhu", "导入用户工作记录_同批次记录时间有重合3");
+
+        JSONArray jsonArray = new JSONArray();
+        jsonArray.put(gongZuoJiLu1);
+        jsonArray.put(gongZuoJiLu2);
+        jsonArray.put(gongZuoJiLu3);
+
+        PPJson ppJson = new PPJson();
+        ppJson.put("data", jsonArray);
+
+        ResponseEntity<String> response = request(
+                "/admin/importYongHuGongZuoJiLu",
+                HttpMethod.POST,
+                "Admin",
+                ppJson
+        );
+        checkCode(response, PPBusinessExceptionCode);
+
+        // 异常信息与逐条新建时一致
+        Assert.assertEquals("工作记录时间段有重叠, 不允许添加!", new JSONObject(response.getBody()).getString("message"));
+
+        // 清空当前repository以从数据库获取最新数据
+        entityManager.clear();
+
+        // 整批都不写入
+        Assert.assertNull(gongZuoJiLuRepository.findOneByBeiZhu("导入用户工作记录_同批次记录时间有重合1"));
+    }
+
+    @Test
+    public void 导入用户工作记录_按顺序报告第一条不合法记录() throws JSONException {
+        String[][] hangs = {
+                {"y3", "g1x1", "2000-03-05T10:00", "2000-03-05T11:00"},
+                {"y1", "g1x1", "2000-03-05T10:00", "2000-03-05T11:00"},
+                {"y1", "g1x1", "2000-03-05T10:30", "2000-03-05T12:00"}
+        };
+
+        JSONArray jsonArray = new JSONArray();
+        for (String[] hang : hangs) {
+            PPJson gongZuoJiLu = new PPJson();
+            gongZuoJiLu.put("yongHuMing", hang[0]);
+            gongZuoJiLu.put("xiangMuMingCheng", hang[1]);
+            gongZuoJiLu.put("kaiShi", hang[2]);
+            gongZuoJiLu.put("jieShu", hang[3]);
+            gongZuoJiLu.put("beiZhu", "导入用户工作记录_按顺序报告第一条不合法记录");
+            jsonArray.put(gongZuoJiLu);
+        }
+
+        PPJson ppJson = new PPJson();
+        ppJson.put("data", jsonArray);
+
+        ResponseEntity<String> response = request(
+                "/admin/importYongHuGongZuoJiLu",
+                HttpMethod.POST,
+                "Admin",
+                ppJson
+        );
+        checkCode(response, PPBusinessExceptionCode);
+
+        // 第一条没有计费标准, 先于第2, 3条之间的重叠报告
+        Assert.assertEquals("项目没有用户的计费标准, 不允许添加!", new JSONObject(response.getBody()).getString("message"));
+    }
+
+    @Test
+    public void 导入用户工作记录_dryRun返回所有不合法记录() throws JSONException {
+        String[][] hangs = {
+                {"y1", "g1x1", "2000-04-01T10:00", "2000-04-01T11:00"},
+                {"none", "g1x1", "2000-04-01T10:00", "2000-04-01T11:00"},
+                {"y1", "none", "2000-04-01T10:00", "2000-04-01T11:00"},
+                {"y1", "g1x1", "2000-01-01T10:30", "2000-01-01T10:40"},
+                {"y1", "g1x1", "2000-04-01T10:30", "2000-04-01T12:00"},
+                {"y3", "g1x1", "2000-04-02T10:00", "2000-04-02T11:00"}
+        };
+
+        JSONArray jsonArray = new JSONArray();
+        for (String[] hang : hangs) {
+            PPJson gongZuoJiLu = new PPJson();
+            gongZuoJiLu.put("yongHuMing", hang[0]);
+            gongZuoJiLu.put("xiangMuMingCheng", hang[1]);
+            gongZuoJiLu.put("kaiShi", hang[2]);
+            gongZuoJiLu.put("jieShu", hang[3]);
+            gongZuoJiLu.put("beiZhu", "导入用户工作记录_dryRun");
+            jsonArray.put(gongZuoJiLu);
+        }
+
+        PPJson ppJson = new PPJson();
+        ppJson.put("data", jsonArray);
+
+        ResponseEntity<String> response = request(
+                "/admin/importYongHuGongZuoJiLu?dryRun=true",
+                HttpMethod.POST,
+                "Admin",
+                ppJson
+        );
+        checkCode(response, PPOK);
+
+        // 除第一条外都不合法, 一次全部返回
+        JSONObject data = new JSONObject(response.getBody()).getJSONObject("data");
+        Assert.assertEquals(6, data.getInt("zongShu"));
+        Assert.assertEquals(5, data.getInt("shiBaiShu"));
+
+        JSONArray cuoWus = data.getJSONArray("cuoWus");
+        Assert.assertEquals(2, cuoWus.getJSONObject(0).getInt("hang"));
+        Assert.assertEquals(PPItemNotExistExceptionCode, cuoWus.getJSONObject(0).getString("code"));
+        Assert.assertEquals(PPItemNotExistExceptionCode, cuoWus.getJSONObject(1).getString("code"));
+        Assert.assertEquals(PPBusinessExceptionCode, cuoWus.getJSONObject(2).getString("code"));
+        Assert.assertEquals(5, cuoWus.getJSONObject(3).getInt("hang"));
+        Assert.assertEquals("工作记录时间段有重叠, 不允许添加!", cuoWus.getJSONObject(3).getString("message"));
+        Assert.assertEquals(6, cuoWus.getJSONObject(4).getInt("hang"));
+
+        // 清空当前repository以从数据库获取最新数据
+        entityManager.clear();
+
+        // 不写入
+        Assert.assertNull(gongZuoJiLuRepository.findOneByBeiZhu("导入用户工作记录_dryRun"));
+    }
+
+    @Test
+    public void 导入用户工作记录_dryRun大量重复记录() throws JSONException {
+        JSONArray jsonArray = new JSONArray();
+        for (int i = 0; i < 5000; i++) {
+            PPJson gongZuoJiLu = new PPJson();
+            gongZuoJiLu.put("yongHuMing", "y1");
+            gongZuoJiLu.put("xiangMuMingCheng", "g1x1");
+            gongZuoJiLu.put("kaiShi", "2000-04-01T10:00");
+            gongZuoJiLu.put("jieShu", "2000-04-01T11:00");
+            gongZuoJiLu.put("beiZhu", "导入用户工作记录_dryRun大量重复记录");
+            jsonArray.put(gongZuoJiLu);
+        }
+
+        PPJson ppJson = new PPJson();
+        ppJson.put("data", jsonArray);
+
+        ResponseEntity<String> response = request(
+                "/admin/importYongHuGongZuoJiLu?dryRun=true",
+                HttpMethod.POST,
+                "Admin",
+                ppJson
+        );
+        checkCode(response, PPOK);
+
+        // 第一条合法, 之后的都与它重叠
+        JSONObject data = new JSONObject(response.getBody()).getJSONObject("data");
+        Assert.assertEquals(5000, data.getInt("zongShu"));
+        Assert.assertEquals(4999, data.getInt("shiBaiShu"));
+
+        JSONArray cuoWus = data.getJSONArray("cuoWus");
+        Assert.assertEquals(2, cuoWus.getJSONObject(0).getInt("hang"));
+        Assert.assertEquals("工作记录时间段有重叠, 不允许添加!", cuoWus.getJSONObject(0).getString("message"));
+    }
+
     @Test
     public void 导入用户工作记录_$设置公司结算日_开始时间等于项目所属公司结算日_开始时间小于项目所属公司结算日() {
         // 设置公司结算日
@@ -1006,4 +1179,29 @@ public class Admin失败 extends TimesheetApplicationTests {
         );
         checkCode(response, PPBusinessExceptionCode);
     }
+
+    @Test
+    public void 结算_公司不存在() {
+        ResponseEntity<String> response = request(
+                "/admin/jieSuan",
+                HttpMethod.POST,
+                "Admin",
+                "gongSiId, -1",
+                "jieSuanRi, 2000-01-31"
+        );
+        checkCode(response, PPItemNotExistExceptionCode);
+    }
+
+    @Test
+    public void 生成报告_流式_公司不存在() {
+        ResponseEntity<String> response = request(
+                "/admin/streamGenerateBaoGao",
+                HttpMethod.POST,
+                "Admin",
+                "gongSiId, -1",
+                "kaiShi, 2000-01-01",
+                "jieShu, 2000-01-31"
+        );
+        checkCode(response, PPItemNotExistExceptionCode);
+    }
 }
@@ -1,23 +1,56 @@
 package com.example.timesheet;
 
 import com.example.timesheet.model.*;
+import com.example.timesheet.repository.DaoRuRenWuRepository;
+import com.example.timesheet.repository.RiZhangRepository;
+import com.example.timesheet.service.BaoGaoService;
+import com.example.timesheet.service.DaoRuRenWuService;
+import com.example.timesheet.service.ImportService;
+import com.example.timesheet.service.RiZhangService;
+import com.example.timesheet.util.CostEngine;
 import com.example.timesheet.util.PPJson;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.junit.*;
 import org.junit.runners.MethodSorters;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.*;
 import org.springframework.test.annotation.Commit;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.util.MultiValueMap;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.StreamSupport;
 
 import static com.example.timesheet.util.PPUtil.MIN_DATE;
@@ -29,6 +62,27 @@ public class Admin成功 extends TimesheetApplicationTests {
 
     private static String dumpFileName = "adminChengGong";
 
+    @Autowired
+    private BaoGaoService baoGaoService;
+
+    @Autowired
+    private ImportService importService;
+
+    @Autowired
+    private DaoRuRenWuService daoRuRenWuService;
+
+    @Autowired
+    private DaoRuRenWuRepository daoRuRenWuRepository;
+
+    @Autowired
+    private RiZhangRepository riZhangRepository;
+
+    @Autowired
+    private RiZhangService riZhangService;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
     @Override
     public void initData() {
         // 如没有admin则新建admin
@@ -537,6 +591,382 @@ public class Admin成功 extends TimesheetApplicationTests {
         Assert.assertTrue(result);
     }
 
+    @Test
+    public void 流式导入用户工作记录() throws JSONException {
+        String csv = "yongHuMing,xiangMuMingCheng,kaiShi,jieShu,beiZhu\n" +
+                "y1,g1x1,2000-02-01T10:00,2000-02-01T11:00,流式导入用户工作记录1\n" +
+                "none,g1x1,2000-02-02T10:00,2000-02-02T11:00,流式导入用户工作记录2\n" +
+                "y1,g1x1,2000-02-01T10:30,2000-02-01T10:40,流式导入用户工作记录3\n";
+
+        HttpHeaders httpHeaders = new HttpHeaders();
+        httpHeaders.add(HttpHeaders.COOKIE, cookies.get("Admin"));
+        httpHeaders.setContentType(MediaType.valueOf("text/csv;charset=UTF-8"));
+
+        ResponseEntity<String> response = restTemplate.exchange(
+                "/admin/streamImportYongHuGongZuoJiLu",
+                HttpMethod.POST,
+                new HttpEntity<>(csv, httpHeaders),
+                String.class
+        );
+
+        String[] lines = response.getBody().split("\n");
+        Assert.assertEquals(4, lines.length);
+        Assert.assertEquals(PPOK, new JSONObject(lines[0]).get("code"));
+        Assert.assertEquals(PPItemNotExistExceptionCode, new JSONObject(lines[1]).get("code"));
+        Assert.assertEquals(PPBusinessExceptionCode, new JSONObject(lines[2]).get("code"));
+        Assert.assertEquals(1, new JSONObject(lines[3]).getInt("chengGongShu"));
+        Assert.assertEquals(2, new JSONObject(lines[3]).getInt("shiBaiShu"));
+
+        // 清空当前repository以从数据库获取最新数据
+        entityManager.clear();
+
+        Assert.assertNotNull(gongZuoJiLuRepository.findOneByBeiZhu("流式导入用户工作记录1"));
+        Assert.assertNull(gongZuoJiLuRepository.findOneByBeiZhu("流式导入用户工作记录3"));
+    }
+
+    @Test
+    public void 导入任务() throws JSONException, InterruptedException {
+        PPJson gongZuoJiLu1 = new PPJson();
+        gongZuoJiLu1.put("yongHuMing", "y1");
+        gongZuoJiLu1.put("xiangMuMingCheng", "g1x1");
+        gongZuoJiLu1.put("kaiShi", "2000-02-05T10:00");
+        gongZuoJiLu1.put("jieShu", "2000-02-05T11:00");
+        gongZuoJiLu1.put("beiZhu", "导入任务1");
+
+        PPJson gongZuoJiLu2 = new PPJson();
+        gongZuoJiLu2.put("yongHuMing", "y1");
+        gongZuoJiLu2.put("xiangMuMingCheng", "none");
+        gongZuoJiLu2.put("kaiShi", "2000-02-06T10:00");
+        gongZuoJiLu2.put("jieShu", "2000-02-06T11:00");
+        gongZuoJiLu2.put("beiZhu", "导入任务2");
+
+        JSONArray jsonArray = new JSONArray();
+        jsonArray.put(gongZuoJiLu1);
+        jsonArray.put(gongZuoJiLu2);
+
+        PPJson ppJson = new PPJson();
+        ppJson.put("data", jsonArray);
+
+        ResponseEntity<String> response = request(
+                "/admin/importJobs",
+                HttpMethod.POST,
+                "Admin",
+                ppJson
+        );
+        checkCode(response, PPOK);
+
+        Long id = ppResponse.gainId(response);
+
+        // 等待任务结束
+        JSONObject jinDu = null;
+        for (int i = 0; i < 100; i++) {
+            response = request(
+                    "/admin/importJobs/" + id,
+                    HttpMethod.GET,
+                    "Admin"
+            );
+            checkCode(response, PPOK);
+
+            jinDu = new JSONObject(response.getBody()).getJSONObject("data");
+            if ("WAN_CHENG".equals(jinDu.getString("zhuangTai"))) {
+                break;
+            }
+
+            Thread.sleep(100);
+        }
+
+        Assert.assertEquals("WAN_CHENG", jinDu.getString("zhuangTai"));
+        Assert.assertEquals(2, jinDu.getInt("yiTiJiaoHang"));
+        Assert.assertEquals(1, jinDu.getInt("chengGongShu"));
+        Assert.assertEquals(1, jinDu.getInt("shiBaiShu"));
+
+        // 已结束的任务不能取消
+        response = request(
+                "/admin/importJobs/" + id + "/cancel",
+                HttpMethod.POST,
+                "Admin"
+        );
+        checkCode(response, PPBusinessExceptionCode);
+
+        // 清空当前repository以从数据库获取最新数据
+        entityManager.clear();
+
+        Assert.assertNotNull(gongZuoJiLuRepository.findOneByBeiZhu("导入任务1"));
+        Assert.assertNull(gongZuoJiLuRepository.findOneByBeiZhu("导入任务2"));
+    }
+
+    @Test
+    public void 流式导入用户工作记录_块回滚逐条重试() throws JSONException {
+        // 备注超过数据库列长度, 写入时整块回滚
+        String csv = "yongHuMing,xiangMuMingCheng,kaiShi,jieShu,beiZhu\n" +
+                "y1,g1x1,2000-02-01T10:00,2000-02-01T11:00,块回滚逐条重试1\n" +
+                "y1,g1x1,2000-02-02T10:00,2000-02-02T11:00," + String.join("", Collections.nCopies(300, "长")) + "\n" +
+                "y1,g1x1,2000-02-03T10:00,2000-02-03T11:00,块回滚逐条重试3\n";
+
+        HttpHeaders httpHeaders = new HttpHeaders();
+        httpHeaders.add(HttpHeaders.COOKIE, cookies.get("Admin"));
+        httpHeaders.setContentType(MediaType.valueOf("text/csv;charset=UTF-8"));
+
+        ResponseEntity<String> response = restTemplate.exchange(
+                "/admin/streamImportYongHuGongZuoJiLu",
+                HttpMethod.POST,
+                new HttpEntity<>(csv, httpHeaders),
+                String.class
+        );
+
+        // 只有出错的一条失败
+        String[] lines = response.getBody().split("\n");
+        Assert.assertEquals(4, lines.length);
+        Assert.assertEquals(PPOK, new JSONObject(lines[0]).get("code"));
+        Assert.assertNotEquals(PPOK, new JSONObject(lines[1]).get("code"));
+        Assert.assertEquals(PPOK, new JSONObject(lines[2]).get("code"));
+        Assert.assertEquals(2, new JSONObject(lines[3]).getInt("chengGongShu"));
+        Assert.assertEquals(1, new JSONObject(lines[3]).getInt("shiBaiShu"));
+
+        // 清空当前repository以从数据库获取最新数据
+        entityManager.clear();
+
+        Assert.assertNotNull(gongZuoJiLuRepository.findOneByBeiZhu("块回滚逐条重试1"));
+        Assert.assertNotNull(gongZuoJiLuRepository.findOneByBeiZhu("块回滚逐条重试3"));
+    }
+
+    @Test
+    public void 导入任务_重启后继续() throws JSONException, InterruptedException {
+        // 模拟执行到第2条时应用停止的任务
+        String shuJu = "[" +
+                "{\"yongHuMing\":\"y1\",\"xiangMuMingCheng\":\"g1x1\",\"kaiShi\":\"2000-02-05T10:00\",\"jieShu\":\"2000-02-05T11:00\",\"beiZhu\":\"重启后继续1\"}," +
+                "{\"yongHuMing\":\"y1\",\"xiangMuMingCheng\":\"g1x1\",\"kaiShi\":\"2000-02-06T10:00\",\"jieShu\":\"2000-02-06T11:00\",\"beiZhu\":\"重启后继续2\"}," +
+                "{\"yongHuMing\":\"y1\",\"xiangMuMingCheng\":\"g1x1\",\"kaiShi\":\"2000-02-07T10:00\",\"jieShu\":\"2000-02-07T11:00\",\"beiZhu\":\"重启后继续3\"}" +
+                "]";
+
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        // 停止前已执行了2秒
+        Long id = transactionTemplate.execute(status -> daoRuRenWuRepository.save(new DaoRuRenWu(null, DaoRuRenWu.ZhuangTai.YUN_XING, shuJu, 3L, 2L, 2L, 0L, 2, 2000L, LocalDateTime.now(), null, null)).getId());
+
+        daoRuRenWuService.resume();
+
+        JSONObject jinDu = dengDaiDaoRuRenWu(id, "WAN_CHENG");
+        Assert.assertEquals("WAN_CHENG", jinDu.getString("zhuangTai"));
+        Assert.assertEquals(3, jinDu.getInt("yiTiJiaoHang"));
+        Assert.assertEquals(3, jinDu.getInt("chengGongShu"));
+        Assert.assertEquals(0, jinDu.getInt("shiBaiShu"));
+
+        // 执行耗时跨重启累加, 每秒处理行数包含停止前的耗时
+        Assert.assertTrue(daoRuRenWuRepository.findById(id).get().getHaoShiHaoMiao() >= 2000);
+        Assert.assertTrue(jinDu.getLong("meiMiaoHangShu") <= 1);
+
+        // 清空当前repository以从数据库获取最新数据
+        entityManager.clear();
+
+        // 已提交的前2条不再导入
+        Assert.assertNull(gongZuoJiLuRepository.findOneByBeiZhu("重启后继续1"));
+        Assert.assertNull(gongZuoJiLuRepository.findOneByBeiZhu("重启后继续2"));
+        Assert.assertNotNull(gongZuoJiLuRepository.findOneByBeiZhu("重启后继续3"));
+    }
+
+    @Test
+    public void 导入任务_执行中取消() throws JSONException, InterruptedException {
+        // 每块2条, 共3块
+        List<ImportService.JiLu> jiLus = new ArrayList<>();
+        for (int i = 1; i <= 6; i++) {
+            LocalDateTime kaiShi = LocalDateTime.of(2010, 1, i, 10, 0);
+            jiLus.add(new ImportService.JiLu("y1", "g1x1", kaiShi, kaiShi.plusHours(1), "执行中取消" + i));
+        }
+
+        // 第一块提交后停住, 取消后再继续
+        CountDownLatch diYiKuai = new CountDownLatch(1);
+        CountDownLatch yiQuXiao = new CountDownLatch(1);
+        daoRuRenWuService.setTiJiaoHouListener((renWuId, hang) -> {
+            diYiKuai.countDown();
+            try {
+                yiQuXiao.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        try {
+            TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+            transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+            Long id = transactionTemplate.execute(status -> daoRuRenWuService.submit(jiLus, 2).getId());
+
+            Assert.assertTrue(diYiKuai.await(10, TimeUnit.SECONDS));
+
+            ResponseEntity<String> response = request(
+                    "/admin/importJobs/" + id + "/cancel",
+                    HttpMethod.POST,
+                    "Admin"
+            );
+            checkCode(response, PPOK);
+            yiQuXiao.countDown();
+
+            // 停在第一块之后, 第一块保留
+            JSONObject jinDu = dengDaiDaoRuRenWu(id, "QU_XIAO");
+            Assert.assertEquals("QU_XIAO", jinDu.getString("zhuangTai"));
+            Assert.assertEquals(2, jinDu.getInt("yiTiJiaoHang"));
+            Assert.assertEquals(2, jinDu.getInt("chengGongShu"));
+            Assert.assertEquals(0, jinDu.getInt("shiBaiShu"));
+        } finally {
+            daoRuRenWuService.setTiJiaoHouListener(null);
+            yiQuXiao.countDown();
+        }
+
+        // 清空当前repository以从数据库获取最新数据
+        entityManager.clear();
+
+        Assert.assertNotNull(gongZuoJiLuRepository.findOneByBeiZhu("执行中取消1"));
+        Assert.assertNotNull(gongZuoJiLuRepository.findOneByBeiZhu("执行中取消2"));
+        for (int i = 3; i <= 6; i++) {
+            Assert.assertNull(gongZuoJiLuRepository.findOneByBeiZhu("执行中取消" + i));
+        }
+    }
+
+    @Test
+    public void 导入用户工作记录_幂等键重试() {
+        PPJson gongZuoJiLu1 = new PPJson();
+        gongZuoJiLu1.put("yongHuMing", "y1");
+        gongZuoJiLu1.put("xiangMuMingCheng", "g1x1");
+        gongZuoJiLu1.put("kaiShi", "2000-02-10T22:00");
+        gongZuoJiLu1.put("jieShu", "2000-02-11T02:00");
+        gongZuoJiLu1.put("beiZhu", "幂等键重试1");
+
+        PPJson gongZuoJiLu2 = new PPJson();
+        gongZuoJiLu2.put("yongHuMing", "y1");
+        gongZuoJiLu2.put("xiangMuMingCheng", "g1x1");
+        gongZuoJiLu2.put("kaiShi", "2000-02-12T10:00");
+        gongZuoJiLu2.put("jieShu", "2000-02-12T11:00");
+        gongZuoJiLu2.put("beiZhu", "幂等键重试2");
+
+        JSONArray jsonArray = new JSONArray();
+        jsonArray.put(gongZuoJiLu1);
+
+        PPJson ppJson = new PPJson();
+        ppJson.put("data", jsonArray);
+
+        HttpHeaders httpHeaders = new HttpHeaders();
+        httpHeaders.add(HttpHeaders.COOKIE, cookies.get("Admin"));
+        httpHeaders.setContentType(MediaType.APPLICATION_JSON);
+        httpHeaders.add("Idempotency-Key", "adminChengGong-retry-1");
+
+        // 第一次只提交了第一条
+        ResponseEntity<String> response = restTemplate.exchange("/admin/importYongHuGongZuoJiLu", HttpMethod.POST, new HttpEntity<>(ppJson.toString(), httpHeaders), String.class);
+        checkCode(response, PPOK);
+
+        // 不带幂等键重复导入报重叠
+        response = request("/admin/importYongHuGongZuoJiLu", HttpMethod.POST, "Admin", ppJson);
+        checkCode(response, PPBusinessExceptionCode);
+
+        // 带同一个幂等键重试整批, 已提交的跳过
+        jsonArray.put(gongZuoJiLu2);
+        ppJson.put("data", jsonArray);
+        response = restTemplate.exchange("/admin/importYongHuGongZuoJiLu", HttpMethod.POST, new HttpEntity<>(ppJson.toString(), httpHeaders), String.class);
+        checkCode(response, PPOK);
+
+        // 清空当前repository以从数据库获取最新数据
+        entityManager.clear();
+
+        long count = StreamSupport.stream(gongZuoJiLuRepository.findAll().spliterator(), false)
+                .filter(item -> item.getBeiZhu().equals("幂等键重试1"))
+                .count();
+        Assert.assertEquals(2, count);
+        Assert.assertNotNull(gongZuoJiLuRepository.findOneByBeiZhu("幂等键重试2"));
+    }
+
+    @Test
+    public void 导入用户工作记录_幂等键按提交人区分() {
+        PPJson gongZuoJiLu = new PPJson();
+        gongZuoJiLu.put("yongHuMing", "y1");
+        gongZuoJiLu.put("xiangMuMingCheng", "g1x1");
+        gongZuoJiLu.put("kaiShi", "2000-02-20T10:00");
+        gongZuoJiLu.put("jieShu", "2000-02-20T11:00");
+        gongZuoJiLu.put("beiZhu", "幂等键按提交人区分");
+
+        JSONArray jsonArray = new JSONArray();
+        jsonArray.put(gongZuoJiLu);
+
+        PPJson ppJson = new PPJson();
+        ppJson.put("data", jsonArray);
+
+        HttpHeaders httpHeaders = new HttpHeaders();
+        httpHeaders.add(HttpHeaders.COOKIE, cookies.get("Admin"));
+        httpHeaders.setContentType(MediaType.APPLICATION_JSON);
+        httpHeaders.add("Idempotency-Key", "adminChengGong-shared-1");
+
+        ResponseEntity<String> response = restTemplate.exchange("/admin/importYongHuGongZuoJiLu", HttpMethod.POST, new HttpEntity<>(ppJson.toString(), httpHeaders), String.class);
+        checkCode(response, PPOK);
+
+        // 其他用户用同一个幂等键导入同一条记录, 不是重试, 报重叠
+        gongZuoJiLu.remove("yongHuMing");
+        httpHeaders.set(HttpHeaders.COOKIE, cookies.get("y1"));
+        response = restTemplate.exchange("/importGongZuoJiLu", HttpMethod.POST, new HttpEntity<>(ppJson.toString(), httpHeaders), String.class);
+        checkCode(response, PPBusinessExceptionCode);
+
+        // 同一提交人用同一个幂等键重试, 已提交的跳过
+        gongZuoJiLu.put("yongHuMing", "y1");
+        httpHeaders.set(HttpHeaders.COOKIE, cookies.get("Admin"));
+        response = restTemplate.exchange("/admin/importYongHuGongZuoJiLu", HttpMethod.POST, new HttpEntity<>(ppJson.toString(), httpHeaders), String.class);
+        checkCode(response, PPOK);
+
+        // 清空当前repository以从数据库获取最新数据
+        entityManager.clear();
+
+        long count = StreamSupport.stream(gongZuoJiLuRepository.findAll().spliterator(), false)
+                .filter(item -> item.getBeiZhu().equals("幂等键按提交人区分"))
+                .count();
+        Assert.assertEquals(1, count);
+    }
+
+    @Test
+    public void 导入用户工作记录_v2() {
+        Long yongHuId = yongHuRepository.findOneByYongHuMing("y1").getId();
+        Long xiangMuId = xiangMuRepository.findOneByMingCheng("g1x1").getId();
+
+        LocalDateTime kaiShi1 = LocalDateTime.of(2000, 2, 15, 22, 0);
+        LocalDateTime kaiShi2 = LocalDateTime.of(2000, 2, 17, 10, 0);
+        LocalDateTime kaiShi3 = LocalDateTime.of(2000, 2, 18, 10, 0);
+
+        PPJson ppJson = new PPJson();
+        ppJson.put("yongHuIds", new JSONArray(Arrays.asList(yongHuId, yongHuId, yongHuId)));
+        ppJson.put("xiangMuIds", new JSONArray(Arrays.asList(xiangMuId, xiangMuId, xiangMuId)));
+        ppJson.put("kaiShis", new JSONArray(Arrays.asList(
+                kaiShi1.toEpochSecond(ZoneOffset.UTC),
+                kaiShi2.toEpochSecond(ZoneOffset.UTC),
+                kaiShi3.toEpochSecond(ZoneOffset.UTC)
+        )));
+        ppJson.put("jieShus", new JSONArray(Arrays.asList(
+                kaiShi1.plusHours(4).toEpochSecond(ZoneOffset.UTC),
+                kaiShi2.plusHours(1).toEpochSecond(ZoneOffset.UTC),
+                kaiShi3.plusHours(1).toEpochSecond(ZoneOffset.UTC)
+        )));
+        ppJson.put("beiZhus", new JSONArray(Arrays.asList("v2导入1", "v2导入2")));
+        ppJson.put("beiZhuXuHaos", new JSONArray(Arrays.asList(0, 1, 1)));
+
+        ResponseEntity<String> response = request("/admin/v2/importYongHuGongZuoJiLu", HttpMethod.POST, "Admin", ppJson);
+        checkCode(response, PPOK);
+
+        // 清空当前repository以从数据库获取最新数据
+        entityManager.clear();
+
+        // 跨天的第一条拆分为两条, 后两条共用一个备注
+        long count1 = StreamSupport.stream(gongZuoJiLuRepository.findAll().spliterator(), false)
+                .filter(item -> item.getBeiZhu().equals("v2导入1"))
+                .count();
+        Assert.assertEquals(2, count1);
+        Boolean result = StreamSupport.stream(gongZuoJiLuRepository.findAll().spliterator(), false)
+                .filter(item -> item.getBeiZhu().equals("v2导入2"))
+                .allMatch(item -> item.getYongHu().getId().equals(yongHuId)
+                        && item.getXiangMu().getId().equals(xiangMuId)
+                        && (item.getKaiShi().isEqual(kaiShi2) || item.getKaiShi().isEqual(kaiShi3))
+                );
+        Assert.assertTrue(result);
+
+        // 列长度不一致
+        ppJson.put("beiZhuXuHaos", new JSONArray(Arrays.asList(0, 1)));
+        response = request("/admin/v2/importYongHuGongZuoJiLu", HttpMethod.POST, "Admin", ppJson);
+        checkCode(response, PPValidateExceptionCode);
+    }
+
     @Test
     public void 删除工作记录() {
         Optional<GongZuoJiLu> gongZuoJiLuOptional = StreamSupport.stream(gongZuoJiLuRepository.findAll().spliterator(), false).findFirst();
@@ -624,7 +1054,976 @@ public class Admin成功 extends TimesheetApplicationTests {
         // 清空当前repository以从数据库获取最新数据
         entityManager.clear();
 
-        gongSi.getJieSuanRi().isEqual(LocalDate.of(2900, 12, 31));
+        gongSi = gongSiRepository.findOneByMingCheng("g1");
+        Assert.assertEquals(true, gongSi.getJieSuanRi().isEqual(LocalDate.of(2900, 12, 31)));
+    }
+
+    @Test
+    public void 生成报告_期初费用来自台账() throws JSONException {
+        GongSi gongSi = gongSiRepository.findOneByMingCheng("g1");
+        XiangMu xiangMu = xiangMuRepository.findOneByMingCheng("g1x1");
+        YongHu yongHu = yongHuRepository.findOneByYongHuMing("y1");
+
+        PPJson gongZuoJiLu1 = new PPJson();
+        gongZuoJiLu1.put("yongHuMing", "y1");
+        gongZuoJiLu1.put("xiangMuMingCheng", "g1x1");
+        gongZuoJiLu1.put("kaiShi", "2000-02-10T10:00");
+        gongZuoJiLu1.put("jieShu", "2000-02-10T12:00");
+        gongZuoJiLu1.put("beiZhu", "台账1");
+
+        PPJson gongZuoJiLu2 = new PPJson();
+        gongZuoJiLu2.put("yongHuMing", "y1");
+        gongZuoJiLu2.put("xiangMuMingCheng", "g1x1");
+        gongZuoJiLu2.put("kaiShi", "2000-02-11T10:00");
+        gongZuoJiLu2.put("jieShu", "2000-02-11T11:00");
+        gongZuoJiLu2.put("beiZhu", "台账2");
+
+        JSONArray jsonArray = new JSONArray();
+        jsonArray.put(gongZuoJiLu1);
+        jsonArray.put(gongZuoJiLu2);
+
+        PPJson ppJson = new PPJson();
+        ppJson.put("data", jsonArray);
+
+        ResponseEntity<String> response = request("/admin/importYongHuGongZuoJiLu", HttpMethod.POST, "Admin", ppJson);
+        checkCode(response, PPOK);
+
+        // 修改计费标准后重算台账
+        response = request(
+                "/admin/addXiangMuJiFeiBiaoZhun",
+                HttpMethod.POST,
+                "Admin",
+                "xiangMuId," + xiangMu.getId(),
+                "yongHuId," + yongHu.getId(),
+                "kaiShi, 2000-02-11",
+                "xiaoShiFeiYong, 10"
+        );
+        checkCode(response, PPOK);
+
+        // 删除工作记录后从台账中减去
+        response = request(
+                "/admin/deleteYongHuGongZuoJiLu/" + gongZuoJiLuRepository.findOneByBeiZhu("台账1").getId(),
+                HttpMethod.DELETE,
+                "Admin"
+        );
+        checkCode(response, PPOK);
+
+        response = request(
+                "/admin/generateBaoGao",
+                HttpMethod.POST,
+                "Admin",
+                "gongSiId, " + gongSi.getId(),
+                "kaiShi, 2000-03-01",
+                "jieShu, 2000-03-31"
+        );
+        checkCode(response, PPOK);
+
+        // 100 - 1小时 * 4 - 1小时 * 10
+        JSONObject jsonObject = new JSONObject(response.getBody());
+        double qiChuBalance = jsonObject.getJSONObject("data").getDouble("期初Balance");
+        double qiMoBalance = jsonObject.getJSONObject("data").getDouble("期末Balance");
+        Assert.assertTrue(Math.abs(86 - qiChuBalance) < 0.000001);
+        Assert.assertTrue(Math.abs(86 - qiMoBalance) < 0.000001);
+    }
+
+    @Test
+    public void 生成报告_从结算快照算起() throws JSONException {
+        GongSi gongSi = gongSiRepository.findOneByMingCheng("g1");
+
+        // 生成一月的报告, 结算日推进到1月31日并写入快照
+        ResponseEntity<String> response = request(
+                "/admin/generateBaoGao",
+                HttpMethod.POST,
+                "Admin",
+                "gongSiId, " + gongSi.getId(),
+                "kaiShi, 2000-01-01",
+                "jieShu, 2000-01-31"
+        );
+        checkCode(response, PPOK);
+
+        JieSuanKuaiZhao kuaiZhao = jieSuanKuaiZhaoRepository.findFirstByGongSiIdAndJieSuanRiLessThanOrderByJieSuanRiDesc(gongSi.getId(), LocalDate.of(2000, 2, 1));
+        Assert.assertNotNull(kuaiZhao);
+        Assert.assertTrue(kuaiZhao.getJieSuanRi().isEqual(LocalDate.of(2000, 1, 31)));
+        Assert.assertEquals(4 * CostEngine.DAN_WEI, kuaiZhao.getFeiYongZongE().longValue());
+        Assert.assertEquals(0, kuaiZhao.getZhiFuZongE().compareTo(new BigDecimal("100")));
+        Assert.assertEquals(0, kuaiZhao.getYuE().compareTo(new BigDecimal("96")));
+
+        // 快照和公司的结算日一起写入
+        entityManager.clear();
+
+        gongSi = gongSiRepository.findOneByMingCheng("g1");
+        Assert.assertEquals(true, gongSi.getJieSuanRi().isEqual(LocalDate.of(2000, 1, 31)));
+
+        // 二月的报告从快照算起
+        response = request(
+                "/admin/createZhiFu",
+                HttpMethod.POST,
+                "Admin",
+                "gongSiMingCheng, g1",
+                "riQi, 2000-02-01",
+                "jinE, 10",
+                "beiZhu, 快照之后"
+        );
+        checkCode(response, PPOK);
+
+        response = request(
+                "/admin/generateBaoGao",
+                HttpMethod.POST,
+                "Admin",
+                "gongSiId, " + gongSi.getId(),
+                "kaiShi, 2000-02-01",
+                "jieShu, 2000-02-29"
+        );
+        checkCode(response, PPOK);
+
+        JSONObject jsonObject = new JSONObject(response.getBody());
+        double qiChuBalance = jsonObject.getJSONObject("data").getDouble("期初Balance");
+        double qiMoBalance = jsonObject.getJSONObject("data").getDouble("期末Balance");
+        Assert.assertTrue(Math.abs(106 - qiChuBalance) < 0.000001);
+        Assert.assertTrue(Math.abs(106 - qiMoBalance) < 0.000001);
+    }
+
+    @Test
+    public void 生成报告_流式() throws JSONException {
+        GongSi gongSi = gongSiRepository.findOneByMingCheng("g1");
+        LocalDate jieSuanRi = gongSi.getJieSuanRi();
+
+        ResponseEntity<String> response = request(
+                "/admin/streamGenerateBaoGao",
+                HttpMethod.POST,
+                "Admin",
+                "gongSiId, " + gongSi.getId(),
+                "kaiShi, 1900-01-01",
+                "jieShu, 2900-12-31"
+        );
+        checkCode(response, PPOK);
+        JSONObject liuShi = new JSONObject(response.getBody()).getJSONObject("data");
+
+        // 流式生成报告不设置结算日
+        // 清空当前repository以从数据库获取最新数据
+        entityManager.clear();
+
+        gongSi = gongSiRepository.findOneByMingCheng("g1");
+        Assert.assertEquals(jieSuanRi, gongSi.getJieSuanRi());
+
+        response = request(
+                "/admin/generateBaoGao",
+                HttpMethod.POST,
+                "Admin",
+                "gongSiId, " + gongSi.getId(),
+                "kaiShi, 1900-01-01",
+                "jieShu, 2900-12-31"
+        );
+        checkCode(response, PPOK);
+        JSONObject baoGao = new JSONObject(response.getBody()).getJSONObject("data");
+
+        // 与生成报告的内容一致
+        Assert.assertEquals(96, liuShi.get("期末Balance"));
+        for (String key : Arrays.asList("开始", "结束", "期初Balance", "期末Balance")) {
+            Assert.assertEquals(baoGao.get(key).toString(), liuShi.get(key).toString());
+        }
+        Assert.assertEquals(baoGao.getJSONArray("消费记录").toString(), liuShi.getJSONArray("消费记录").toString());
+        Assert.assertEquals(baoGao.getJSONArray("充值记录").toString(), liuShi.getJSONArray("充值记录").toString());
+    }
+
+    private <T> ResponseEntity<T> exportYiYueBaoGao(GongSi gongSi, String format, Class<T> tClass) {
+        HttpHeaders httpHeaders = new HttpHeaders();
+        httpHeaders.add(HttpHeaders.COOKIE, cookies.get("Admin"));
+
+        ResponseEntity<T> response = restTemplate.exchange(
+                "/admin/baoGao/export?gongSiId=" + gongSi.getId() + "&kaiShi=2000-01-01&jieShu=2000-01-31&format=" + format,
+                HttpMethod.GET,
+                new HttpEntity<>(httpHeaders),
+                tClass
+        );
+        Assert.assertEquals(HttpStatus.OK, response.getStatusCode());
+        Assert.assertTrue(response.getHeaders().getFirst(HttpHeaders.CONTENT_DISPOSITION).endsWith("." + format + "\""));
+
+        return response;
+    }
+
+    @Test
+    public void 导出报告_csv() {
+        GongSi gongSi = gongSiRepository.findOneByMingCheng("g1");
+
+        String[] hangs = exportYiYueBaoGao(gongSi, "csv", String.class).getBody().replace("\uFEFF", "").split("\r\n");
+
+        Assert.assertEquals("开始,结束,项目,人员,耗时,小时费用,费用", hangs[0]);
+        Assert.assertEquals("2000-01-01T10:01,2000-01-01T11:01,g1x1,y1,1,4,4", hangs[1]);
+        Assert.assertEquals("", hangs[2]);
+        Assert.assertEquals("期初Balance,100", hangs[3]);
+        Assert.assertEquals("充值,100,2000-01-01,testNote", hangs[4]);
+        Assert.assertEquals("期末Balance,96", hangs[5]);
+    }
+
+    @Test
+    public void 导出报告_xlsx() throws IOException {
+        GongSi gongSi = gongSiRepository.findOneByMingCheng("g1");
+
+        byte[] xlsx = exportYiYueBaoGao(gongSi, "xlsx", byte[].class).getBody();
+
+        try (XSSFWorkbook workbook = new XSSFWorkbook(new ByteArrayInputStream(xlsx))) {
+            Sheet yuE = workbook.getSheet("余额");
+            Assert.assertEquals("期初Balance", yuE.getRow(2).getCell(0).getStringCellValue());
+            Assert.assertEquals(100, yuE.getRow(2).getCell(1).getNumericCellValue(), 0);
+            Assert.assertEquals("期末Balance", yuE.getRow(3).getCell(0).getStringCellValue());
+            Assert.assertEquals(96, yuE.getRow(3).getCell(1).getNumericCellValue(), 0);
+            Assert.assertEquals("testNote", yuE.getRow(6).getCell(2).getStringCellValue());
+
+            Sheet xiaoFei = workbook.getSheet("消费记录");
+            Assert.assertEquals(1, xiaoFei.getLastRowNum());
+            Assert.assertEquals("费用", xiaoFei.getRow(0).getCell(6).getStringCellValue());
+            Assert.assertEquals("g1x1", xiaoFei.getRow(1).getCell(2).getStringCellValue());
+            Assert.assertEquals("y1", xiaoFei.getRow(1).getCell(3).getStringCellValue());
+            Assert.assertEquals(4, xiaoFei.getRow(1).getCell(6).getNumericCellValue(), 0);
+        }
+    }
+
+    @Test
+    public void 预览报告() throws JSONException {
+        GongSi gongSi = gongSiRepository.findOneByMingCheng("g1");
+
+        ResponseEntity<String> response = request(
+                "/admin/previewBaoGao",
+                HttpMethod.POST,
+                "Admin",
+                "gongSiId, " + gongSi.getId(),
+                "kaiShi, 2000-01-01",
+                "jieShu, 2000-01-31"
+        );
+        checkCode(response, PPOK);
+        Assert.assertEquals(96, new JSONObject(response.getBody()).getJSONObject("data").get("期末Balance"));
+
+        // 预览不结算, 报告留在缓存中
+        Assert.assertNull(jieSuanKuaiZhaoRepository.findFirstByGongSiIdAndJieSuanRiLessThanOrderByJieSuanRiDesc(gongSi.getId(), LocalDate.of(2000, 2, 1)));
+
+        JSONObject tongJi = gainBaoGaoCache();
+        ResponseEntity<String> huanCun = request(
+                "/admin/previewBaoGao",
+                HttpMethod.POST,
+                "Admin",
+                "gongSiId, " + gongSi.getId(),
+                "kaiShi, 2000-01-01",
+                "jieShu, 2000-01-31"
+        );
+        checkCode(huanCun, PPOK);
+        Assert.assertEquals(response.getBody(), huanCun.getBody());
+        Assert.assertEquals(1, gainBaoGaoCache().getLong("mingZhong") - tongJi.getLong("mingZhong"));
+    }
+
+    /**
+     * y1在g1x1的2000-01-02到2000-01-21, 每天一条一小时的工作记录
+     */
+    private void importYiYueGongZuoJiLu(String beiZhu) {
+        JSONArray jsonArray = new JSONArray();
+        for (int i = 2; i < 22; i++) {
+            PPJson gongZuoJiLu = new PPJson();
+            gongZuoJiLu.put("yongHuMing", "y1");
+            gongZuoJiLu.put("xiangMuMingCheng", "g1x1");
+            gongZuoJiLu.put("kaiShi", LocalDateTime.of(2000, 1, i, 10, 0).toString());
+            gongZuoJiLu.put("jieShu", LocalDateTime.of(2000, 1, i, 11, 0).toString());
+            gongZuoJiLu.put("beiZhu", beiZhu + i);
+            jsonArray.put(gongZuoJiLu);
+        }
+
+        PPJson ppJson = new PPJson();
+        ppJson.put("data", jsonArray);
+
+        ResponseEntity<String> response = request("/admin/importYongHuGongZuoJiLu", HttpMethod.POST, "Admin", ppJson);
+        checkCode(response, PPOK);
+    }
+
+    private JSONObject queryGongZuoJiLuYe(YongHu yongHu, String youBiao) throws JSONException {
+        HttpHeaders httpHeaders = new HttpHeaders();
+        httpHeaders.add(HttpHeaders.COOKIE, cookies.get("Admin"));
+
+        ResponseEntity<String> response = restTemplate.exchange(
+                "/admin/queryGongZuoJiLu?yongHuId=" + yongHu.getId() + "&size=8" + (youBiao == null ? "" : "&youBiao=" + youBiao),
+                HttpMethod.GET,
+                new HttpEntity<>(httpHeaders),
+                String.class
+        );
+        checkCode(response, PPOK);
+
+        return new JSONObject(response.getBody()).getJSONObject("data");
+    }
+
+    @Test
+    public void 查询工作记录分页() throws JSONException {
+        YongHu yongHu = yongHuRepository.findOneByYongHuMing("y1");
+
+        importYiYueGongZuoJiLu("查询");
+
+        // --8, 8, 5条, 按开始时间排序, 不重复
+        List<String> kaiShis = new ArrayList<>();
+        JSONObject ye = queryGongZuoJiLuYe(yongHu, null);
+        int yeShu = 1;
+        while (true) {
+            JSONArray gongZuoJiLus = ye.getJSONArray("gongZuoJiLus");
+            for (int i = 0; i < gongZuoJiLus.length(); i++) {
+                kaiShis.add(gongZuoJiLus.getJSONObject(i).getString("kaiShi"));
+            }
+
+            if (ye.isNull("xiaYiYe")) {
+                break;
+            }
+
+            // 两页之间新增的早于游标的记录不影响后面的页
+            if (yeShu == 1) {
+                PPJson gongZuoJiLu = new PPJson();
+                gongZuoJiLu.put("yongHuMing", "y1");
+                gongZuoJiLu.put("xiangMuMingCheng", "g1x1");
+                gongZuoJiLu.put("kaiShi", LocalDateTime.of(2000, 1, 1, 12, 0).toString());
+                gongZuoJiLu.put("jieShu", LocalDateTime.of(2000, 1, 1, 13, 0).toString());
+                gongZuoJiLu.put("beiZhu", "查询");
+
+                PPJson ppJson = new PPJson();
+                ppJson.put("data", new JSONArray().put(gongZuoJiLu));
+
+                ResponseEntity<String> response = request("/admin/importYongHuGongZuoJiLu", HttpMethod.POST, "Admin", ppJson);
+                checkCode(response, PPOK);
+            }
+
+            ye = queryGongZuoJiLuYe(yongHu, ye.getString("xiaYiYe"));
+            yeShu++;
+        }
+        Assert.assertEquals(3, yeShu);
+        Assert.assertEquals(21, kaiShis.size());
+        Assert.assertEquals("2000-01-01T10:01:00", kaiShis.get(0));
+        Assert.assertEquals("2000-01-21T10:00:00", kaiShis.get(20));
+        Assert.assertEquals(new ArrayList<>(new TreeSet<>(kaiShis)), kaiShis);
+        // --
+
+        HttpHeaders httpHeaders = new HttpHeaders();
+        httpHeaders.add(HttpHeaders.COOKIE, cookies.get("Admin"));
+
+        ResponseEntity<String> response = restTemplate.exchange(
+                "/admin/queryGongZuoJiLu?youBiao=abc",
+                HttpMethod.GET,
+                new HttpEntity<>(httpHeaders),
+                String.class
+        );
+        checkCode(response, PPBusinessExceptionCode);
+    }
+
+    private JSONArray fenXi(String zhouQi, String weiDu) throws JSONException {
+        HttpHeaders httpHeaders = new HttpHeaders();
+        httpHeaders.add(HttpHeaders.COOKIE, cookies.get("Admin"));
+
+        ResponseEntity<String> response = restTemplate.exchange(
+                "/admin/fenXi?kaiShi=1999-12-01&jieShu=2000-02-29&zhouQi=" + zhouQi + "&weiDu=" + weiDu,
+                HttpMethod.GET,
+                new HttpEntity<>(httpHeaders),
+                String.class
+        );
+        checkCode(response, PPOK);
+
+        return new JSONObject(response.getBody()).getJSONArray("data");
+    }
+
+    @Test
+    public void 工时和费用分析() throws JSONException {
+        importYiYueGongZuoJiLu("分析");
+
+        // --按月, 2000年1月y1共21条, 每条1小时 * 4
+        JSONArray hangs = fenXi("YUE", "YONG_HU");
+        Assert.assertEquals(1, hangs.length());
+        Assert.assertEquals("2000-01-01", hangs.getJSONObject(0).getString("qi"));
+        Assert.assertEquals("y1", hangs.getJSONObject(0).getString("mingCheng"));
+        Assert.assertEquals(21, hangs.getJSONObject(0).getInt("tiaoShu"));
+        Assert.assertEquals(21, hangs.getJSONObject(0).getInt("haoShi"));
+        Assert.assertEquals(84, hangs.getJSONObject(0).getInt("feiYong"));
+        Assert.assertEquals(0, hangs.getJSONObject(0).getInt("weiJiFeiTiaoShu"));
+        // --
+
+        // --按周, 2000-01-01是周六, 1日和2日属于1999-12-27所在的周
+        hangs = fenXi("ZHOU", "XIANG_MU");
+        Assert.assertEquals(4, hangs.length());
+        Assert.assertEquals("1999-12-27", hangs.getJSONObject(0).getString("qi"));
+        Assert.assertEquals("g1x1", hangs.getJSONObject(0).getString("mingCheng"));
+        Assert.assertEquals(2, hangs.getJSONObject(0).getInt("tiaoShu"));
+        Assert.assertEquals("2000-01-17", hangs.getJSONObject(3).getString("qi"));
+        Assert.assertEquals(5, hangs.getJSONObject(3).getInt("tiaoShu"));
+        Assert.assertEquals(20, hangs.getJSONObject(3).getInt("feiYong"));
+        // --
+
+        // 按日
+        hangs = fenXi("RI", "GONG_SI");
+        Assert.assertEquals(21, hangs.length());
+        Assert.assertEquals("g1", hangs.getJSONObject(20).getString("mingCheng"));
+        Assert.assertEquals("2000-01-21", hangs.getJSONObject(20).getString("qi"));
+    }
+
+    @Test
+    public void 工时和费用分析_周期台账与每日台账一致() {
+        XiangMu xiangMu = xiangMuRepository.findOneByMingCheng("g1x1");
+        YongHu yongHu = yongHuRepository.findOneByYongHuMing("y1");
+
+        PPJson gongZuoJiLu1 = new PPJson();
+        gongZuoJiLu1.put("yongHuMing", "y1");
+        gongZuoJiLu1.put("xiangMuMingCheng", "g1x1");
+        gongZuoJiLu1.put("kaiShi", "2000-03-06T10:00");
+        gongZuoJiLu1.put("jieShu", "2000-03-06T12:00");
+        gongZuoJiLu1.put("beiZhu", "周期台账1");
+
+        PPJson gongZuoJiLu2 = new PPJson();
+        gongZuoJiLu2.put("yongHuMing", "y1");
+        gongZuoJiLu2.put("xiangMuMingCheng", "g1x1");
+        gongZuoJiLu2.put("kaiShi", "2000-03-07T10:00");
+        gongZuoJiLu2.put("jieShu", "2000-03-07T11:00");
+        gongZuoJiLu2.put("beiZhu", "周期台账2");
+
+        JSONArray jsonArray = new JSONArray();
+        jsonArray.put(gongZuoJiLu1);
+        jsonArray.put(gongZuoJiLu2);
+
+        PPJson ppJson = new PPJson();
+        ppJson.put("data", jsonArray);
+
+        ResponseEntity<String> response = request("/admin/importYongHuGongZuoJiLu", HttpMethod.POST, "Admin", ppJson);
+        checkCode(response, PPOK);
+        checkZhouQiZhang();
+
+        // 修改计费标准后重算
+        response = request(
+                "/admin/addXiangMuJiFeiBiaoZhun",
+                HttpMethod.POST,
+                "Admin",
+                "xiangMuId," + xiangMu.getId(),
+                "yongHuId," + yongHu.getId(),
+                "kaiShi, 2000-03-07",
+                "xiaoShiFeiYong, 10"
+        );
+        checkCode(response, PPOK);
+        checkZhouQiZhang();
+
+        // 删除工作记录后减去
+        response = request(
+                "/admin/deleteYongHuGongZuoJiLu/" + gongZuoJiLuRepository.findOneByBeiZhu("周期台账1").getId(),
+                HttpMethod.DELETE,
+                "Admin"
+        );
+        checkCode(response, PPOK);
+        checkZhouQiZhang();
+
+        // 2000-03-06是周一
+        Long tiaoShu = jdbcTemplate.queryForObject("select tiao_shu from zhou_qi_zhang where zhou_qi = 'ZHOU' and qi = date '2000-03-06' and yong_hu_id = " + yongHu.getId() + " and xiang_mu_id = " + xiangMu.getId(), Long.class);
+        Assert.assertEquals(1, tiaoShu.longValue());
+    }
+
+    /**
+     * 每种周期的周期台账合计都与每日台账的合计相同
+     */
+    private void checkZhouQiZhang() {
+        Map<String, Object> riZhang = jdbcTemplate.queryForMap("select " +
+                "coalesce(sum(tiao_shu), 0) tiao_shu, " +
+                "coalesce(sum(miao_shu), 0) miao_shu, " +
+                "coalesce(sum(fei_yong), 0) fei_yong, " +
+                "coalesce(sum(case when fei_yong is null then tiao_shu else 0 end), 0) wei_ji_fei_tiao_shu " +
+                "from ri_zhang");
+
+        for (String zhouQi : Arrays.asList("ZHOU", "YUE")) {
+            Map<String, Object> zhouQiZhang = jdbcTemplate.queryForMap("select " +
+                    "coalesce(sum(tiao_shu), 0) tiao_shu, " +
+                    "coalesce(sum(miao_shu), 0) miao_shu, " +
+                    "coalesce(sum(fei_yong), 0) fei_yong, " +
+                    "coalesce(sum(wei_ji_fei_tiao_shu), 0) wei_ji_fei_tiao_shu " +
+                    "from zhou_qi_zhang " +
+                    "where zhou_qi = '" + zhouQi + "'");
+
+            for (String lie : Arrays.asList("TIAO_SHU", "MIAO_SHU", "FEI_YONG", "WEI_JI_FEI_TIAO_SHU")) {
+                Assert.assertEquals(zhouQi + " " + lie, ((Number) riZhang.get(lie)).longValue(), ((Number) zhouQiZhang.get(lie)).longValue());
+            }
+        }
+    }
+
+    @Test
+    public void 报告摘要() throws JSONException {
+        GongSi gongSi = gongSiRepository.findOneByMingCheng("g1");
+
+        importYiYueGongZuoJiLu("摘要");
+
+        ResponseEntity<String> response = request(
+                "/admin/baoGaoZhaiYao",
+                HttpMethod.POST,
+                "Admin",
+                "gongSiId, " + gongSi.getId(),
+                "kaiShi, 2000-01-01",
+                "jieShu, 2000-01-31"
+        );
+        checkCode(response, PPOK);
+
+        // 100 - 1小时 * 4 * 21
+        JSONObject zhaiYao = new JSONObject(response.getBody()).getJSONObject("data");
+        Assert.assertEquals(100, zhaiYao.getInt("期初Balance"));
+        Assert.assertEquals(16, zhaiYao.getInt("期末Balance"));
+        Assert.assertEquals(21, zhaiYao.getInt("消费条数"));
+        Assert.assertEquals(84, zhaiYao.getInt("费用合计"));
+        Assert.assertFalse(zhaiYao.has("消费记录"));
+
+        JSONArray xiangMus = zhaiYao.getJSONArray("按项目");
+        Assert.assertEquals(1, xiangMus.length());
+        Assert.assertEquals("g1x1", xiangMus.getJSONObject(0).getString("项目"));
+        Assert.assertEquals(21, xiangMus.getJSONObject(0).getInt("条数"));
+        Assert.assertEquals(21, xiangMus.getJSONObject(0).getInt("耗时"));
+
+        JSONArray yongHus = zhaiYao.getJSONArray("按人员");
+        Assert.assertEquals(1, yongHus.length());
+        Assert.assertEquals("y1", yongHus.getJSONObject(0).getString("人员"));
+        Assert.assertEquals(84, yongHus.getJSONObject(0).getInt("费用"));
+
+        // 摘要不结算
+        Assert.assertNull(jieSuanKuaiZhaoRepository.findFirstByGongSiIdAndJieSuanRiLessThanOrderByJieSuanRiDesc(gongSi.getId(), LocalDate.of(2000, 2, 1)));
+    }
+
+    private JSONObject gainXiaoFeiJiLuYe(GongSi gongSi, String youBiao) throws JSONException {
+        PPJson ppJson = new PPJson();
+        ppJson.put("gongSiId", gongSi.getId());
+        ppJson.put("kaiShi", "2000-01-01");
+        ppJson.put("jieShu", "2000-01-31");
+        ppJson.put("size", 8);
+        if (youBiao != null) {
+            ppJson.put("youBiao", youBiao);
+        }
+
+        ResponseEntity<String> response = request("/admin/baoGaoXiaoFeiJiLu", HttpMethod.POST, "Admin", ppJson);
+        checkCode(response, PPOK);
+
+        return new JSONObject(response.getBody()).getJSONObject("data");
+    }
+
+    @Test
+    public void 报告消费记录分页() throws JSONException {
+        GongSi gongSi = gongSiRepository.findOneByMingCheng("g1");
+
+        importYiYueGongZuoJiLu("分页");
+
+        // --8, 8, 5条, 依次拼接与完整报告的消费记录相同
+        JSONArray xiaoFeiJiLus = new JSONArray();
+        JSONObject ye = gainXiaoFeiJiLuYe(gongSi, null);
+        int yeShu = 1;
+        while (true) {
+            Assert.assertEquals(21, ye.getInt("总条数"));
+            for (int i = 0; i < ye.getJSONArray("消费记录").length(); i++) {
+                xiaoFeiJiLus.put(ye.getJSONArray("消费记录").getJSONObject(i));
+            }
+
+            if (ye.isNull("下一页")) {
+                break;
+            }
+            ye = gainXiaoFeiJiLuYe(gongSi, ye.getString("下一页"));
+            yeShu++;
+        }
+        Assert.assertEquals(3, yeShu);
+
+        ResponseEntity<String> response = request(
+                "/admin/previewBaoGao",
+                HttpMethod.POST,
+                "Admin",
+                "gongSiId, " + gongSi.getId(),
+                "kaiShi, 2000-01-01",
+                "jieShu, 2000-01-31"
+        );
+        checkCode(response, PPOK);
+        Assert.assertEquals(new JSONObject(response.getBody()).getJSONObject("data").getJSONArray("消费记录").toString(), xiaoFeiJiLus.toString());
+        // --
+
+        // 报告内容在两页之间变化后, 旧游标报错
+        String youBiao = gainXiaoFeiJiLuYe(gongSi, null).getString("下一页");
+
+        response = request(
+                "/admin/createZhiFu",
+                HttpMethod.POST,
+                "Admin",
+                "gongSiMingCheng, g1",
+                "riQi, 2000-01-15",
+                "jinE, 10",
+                "beiZhu, 分页之间"
+        );
+        checkCode(response, PPOK);
+
+        response = request(
+                "/admin/baoGaoXiaoFeiJiLu",
+                HttpMethod.POST,
+                "Admin",
+                "gongSiId, " + gongSi.getId(),
+                "kaiShi, 2000-01-01",
+                "jieShu, 2000-01-31",
+                "youBiao, " + youBiao
+        );
+        checkCode(response, PPValidateExceptionCode);
+    }
+
+    @Test
+    public void 结算() {
+        GongSi gongSi = gongSiRepository.findOneByMingCheng("g1");
+
+        ResponseEntity<String> response = request(
+                "/admin/jieSuan",
+                HttpMethod.POST,
+                "Admin",
+                "gongSiId, " + gongSi.getId(),
+                "jieSuanRi, 2000-01-31"
+        );
+        checkCode(response, PPOK);
+
+        JieSuanKuaiZhao kuaiZhao = jieSuanKuaiZhaoRepository.findFirstByGongSiIdAndJieSuanRiLessThanOrderByJieSuanRiDesc(gongSi.getId(), LocalDate.of(2000, 2, 1));
+        Assert.assertNotNull(kuaiZhao);
+        Assert.assertEquals(0, kuaiZhao.getYuE().compareTo(new BigDecimal("96")));
+
+        // 结算日不回退
+        response = request(
+                "/admin/jieSuan",
+                HttpMethod.POST,
+                "Admin",
+                "gongSiId, " + gongSi.getId(),
+                "jieSuanRi, 2000-01-15"
+        );
+        checkCode(response, PPOK);
+
+        kuaiZhao = jieSuanKuaiZhaoRepository.findFirstByGongSiIdAndJieSuanRiLessThanOrderByJieSuanRiDesc(gongSi.getId(), LocalDate.of(2000, 2, 1));
+        Assert.assertTrue(kuaiZhao.getJieSuanRi().isEqual(LocalDate.of(2000, 1, 31)));
+    }
+
+    @Test
+    public void 批量生成报告() throws JSONException, IOException {
+        GongSi gongSi = gongSiRepository.findOneByMingCheng("g1");
+
+        ResponseEntity<String> response = request(
+                "/admin/batchGenerateBaoGao",
+                HttpMethod.POST,
+                "Admin",
+                "kaiShi, 2000-01-01",
+                "jieShu, 2000-01-31"
+        );
+        checkCode(response, PPOK);
+
+        JSONObject jieGuo = new JSONObject(response.getBody()).getJSONObject("data");
+        JSONArray gongSis = jieGuo.getJSONArray("gongSis");
+        Assert.assertEquals(gongSiRepository.count(), gongSis.length());
+        Assert.assertTrue(jieGuo.getLong("zongTiaoShu") >= 1);
+
+        JSONObject g1 = null;
+        for (int i = 0; i < gongSis.length(); i++) {
+            if (gongSis.getJSONObject(i).getLong("gongSiId") == gongSi.getId()) {
+                g1 = gongSis.getJSONObject(i);
+            }
+        }
+        Assert.assertNotNull(g1);
+        Assert.assertEquals(1, g1.getLong("tiaoShu"));
+
+        // 文件内容同生成报告
+        Path wenJian = Paths.get(g1.getString("wenJian"));
+        try {
+            JSONObject baoGao = new JSONObject(new String(Files.readAllBytes(wenJian), StandardCharsets.UTF_8)).getJSONObject("data");
+            Assert.assertEquals(96, baoGao.get("期末Balance"));
+            Assert.assertEquals(1, baoGao.getJSONArray("消费记录").length());
+        } finally {
+            for (int i = 0; i < gongSis.length(); i++) {
+                if (!gongSis.getJSONObject(i).isNull("wenJian")) {
+                    Files.deleteIfExists(Paths.get(gongSis.getJSONObject(i).getString("wenJian")));
+                }
+            }
+            Files.deleteIfExists(Paths.get(jieGuo.getString("muLu")));
+        }
+
+        // 成功生成报告后设置结算日
+        JieSuanKuaiZhao kuaiZhao = jieSuanKuaiZhaoRepository.findFirstByGongSiIdAndJieSuanRiLessThanOrderByJieSuanRiDesc(gongSi.getId(), LocalDate.of(2000, 2, 1));
+        Assert.assertNotNull(kuaiZhao);
+        Assert.assertTrue(kuaiZhao.getJieSuanRi().isEqual(LocalDate.of(2000, 1, 31)));
+    }
+
+    /**
+     * 生成报告(内存和流式)各用了多少条SQL语句
+     */
+    private long[] countBaoGaoYuJu(GongSi gongSi) throws JSONException, IOException {
+        LocalDate kaiShi = LocalDate.of(2000, 1, 1);
+        LocalDate jieShu = LocalDate.of(2000, 1, 31);
+        Statistics statistics = entityManager.getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+
+        // 先生成一次, 加载计费标准缓存
+        baoGaoService.generateBaoGao(gongSi.getId(), kaiShi, jieShu);
+
+        long[] yuJuShus = new long[2];
+        statistics.setStatisticsEnabled(true);
+        try {
+            entityManager.clear();
+            statistics.clear();
+            // 按序列化后的内容比较, 与流式写出一致
+            JSONObject baoGao = new JSONObject(baoGaoService.generateBaoGao(gongSi.getId(), kaiShi, jieShu).toString());
+            yuJuShus[0] = statistics.getPrepareStatementCount();
+
+            entityManager.clear();
+            statistics.clear();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (JsonGenerator generator = new ObjectMapper().getFactory().createGenerator(out, JsonEncoding.UTF8)) {
+                baoGaoService.writeBaoGao(gongSi.getId(), kaiShi, jieShu, generator);
+            }
+            yuJuShus[1] = statistics.getPrepareStatementCount();
+
+            // 两种方式的结果相同
+            JSONObject liuShi = new JSONObject(new String(out.toByteArray(), StandardCharsets.UTF_8)).getJSONObject("data");
+            Assert.assertEquals(baoGao.get("期末Balance").toString(), liuShi.get("期末Balance").toString());
+            Assert.assertEquals(baoGao.getJSONArray("消费记录").length(), liuShi.getJSONArray("消费记录").length());
+            Assert.assertEquals(baoGao.getJSONArray("充值记录").length(), liuShi.getJSONArray("充值记录").length());
+        } finally {
+            statistics.setStatisticsEnabled(false);
+        }
+
+        return yuJuShus;
+    }
+
+    @Test
+    public void 生成报告_语句数与条数无关() throws JSONException, IOException {
+        GongSi gongSi = gongSiRepository.findOneByMingCheng("g1");
+
+        long[] yuJuShus = countBaoGaoYuJu(gongSi);
+
+        // 再加20条工作记录和2笔支付
+        importYiYueGongZuoJiLu("语句数");
+
+        ResponseEntity<String> response;
+        for (String riQi : Arrays.asList("2000-01-10", "2000-01-20")) {
+            response = request(
+                    "/admin/createZhiFu",
+                    HttpMethod.POST,
+                    "Admin",
+                    "gongSiMingCheng, g1",
+                    "riQi, " + riQi,
+                    "jinE, 10",
+                    "beiZhu, 语句数"
+            );
+            checkCode(response, PPOK);
+        }
+
+        long[] xinYuJuShus = countBaoGaoYuJu(gongSi);
+
+        log.info("生成报告的语句数: " + Arrays.toString(yuJuShus) + " -> " + Arrays.toString(xinYuJuShus));
+        Assert.assertArrayEquals(yuJuShus, xinYuJuShus);
+        Assert.assertTrue(xinYuJuShus[0] <= 6);
+        Assert.assertTrue(xinYuJuShus[1] <= 6);
+
+        // 100 + 10 * 2 - 1小时 * 4 * 21
+        JSONObject baoGao = baoGaoService.generateBaoGao(gongSi.getId(), LocalDate.of(2000, 1, 1), LocalDate.of(2000, 1, 31));
+        Assert.assertEquals(0, new BigDecimal(baoGao.get("期末Balance").toString()).compareTo(new BigDecimal("36")));
+        Assert.assertEquals(21, baoGao.getJSONArray("消费记录").length());
+        Assert.assertEquals(3, baoGao.getJSONArray("充值记录").length());
+    }
+
+    @Test
+    public void 生成报告_汇总查询使用索引() {
+        GongSi gongSi = gongSiRepository.findOneByMingCheng("g1");
+
+        // 条件同RiZhangRepository.calBaoGaoFeiYong
+        String jiHua = jdbcTemplate.queryForObject("explain " +
+                "select sum(case when r.ri_qi < date '2000-01-01' then r.fei_yong else 0 end), sum(r.fei_yong) " +
+                "from ri_zhang r " +
+                "where r.gong_si_id = " + gongSi.getId() + " " +
+                "and r.ri_qi <= date '2000-01-31'", String.class);
+        log.info("calBaoGaoFeiYong的执行计划: " + jiHua);
+        Assert.assertTrue(jiHua, jiHua.toUpperCase().contains("IDX_RI_ZHANG_GONG_SI_RI_QI"));
+
+        // 条件同ZhiFuRepository.findBaoGaoZhiFu
+        jiHua = jdbcTemplate.queryForObject("explain " +
+                "select z.id, " +
+                "(select coalesce(sum(z1.jing_e), 0) from zhi_fu z1 where z1.gong_si_id = g.id and z1.ri_qi <= date '2000-01-01'), " +
+                "(select coalesce(sum(z2.jing_e), 0) from zhi_fu z2 where z2.gong_si_id = g.id and z2.ri_qi <= date '2000-01-31') " +
+                "from gong_si g " +
+                "left join zhi_fu z on z.gong_si_id = g.id and z.ri_qi >= date '2000-01-01' and z.ri_qi <= date '2000-01-31' " +
+                "where g.id = " + gongSi.getId() + " " +
+                "order by z.ri_qi", String.class);
+        log.info("findBaoGaoZhiFu的执行计划: " + jiHua);
+        Assert.assertTrue(jiHua, jiHua.toUpperCase().contains("IDX_ZHI_FU_GONG_SI_RI_QI"));
+    }
+
+    private JSONObject gainBaoGaoCache() throws JSONException {
+        ResponseEntity<String> response = request(
+                "/admin/baoGaoCache",
+                HttpMethod.GET,
+                "Admin"
+        );
+        checkCode(response, PPOK);
+
+        return new JSONObject(response.getBody()).getJSONObject("data");
+    }
+
+    private ResponseEntity<String> generateYiYueBaoGao(GongSi gongSi) {
+        ResponseEntity<String> response = request(
+                "/admin/generateBaoGao",
+                HttpMethod.POST,
+                "Admin",
+                "gongSiId, " + gongSi.getId(),
+                "kaiShi, 2000-01-01",
+                "jieShu, 2000-01-31"
+        );
+        checkCode(response, PPOK);
+
+        return response;
+    }
+
+    @Test
+    public void 生成报告_缓存() throws JSONException {
+        GongSi gongSi = gongSiRepository.findOneByMingCheng("g1");
+
+        // 第一次生成后结算日推进, 丢弃缓存
+        generateYiYueBaoGao(gongSi);
+
+        JSONObject tongJi = gainBaoGaoCache();
+        ResponseEntity<String> response = generateYiYueBaoGao(gongSi);
+        ResponseEntity<String> huanCun = generateYiYueBaoGao(gongSi);
+        JSONObject xinTongJi = gainBaoGaoCache();
+
+        Assert.assertEquals(response.getBody(), huanCun.getBody());
+        Assert.assertEquals(1, xinTongJi.getLong("weiMingZhong") - tongJi.getLong("weiMingZhong"));
+        Assert.assertEquals(1, xinTongJi.getLong("mingZhong") - tongJi.getLong("mingZhong"));
+        Assert.assertTrue(xinTongJi.getLong("bytes") > 0);
+
+        // 回退结算日后新建支付, 缓存被丢弃, 报告包含新的支付
+        response = request(
+                "/admin/setGongSiJieSuanRi",
+                HttpMethod.POST,
+                "Admin",
+                "id, " + gongSi.getId(),
+                "jieSuanRi, 1999-12-31"
+        );
+        checkCode(response, PPOK);
+
+        response = request(
+                "/admin/createZhiFu",
+                HttpMethod.POST,
+                "Admin",
+                "gongSiMingCheng, g1",
+                "riQi, 2000-01-15",
+                "jinE, 10",
+                "beiZhu, 缓存之后"
+        );
+        checkCode(response, PPOK);
+
+        tongJi = gainBaoGaoCache();
+        response = generateYiYueBaoGao(gongSi);
+        xinTongJi = gainBaoGaoCache();
+
+        Assert.assertEquals(1, xinTongJi.getLong("weiMingZhong") - tongJi.getLong("weiMingZhong"));
+        Assert.assertEquals(0, xinTongJi.getLong("mingZhong") - tongJi.getLong("mingZhong"));
+        Assert.assertEquals(106, new JSONObject(response.getBody()).getJSONObject("data").get("期末Balance"));
+    }
+
+    @Test
+    public void 生成报告_大额费用() throws JSONException {
+        GongSi gongSi = gongSiRepository.findOneByMingCheng("g1");
+        XiangMu xiangMu = xiangMuRepository.findOneByMingCheng("g1x1");
+        YongHu yongHu = yongHuRepository.findOneByYongHuMing("y1");
+
+        ResponseEntity<String> response = request(
+                "/admin/addXiangMuJiFeiBiaoZhun",
+                HttpMethod.POST,
+                "Admin",
+                "xiangMuId," + xiangMu.getId(),
+                "yongHuId," + yongHu.getId(),
+                "kaiShi, 2000-02-01",
+                "xiaoShiFeiYong, 1000"
+        );
+        checkCode(response, PPOK);
+
+        PPJson gongZuoJiLu = new PPJson();
+        gongZuoJiLu.put("yongHuMing", "y1");
+        gongZuoJiLu.put("xiangMuMingCheng", "g1x1");
+        gongZuoJiLu.put("kaiShi", "2000-02-10T10:00");
+        gongZuoJiLu.put("jieShu", "2000-02-10T12:00");
+        gongZuoJiLu.put("beiZhu", "大额");
+
+        PPJson ppJson = new PPJson();
+        ppJson.put("data", new JSONArray().put(gongZuoJiLu));
+
+        response = request("/admin/importYongHuGongZuoJiLu", HttpMethod.POST, "Admin", ppJson);
+        checkCode(response, PPOK);
+
+        // 费用合计超过int范围(2^31费用单位, 约59.65)
+        response = request(
+                "/admin/generateBaoGao",
+                HttpMethod.POST,
+                "Admin",
+                "gongSiId, " + gongSi.getId(),
+                "kaiShi, 2000-03-01",
+                "jieShu, 2000-03-31"
+        );
+        checkCode(response, PPOK);
+
+        // 100 - 1小时 * 4 - 2小时 * 1000
+        JSONObject jsonObject = new JSONObject(response.getBody());
+        Assert.assertEquals(-1904, jsonObject.getJSONObject("data").getInt("期初Balance"));
+        Assert.assertEquals(-1904, jsonObject.getJSONObject("data").getInt("期末Balance"));
+    }
+
+    @Test
+    public void 台账_并发新建同一行() {
+        // 先写入2000-02-01的台账行, 相当于并发的事务已新建并提交
+        importService.importGongZuoJiLu(Collections.singletonList(new ImportService.JiLu("y1", "g1x1", LocalDateTime.of(2000, 2, 1, 10, 0), LocalDateTime.of(2000, 2, 1, 11, 0), "并发1")));
+
+        // 再新建同一行时违反唯一约束, 只有插入语句失败, 改为在已有行上累加
+        XiangMu xiangMu = xiangMuRepository.findOneByMingCheng("g1x1");
+        YongHu yongHu = yongHuRepository.findOneByYongHuMing("y1");
+        riZhangService.xinJian(xiangMu, yongHu.getId(), LocalDate.of(2000, 2, 1), 1, 3600, 4 * CostEngine.DAN_WEI);
+
+        // 事务没有被标记为回滚, 仍可继续读写
+        entityManager.clear();
+
+        // 2月1日只有一行, 两条, 每条1小时 * 4
+        List<RiZhang> riZhangs = riZhangRepository.findRiZhangs(xiangMu.getId(), yongHu.getId(), LocalDate.of(2000, 2, 1));
+        Assert.assertEquals(1, riZhangs.size());
+        Assert.assertEquals(2, riZhangs.get(0).getTiaoShu());
+        Assert.assertEquals(7200, riZhangs.get(0).getMiaoShu());
+        Assert.assertEquals(8 * CostEngine.DAN_WEI, riZhangs.get(0).getFeiYong().longValue());
+    }
+
+    @Test
+    public void 台账_一批中既有已有行又有新行() {
+        XiangMu xiangMu = xiangMuRepository.findOneByMingCheng("g1x1");
+        YongHu yongHu = yongHuRepository.findOneByYongHuMing("y1");
+
+        importService.importGongZuoJiLu(Collections.singletonList(new ImportService.JiLu("y1", "g1x1", LocalDateTime.of(2000, 3, 6, 10, 0), LocalDateTime.of(2000, 3, 6, 11, 0), "批量1")));
+
+        // 3月6日的日, 周, 月台账已有, 3月13日的日, 周台账没有, 月台账已有
+        importService.importGongZuoJiLu(Arrays.asList(
+                new ImportService.JiLu("y1", "g1x1", LocalDateTime.of(2000, 3, 6, 12, 0), LocalDateTime.of(2000, 3, 6, 13, 0), "批量2"),
+                new ImportService.JiLu("y1", "g1x1", LocalDateTime.of(2000, 3, 13, 10, 0), LocalDateTime.of(2000, 3, 13, 12, 0), "批量3")
+        ));
+        entityManager.clear();
+
+        List<RiZhang> riZhangs = riZhangRepository.findRiZhangs(xiangMu.getId(), yongHu.getId(), LocalDate.of(2000, 3, 6));
+        Assert.assertEquals(2, riZhangs.size());
+        Assert.assertEquals(2, riZhangs.get(0).getTiaoShu());
+        Assert.assertEquals(7200, riZhangs.get(0).getMiaoShu());
+        Assert.assertEquals(1, riZhangs.get(1).getTiaoShu());
+        Assert.assertEquals(7200, riZhangs.get(1).getMiaoShu());
+
+        Long tiaoShu = jdbcTemplate.queryForObject("select tiao_shu from zhou_qi_zhang where zhou_qi = 'YUE' and qi = date '2000-03-01' and yong_hu_id = " + yongHu.getId() + " and xiang_mu_id = " + xiangMu.getId(), Long.class);
+        Assert.assertEquals(3, tiaoShu.longValue());
+        checkZhouQiZhang();
+    }
+
+    private JSONObject gainDaoRuRenWu(Long id) throws JSONException {
+        ResponseEntity<String> response = request(
+                "/admin/importJobs/" + id,
+                HttpMethod.GET,
+                "Admin"
+        );
+        checkCode(response, PPOK);
+
+        return new JSONObject(response.getBody()).getJSONObject("data");
+    }
+
+    private JSONObject dengDaiDaoRuRenWu(Long id, String zhuangTai) throws JSONException, InterruptedException {
+        JSONObject jinDu = null;
+        for (int i = 0; i < 600; i++) {
+            jinDu = gainDaoRuRenWu(id);
+            if (zhuangTai.equals(jinDu.getString("zhuangTai"))) {
+                break;
+            }
+
+            Thread.sleep(100);
+        }
 
+        return jinDu;
     }
 }
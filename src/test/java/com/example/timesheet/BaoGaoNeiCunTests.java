@@ -0,0 +1,197 @@
+package com.example.timesheet;
+
+import com.example.timesheet.model.GongSi;
+import com.example.timesheet.model.GongZuoJiLu;
+import com.example.timesheet.model.XiangMu;
+import com.example.timesheet.model.YongHu;
+import com.example.timesheet.repository.GongZuoJiLuRepository;
+import com.example.timesheet.repository.XiangMuRepository;
+import com.example.timesheet.repository.YongHuRepository;
+import com.example.timesheet.service.BaoGaoService;
+import com.example.timesheet.service.MainService;
+import com.example.timesheet.service.RiZhangService;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 百万条工作记录生成报告, 在固定的堆大小下运行
+ * <p>
+ * 1) 只在 mvn test -P report-memory 中运行(-Xmx256m), 平时跳过<br>
+ * 2) 用target下的文件数据库启动整个应用, 不启动web, 数据不占用堆<br>
+ * 3) writeBaoGao逐条写出到只计数的输出流; 工作记录如果一直留在持久化上下文中, 会超出堆大小
+ */
+@Slf4j
+public class BaoGaoNeiCunTests {
+    private static final int ZONG_SHU = 1_000_000;
+
+    private static final int YONG_HU_SHU = 10;
+
+    /**
+     * 每个事务写入的工作记录条数
+     */
+    private static final int KUAI = 10_000;
+
+    private static final LocalDateTime QI_SHI = LocalDate.of(2000, 1, 1).atTime(8, 0);
+
+    private static ConfigurableApplicationContext context;
+
+    @BeforeClass
+    public static void beforeClass() {
+        Assume.assumeTrue("只在-P report-memory中运行", Boolean.getBoolean("timesheet.test.report-memory"));
+
+        // properties(...)只是默认值, 会被application.properties覆盖, 所以用命令行参数
+        context = new SpringApplicationBuilder(TimesheetApplication.class)
+                .web(WebApplicationType.NONE)
+                .run(
+                        "--spring.datasource.url=jdbc:h2:file:./target/baoGaoNeiCun",
+                        "--spring.jpa.show-sql=false",
+                        "--spring.jpa.properties.hibernate.show_sql=false",
+                        "--spring.jpa.properties.hibernate.format_sql=false",
+                        "--spring.jpa.properties.hibernate.use_sql_comments=false",
+                        "--spring.jpa.properties.hibernate.type=warn",
+                        "--logging.level.org.hibernate=WARN"
+                );
+    }
+
+    @AfterClass
+    public static void afterClass() {
+        if (context != null) {
+            context.close();
+        }
+    }
+
+    @Test
+    public void 百万条工作记录() {
+        MainService mainService = context.getBean(MainService.class);
+        GongZuoJiLuRepository gongZuoJiLuRepository = context.getBean(GongZuoJiLuRepository.class);
+        XiangMuRepository xiangMuRepository = context.getBean(XiangMuRepository.class);
+        YongHuRepository yongHuRepository = context.getBean(YongHuRepository.class);
+        RiZhangService riZhangService = context.getBean(RiZhangService.class);
+        BaoGaoService baoGaoService = context.getBean(BaoGaoService.class);
+        TransactionTemplate transactionTemplate = new TransactionTemplate(context.getBean(PlatformTransactionManager.class));
+
+        // --每个用户每天8条一小时的工作记录, 小时费用4
+        GongSi gongSi = mainService.createGongSi("neiCun");
+        XiangMu xiangMu = mainService.createXiangMu("neiCun", gongSi.getId());
+        List<Long> yongHuIds = new ArrayList<>();
+        for (int i = 0; i < YONG_HU_SHU; i++) {
+            YongHu yongHu = mainService.createYongHu("neiCun" + i, "1234", new BigDecimal("4"));
+            mainService.addXiangMuChengYuan(xiangMu.getId(), yongHu.getId());
+            yongHuIds.add(yongHu.getId());
+        }
+
+        long kaiShiNanoTime = System.nanoTime();
+        for (int kaiShi = 0; kaiShi < ZONG_SHU; kaiShi += KUAI) {
+            int kuaiKaiShi = kaiShi;
+            int kuaiJieShu = Math.min(kaiShi + KUAI, ZONG_SHU);
+
+            // 每个事务重新取得项目和用户, 项目的计费标准是延迟加载的
+            transactionTemplate.execute(status -> {
+                XiangMu kuaiXiangMu = xiangMuRepository.findById(xiangMu.getId()).get();
+                List<YongHu> yongHus = new ArrayList<>();
+                for (Long yongHuId : yongHuIds) {
+                    yongHus.add(yongHuRepository.findById(yongHuId).get());
+                }
+
+                List<GongZuoJiLu> gongZuoJiLus = new ArrayList<>(KUAI);
+                for (int i = kuaiKaiShi; i < kuaiJieShu; i++) {
+                    LocalDateTime jiLuKaiShi = gainKaiShi(i);
+                    gongZuoJiLus.add(new GongZuoJiLu(null, jiLuKaiShi, jiLuKaiShi.plusHours(1), yongHus.get(i % YONG_HU_SHU), kuaiXiangMu, "neiCun" + i, null, null));
+                }
+
+                gongZuoJiLuRepository.saveAll(gongZuoJiLus);
+                riZhangService.added(gongZuoJiLus);
+
+                return null;
+            });
+        }
+        log.info("写入" + ZONG_SHU + "条工作记录, 用时" + (System.nanoTime() - kaiShiNanoTime) / 1_000_000 + "毫秒");
+        // --
+
+        JiShu jiShu = new JiShu();
+        LocalDate jieShu = gainKaiShi(ZONG_SHU - 1).toLocalDate();
+
+        kaiShiNanoTime = System.nanoTime();
+        transactionTemplate.setReadOnly(true);
+        transactionTemplate.execute(status -> {
+            try (JsonGenerator generator = new ObjectMapper().getFactory().createGenerator(jiShu, JsonEncoding.UTF8)) {
+                baoGaoService.writeBaoGao(gongSi.getId(), QI_SHI.toLocalDate(), jieShu, generator);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            return null;
+        });
+
+        Runtime runtime = Runtime.getRuntime();
+        log.info("生成报告" + jiShu.count + "字节, 用时" + (System.nanoTime() - kaiShiNanoTime) / 1_000_000 + "毫秒, 堆上限" + runtime.maxMemory() / 1024 / 1024 + "MB, 已用" + (runtime.totalMemory() - runtime.freeMemory()) / 1024 / 1024 + "MB");
+
+        // 没有支付, 每条工作记录费用4
+        Assert.assertTrue(jiShu.count > 50L * ZONG_SHU);
+        Assert.assertTrue(jiShu.gainWeiBu(), jiShu.gainWeiBu().endsWith("\"期末Balance\":" + (-4L * ZONG_SHU) + "}}"));
+    }
+
+    /**
+     * 第i条工作记录的开始时间
+     */
+    private static LocalDateTime gainKaiShi(int i) {
+        int xuHao = i / YONG_HU_SHU;
+
+        return QI_SHI.plusDays(xuHao / 8).plusHours(xuHao % 8);
+    }
+
+    /**
+     * 只计数并保留最后WEI_BU个字节的输出流
+     */
+    private static class JiShu extends OutputStream {
+        private static final int WEI_BU = 64;
+
+        private final byte[] weiBu = new byte[WEI_BU];
+
+        private long count;
+
+        @Override
+        public void write(int b) {
+            weiBu[(int) (count++ % WEI_BU)] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            for (int i = off; i < off + len; i++) {
+                write(b[i]);
+            }
+        }
+
+        String gainWeiBu() {
+            int length = (int) Math.min(count, WEI_BU);
+            byte[] bytes = new byte[length];
+            for (int i = 0; i < length; i++) {
+                bytes[i] = weiBu[(int) ((count - length + i) % WEI_BU)];
+            }
+
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -100,6 +100,9 @@ public abstract class TimesheetApplicationTests {
     @Autowired
     protected GongZuoJiLuRepository gongZuoJiLuRepository;
 
+    @Autowired
+    protected JieSuanKuaiZhaoRepository jieSuanKuaiZhaoRepository;
+
     @Autowired
     protected MainService mainService;
 
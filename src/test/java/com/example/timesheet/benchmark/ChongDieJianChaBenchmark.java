@@ -0,0 +1,111 @@
+package com.example.timesheet.benchmark;
+
+import com.example.timesheet.util.ShiJianDuanIndex;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.sql.*;
+import java.time.LocalDateTime;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 重叠检查: 原有的count查询 对比 ShiJianDuanIndex
+ * <p>
+ * 1) 内存数据库中一个用户有jiLuShu条工作记录, 每天一条, 表结构与hibernate生成的一致(yong_hu_id上有外键索引)<br>
+ * 2) 每次检查一个随机的一小时时间段<br>
+ * 运行main方法即可, 不参与mvn test
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ChongDieJianChaBenchmark {
+    private static final LocalDateTime KAI_SHI = LocalDateTime.of(2000, 1, 1, 9, 0);
+
+    @Param({"1000", "10000", "100000"})
+    public int jiLuShu;
+
+    private Connection connection;
+
+    private PreparedStatement countStatement;
+
+    private ShiJianDuanIndex shiJianDuanIndex;
+
+    private Random random;
+
+    @Setup
+    public void setup() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:h2:mem:chongDieJianCha" + jiLuShu, "sa", "");
+
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("create table gong_zuo_ji_lu (id bigint primary key, kai_shi timestamp not null, jie_shu timestamp not null, yong_hu_id bigint not null)");
+            statement.execute("create index idx_gong_zuo_ji_lu_yong_hu on gong_zuo_ji_lu (yong_hu_id)");
+        }
+
+        shiJianDuanIndex = new ShiJianDuanIndex();
+        try (PreparedStatement insert = connection.prepareStatement("insert into gong_zuo_ji_lu values (?, ?, ?, 1)")) {
+            for (int i = 0; i < jiLuShu; i++) {
+                LocalDateTime kaiShi = KAI_SHI.plusDays(i);
+                LocalDateTime jieShu = kaiShi.plusHours(8);
+
+                insert.setLong(1, i);
+                insert.setTimestamp(2, Timestamp.valueOf(kaiShi));
+                insert.setTimestamp(3, Timestamp.valueOf(jieShu));
+                insert.addBatch();
+
+                shiJianDuanIndex.add(kaiShi, jieShu);
+            }
+            insert.executeBatch();
+        }
+
+        // 与GongZuoJiLuRepository.findByOverlapWorkRecords相同的条件
+        countStatement = connection.prepareStatement("select count(*) from gong_zuo_ji_lu g where g.yong_hu_id = ? and g.jie_shu >= ? and g.kai_shi <= ?");
+
+        random = new Random(42);
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        countStatement.close();
+        connection.close();
+    }
+
+    private LocalDateTime randomKaiShi() {
+        return KAI_SHI.plusHours(random.nextInt(jiLuShu * 24));
+    }
+
+    @Benchmark
+    public long sql() throws SQLException {
+        LocalDateTime kaiShi = randomKaiShi();
+
+        countStatement.setLong(1, 1);
+        countStatement.setTimestamp(2, Timestamp.valueOf(kaiShi));
+        countStatement.setTimestamp(3, Timestamp.valueOf(kaiShi.plusHours(1)));
+        try (ResultSet resultSet = countStatement.executeQuery()) {
+            resultSet.next();
+
+            return resultSet.getLong(1);
+        }
+    }
+
+    @Benchmark
+    public boolean index() {
+        LocalDateTime kaiShi = randomKaiShi();
+
+        return shiJianDuanIndex.overlaps(kaiShi, kaiShi.plusHours(1));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(ChongDieJianChaBenchmark.class.getSimpleName())
+                .build();
+
+        new Runner(options).run();
+    }
+}
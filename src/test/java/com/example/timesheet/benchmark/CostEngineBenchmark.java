@@ -0,0 +1,107 @@
+package com.example.timesheet.benchmark;
+
+import com.example.timesheet.util.CostEngine;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 报告中逐条计算费用: 原来的BigDecimal DECIMAL128 对比 CostEngine
+ * <p>
+ * 每次操作计算jiLuShu条记录的费用并累加总额, 与报告一致;
+ * costEngine只累加定点费用, 每条记录输出时再换算, 见costEngineShuChu<br>
+ * 可以加-prof gc比较每次操作的分配量<br>
+ * 运行main方法即可, 不参与mvn test
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CostEngineBenchmark {
+    @Param({"1000"})
+    public int jiLuShu;
+
+    private BigDecimal[] xiaoShiFeiYongs;
+
+    private long[] dingDianXiaoShiFeiYongs;
+
+    private long[] miaoShus;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(20190401L);
+
+        xiaoShiFeiYongs = new BigDecimal[jiLuShu];
+        dingDianXiaoShiFeiYongs = new long[jiLuShu];
+        miaoShus = new long[jiLuShu];
+        for (int i = 0; i < jiLuShu; i++) {
+            xiaoShiFeiYongs[i] = BigDecimal.valueOf(100 + random.nextInt(100000), 2);
+            dingDianXiaoShiFeiYongs[i] = CostEngine.toXiaoShiFeiYong(xiaoShiFeiYongs[i]);
+            miaoShus[i] = 60 + random.nextInt(8 * 3600);
+        }
+    }
+
+    /**
+     * 原来BaoGaoService.gainXiaoFei中的计算
+     */
+    @Benchmark
+    public void legacyDecimal128(Blackhole blackhole) {
+        BigDecimal zongE = BigDecimal.ZERO;
+        for (int i = 0; i < jiLuShu; i++) {
+            BigDecimal secondCost = xiaoShiFeiYongs[i].divide(new BigDecimal("3600"), MathContext.DECIMAL128);
+            BigDecimal cost = secondCost.multiply(new BigDecimal("" + miaoShus[i]));
+            BigDecimal haoShi = (new BigDecimal("" + miaoShus[i])).divide(new BigDecimal("" + 3600), MathContext.DECIMAL128);
+
+            zongE = zongE.add(cost);
+            blackhole.consume(cost);
+            blackhole.consume(haoShi);
+        }
+        blackhole.consume(zongE);
+    }
+
+    @Benchmark
+    public void costEngine(Blackhole blackhole) {
+        long zongE = 0;
+        for (int i = 0; i < jiLuShu; i++) {
+            long feiYong = CostEngine.feiYong(dingDianXiaoShiFeiYongs[i], miaoShus[i]);
+
+            zongE = Math.addExact(zongE, feiYong);
+            blackhole.consume(feiYong);
+        }
+        blackhole.consume(CostEngine.toBigDecimal(zongE));
+    }
+
+    /**
+     * 包括每条记录输出时的换算
+     */
+    @Benchmark
+    public void costEngineShuChu(Blackhole blackhole) {
+        long zongE = 0;
+        for (int i = 0; i < jiLuShu; i++) {
+            long feiYong = CostEngine.feiYong(dingDianXiaoShiFeiYongs[i], miaoShus[i]);
+
+            zongE = Math.addExact(zongE, feiYong);
+            blackhole.consume(CostEngine.toBigDecimal(feiYong));
+            blackhole.consume(CostEngine.haoShi(miaoShus[i]));
+        }
+        blackhole.consume(CostEngine.toBigDecimal(zongE));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(CostEngineBenchmark.class.getSimpleName())
+                .build();
+
+        new Runner(options).run();
+    }
+}
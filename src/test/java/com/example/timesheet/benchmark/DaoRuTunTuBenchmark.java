@@ -0,0 +1,127 @@
+package com.example.timesheet.benchmark;
+
+import com.example.timesheet.TimesheetApplication;
+import com.example.timesheet.model.GongSi;
+import com.example.timesheet.model.XiangMu;
+import com.example.timesheet.model.YongHu;
+import com.example.timesheet.service.ImportService;
+import com.example.timesheet.service.MainService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 导入吞吐量(行/秒)
+ * <p>
+ * 1) 用内存数据库启动整个应用, 不启动web<br>
+ * 2) yongHuShu个用户在同一个项目上, 每人每天8条一小时的工作记录, 按用户交错排列, 通过分块流式导入写入<br>
+ * 3) 每导入jianGe行打印一次累计行/秒, 最后打印总体行/秒<br>
+ * 4) 数据库和日志的设置作为命令行参数传入, SpringApplicationBuilder.properties(...)只是默认值, 会被application.properties覆盖<br>
+ * 参数: 总行数(默认1000000) 用户数(默认100), 其余参数按spring boot的--key=value覆盖配置<br>
+ * 开关: --piLiang=false 关闭JDBC批量写入和排序; --chiHuaId=false 关闭序列的pooled分配, 每个id查询一次序列<br>
+ * 对比前后在同一台机器上各运行一次, 比较最后一行的行/秒:<br>
+ * 之前: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.example.timesheet.benchmark.DaoRuTunTuBenchmark -Dexec.args="1000000 100 --piLiang=false --chiHuaId=false"<br>
+ * 之后: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.example.timesheet.benchmark.DaoRuTunTuBenchmark -Dexec.args="1000000 100"
+ */
+@Slf4j
+public class DaoRuTunTuBenchmark {
+    private static final int JIAN_GE = 100000;
+
+    public static void main(String[] args) {
+        long zongShu = args.length > 0 && !args[0].startsWith("--") ? Long.parseLong(args[0]) : 1000000L;
+        int yongHuShu = args.length > 1 && !args[1].startsWith("--") ? Integer.parseInt(args[1]) : 100;
+
+        boolean piLiang = !Arrays.asList(args).contains("--piLiang=false");
+        boolean chiHuaId = !Arrays.asList(args).contains("--chiHuaId=false");
+
+        List<String> canShus = new ArrayList<>(Arrays.asList(args));
+        addMoRen(canShus, "spring.datasource.url", "jdbc:h2:mem:daoRuTunTu;DB_CLOSE_DELAY=-1");
+        addMoRen(canShus, "spring.jpa.show-sql", "false");
+        addMoRen(canShus, "spring.jpa.properties.hibernate.show_sql", "false");
+        addMoRen(canShus, "spring.jpa.properties.hibernate.format_sql", "false");
+        addMoRen(canShus, "spring.jpa.properties.hibernate.use_sql_comments", "false");
+        addMoRen(canShus, "spring.jpa.properties.hibernate.type", "warn");
+        addMoRen(canShus, "logging.level.org.hibernate", "WARN");
+        if (!piLiang) {
+            addMoRen(canShus, "spring.jpa.properties.hibernate.jdbc.batch_size", "0");
+            addMoRen(canShus, "spring.jpa.properties.hibernate.order_inserts", "false");
+            addMoRen(canShus, "spring.jpa.properties.hibernate.order_updates", "false");
+        }
+        if (!chiHuaId) {
+            // allocationSize按1处理, 每个id查询一次序列
+            addMoRen(canShus, "spring.jpa.properties.hibernate.id.optimizer.pooled.preferred", "none");
+        }
+
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(TimesheetApplication.class)
+                .web(WebApplicationType.NONE)
+                .run(canShus.toArray(new String[0]));
+
+        try {
+            MainService mainService = context.getBean(MainService.class);
+            ImportService importService = context.getBean(ImportService.class);
+
+            // --准备用户和项目
+            GongSi gongSi = mainService.createGongSi("tunTu");
+            XiangMu xiangMu = mainService.createXiangMu("tunTu", gongSi.getId());
+            for (int i = 0; i < yongHuShu; i++) {
+                YongHu yongHu = mainService.createYongHu("tunTu" + i, "1234", new BigDecimal("100"));
+                mainService.addXiangMuChengYuan(xiangMu.getId(), yongHu.getId());
+            }
+            // --
+
+            AtomicLong shiBaiShu = new AtomicLong();
+            ImportService.FenKuaiDaoRu fenKuaiDaoRu = importService.fenKuaiDaoRu(jieGuo -> {
+                if (!"1".equals(jieGuo.getCode())) {
+                    shiBaiShu.incrementAndGet();
+                }
+            });
+
+            LocalDateTime qiShi = LocalDate.of(2000, 1, 1).atTime(8, 0);
+            long kaiShi = System.nanoTime();
+            for (long hang = 1; hang <= zongShu; hang++) {
+                long xuHao = (hang - 1) / yongHuShu;
+                LocalDateTime jiLuKaiShi = qiShi.plusDays(xuHao / 8).plusHours(xuHao % 8 * 2);
+
+                fenKuaiDaoRu.add(hang, new ImportService.JiLu(
+                        "tunTu" + (hang - 1) % yongHuShu,
+                        "tunTu",
+                        jiLuKaiShi,
+                        jiLuKaiShi.plusHours(1),
+                        "tunTu" + hang
+                ));
+
+                if (hang % JIAN_GE == 0) {
+                    log.info("已导入" + hang + "行, " + hang * 1_000_000_000L / (System.nanoTime() - kaiShi) + "行/秒");
+                }
+            }
+            fenKuaiDaoRu.finish();
+
+            long nanos = System.nanoTime() - kaiShi;
+            log.info("批量写入" + (piLiang ? "开" : "关") + ", pooled序列" + (chiHuaId ? "开" : "关") + ": 共" + zongShu + "行, 失败" + shiBaiShu.get() + "行, 用时" + nanos / 1_000_000 + "毫秒, " + zongShu * 1_000_000_000L / nanos + "行/秒");
+        } finally {
+            context.close();
+        }
+    }
+
+    /**
+     * 没有指定时加上--key=value; 同一个key出现两次时spring boot会把两个值用逗号连起来
+     */
+    private static void addMoRen(List<String> canShus, String key, String value) {
+        for (String canShu : canShus) {
+            if (canShu.startsWith("--" + key + "=")) {
+                return;
+            }
+        }
+
+        canShus.add("--" + key + "=" + value);
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.timesheet.benchmark;
+
+import com.example.timesheet.util.DaySplitter;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static java.time.temporal.ChronoUnit.DAYS;
+
+/**
+ * 按天拆分: 原来的switch 对比 DaySplitter
+ * <p>
+ * tianShu为跨越的天数, 0是不跨天的普通记录, 大的值模拟连续值班<br>
+ * 可以加-prof gc比较每次操作的分配量<br>
+ * 运行main方法即可, 不参与mvn test
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DaySplitterBenchmark {
+    @Param({"0", "1", "14", "60"})
+    public int tianShu;
+
+    private LocalDateTime kaiShi;
+
+    private LocalDateTime jieShu;
+
+    @Setup
+    public void setup() {
+        kaiShi = LocalDateTime.of(2000, 1, 1, 20, 30);
+        jieShu = kaiShi.plusDays(tianShu).withHour(6);
+        if (jieShu.isBefore(kaiShi)) {
+            jieShu = kaiShi.plusHours(2);
+        }
+    }
+
+    /**
+     * 原来MainService.createGongZuoJiLu中的拆分, 先放进列表
+     */
+    @Benchmark
+    public void legacySwitch(Blackhole blackhole) {
+        List<LocalDateTime[]> result = new ArrayList<>();
+        Long days = DAYS.between(kaiShi.toLocalDate(), jieShu.toLocalDate());
+        switch (days.intValue()) {
+            case 0:
+                result.add(new LocalDateTime[]{kaiShi, jieShu});
+                break;
+            case 1:
+                result.add(new LocalDateTime[]{kaiShi, kaiShi.toLocalDate().plusDays(1).atStartOfDay().minusSeconds(1)});
+                result.add(new LocalDateTime[]{kaiShi.toLocalDate().plusDays(1).atStartOfDay(), jieShu});
+                break;
+            default:
+                result.add(new LocalDateTime[]{kaiShi, kaiShi.toLocalDate().plusDays(1).atStartOfDay().minusSeconds(1)});
+                for (int i = 1; i <= days - 1; i++) {
+                    result.add(new LocalDateTime[]{kaiShi.toLocalDate().plusDays(i).atStartOfDay(), kaiShi.toLocalDate().plusDays(i + 1).atStartOfDay().minusSeconds(1)});
+                }
+                result.add(new LocalDateTime[]{jieShu.toLocalDate().atStartOfDay(), jieShu});
+                break;
+        }
+
+        for (LocalDateTime[] duan : result) {
+            blackhole.consume(duan[0]);
+            blackhole.consume(duan[1]);
+        }
+    }
+
+    @Benchmark
+    public void daySplitter(Blackhole blackhole) {
+        Iterator<DaySplitter.ShiJianDuan> iterator = DaySplitter.MIDNIGHT.split(kaiShi, jieShu);
+        while (iterator.hasNext()) {
+            DaySplitter.ShiJianDuan duan = iterator.next();
+            blackhole.consume(duan.getKaiShi());
+            blackhole.consume(duan.getJieShu());
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(DaySplitterBenchmark.class.getSimpleName())
+                .build();
+
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,115 @@
+package com.example.timesheet.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.Random;
+
+/**
+ * CostEngine与原来BigDecimal DECIMAL128计算的一致性
+ * <p>
+ * 原来的结果按同样的规则(XIAN_SHI_SCALE位小数, HALF_UP)舍入后应完全相同;
+ * 定点结果的小数部分在第XIAN_SHI_SCALE位之后是单一数字的循环, 不会落在舍入的分界上, 不受DECIMAL128误差影响
+ */
+public class CostEngineTests {
+    private static final int CI_SHU = 100000;
+
+    private final Random random = new Random(20190401L);
+
+    /**
+     * 原来BaoGaoService.gainXiaoFei中的计算
+     */
+    private static BigDecimal legacyFeiYong(BigDecimal xiaoShiFeiYong, long miaoShu) {
+        BigDecimal secondCost = xiaoShiFeiYong.divide(new BigDecimal("3600"), MathContext.DECIMAL128);
+
+        return secondCost.multiply(new BigDecimal("" + miaoShu));
+    }
+
+    private static BigDecimal legacyHaoShi(long miaoShu) {
+        return (new BigDecimal("" + miaoShu)).divide(new BigDecimal("" + 3600), MathContext.DECIMAL128);
+    }
+
+    private static BigDecimal round(BigDecimal value) {
+        return value.setScale(CostEngine.XIAN_SHI_SCALE, RoundingMode.HALF_UP);
+    }
+
+    /**
+     * 随机小时费用, 0到4位小数
+     */
+    private BigDecimal randomXiaoShiFeiYong() {
+        return BigDecimal.valueOf(1 + random.nextInt(1_000_000_000), random.nextInt(CostEngine.XIAO_SHI_FEI_YONG_SCALE + 1));
+    }
+
+    /**
+     * 随机秒数, 有一定概率是整小时或一天的最后一秒
+     */
+    private long randomMiaoShu() {
+        switch (random.nextInt(4)) {
+            case 0:
+                return 3600L * random.nextInt(25);
+            case 1:
+                return 24 * 3600 - 1;
+            default:
+                return random.nextInt(24 * 3600);
+        }
+    }
+
+    @Test
+    public void 单条与DECIMAL128一致() {
+        for (int i = 0; i < CI_SHU; i++) {
+            BigDecimal xiaoShiFeiYong = randomXiaoShiFeiYong();
+            long miaoShu = randomMiaoShu();
+
+            BigDecimal feiYong = CostEngine.toBigDecimal(CostEngine.feiYong(CostEngine.toXiaoShiFeiYong(xiaoShiFeiYong), miaoShu));
+            String message = xiaoShiFeiYong + " * " + miaoShu;
+
+            Assert.assertEquals(message, 0, round(legacyFeiYong(xiaoShiFeiYong, miaoShu)).compareTo(feiYong));
+            Assert.assertEquals(message, 0, round(legacyHaoShi(miaoShu)).compareTo(CostEngine.haoShi(miaoShu)));
+        }
+    }
+
+    @Test
+    public void 汇总与DECIMAL128一致() {
+        for (int i = 0; i < 100; i++) {
+            long zongE = 0;
+            BigDecimal legacyZongE = BigDecimal.ZERO;
+
+            for (int j = 0; j < 1000; j++) {
+                BigDecimal xiaoShiFeiYong = BigDecimal.valueOf(1 + random.nextInt(1_000_000), random.nextInt(CostEngine.XIAO_SHI_FEI_YONG_SCALE + 1));
+                long miaoShu = randomMiaoShu();
+
+                zongE = Math.addExact(zongE, CostEngine.feiYong(CostEngine.toXiaoShiFeiYong(xiaoShiFeiYong), miaoShu));
+                legacyZongE = legacyZongE.add(legacyFeiYong(xiaoShiFeiYong, miaoShu));
+            }
+
+            Assert.assertEquals(0, round(legacyZongE).compareTo(CostEngine.toBigDecimal(zongE)));
+        }
+    }
+
+    @Test
+    public void 边界() {
+        // 整数结果不带小数部分, 与org.json的输出一致
+        Assert.assertEquals("4", CostEngine.toBigDecimal(CostEngine.feiYong(CostEngine.toXiaoShiFeiYong(new BigDecimal("4")), 3600)).toString());
+        Assert.assertEquals("1", CostEngine.haoShi(3600).toString());
+
+        // 一秒: 4 / 3600 = 0.00111111..., 第9位舍去
+        Assert.assertEquals(new BigDecimal("0.00111111"), CostEngine.toBigDecimal(CostEngine.feiYong(CostEngine.toXiaoShiFeiYong(new BigDecimal("4")), 1)));
+
+        // 5 / 3600 * 1 = 0.0013888..., 第9位进位
+        Assert.assertEquals(new BigDecimal("0.00138889"), CostEngine.toBigDecimal(CostEngine.feiYong(CostEngine.toXiaoShiFeiYong(new BigDecimal("5")), 1)));
+
+        // 删除时用负的秒数, 舍入按绝对值对称
+        Assert.assertEquals(new BigDecimal("-0.00138889"), CostEngine.toBigDecimal(CostEngine.feiYong(CostEngine.toXiaoShiFeiYong(new BigDecimal("5")), -1)));
+
+        Assert.assertEquals(0, CostEngine.feiYong(CostEngine.toXiaoShiFeiYong(new BigDecimal("4")), 0));
+        Assert.assertEquals(0, CostEngine.toBigDecimal(0).signum());
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void 溢出() {
+        CostEngine.feiYong(Long.MAX_VALUE / 2, 3);
+    }
+}
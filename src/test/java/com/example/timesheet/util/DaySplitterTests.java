@@ -0,0 +1,206 @@
+package com.example.timesheet.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static java.time.temporal.ChronoUnit.DAYS;
+
+/**
+ * DaySplitter的性质测试
+ * <p>
+ * 用固定种子随机生成时间段, 失败时可以重现
+ */
+public class DaySplitterTests {
+    private static final int CI_SHU = 10000;
+
+    private static final LocalDateTime QI_SHI = LocalDateTime.of(2000, 1, 1, 0, 0);
+
+    private final Random random = new Random(20190401L);
+
+    /**
+     * 随机时间, 有一定概率正好落在分界或分界前一秒
+     */
+    private LocalDateTime randomShiJian(LocalDateTime jiZhun, LocalTime fenJie) {
+        LocalDateTime shiJian = jiZhun.plusSeconds(random.nextInt(60 * 24 * 3600));
+        switch (random.nextInt(4)) {
+            case 0:
+                return shiJian.toLocalDate().atTime(fenJie);
+            case 1:
+                return shiJian.toLocalDate().atTime(fenJie).minusSeconds(1);
+            default:
+                return shiJian;
+        }
+    }
+
+    private LocalTime randomFenJie() {
+        return random.nextBoolean() ? LocalTime.MIDNIGHT : LocalTime.of(random.nextInt(24), random.nextInt(4) * 15);
+    }
+
+    private List<DaySplitter.ShiJianDuan> split(DaySplitter daySplitter, LocalDateTime kaiShi, LocalDateTime jieShu) {
+        List<DaySplitter.ShiJianDuan> result = new ArrayList<>();
+        daySplitter.split(kaiShi, jieShu).forEachRemaining(result::add);
+
+        return result;
+    }
+
+    /**
+     * 原来MainService.createGongZuoJiLu中的拆分
+     */
+    private List<LocalDateTime[]> legacySplit(LocalDateTime kaiShi, LocalDateTime jieShu) {
+        List<LocalDateTime[]> result = new ArrayList<>();
+        Long days = DAYS.between(kaiShi.toLocalDate(), jieShu.toLocalDate());
+        switch (days.intValue()) {
+            case 0:
+                result.add(new LocalDateTime[]{kaiShi, jieShu});
+                break;
+            case 1:
+                result.add(new LocalDateTime[]{kaiShi, kaiShi.toLocalDate().plusDays(1).atStartOfDay().minusSeconds(1)});
+                result.add(new LocalDateTime[]{kaiShi.toLocalDate().plusDays(1).atStartOfDay(), jieShu});
+                break;
+            default:
+                result.add(new LocalDateTime[]{kaiShi, kaiShi.toLocalDate().plusDays(1).atStartOfDay().minusSeconds(1)});
+                for (int i = 1; i <= days - 1; i++) {
+                    result.add(new LocalDateTime[]{kaiShi.toLocalDate().plusDays(i).atStartOfDay(), kaiShi.toLocalDate().plusDays(i + 1).atStartOfDay().minusSeconds(1)});
+                }
+                result.add(new LocalDateTime[]{jieShu.toLocalDate().atStartOfDay(), jieShu});
+                break;
+        }
+
+        return result;
+    }
+
+    @Test
+    public void 与原来的拆分一致() {
+        for (int i = 0; i < CI_SHU; i++) {
+            LocalDateTime kaiShi = randomShiJian(QI_SHI, LocalTime.MIDNIGHT);
+            LocalDateTime jieShu = randomShiJian(kaiShi, LocalTime.MIDNIGHT);
+            if (jieShu.isBefore(kaiShi)) {
+                continue;
+            }
+
+            List<DaySplitter.ShiJianDuan> duans = split(DaySplitter.MIDNIGHT, kaiShi, jieShu);
+            List<LocalDateTime[]> legacy = legacySplit(kaiShi, jieShu);
+
+            Assert.assertEquals(kaiShi + " - " + jieShu, legacy.size(), duans.size());
+            for (int j = 0; j < duans.size(); j++) {
+                Assert.assertEquals(legacy.get(j)[0], duans.get(j).getKaiShi());
+                Assert.assertEquals(legacy.get(j)[1], duans.get(j).getJieShu());
+            }
+        }
+    }
+
+    @Test
+    public void 首尾相接且每段在同一天() {
+        for (int i = 0; i < CI_SHU; i++) {
+            LocalTime fenJie = randomFenJie();
+            DaySplitter daySplitter = new DaySplitter(fenJie);
+            LocalDateTime kaiShi = randomShiJian(QI_SHI, fenJie);
+            LocalDateTime jieShu = randomShiJian(kaiShi, fenJie);
+            if (jieShu.isBefore(kaiShi)) {
+                continue;
+            }
+
+            String message = fenJie + ": " + kaiShi + " - " + jieShu;
+            List<DaySplitter.ShiJianDuan> duans = split(daySplitter, kaiShi, jieShu);
+
+            // 段数等于跨越的天数加一
+            long days = DAYS.between(daySplitter.gainRiQi(kaiShi), daySplitter.gainRiQi(jieShu));
+            Assert.assertEquals(message, days + 1, duans.size());
+            Assert.assertEquals(message, days + 1, daySplitter.count(kaiShi, jieShu));
+
+            // 覆盖原时间段
+            Assert.assertEquals(message, kaiShi, duans.get(0).getKaiShi());
+            Assert.assertEquals(message, jieShu, duans.get(duans.size() - 1).getJieShu());
+
+            for (int j = 0; j < duans.size(); j++) {
+                DaySplitter.ShiJianDuan duan = duans.get(j);
+
+                // 每段在同一天, 且不颠倒
+                Assert.assertEquals(message, daySplitter.gainRiQi(duan.getKaiShi()), daySplitter.gainRiQi(duan.getJieShu()));
+                Assert.assertFalse(message, duan.getKaiShi().isAfter(duan.getJieShu()));
+
+                if (j > 0) {
+                    // 从分界开始, 与上一段相差一秒
+                    Assert.assertEquals(message, fenJie, duan.getKaiShi().toLocalTime());
+                    Assert.assertEquals(message, duans.get(j - 1).getJieShu().plusSeconds(1), duan.getKaiShi());
+                }
+
+                if (j < duans.size() - 1) {
+                    // 在分界前一秒结束
+                    Assert.assertEquals(message, fenJie.minusSeconds(1), duan.getJieShu().toLocalTime());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void 流与迭代器一致() {
+        for (int i = 0; i < 1000; i++) {
+            LocalTime fenJie = randomFenJie();
+            DaySplitter daySplitter = new DaySplitter(fenJie);
+            LocalDateTime kaiShi = randomShiJian(QI_SHI, fenJie);
+            LocalDateTime jieShu = randomShiJian(kaiShi, fenJie);
+
+            Assert.assertEquals(
+                    split(daySplitter, kaiShi, jieShu).stream().map(DaySplitter.ShiJianDuan::toString).collect(Collectors.toList()),
+                    daySplitter.stream(kaiShi, jieShu).map(DaySplitter.ShiJianDuan::toString).collect(Collectors.toList())
+            );
+        }
+    }
+
+    @Test
+    public void 边界() {
+        DaySplitter daySplitter = DaySplitter.MIDNIGHT;
+
+        // 开始等于结束
+        List<DaySplitter.ShiJianDuan> duans = split(daySplitter, QI_SHI, QI_SHI);
+        Assert.assertEquals(1, duans.size());
+
+        // 正好到下一天0点, 最后一段开始等于结束
+        duans = split(daySplitter, LocalDateTime.of(2000, 1, 3, 0, 0), LocalDateTime.of(2000, 1, 4, 0, 0));
+        Assert.assertEquals(2, duans.size());
+        Assert.assertEquals(LocalDateTime.of(2000, 1, 3, 23, 59, 59), duans.get(0).getJieShu());
+        Assert.assertEquals(LocalDateTime.of(2000, 1, 4, 0, 0), duans.get(1).getKaiShi());
+        Assert.assertEquals(LocalDateTime.of(2000, 1, 4, 0, 0), duans.get(1).getJieShu());
+
+        // 23:59:59结束不拆分
+        duans = split(daySplitter, LocalDateTime.of(2000, 1, 3, 0, 0), LocalDateTime.of(2000, 1, 3, 23, 59, 59));
+        Assert.assertEquals(1, duans.size());
+
+        // 跨年和闰日
+        duans = split(daySplitter, LocalDateTime.of(1999, 12, 31, 22, 0), LocalDateTime.of(2000, 3, 1, 2, 0));
+        Assert.assertEquals(DAYS.between(LocalDate.of(1999, 12, 31), LocalDate.of(2000, 3, 1)) + 1, duans.size());
+        Assert.assertTrue(duans.stream().anyMatch(item -> item.getKaiShi().equals(LocalDateTime.of(2000, 2, 29, 0, 0))));
+
+        // 结束早于开始, 原样返回一段, 由实体验证报错
+        duans = split(daySplitter, LocalDateTime.of(2000, 1, 3, 10, 0), LocalDateTime.of(2000, 1, 1, 10, 0));
+        Assert.assertEquals(1, duans.size());
+        Assert.assertEquals(LocalDateTime.of(2000, 1, 3, 10, 0), duans.get(0).getKaiShi());
+        Assert.assertEquals(LocalDateTime.of(2000, 1, 1, 10, 0), duans.get(0).getJieShu());
+
+        // 非0点分界: 06:00之前属于前一天
+        DaySplitter liuDian = new DaySplitter(LocalTime.of(6, 0));
+        Assert.assertEquals(LocalDate.of(2000, 1, 2), liuDian.gainRiQi(LocalDateTime.of(2000, 1, 3, 5, 59, 59)));
+        duans = split(liuDian, LocalDateTime.of(2000, 1, 3, 5, 0), LocalDateTime.of(2000, 1, 3, 7, 0));
+        Assert.assertEquals(2, duans.size());
+        Assert.assertEquals(LocalDateTime.of(2000, 1, 3, 5, 59, 59), duans.get(0).getJieShu());
+        Assert.assertEquals(LocalDateTime.of(2000, 1, 3, 6, 0), duans.get(1).getKaiShi());
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void 迭代结束后继续取() {
+        Iterator<DaySplitter.ShiJianDuan> iterator = DaySplitter.MIDNIGHT.split(QI_SHI, QI_SHI.plusHours(1));
+        iterator.next();
+        iterator.next();
+    }
+}
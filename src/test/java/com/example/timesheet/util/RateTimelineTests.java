@@ -0,0 +1,63 @@
+package com.example.timesheet.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * RateTimeline的查找与TreeMap.floorEntry一致
+ */
+public class RateTimelineTests {
+    private static final LocalDate QI_SHI = LocalDate.of(2000, 1, 1);
+
+    private final Random random = new Random(20190401L);
+
+    @Test
+    public void 与floorEntry一致() {
+        for (int i = 0; i < 1000; i++) {
+            NavigableMap<LocalDate, BigDecimal> xiaoShiFeiYongs = new TreeMap<>();
+            int shu = random.nextInt(10);
+            for (int j = 0; j < shu; j++) {
+                xiaoShiFeiYongs.put(QI_SHI.plusDays(random.nextInt(365)), new BigDecimal(random.nextInt(100)));
+            }
+
+            RateTimeline rateTimeline = RateTimeline.of(xiaoShiFeiYongs);
+            Assert.assertEquals(xiaoShiFeiYongs.size(), rateTimeline.size());
+
+            for (int j = 0; j < 100; j++) {
+                LocalDate riQi = QI_SHI.plusDays(random.nextInt(400) - 20);
+                Map.Entry<LocalDate, BigDecimal> entry = xiaoShiFeiYongs.floorEntry(riQi);
+
+                Assert.assertEquals(riQi.toString(), entry == null ? null : entry.getValue(), rateTimeline.gainXiaoShiFeiYong(riQi));
+            }
+        }
+    }
+
+    @Test
+    public void 边界() {
+        NavigableMap<LocalDate, BigDecimal> xiaoShiFeiYongs = new TreeMap<>();
+        xiaoShiFeiYongs.put(LocalDate.of(2000, 1, 1), new BigDecimal("2"));
+        xiaoShiFeiYongs.put(LocalDate.of(2000, 2, 1), new BigDecimal("4"));
+        RateTimeline rateTimeline = RateTimeline.of(xiaoShiFeiYongs);
+
+        // 第一个计费标准之前没有
+        Assert.assertNull(rateTimeline.gainXiaoShiFeiYong(LocalDate.of(1999, 12, 31)));
+
+        // 开始日期当天适用
+        Assert.assertEquals(new BigDecimal("2"), rateTimeline.gainXiaoShiFeiYong(LocalDate.of(2000, 1, 1)));
+        Assert.assertEquals(new BigDecimal("2"), rateTimeline.gainXiaoShiFeiYong(LocalDate.of(2000, 1, 31)));
+        Assert.assertEquals(new BigDecimal("4"), rateTimeline.gainXiaoShiFeiYong(LocalDate.of(2000, 2, 1)));
+
+        // 最后一个之后一直适用
+        Assert.assertEquals(new BigDecimal("4"), rateTimeline.gainXiaoShiFeiYong(LocalDate.of(2100, 1, 1)));
+
+        Assert.assertTrue(RateTimeline.of(new TreeMap<>()).isEmpty());
+        Assert.assertNull(RateTimeline.EMPTY.gainXiaoShiFeiYong(LocalDate.of(2000, 1, 1)));
+    }
+}
@@ -1,6 +1,7 @@
 package com.example.timesheet;
 
 import com.example.timesheet.model.*;
+import com.example.timesheet.service.MainService;
 import com.example.timesheet.util.PPJson;
 import com.example.timesheet.util.PPUtil;
 import lombok.extern.slf4j.Slf4j;
@@ -261,6 +262,38 @@ public class 用户成功 extends TimesheetApplicationTests {
         Assert.assertTrue(result);
     }
 
+    @Test
+    public void 流式导入本人工作记录() throws JSONException {
+        String csv = "xiangMuMingCheng,kaiShi,jieShu,beiZhu\n" +
+                "g1x1,2000-02-01T10:00,2000-02-01T11:00,流式导入本人工作记录1\n" +
+                "none,2000-02-02T10:00,2000-02-02T11:00,流式导入本人工作记录2\n";
+
+        HttpHeaders httpHeaders = new HttpHeaders();
+        httpHeaders.add(HttpHeaders.COOKIE, cookies.get("y1"));
+        httpHeaders.setContentType(MediaType.valueOf("text/csv;charset=UTF-8"));
+
+        ResponseEntity<String> response = restTemplate.exchange(
+                "/streamImportGongZuoJiLu",
+                HttpMethod.POST,
+                new HttpEntity<>(csv, httpHeaders),
+                String.class
+        );
+
+        String[] lines = response.getBody().split("\n");
+        Assert.assertEquals(3, lines.length);
+        Assert.assertEquals(PPOK, new JSONObject(lines[0]).get("code"));
+        Assert.assertEquals(PPItemNotExistExceptionCode, new JSONObject(lines[1]).get("code"));
+        Assert.assertEquals(1, new JSONObject(lines[2]).getInt("chengGongShu"));
+        Assert.assertEquals(1, new JSONObject(lines[2]).getInt("shiBaiShu"));
+
+        // 清空当前repository以从数据库获取最新数据
+        entityManager.clear();
+
+        // 只能导入本人的工作记录
+        GongZuoJiLu gongZuoJiLu = gongZuoJiLuRepository.findOneByBeiZhu("流式导入本人工作记录1");
+        Assert.assertEquals("y1", gongZuoJiLu.getYongHu().getYongHuMing());
+    }
+
     @Test
     public void 删除本人工作记录() {
         Optional<GongZuoJiLu> gongZuoJiLuOptional = StreamSupport.stream(gongZuoJiLuRepository.findAll().spliterator(), false)
@@ -293,10 +326,27 @@ public class 用户成功 extends TimesheetApplicationTests {
         checkCode(response, PPOK);
 
         JSONObject jsonObject = new JSONObject(response.getBody());
-        Assert.assertEquals("g1x1", new JSONObject(response.getBody()).getJSONArray("data").getJSONObject(0).get("xiangMu_mingCheng"));
-        Assert.assertEquals("y1", new JSONObject(response.getBody()).getJSONArray("data").getJSONObject(0).get("yongHu_yongHuMing"));
-        Assert.assertEquals("2000-01-01T10:01:00", new JSONObject(response.getBody()).getJSONArray("data").getJSONObject(0).get("kaiShi"));
-        Assert.assertEquals("2000-01-01T11:01:00", new JSONObject(response.getBody()).getJSONArray("data").getJSONObject(0).get("jieShu"));
-        Assert.assertEquals("testWorkNote", new JSONObject(response.getBody()).getJSONArray("data").getJSONObject(0).get("beiZhu"));
+        Assert.assertEquals("g1x1", new JSONObject(response.getBody()).getJSONObject("data").getJSONArray("gongZuoJiLus").getJSONObject(0).get("xiangMu_mingCheng"));
+        Assert.assertEquals("y1", new JSONObject(response.getBody()).getJSONObject("data").getJSONArray("gongZuoJiLus").getJSONObject(0).get("yongHu_yongHuMing"));
+        Assert.assertEquals("2000-01-01T10:01:00", new JSONObject(response.getBody()).getJSONObject("data").getJSONArray("gongZuoJiLus").getJSONObject(0).get("kaiShi"));
+        Assert.assertEquals("2000-01-01T11:01:00", new JSONObject(response.getBody()).getJSONObject("data").getJSONArray("gongZuoJiLus").getJSONObject(0).get("jieShu"));
+        Assert.assertEquals("testWorkNote", new JSONObject(response.getBody()).getJSONObject("data").getJSONArray("gongZuoJiLus").getJSONObject(0).get("beiZhu"));
+        Assert.assertTrue(new JSONObject(response.getBody()).getJSONObject("data").isNull("xiaYiYe"));
+    }
+
+    @Test
+    public void 查询自己的工作记录_不返回结束于时间段之后的记录() {
+        YongHu yongHu = yongHuRepository.findOneByYongHuMing("y1");
+        XiangMu xiangMu = xiangMuRepository.findOneByMingCheng("g1x1");
+
+        // 跨过0点的记录(如按其他分界时间拆分时写入的)
+        gongZuoJiLuRepository.save(new GongZuoJiLu(null, LocalDateTime.of(2000, 1, 5, 22, 0), LocalDateTime.of(2000, 1, 6, 2, 0), yongHu, xiangMu, "跨过0点", null, null));
+
+        MainService.GongZuoJiLuYe gongZuoJiLuYe = mainService.queryGongZuoJiLu(yongHu.getId(), LocalDateTime.of(2000, 1, 5, 0, 0), LocalDateTime.of(2000, 1, 6, 0, 0), 50, null);
+        Assert.assertTrue(gongZuoJiLuYe.getGongZuoJiLus().isEmpty());
+
+        gongZuoJiLuYe = mainService.queryGongZuoJiLu(yongHu.getId(), LocalDateTime.of(2000, 1, 5, 0, 0), LocalDateTime.of(2000, 1, 7, 0, 0), 50, null);
+        Assert.assertEquals(1, gongZuoJiLuYe.getGongZuoJiLus().size());
+        Assert.assertEquals("跨过0点", gongZuoJiLuYe.getGongZuoJiLus().get(0).getBeiZhu());
     }
 }